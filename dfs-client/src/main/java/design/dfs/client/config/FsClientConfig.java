@@ -13,4 +13,17 @@ public class FsClientConfig {
     private int port;
     private int connectRetryTime;
     private int ack = 0;
+    /**
+     * BackupNode 地址，配置之后只读请求优先发往 BackupNode
+     */
+    private String backupServer;
+    private int backupPort;
+    /**
+     * 文件副本位置的缓存时间，单位毫秒，不配置时为 60 秒，小于 0 时不缓存
+     */
+    private long locationCacheTtl;
+    /**
+     * 最多缓存多少个文件的副本位置，不配置时为 10000
+     */
+    private int locationCacheSize;
 }
@@ -0,0 +1,110 @@
+package design.dfs.client.fs;
+
+import design.dfs.model.common.DataNode;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文件副本位置的缓存
+ *
+ * <pre>
+ * 反复读取的热点文件不需要每次都请求 NameNode。缓存的副本顺序是 NameNode 返回时的排序，
+ * 过期之后重新请求，拿到最新的负载排序。
+ *
+ * 1. 按访问顺序淘汰，超过最大数量时移除最久没有读取的文件
+ * 2. 客户端自己删除、重命名文件时清除对应的缓存，目录连同下面的文件一起清除
+ * 3. 其他客户端的修改只能等缓存过期，期间从缓存的副本读取失败时，客户端清除缓存重新请求 NameNode
+ * </pre>
+ */
+public class FileLocationCache {
+    private final long ttl;
+    private final LinkedHashMap<String, Location> cache;
+
+    /**
+     * @param ttl     缓存时间，单位毫秒，小于等于 0 时不缓存
+     * @param maxSize 最多缓存的文件数量
+     */
+    public FileLocationCache(long ttl, int maxSize) {
+        this.ttl = ttl;
+        this.cache = new LinkedHashMap<String, Location>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Location> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * 获取缓存的副本位置
+     *
+     * @return 没有缓存或者已经过期时返回 null
+     */
+    public synchronized Location get(String filename) {
+        Location location = cache.get(filename);
+        if (location == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= location.expireAt) {
+            cache.remove(filename);
+            return null;
+        }
+        return location;
+    }
+
+    /**
+     * 缓存 NameNode 返回的副本位置
+     */
+    public synchronized Location put(String filename, String realFileName, List<DataNode> dataNodes) {
+        Location location = new Location(realFileName, dataNodes, System.currentTimeMillis() + ttl);
+        if (ttl > 0) {
+            cache.put(filename, location);
+        }
+        return location;
+    }
+
+    /**
+     * 清除文件或者目录下所有文件的缓存
+     */
+    public synchronized void invalidate(String path) {
+        cache.remove(path);
+        String prefix = path.endsWith("/") ? path : path + "/";
+        Iterator<String> iterator = cache.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 文件的副本位置
+     */
+    public static class Location {
+        private final String realFileName;
+        private final List<DataNode> dataNodes;
+        private final long expireAt;
+
+        Location(String realFileName, List<DataNode> dataNodes, long expireAt) {
+            this.realFileName = realFileName;
+            this.dataNodes = dataNodes;
+            this.expireAt = expireAt;
+        }
+
+        /**
+         * DataNode 上保存的文件名，也就是文件ID
+         */
+        public String getRealFileName() {
+            return realFileName;
+        }
+
+        /**
+         * 排好序的副本，按顺序尝试读取
+         */
+        public List<DataNode> getDataNodes() {
+            return dataNodes;
+        }
+    }
+}
@@ -56,6 +56,20 @@ public interface FileSystem {
     void put(String filename, File file, int numOfReplica, Map<String, String> attr) throws Exception;
 
 
+    /**
+     * 批量创建目录、上传文件、删除文件
+     *
+     * <pre>
+     * 所有操作在一次请求中发送给 NameNode，NameNode 在一次加锁内执行并写入一组 EditLog，
+     * 之后再把创建成功的文件逐个上传到 DataNode。单个操作失败不影响其他操作
+     * </pre>
+     *
+     * @param ops 操作列表
+     * @return 每个操作的结果，和 ops 一一对应
+     * @throws Exception 网络异常
+     */
+    List<FsOpResult> batch(List<FsOp> ops) throws Exception;
+
     /**
      * 下载文件
      *
@@ -66,13 +80,31 @@ public interface FileSystem {
     void get(String filename, String absolutePath) throws Exception;
 
     /**
-     * 删除文件
+     * 删除文件，文件先放入垃圾箱，过期之后才真正删除
      *
      * @param filename 文件名
      * @throws Exception 文件不存在
      */
     void remove(String filename) throws Exception;
 
+    /**
+     * 删除文件或文件夹，放入垃圾箱，删除垃圾箱中的文件时直接删除
+     *
+     * @param filename  文件名
+     * @param recursive 是否递归删除文件夹，NameNode 只把目录移动到垃圾箱并返回
+     * @throws Exception 文件不存在
+     */
+    void remove(String filename, boolean recursive) throws Exception;
+
+    /**
+     * 重命名或移动文件、文件夹，目标路径的上级目录不存在时自动创建
+     *
+     * @param src 原路径
+     * @param dst 目标路径
+     * @throws Exception 原文件不存在或者目标文件已存在
+     */
+    void rename(String src, String dst) throws Exception;
+
     /**
      * 读取文件属性
      *
@@ -82,6 +114,15 @@ public interface FileSystem {
      */
     Map<String, String> getAttr(String filename) throws Exception;
 
+    /**
+     * 判断文件或目录是否存在
+     *
+     * @param filename 文件名
+     * @return 是否存在
+     * @throws Exception 网络异常
+     */
+    boolean exists(String filename) throws Exception;
+
     /**
      * 关闭
      */
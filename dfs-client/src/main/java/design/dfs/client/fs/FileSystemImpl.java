@@ -5,6 +5,7 @@ import design.dfs.client.config.FsClientConfig;
 import design.dfs.client.exception.DfsClientException;
 import design.dfs.client.tools.OnMultiFileProgressListener;
 import design.dfs.common.Constants;
+import design.dfs.common.enums.FsOpType;
 import design.dfs.common.enums.PacketType;
 import design.dfs.common.exception.RequestTimeoutException;
 import design.dfs.common.network.NetClient;
@@ -12,35 +13,76 @@ import design.dfs.common.network.NettyPacket;
 import design.dfs.common.network.RequestWrapper;
 import design.dfs.common.network.file.FileTransportClient;
 import design.dfs.common.network.file.OnProgressListener;
+import design.dfs.common.utils.ByteUtil;
 import design.dfs.common.utils.DefaultScheduler;
 import design.dfs.common.utils.StringUtil;
+import design.dfs.model.backup.INode;
+import design.dfs.model.client.BatchOp;
+import design.dfs.model.client.BatchOpResult;
+import design.dfs.model.client.BatchOpsRequest;
+import design.dfs.model.client.BatchOpsResponse;
 import design.dfs.model.client.CreateFileRequest;
 import design.dfs.model.client.CreateFileResponse;
+import design.dfs.model.client.GetDataNodeForFileRequest;
+import design.dfs.model.client.GetDataNodeForFileResponse;
+import design.dfs.model.client.ListFilesRequest;
 import design.dfs.model.client.MkdirRequest;
+import design.dfs.model.client.ReadAttrRequest;
+import design.dfs.model.client.ReadAttrResponse;
+import design.dfs.model.client.RemoveFileRequest;
+import design.dfs.model.client.RenameFileRequest;
 import design.dfs.model.common.DataNode;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 文件系统实现
  */
 @Slf4j
 public class FileSystemImpl implements FileSystem{
+    private static final long DEFAULT_LOCATION_CACHE_TTL = 60000;
+    private static final int DEFAULT_LOCATION_CACHE_SIZE = 10000;
+    /**
+     * 连接 DataNode 的重试次数和超时时间，连不上时换下一个副本
+     */
+    private static final int DATA_NODE_CONNECT_RETRY_TIME = 3;
+    private static final int DATA_NODE_CONNECT_TIMEOUT = 3000;
+
     private FsClientConfig fsClientConfig;
     private NetClient netClient;
+    /**
+     * 连接 BackupNode 的客户端，没有配置 BackupNode 时为 null
+     */
+    private NetClient backupNetClient;
     private DefaultScheduler defaultScheduler;
+    /**
+     * 客户端写入或读到过的最大 txId，从 BackupNode 读取时要求 BackupNode 至少应用到这个版本
+     */
+    private final AtomicLong lastTxId = new AtomicLong(0);
+    private final FileLocationCache locationCache;
 
     public FileSystemImpl(FsClientConfig fsClientConfig) {
         this.fsClientConfig = fsClientConfig;
         this.defaultScheduler = new DefaultScheduler("FSClient-Scheduler-");
+        long locationCacheTtl = fsClientConfig.getLocationCacheTtl() == 0 ? DEFAULT_LOCATION_CACHE_TTL :
+                fsClientConfig.getLocationCacheTtl();
+        int locationCacheSize = fsClientConfig.getLocationCacheSize() > 0 ? fsClientConfig.getLocationCacheSize() :
+                DEFAULT_LOCATION_CACHE_SIZE;
+        this.locationCache = new FileLocationCache(locationCacheTtl, locationCacheSize);
         int connectRetryTime = fsClientConfig.getConnectRetryTime() > 0 ? fsClientConfig.getConnectRetryTime() : -1;
         this.netClient = new NetClient("FSClient-NameNode-" + fsClientConfig.getServer(),
                 defaultScheduler,
                 connectRetryTime);
+        if (fsClientConfig.getBackupServer() != null && !fsClientConfig.getBackupServer().isEmpty()) {
+            this.backupNetClient = new NetClient("FSClient-BackupNode-" + fsClientConfig.getBackupServer(),
+                    defaultScheduler);
+        }
     }
 
     /**
@@ -55,6 +97,11 @@ public class FileSystemImpl implements FileSystem{
         this.netClient.connect(fsClientConfig.getServer(), fsClientConfig.getPort());
         this.netClient.ensureConnected();
         log.info("和NameNode建立连接成功");
+        if (backupNetClient != null) {
+            this.backupNetClient.addNettyPackageListener(this::onReceiveBackupNodeMessage);
+            // BackupNode 不可用时只读请求发往 NameNode，不需要等待连接成功
+            this.backupNetClient.connect(fsClientConfig.getBackupServer(), fsClientConfig.getBackupPort());
+        }
     }
 
     /**
@@ -67,6 +114,20 @@ public class FileSystemImpl implements FileSystem{
         log.info("receive message, packetType=[{}]", packetType);
     }
 
+    /**
+     * BackupNode 确认 NameNode 是否宕机，返回当前和 NameNode 的连接状态：0表示宕机 1-表示在线
+     */
+    private void onReceiveBackupNodeMessage(RequestWrapper requestWrapper) {
+        NettyPacket request = requestWrapper.getNettyPacket();
+        if (request.getPacketType() != PacketType.GET_NAME_NODE_STATUS.getValue()) {
+            return;
+        }
+        byte[] body = new byte[4];
+        ByteUtil.setInt(body, 0, netClient.isConnected() ? 1 : 0);
+        requestWrapper.sendResponse(NettyPacket.buildPacket(body, PacketType.GET_NAME_NODE_STATUS),
+                request.getSequence());
+    }
+
     /**
      * 创建目录
      * @param path 目录对应的路径
@@ -138,9 +199,16 @@ public class FileSystemImpl implements FileSystem{
         NettyPacket nettyPacket = NettyPacket.buildPacket(request.toByteArray(), PacketType.CREATE_FILE);
         NettyPacket resp = sendSync(nettyPacket);
         CreateFileResponse response = CreateFileResponse.parseFrom(resp.getBody());
-        OnMultiFileProgressListener onMultiFileProgressListener = new OnMultiFileProgressListener(listener, response.getDataNodesList().size());
-        for (int i = 0; i < response.getDataNodesList().size(); i++) {
-            DataNode dataNodes = response.getDataNodes(i);
+        uploadFile(request, response.getRealFileName(), response.getDataNodesList(), file, listener);
+    }
+
+    /**
+     * 把文件上传到 NameNode 分配的 DataNode，上传完成之后往 NameNode 确认
+     */
+    private void uploadFile(CreateFileRequest request, String realFileName, List<DataNode> dataNodeList, File file,
+                            OnProgressListener listener) throws Exception {
+        OnMultiFileProgressListener onMultiFileProgressListener = new OnMultiFileProgressListener(listener, dataNodeList.size());
+        for (DataNode dataNodes : dataNodeList) {
             String hostname = dataNodes.getHostname();
             int port = dataNodes.getNioPort();
             NetClient netClient = new NetClient("FSClient-DataNode-" + hostname, defaultScheduler);
@@ -148,12 +216,12 @@ public class FileSystemImpl implements FileSystem{
             netClient.connect(hostname, port);
             netClient.ensureConnected();
             if (log.isDebugEnabled()) {
-                log.debug("开始上传文件到：[node={}:{}, filename={}]", hostname, port, filename);
+                log.debug("开始上传文件到：[node={}:{}, filename={}]", hostname, port, request.getFilename());
             }
-            fileTransportClient.sendFile(response.getRealFileName(), file.getAbsolutePath(), onMultiFileProgressListener, true);
+            fileTransportClient.sendFile(realFileName, file.getAbsolutePath(), onMultiFileProgressListener, true);
             fileTransportClient.shutdown();
             if (log.isDebugEnabled()) {
-                log.debug("完成上传文件到：[node={}:{}, filename={}]", hostname, port, filename);
+                log.debug("完成上传文件到：[node={}:{}, filename={}]", hostname, port, request.getFilename());
             }
         }
 
@@ -163,37 +231,256 @@ public class FileSystemImpl implements FileSystem{
         sendSync(confirmRequest);
     }
 
+    /**
+     * 批量操作
+     *
+     * <pre>
+     * 1. 所有操作通过一个 BATCH_OPS 请求发送给 NameNode，返回每个操作的结果
+     * 2. 创建成功的文件按照返回的 DataNode 逐个上传并确认，上传失败只影响这个文件的结果
+     * </pre>
+     */
+    @Override
+    public List<FsOpResult> batch(List<FsOp> ops) throws Exception {
+        BatchOpsRequest.Builder builder = BatchOpsRequest.newBuilder();
+        for (FsOp op : ops) {
+            validate(op.getPath());
+            BatchOp.Builder opBuilder = BatchOp.newBuilder()
+                    .setOpType(op.getOpType())
+                    .setPath(op.getPath())
+                    .putAllAttr(op.getAttr());
+            if (op.getOpType() == FsOpType.CREATE.getValue()) {
+                opBuilder.setFileSize(op.getFile().length());
+            }
+            builder.addOps(opBuilder.build());
+        }
+        BatchOpsRequest request = builder.build();
+        NettyPacket resp = sendSync(NettyPacket.buildPacket(request.toByteArray(), PacketType.BATCH_OPS));
+        BatchOpsResponse response = BatchOpsResponse.parseFrom(resp.getBody());
+
+        List<FsOpResult> results = new ArrayList<>(ops.size());
+        for (int i = 0; i < ops.size(); i++) {
+            FsOp op = ops.get(i);
+            BatchOp batchOp = request.getOps(i);
+            BatchOpResult result = response.getResults(i);
+            if (!result.getSuccess()) {
+                results.add(new FsOpResult(op.getPath(), false, result.getError()));
+                continue;
+            }
+            if (op.getOpType() == FsOpType.DELETE.getValue()) {
+                locationCache.invalidate(op.getPath());
+            }
+            if (op.getOpType() == FsOpType.CREATE.getValue()) {
+                CreateFileRequest createFileRequest = CreateFileRequest.newBuilder()
+                        .setFilename(batchOp.getPath())
+                        .setFileSize(batchOp.getFileSize())
+                        .putAllAttr(batchOp.getAttrMap())
+                        .build();
+                try {
+                    uploadFile(createFileRequest, result.getRealFileName(), result.getDataNodesList(), op.getFile(), null);
+                } catch (Exception e) {
+                    log.error("批量上传文件失败：[filename={}]", op.getPath(), e);
+                    results.add(new FsOpResult(op.getPath(), false, "上传文件失败：" + e.getMessage()));
+                    continue;
+                }
+            }
+            results.add(new FsOpResult(op.getPath(), true, null));
+        }
+        log.info("批量操作完成：[ops={}]", ops.size());
+        return results;
+    }
+
+    /**
+     * 下载文件
+     *
+     * <pre>
+     * 1. 优先使用缓存的副本位置，没有缓存时请求 NameNode，NameNode 按距离、耗时和负载排好序返回
+     * 2. 按顺序从副本下载，一个副本失败时换下一个
+     * 3. 缓存的副本全部失败时，可能是文件已经被删除或者副本已经迁移，清除缓存重新请求 NameNode 再试一次
+     * </pre>
+     */
     @Override
     public void get(String filename, String absolutePath) throws Exception {
+        validate(filename);
+        FileLocationCache.Location location = locationCache.get(filename);
+        if (location != null) {
+            if (download(filename, location, absolutePath)) {
+                return;
+            }
+            locationCache.invalidate(filename);
+        }
+        location = fetchLocation(filename);
+        if (!download(filename, location, absolutePath)) {
+            throw new DfsClientException("下载文件失败，所有副本都不可用：" + filename);
+        }
+    }
 
+    private FileLocationCache.Location fetchLocation(String filename) throws Exception {
+        GetDataNodeForFileRequest request = GetDataNodeForFileRequest.newBuilder()
+                .setFilename(filename)
+                .build();
+        NettyPacket resp = sendSync(NettyPacket.buildPacket(request.toByteArray(), PacketType.GET_DATA_NODE_FOR_FILE));
+        GetDataNodeForFileResponse response = GetDataNodeForFileResponse.parseFrom(resp.getBody());
+        return locationCache.put(filename, response.getRealFileName(), response.getDataNodesList());
+    }
+
+    /**
+     * 按顺序从副本下载文件
+     *
+     * @return 所有副本都失败时返回 false
+     */
+    private boolean download(String filename, FileLocationCache.Location location, String absolutePath) throws InterruptedException {
+        for (DataNode dataNode : location.getDataNodes()) {
+            String hostname = dataNode.getHostname();
+            int port = dataNode.getNioPort();
+            NetClient netClient = new NetClient("FSClient-DataNode-" + hostname, defaultScheduler, DATA_NODE_CONNECT_RETRY_TIME);
+            FileTransportClient fileTransportClient = new FileTransportClient(netClient);
+            try {
+                netClient.connect(hostname, port);
+                netClient.ensureConnected(DATA_NODE_CONNECT_TIMEOUT);
+                fileTransportClient.readFile(location.getRealFileName(), absolutePath, null);
+                if (log.isDebugEnabled()) {
+                    log.debug("完成下载文件：[node={}:{}, filename={}]", hostname, port, filename);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                // ensureConnected 连接失败时也抛出 InterruptedException，线程真正被中断时不再尝试其他副本
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                log.warn("连接DataNode失败，尝试下一个副本：[node={}:{}, filename={}]", hostname, port, filename);
+            } catch (Exception e) {
+                log.warn("从DataNode下载文件失败，尝试下一个副本：[node={}:{}, filename={}, error={}]",
+                        hostname, port, filename, e.getMessage());
+            } finally {
+                fileTransportClient.shutdown();
+            }
+        }
+        return false;
     }
 
     @Override
     public void remove(String filename) throws Exception {
+        remove(filename, false);
+    }
 
+    @Override
+    public void remove(String filename, boolean recursive) throws Exception {
+        validate(filename);
+        RemoveFileRequest request = RemoveFileRequest.newBuilder()
+                .setFilename(filename)
+                .setRecursive(recursive)
+                .build();
+        sendSync(NettyPacket.buildPacket(request.toByteArray(), PacketType.REMOVE_FILE));
+        locationCache.invalidate(filename);
+        log.info("删除文件成功：[filename={}, recursive={}]", filename, recursive);
+    }
+
+    @Override
+    public void rename(String src, String dst) throws Exception {
+        validate(src);
+        validate(dst);
+        RenameFileRequest request = RenameFileRequest.newBuilder()
+                .setSrc(src)
+                .setDst(dst)
+                .build();
+        sendSync(NettyPacket.buildPacket(request.toByteArray(), PacketType.RENAME_FILE));
+        locationCache.invalidate(src);
+        locationCache.invalidate(dst);
+        log.info("重命名文件成功：[src={}, dst={}]", src, dst);
     }
 
     @Override
     public Map<String, String> getAttr(String filename) throws Exception {
-        return null;
+        validate(filename);
+        ReadAttrRequest request = ReadAttrRequest.newBuilder()
+                .setFilename(filename)
+                .setMinTxId(lastTxId.get())
+                .build();
+        NettyPacket resp = sendRead(request.toByteArray(), PacketType.READ_ATTR);
+        ReadAttrResponse response = ReadAttrResponse.parseFrom(resp.getBody());
+        if (!response.getExists()) {
+            throw new DfsClientException("文件不存在：" + filename);
+        }
+        return response.getAttrMap();
+    }
+
+    @Override
+    public boolean exists(String filename) throws Exception {
+        validate(filename);
+        ReadAttrRequest request = ReadAttrRequest.newBuilder()
+                .setFilename(filename)
+                .setMinTxId(lastTxId.get())
+                .build();
+        NettyPacket resp = sendRead(request.toByteArray(), PacketType.CLIENT_FILE_EXISTS);
+        return ReadAttrResponse.parseFrom(resp.getBody()).getExists();
     }
 
     @Override
     public void close() {
         this.defaultScheduler.shutdown();
         this.netClient.shutdown();
+        if (backupNetClient != null) {
+            this.backupNetClient.shutdown();
+        }
     }
 
     @Override
     public List<FsFile> listFile(String path) throws Exception {
-        return null;
+        ListFilesRequest request = ListFilesRequest.newBuilder()
+                .setPath(path)
+                .setMinTxId(lastTxId.get())
+                .build();
+        NettyPacket resp = sendRead(request.toByteArray(), PacketType.CLIENT_LIST_FILES);
+        INode iNode = resp.getBody().length == 0 ? null : INode.parseFrom(resp.getBody());
+        return new FsFile().parse(iNode);
+    }
+
+    /**
+     * 发送只读请求
+     *
+     * <pre>
+     * 配置了 BackupNode 并且已经连接上时优先请求 BackupNode，
+     * BackupNode 版本落后、正在恢复或者请求失败时，改为请求 NameNode
+     * </pre>
+     */
+    private NettyPacket sendRead(byte[] body, PacketType packetType) throws Exception {
+        if (backupNetClient != null && backupNetClient.isConnected()) {
+            try {
+                NettyPacket resp = backupNetClient.sendSync(NettyPacket.buildPacket(body, packetType));
+                if (!resp.isError()) {
+                    updateTxId(resp);
+                    return resp;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("BackupNode无法处理只读请求，改为请求NameNode：[packetType={}, error={}]",
+                            packetType, resp.getError());
+                }
+            } catch (RequestTimeoutException e) {
+                log.warn("请求BackupNode超时，改为请求NameNode：[packetType={}]", packetType);
+            }
+        }
+        return sendSync(NettyPacket.buildPacket(body, packetType));
     }
 
+    private void updateTxId(NettyPacket resp) {
+        long txId = resp.getTxId();
+        lastTxId.accumulateAndGet(txId, Math::max);
+    }
+
+    /**
+     * 发送请求到 NameNode。NameNode 断开并且 BackupNode 可以连接时发往 BackupNode，
+     * BackupNode 切换为 NameNode 之后会正常处理，否则返回异常
+     */
     private NettyPacket sendSync(NettyPacket nettyPacket) throws DfsClientException,InterruptedException, RequestTimeoutException {
-        NettyPacket resp = netClient.sendSync(nettyPacket);
+        NetClient client = netClient;
+        if (!netClient.isConnected() && backupNetClient != null && backupNetClient.isConnected()) {
+            client = backupNetClient;
+        }
+        NettyPacket resp = client.sendSync(nettyPacket);
         if (resp.isError()) {
             throw new DfsClientException(resp.getError());
         }
+        updateTxId(resp);
         return resp;
     }
 
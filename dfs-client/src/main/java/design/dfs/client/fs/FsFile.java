@@ -34,7 +34,7 @@ public class FsFile {
             FsFile file = new FsFile();
             file.setPath(child.getPath());
             file.setType(child.getType());
-            long fileSize = Long.parseLong(iNode.getAttrMap().getOrDefault(Constants.ATTR_FILE_SIZE, "0"));
+            long fileSize = Long.parseLong(child.getAttrMap().getOrDefault(Constants.ATTR_FILE_SIZE, "0"));
             file.setFileSize(String.valueOf(fileSize));
             fsFiles.add(file);
         }
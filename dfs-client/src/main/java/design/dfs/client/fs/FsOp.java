@@ -0,0 +1,45 @@
+package design.dfs.client.fs;
+
+import design.dfs.common.enums.FsOpType;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 批量请求中的一个操作：创建目录、上传文件或删除文件
+ */
+@Data
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class FsOp {
+    private int opType;
+    private String path;
+    /**
+     * 上传文件时的本地文件
+     */
+    private File file;
+    private Map<String, String> attr;
+
+    public static FsOp mkdir(String path) {
+        return mkdir(path, new HashMap<>());
+    }
+
+    public static FsOp mkdir(String path, Map<String, String> attr) {
+        return new FsOp(FsOpType.MKDIR.getValue(), path, null, attr);
+    }
+
+    public static FsOp create(String filename, File file) {
+        return create(filename, file, new HashMap<>());
+    }
+
+    public static FsOp create(String filename, File file, Map<String, String> attr) {
+        return new FsOp(FsOpType.CREATE.getValue(), filename, file, attr);
+    }
+
+    public static FsOp delete(String filename) {
+        return new FsOp(FsOpType.DELETE.getValue(), filename, null, new HashMap<>());
+    }
+}
@@ -0,0 +1,20 @@
+package design.dfs.client.fs;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量请求中一个操作的执行结果
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FsOpResult {
+    private String path;
+    private boolean success;
+    /**
+     * 失败原因，成功时为 null
+     */
+    private String error;
+}
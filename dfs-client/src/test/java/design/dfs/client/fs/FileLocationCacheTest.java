@@ -0,0 +1,54 @@
+package design.dfs.client.fs;
+
+import design.dfs.model.common.DataNode;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 副本位置缓存测试
+ */
+public class FileLocationCacheTest {
+    private static final List<DataNode> DATA_NODES = Collections.singletonList(DataNode.newBuilder()
+            .setHostname("datanode01")
+            .setNioPort(5671)
+            .build());
+
+    @Test
+    public void testExpireAndEvict() throws Exception {
+        FileLocationCache cache = new FileLocationCache(100, 2);
+        cache.put("/a", "id-a", DATA_NODES);
+        cache.put("/b", "id-b", DATA_NODES);
+        assertEquals("id-a", cache.get("/a").getRealFileName());
+        // /b 最久没有访问，被淘汰
+        cache.put("/c", "id-c", DATA_NODES);
+        assertNull(cache.get("/b"));
+        assertNotNull(cache.get("/c"));
+
+        Thread.sleep(150);
+        assertNull(cache.get("/a"));
+        assertNull(cache.get("/c"));
+    }
+
+    @Test
+    public void testInvalidateDirectory() {
+        FileLocationCache cache = new FileLocationCache(60000, 100);
+        cache.put("/dir/a", "id-a", DATA_NODES);
+        cache.put("/dir/sub/b", "id-b", DATA_NODES);
+        cache.put("/dir2/c", "id-c", DATA_NODES);
+        cache.invalidate("/dir");
+        assertNull(cache.get("/dir/a"));
+        assertNull(cache.get("/dir/sub/b"));
+        assertNotNull(cache.get("/dir2/c"));
+    }
+
+    @Test
+    public void testDisabled() {
+        FileLocationCache cache = new FileLocationCache(-1, 100);
+        assertEquals("id-a", cache.put("/a", "id-a", DATA_NODES).getRealFileName());
+        assertNull(cache.get("/a"));
+    }
+}
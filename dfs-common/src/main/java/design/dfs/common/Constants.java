@@ -52,6 +52,11 @@ public class Constants {
      */
     public static final String ATTR_FILE_SIZE = "FILE_SIZE";
 
+    /**
+     * 文件属性之文件ID，文件在 DataNode 上存储的名称，创建时等于文件路径，重命名之后不变
+     */
+    public static final String ATTR_FILE_ID = "FILE_ID";
+
     /**
      * 应用请求包计数器
      */
@@ -71,5 +76,5 @@ public class Constants {
      * 保留的属性名称
      */
     public static final Set<String> KEYS_ATTR_SET = Sets.newHashSet(ATTR_FILE_DEL_TIME,
-            ATTR_REPLICA_NUM, ATTR_FILE_SIZE);
+            ATTR_REPLICA_NUM, ATTR_FILE_SIZE, ATTR_FILE_ID);
 }
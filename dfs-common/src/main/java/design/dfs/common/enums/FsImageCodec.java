@@ -0,0 +1,53 @@
+package design.dfs.common.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * FsImage 压缩方式
+ *
+ */
+@Getter
+@AllArgsConstructor
+public enum FsImageCodec {
+
+    /**
+     * 不压缩
+     */
+    NONE(0, "none"),
+    /**
+     * java.util.zip.Deflater 压缩
+     */
+    DEFLATE(1, "deflate"),
+    ;
+
+    private int value;
+    private String name;
+
+    public static FsImageCodec getEnum(int value) {
+        for (FsImageCodec codec : values()) {
+            if (codec.getValue() == value) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 根据配置名称获取压缩方式，未配置时不压缩
+     *
+     * @param name 配置名称，如 deflate
+     * @return 压缩方式
+     */
+    public static FsImageCodec getEnum(String name) {
+        if (name == null || name.isEmpty()) {
+            return NONE;
+        }
+        for (FsImageCodec codec : values()) {
+            if (codec.getName().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("不支持的FsImage压缩方式：" + name);
+    }
+}
@@ -24,6 +24,21 @@ public enum FsOpType {
      * 删除文件或者文件夹
      */
     DELETE(3),
+
+    /**
+     * 递归删除文件夹
+     */
+    DELETE_RECURSIVE(4),
+
+    /**
+     * 重命名或者移动文件、文件夹
+     */
+    RENAME(5),
+
+    /**
+     * 放入垃圾箱：创建时间段目录，移动到时间段目录下，删除变空的上级目录
+     */
+    TRASH(6),
     ;
 
 
@@ -61,6 +61,13 @@ public enum PacketType {
     CLIENT_READ_STORAGE_INFO(45, "客户端获取文件存储信息"),
     CLIENT_PRE_CALCULATE(46, "客户端导出文件/文件夹前计算文件数量的请求"),
     CLIENT_GET_ALL_FILENAME(47, "客户端获取文件/文件夹包含的所有文件全路径"),
+    SUBSCRIBE_EDIT_LOG(48, "BackupNode往NameNode订阅EditLog推送"),
+    PUSH_EDIT_LOG(49, "NameNode往BackupNode推送EditLog"),
+    ACK_EDIT_LOG(50, "BackupNode往NameNode确认已经应用的EditLog"),
+    CLIENT_FILE_EXISTS(51, "客户端判断文件是否存在"),
+    BATCH_OPS(52, "客户端批量创建目录、创建文件、删除文件"),
+    RENAME_FILE(53, "客户端重命名或移动文件、文件夹"),
+    INCREMENTAL_REPORT(54, "DataNode往NameNode批量上报新增和删除的副本"),
     ;
 
     public int value;
@@ -27,7 +27,7 @@ public abstract class AbstractChannelHandler extends ChannelInboundHandlerAdapte
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
-        Executor executor = getExecutor();
+        Executor executor = msg instanceof NettyPacket ? getExecutor(ctx, (NettyPacket) msg) : getExecutor();
         if (executor != null) {
             executor.execute(() -> channelReadInternal(ctx, msg));
         } else {
@@ -72,6 +72,17 @@ public abstract class AbstractChannelHandler extends ChannelInboundHandlerAdapte
         return null;
     }
 
+    /**
+     * 按照网络包选择执行器，需要保证同一个连接上某类请求的处理顺序时可以覆盖这个方法
+     *
+     * @param ctx         上下文
+     * @param nettyPacket 网络包
+     * @return 执行器
+     */
+    protected Executor getExecutor(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
+        return getExecutor();
+    }
+
     /**
      * 处理网络包
      *
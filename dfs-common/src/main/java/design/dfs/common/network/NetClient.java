@@ -184,14 +184,13 @@ public class NetClient {
             } else {
                 shutdown();
                 log.info("重试次数超出阈值，不再进行重试：[retryTime={}]", retryTime);
-                // TODO 客户端失败处理
-//                for (NetClientFailListener listener : new ArrayList<>(netClientFailListeners)) {
-//                    try {
-//                        listener.onConnectFail();
-//                    } catch (Exception e) {
-//                        log.error("Exception occur on invoke listener :", e);
-//                    }
-//                }
+                for (NetClientFailListener listener : new ArrayList<>(netClientFailListeners)) {
+                    try {
+                        listener.onConnectFail();
+                    } catch (Exception e) {
+                        log.error("Exception occur on invoke listener :", e);
+                    }
+                }
             }
         }
     }
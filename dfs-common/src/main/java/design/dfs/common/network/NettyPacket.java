@@ -136,6 +136,17 @@ public class NettyPacket {
         return Long.parseLong(header.getOrDefault("timeoutInMs", "0"));
     }
 
+    /**
+     * 响应对应的元数据版本，即处理请求时已经写入或应用的最大 txId
+     */
+    public void setTxId(long txId) {
+        header.put("txId", String.valueOf(txId));
+    }
+
+    public long getTxId() {
+        return Long.parseLong(header.getOrDefault("txId", "0"));
+    }
+
     /**
      * 创建网络请求通用请求
      *
@@ -169,6 +180,31 @@ public class NettyPacket {
     }
 
 
+    /**
+     * 写入完整帧的前半部分，body 之后还有 trailingLength 字节由 FileRegion 零拷贝写出
+     *
+     * <pre>
+     * 由于跳过了 LengthFieldPrepender，这里需要自己写入3字节的帧长度：
+     *
+     *   帧长度(3byte) + HeaderLength + Header + ContentLength(body.length + trailingLength) + body
+     * </pre>
+     *
+     * @param out            输出
+     * @param trailingLength 紧跟在后面的 FileRegion 的长度
+     */
+    public void writeFramePrefix(ByteBuf out, int trailingLength) {
+        NettyPacketHeader nettyPackageHeader = NettyPacketHeader.newBuilder()
+                .putAllHeaders(header)
+                .build();
+        byte[] headerBytes = nettyPackageHeader.toByteArray();
+        int contentLength = body.length + trailingLength;
+        out.writeMedium(4 + headerBytes.length + 4 + contentLength);
+        out.writeInt(headerBytes.length);
+        out.writeBytes(headerBytes);
+        out.writeInt(contentLength);
+        out.writeBytes(body);
+    }
+
     /**
      * 解包
      *
@@ -60,7 +60,7 @@ public class DefaultFileSendTask {
             sendPackage(nettyPacket, force);
             ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
             int len;
-            int readLength = 0;
+            long readLength = 0;
             while ((len = fileChannel.read(buffer)) > 0) {
                 buffer.flip();
                 byte[] data = new byte[len];
@@ -2,6 +2,8 @@ package design.dfs.common.network.file;
 
 import design.dfs.common.utils.FileUtil;
 import lombok.Data;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
@@ -11,18 +13,22 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
 import java.util.Objects;
 
 /**
  * 文件存储
+ *
+ * 写入的同时流式计算 MD5，传输完成时不需要再把整个文件读一遍做校验
  */
 @Slf4j
 @Data
 public class FileAppender {
     private File file;
     private FileAttribute fileAttribute;
-    private int readLength;
+    private long readLength;
     private FileChannel fileChannel;
+    private MessageDigest digest;
     private FileOutputStream fos;
     private FileTransportCallback fileTransportCallback;
     private long startTransportTime = -1;
@@ -36,6 +42,7 @@ public class FileAppender {
         this.fos = new FileOutputStream(file, false);
         this.fileChannel = fos.getChannel();
         this.fileChannel.position(0);
+        this.digest = DigestUtils.getMd5Digest();
         this.startTransportTime = System.currentTimeMillis();
         this.fileAttribute.setAbsolutePath(file.getAbsolutePath());
         log.info("文件传输开始：[filename={}]", this.fileAttribute.getFilename());
@@ -47,7 +54,11 @@ public class FileAppender {
      * @throws IOException
      */
     public void append(byte[] data) throws IOException {
-        this.fileChannel.write(ByteBuffer.wrap(data));
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            this.fileChannel.write(buffer);
+        }
+        this.digest.update(data);
         this.readLength += data.length;
         // 计算 已传输数据在总数据量中的占比(百分比)，方便显示进度
         float p = new BigDecimal(String.valueOf(readLength))
@@ -64,7 +75,8 @@ public class FileAppender {
      * 文件传输完成
      */
     public void completed() throws IOException, InterruptedException {
-        String md5 = FileUtil.fileMd5(file.getAbsolutePath());
+        this.fileChannel.force(true);
+        String md5 = Hex.encodeHexString(digest.digest());
         boolean success = this.fileAttribute.getMd5().equals(md5);
         if (!success) {
             throw new IllegalStateException("文件损坏.");
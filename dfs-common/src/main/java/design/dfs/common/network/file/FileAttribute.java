@@ -30,7 +30,7 @@ public class FileAttribute {
     }
 
     public long getSize() {
-        return Integer.parseInt(attr.get("size"));
+        return Long.parseLong(attr.get("size"));
     }
 
     public void setSize(long size) {
@@ -53,6 +53,17 @@ public class FileAttribute {
         attr.put("md5", md5);
     }
 
+    /**
+     * 断点续传时，接收方已经写入的字节数
+     */
+    public long getOffset() {
+        return Long.parseLong(attr.getOrDefault("offset", "0"));
+    }
+
+    public void setOffset(long offset) {
+        attr.put("offset", String.valueOf(offset));
+    }
+
     public void setAbsolutePath(String absolutePath) {
         attr.put("absolutePath", absolutePath);
     }
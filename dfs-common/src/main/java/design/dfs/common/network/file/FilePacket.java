@@ -17,6 +17,8 @@ import java.util.StringTokenizer;
  * 数据结构: 包类型(4字节) + 元数据长度(4字节) + 元数据(m字节) + body长度(4字节) + body(n字节)
  *
  * 文件传输顺醋: FilePacket(HEAD) + FilePacket(BODY) * n + FilePacket(TAIL)
+ *
+ * 断点续传顺序: FilePacket(RESUME，同步请求，返回接收方已写入的offset) + FilePacket(BODY) * n + FilePacket(TAIL)
  */
 @Slf4j
 @Data
@@ -28,6 +30,7 @@ public class FilePacket {
     public static final Integer HEAD = 1;
     public static final Integer BODY = 2;
     public static final Integer TAIL = 3;
+    public static final Integer RESUME = 4;
 
     /**
      * 包类型
@@ -49,33 +52,51 @@ public class FilePacket {
      * 转换为ByteBuf
      */
     public byte[] toBytes() {
-        String metaDataString = null;
-        int lengthOfMetaData = 0;
-        if (fileMetaData != null && !fileMetaData.isEmpty()) {
-            // fileMetaData(Map类型) 转字符串
-            metaDataString = Joiner.on("&").withKeyValueSeparator("=").join(fileMetaData);
-            lengthOfMetaData = metaDataString.getBytes().length;
+        int lengthOfBody = body == null ? 0 : body.length;
+        byte[] metaData = metaDataBytes();
+        ByteBuf buffer = Unpooled.buffer(4 + 4 + metaData.length + 4 + lengthOfBody);
+        writeHead(buffer, metaData, lengthOfBody);
+        if (lengthOfBody > 0) {
+            buffer.writeBytes(body);
         }
+        return buffer.array();
+    }
 
-        int lengthOfBody = body == null ? 0 : body.length;
-        ByteBuf buffer = Unpooled.buffer(4 + 4 + lengthOfMetaData + 4 + lengthOfBody);
+    /**
+     * 只序列化包头部分（包类型 + 元数据 + body长度），body 由调用方通过 FileRegion 零拷贝发送
+     *
+     * @param lengthOfBody body长度
+     * @return 包头
+     */
+    public byte[] toHeadBytes(int lengthOfBody) {
+        byte[] metaData = metaDataBytes();
+        ByteBuf buffer = Unpooled.buffer(4 + 4 + metaData.length + 4);
+        writeHead(buffer, metaData, lengthOfBody);
+        return buffer.array();
+    }
+
+    private void writeHead(ByteBuf buffer, byte[] metaData, int lengthOfBody) {
         buffer.writeInt(type);
-        buffer.writeInt(lengthOfMetaData);
-        if (lengthOfMetaData > 0) {
-            buffer.writeBytes(metaDataString.getBytes());
+        buffer.writeInt(metaData.length);
+        if (metaData.length > 0) {
+            buffer.writeBytes(metaData);
         }
         buffer.writeInt(lengthOfBody);
-        if (lengthOfBody > 0) {
-            buffer.writeBytes(body);
+    }
+
+    private byte[] metaDataBytes() {
+        if (fileMetaData == null || fileMetaData.isEmpty()) {
+            return new byte[0];
         }
-        return buffer.array();
+        // fileMetaData(Map类型) 转字符串
+        return Joiner.on("&").withKeyValueSeparator("=").join(fileMetaData).getBytes();
     }
 
     /**
      * 将字节数组解包成网络包
      */
     public static FilePacket parseFrom(byte[] bytes) {
-        ByteBuf byteBuf = Unpooled.copiedBuffer(bytes);
+        ByteBuf byteBuf = Unpooled.wrappedBuffer(bytes);
         FilePacketBuilder builder = FilePacket.builder();
         int type = byteBuf.readInt();
         builder.type(type);
@@ -2,6 +2,7 @@ package design.dfs.common.network.file;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -60,6 +61,37 @@ public class FileReceiveHandler {
         }
     }
 
+    /**
+     * 断点续传协商：返回接收方已经写入的字节数，发送方从该位置继续发送
+     *
+     * <pre>
+     * 1. 存在对应的 FileAppender（之前传输过程中连接断开），返回已写入的字节数
+     * 2. 不存在，则和 FilePacket.HEAD 一样创建 FileAppender，从 0 开始传输
+     * </pre>
+     *
+     * @param filePacket RESUME 包
+     * @return 续传的起始位置
+     */
+    public long handleResume(FilePacket filePacket) throws IOException {
+        FileAttribute fileAttribute = new FileAttribute(filePacket.getFileMetaData());
+        String id = fileAttribute.getId();
+        FileAppender fileAppender = fileAppenderMap.get(id);
+        if (fileAppender != null) {
+            log.info("文件断点续传：[filename={}, offset={}]", fileAttribute.getFilename(), fileAppender.getReadLength());
+            return fileAppender.getReadLength();
+        }
+        fileAppender = new FileAppender(fileAttribute, fileTransportCallback);
+        fileAppenderMap.put(id, fileAppender);
+        return 0L;
+    }
+
+    /**
+     * 正在接收的文件数量
+     */
+    public int getActiveTransfers() {
+        return fileAppenderMap.size();
+    }
+
     /**
      * 定时检查，接受文件是否超时
      * <p>
@@ -69,6 +101,7 @@ public class FileReceiveHandler {
         ArrayList<FileAppender> fileReceivers = new ArrayList<>(fileAppenderMap.values());
         for (FileAppender fileReceiver : fileReceivers) {
             if (fileReceiver.isTimeout()) {
+                fileAppenderMap.remove(fileReceiver.getFileAttribute().getId());
                 fileReceiver.release();
                 log.warn("FileReceiver is timeout: [filename={}, length={}, readLength={}]",
                         fileReceiver.getFileAttribute().getFilename(), fileReceiver.getFileAttribute().getSize(),
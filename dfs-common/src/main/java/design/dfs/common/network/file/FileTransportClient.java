@@ -3,12 +3,16 @@ package design.dfs.common.network.file;
 import design.dfs.common.enums.PacketType;
 import design.dfs.common.network.NetClient;
 import design.dfs.common.network.NettyPacket;
+import design.dfs.common.utils.FileUtil;
+import design.dfs.model.common.GetFileRequest;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  ** 文件上传、下载的客户端
@@ -24,6 +28,10 @@ public class FileTransportClient {
     private NetClient netClient;
     private Map<String, String> filePathMap = new ConcurrentHashMap<>();
     private Map<String, OnProgressListener> listeners = new ConcurrentHashMap<>();
+    /**
+     * 下载失败的文件，文件名 -> 错误信息
+     */
+    private Map<String, String> readErrors = new ConcurrentHashMap<>();
 
     public FileTransportClient(NetClient netClient) {
         this(netClient, true);
@@ -60,6 +68,9 @@ public class FileTransportClient {
                 if (request.getPacketType() == PacketType.TRANSFER_FILE.getValue()) {
                     FilePacket filePacket = FilePacket.parseFrom(requestWrapper.getNettyPacket().getBody());
                     fileReceiveHandler.handleRequest(filePacket);
+                } else if (request.getPacketType() == PacketType.GET_FILE.getValue() && request.isError()) {
+                    GetFileRequest getFileRequest = GetFileRequest.parseFrom(request.getBody());
+                    readErrors.put(getFileRequest.getFilename(), request.getError());
                 }
             });
         }
@@ -84,6 +95,75 @@ public class FileTransportClient {
         fileSender.execute(force);
     }
 
+    /**
+     * 零拷贝上传文件，支持连接断开后断点续传
+     *
+     * @param filename     文件名
+     * @param absolutePath 本地文件绝对路径
+     * @param md5          文件MD5，为空时会先读取一遍文件计算
+     * @param listener     进度监听器
+     * @throws Exception 文件不存在
+     */
+    public void sendFileZeroCopy(String filename, String absolutePath, String md5, OnProgressListener listener) throws Exception {
+        File file = new File(absolutePath);
+        if (!file.exists()) {
+            throw new FileNotFoundException("文件不存在：" + absolutePath);
+        }
+        if (md5 == null) {
+            md5 = FileUtil.fileMd5(absolutePath);
+        }
+        ZeroCopyFileSendTask fileSender = new ZeroCopyFileSendTask(file, filename, md5, netClient, listener);
+        fileSender.execute();
+    }
+
+    /**
+     * 下载文件，文件接收完成之前阻塞
+     *
+     * @param filename     对方机器上的文件名
+     * @param absolutePath 保存到本地的绝对路径
+     * @param listener     进度监听器，可以为 null
+     * @throws IOException 对方机器上文件不存在，或者下载过程中连接断开
+     */
+    public void readFile(String filename, String absolutePath, OnProgressListener listener) throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        filePathMap.put(filename, absolutePath);
+        listeners.put(filename, new OnProgressListener() {
+            @Override
+            public void onProgress(long total, long current, float progress, int currentReadBytes) {
+                if (listener != null) {
+                    listener.onProgress(total, current, progress, currentReadBytes);
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                latch.countDown();
+                if (listener != null) {
+                    listener.onCompleted();
+                }
+            }
+        });
+        try {
+            GetFileRequest request = GetFileRequest.newBuilder()
+                    .setFilename(filename)
+                    .build();
+            netClient.send(NettyPacket.buildPacket(request.toByteArray(), PacketType.GET_FILE));
+            while (!latch.await(100, TimeUnit.MILLISECONDS)) {
+                String error = readErrors.remove(filename);
+                if (error != null) {
+                    throw new IOException(error);
+                }
+                if (!netClient.isConnected()) {
+                    throw new IOException("下载文件时连接断开：" + filename);
+                }
+            }
+        } finally {
+            filePathMap.remove(filename);
+            listeners.remove(filename);
+            readErrors.remove(filename);
+        }
+    }
+
     /**
      * 优雅关闭
      */
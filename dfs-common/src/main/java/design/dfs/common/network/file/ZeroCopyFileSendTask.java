@@ -0,0 +1,152 @@
+package design.dfs.common.network.file;
+
+import design.dfs.common.enums.PacketType;
+import design.dfs.common.exception.RequestTimeoutException;
+import design.dfs.common.network.NetClient;
+import design.dfs.common.network.NettyPacket;
+import design.dfs.common.utils.StringUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LengthFieldPrepender;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 零拷贝 + 断点续传的文件传输方式，主要用于 BackupNode 往 NameNode 上传 FsImage
+ *
+ * <pre>
+ * 和 {@link DefaultFileSendTask} 的区别：
+ *
+ * 1. 文件内容不经过堆内存：每个 BODY 包只在堆外构造包头，文件内容通过 {@link DefaultFileRegion} 由 sendfile 直接发送
+ * 2. MD5 由调用方在生成文件时计算好传入，接收方在写入时流式计算，不再需要额外把整个文件读两遍
+ * 3. 传输前先发送 RESUME 同步请求，接收方返回已写入的字节数。连接断开后重连，从该位置继续发送
+ *
+ * 注意：BODY 包需要绕过 LengthFieldPrepender 和 NettyPacketEncoder，直接从 LengthFieldPrepender 所在的
+ * ChannelHandlerContext 写出，所以帧长度由 {@link NettyPacket#writeFramePrefix(ByteBuf, int)} 自己写入
+ * </pre>
+ */
+@Slf4j
+public class ZeroCopyFileSendTask {
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_RETRY_TIMES = 3;
+    private static final long RETRY_INTERVAL = 3000;
+
+    private final OnProgressListener listener;
+    private final NetClient netClient;
+    private final String filename;
+    private final File file;
+    private final FileAttribute fileAttribute;
+
+    public ZeroCopyFileSendTask(File file, String filename, String md5, NetClient netClient,
+                                OnProgressListener listener) {
+        this.file = file;
+        this.filename = filename;
+        this.netClient = netClient;
+        this.fileAttribute = new FileAttribute();
+        this.fileAttribute.setFileName(filename);
+        this.fileAttribute.setSize(file.length());
+        this.fileAttribute.setId(StringUtil.getRandomString(12));
+        this.fileAttribute.setMd5(md5);
+        this.listener = listener;
+    }
+
+    /**
+     * 执行文件传输，连接断开时等待重连后断点续传
+     */
+    public void execute() throws Exception {
+        int retryTimes = 0;
+        while (true) {
+            try {
+                netClient.ensureConnected();
+                long offset = negotiateOffset();
+                transfer(offset);
+                return;
+            } catch (IOException | IllegalStateException | RequestTimeoutException e) {
+                retryTimes++;
+                if (retryTimes > MAX_RETRY_TIMES) {
+                    throw e;
+                }
+                log.warn("文件传输中断，等待重连后断点续传：[filename={}, retryTimes={}, ex={}]",
+                        filename, retryTimes, e.getMessage());
+                Thread.sleep(RETRY_INTERVAL);
+            }
+        }
+    }
+
+    /**
+     * 发送 RESUME 请求，获取接收方已写入的字节数
+     */
+    private long negotiateOffset() throws Exception {
+        FilePacket resumePacket = FilePacket.builder()
+                .type(FilePacket.RESUME)
+                .fileMetaData(fileAttribute.getAttr())
+                .build();
+        NettyPacket request = NettyPacket.buildPacket(resumePacket.toBytes(), PacketType.TRANSFER_FILE);
+        NettyPacket response = netClient.sendSync(request);
+        if (response.isError()) {
+            throw new IOException("文件续传协商失败：" + response.getError());
+        }
+        FilePacket filePacket = FilePacket.parseFrom(response.getBody());
+        return new FileAttribute(filePacket.getFileMetaData()).getOffset();
+    }
+
+    private void transfer(long offset) throws IOException, InterruptedException {
+        if (!file.exists()) {
+            throw new IllegalArgumentException("文件不存在：" + file.getAbsolutePath());
+        }
+        SocketChannel socketChannel = netClient.socketChannel();
+        if (socketChannel == null) {
+            throw new IllegalStateException("Socket channel is disconnect.");
+        }
+        ChannelHandlerContext ctx = socketChannel.pipeline().context(LengthFieldPrepender.class);
+        long total = fileAttribute.getSize();
+        long position = offset;
+        ChannelFuture lastFuture = null;
+        while (position < total) {
+            int len = (int) Math.min(CHUNK_SIZE, total - position);
+            byte[] head = FilePacket.builder()
+                    .type(FilePacket.BODY)
+                    .fileMetaData(fileAttribute.getAttr())
+                    .build()
+                    .toHeadBytes(len);
+            NettyPacket nettyPacket = NettyPacket.buildPacket(head, PacketType.TRANSFER_FILE);
+            ByteBuf prefix = ctx.alloc().directBuffer();
+            nettyPacket.writeFramePrefix(prefix, len);
+            ctx.write(prefix);
+            lastFuture = ctx.writeAndFlush(new DefaultFileRegion(file, position, len));
+            position += len;
+            // 发送缓冲区满了，等待写出，避免大量 FileRegion 堆积在 outbound buffer
+            if (!socketChannel.isWritable()) {
+                awaitWrite(lastFuture);
+            }
+            if (listener != null) {
+                float progress = total == 0 ? 100F : position * 100F / total;
+                listener.onProgress(total, position, progress, len);
+            }
+        }
+        if (lastFuture != null) {
+            awaitWrite(lastFuture);
+        }
+        FilePacket tailPacket = FilePacket.builder()
+                .type(FilePacket.TAIL)
+                .fileMetaData(fileAttribute.getAttr())
+                .build();
+        awaitWrite(socketChannel.writeAndFlush(NettyPacket.buildPacket(tailPacket.toBytes(), PacketType.TRANSFER_FILE)));
+        log.info("零拷贝发送文件完毕：[filename={}, size={}, resumeOffset={}]", filename, total, offset);
+        if (listener != null) {
+            listener.onCompleted();
+        }
+    }
+
+    private void awaitWrite(ChannelFuture future) throws IOException, InterruptedException {
+        future.await();
+        if (!future.isSuccess()) {
+            throw new IOException("文件包发送失败", future.cause());
+        }
+    }
+}
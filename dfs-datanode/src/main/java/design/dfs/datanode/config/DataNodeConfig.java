@@ -3,11 +3,22 @@ package design.dfs.datanode.config;
 import lombok.Builder;
 import lombok.Data;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 @Data
 @Builder
 public class DataNodeConfig {
+    /**
+     * 默认增量上报的时间间隔
+     */
+    private static final long DEFAULT_INCREMENTAL_REPORT_INTERVAL = 1000;
+    /**
+     * 默认全量上报的时间间隔
+     */
+    private static final long DEFAULT_FULL_REPORT_INTERVAL = 6 * 3600 * 1000;
+
     private String baseDir;
     private String nameNodeServers;
     private String dataNodeTransportServer;
@@ -17,6 +28,8 @@ public class DataNodeConfig {
     private int dataNodeId;
     private String fileLocatorType;
     private int dataNodeWorkerThreads;
+    private long incrementalReportInterval;
+    private long fullReportInterval;
 
     public static DataNodeConfig parse(Properties properties) {
         String baseDir = (String) properties.get("base.dir");
@@ -27,6 +40,10 @@ public class DataNodeConfig {
         int dataNodeId = Integer.parseInt((String) properties.get("datanode.id"));
         String fileLocatorType = (String) properties.get("file.locator.type");
         int dataNodeWorkerThreads = Integer.parseInt((String) properties.get("datanode.worker.threads"));
+        long incrementalReportInterval = Long.parseLong(properties.getProperty("datanode.incremental.report.interval",
+                String.valueOf(DEFAULT_INCREMENTAL_REPORT_INTERVAL)));
+        long fullReportInterval = Long.parseLong(properties.getProperty("datanode.full.report.interval",
+                String.valueOf(DEFAULT_FULL_REPORT_INTERVAL)));
         return DataNodeConfig.builder()
                 .baseDir(baseDir)
                 .nameNodeServers(nameNodeServers)
@@ -36,11 +53,26 @@ public class DataNodeConfig {
                 .dataNodeId(dataNodeId)
                 .fileLocatorType(fileLocatorType)
                 .dataNodeWorkerThreads(dataNodeWorkerThreads)
+                .incrementalReportInterval(incrementalReportInterval)
+                .fullReportInterval(fullReportInterval)
                 .build();
     }
 
+    /**
+     * NameNode 地址列表，多个地址用逗号分隔，第一个为 NameNode，后面的为可以切换为 NameNode 的 BackupNode
+     */
+    public List<String> getNameNodeServerList() {
+        List<String> servers = new ArrayList<>();
+        for (String server : nameNodeServers.split(",")) {
+            if (!server.trim().isEmpty()) {
+                servers.add(server.trim());
+            }
+        }
+        return servers;
+    }
+
     public int getNameNodePort() {
-        return Integer.parseInt(nameNodeServers.split(":")[1]);
+        return Integer.parseInt(getNameNodeServerList().get(0).split(":")[1]);
     }
 
     public int getDataNodeHttpPort() {
@@ -48,7 +80,7 @@ public class DataNodeConfig {
     }
 
     public String getNameNodeAddr() {
-        return nameNodeServers.split(":")[0];
+        return getNameNodeServerList().get(0).split(":")[0];
     }
 
     public int getDataNodeTransportPort() {
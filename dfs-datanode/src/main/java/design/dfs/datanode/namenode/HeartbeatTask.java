@@ -3,27 +3,42 @@ package design.dfs.datanode.namenode;
 import design.dfs.common.enums.PacketType;
 import design.dfs.common.network.NettyPacket;
 import design.dfs.datanode.config.DataNodeConfig;
+import design.dfs.datanode.replica.PeerDataNodes;
 import design.dfs.model.datanode.HeartbeatRequest;
 import io.netty.channel.ChannelHandlerContext;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
+
 /**
  * send heartbeat to NameNode
+ *
+ * 心跳带上可用空间和正在接收的文件数量，NameNode 据此调整副本分配的权重；
+ * 以及发送文件的平均耗时和正在发送的文件数量，NameNode 据此对读取的副本排序
  */
 @Slf4j
 public class HeartbeatTask implements Runnable{
     private DataNodeConfig datanodeConfig;
     private ChannelHandlerContext ctx;
+    private File storageDir;
+    private PeerDataNodes peerDataNodes;
 
-    public HeartbeatTask(ChannelHandlerContext ctx, DataNodeConfig datanodeConfig) {
+    public HeartbeatTask(ChannelHandlerContext ctx, DataNodeConfig datanodeConfig, String storageDir,
+                         PeerDataNodes peerDataNodes) {
         this.ctx = ctx;
         this.datanodeConfig = datanodeConfig;
+        this.storageDir = new File(storageDir);
+        this.peerDataNodes = peerDataNodes;
     }
 
     @Override
     public void run() {
         HeartbeatRequest request = HeartbeatRequest.newBuilder()
                 .setHostname(datanodeConfig.getDataNodeTransportAddr())
+                .setFreeSpace(storageDir.getFreeSpace())
+                .setActiveTransfers(peerDataNodes.getActiveTransfers())
+                .setReadLatency(peerDataNodes.getReadLatencyTracker().getLatency())
+                .setActiveReads(peerDataNodes.getReadLatencyTracker().getActiveReads())
                 .build();
         NettyPacket nettyPacket = NettyPacket.buildPacket(request.toByteArray(), PacketType.HEART_BEAT);
         ctx.writeAndFlush(nettyPacket);
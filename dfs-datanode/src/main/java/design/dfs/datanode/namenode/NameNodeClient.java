@@ -1,7 +1,5 @@
 package design.dfs.datanode.namenode;
 
-import com.google.common.collect.Lists;
-import design.dfs.common.FileInfo;
 import design.dfs.common.enums.PacketType;
 import design.dfs.common.network.NetClient;
 import design.dfs.common.network.NettyPacket;
@@ -19,27 +17,36 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
  * 负责和 NameNode 通讯
  */
 @Slf4j
 public class NameNodeClient {
-    private NetClient netClient;
+    /**
+     * 配置了多个 NameNode 地址时，连接失败重试的次数，超过之后切换到下一个地址
+     */
+    private static final int FAILOVER_RETRY_TIME = 3;
+    private volatile NetClient netClient;
+    private final List<String> nameNodeServers;
+    private int serverIndex = 0;
     private final DefaultScheduler defaultScheduler;
     private final ReplicateManager replicateManager;
     private final StorageManager storageManager;
     private final DataNodeConfig datanodeConfig;
+    private final ReplicaReporter replicaReporter;
+    private final PeerDataNodes peerDataNodes;
     private ScheduledFuture<?> scheduledFuture;
 
     public NameNodeClient(StorageManager storageManager, DefaultScheduler defaultScheduler, DataNodeConfig datanodeConfig,
                           PeerDataNodes peerDataNodes) {
-        this.netClient = new NetClient("DataNode-NameNode-" + datanodeConfig.getNameNodeAddr(), defaultScheduler);
+        this.nameNodeServers = datanodeConfig.getNameNodeServerList();
         this.defaultScheduler = defaultScheduler;
         this.datanodeConfig = datanodeConfig;
         this.storageManager = storageManager;
+        this.peerDataNodes = peerDataNodes;
         this.replicateManager = new ReplicateManager(defaultScheduler, peerDataNodes, storageManager, this);
+        this.replicaReporter = new ReplicaReporter(datanodeConfig, storageManager, defaultScheduler, this);
         peerDataNodes.setNameNodeClient(this);
     }
 
@@ -47,25 +54,50 @@ public class NameNodeClient {
      * 启动 namenode 客户端, 并增加一些监听器
      */
     public void start() {
+        connect(0);
+        replicaReporter.start();
+    }
+
+    /**
+     * 连接第 index 个 NameNode 地址
+     *
+     * <pre>
+     * 只配置了一个地址时一直重试；配置了多个地址时，重试 FAILOVER_RETRY_TIME 次仍然连不上就切换到下一个地址，
+     * NameNode 宕机、BackupNode 切换为 NameNode 之后 DataNode 自动连接到新的 NameNode 并重新注册
+     * </pre>
+     */
+    private void connect(int index) {
+        this.serverIndex = index;
+        String[] server = nameNodeServers.get(index).split(":");
+        String hostname = server[0];
+        int port = Integer.parseInt(server[1]);
+        int retryTime = nameNodeServers.size() > 1 ? FAILOVER_RETRY_TIME : -1;
+        this.netClient = new NetClient("DataNode-NameNode-" + hostname, defaultScheduler, retryTime);
         this.netClient.addNettyPackageListener(this::onReceiveMessage);
         this.netClient.addConnectListener(connected -> {
             if (connected) {
                 log.info("start to register datanode");
                 register();
             } else {
+                replicaReporter.setRegistered(false);
                 if (scheduledFuture != null) {
                     scheduledFuture.cancel(true);
                     scheduledFuture = null;
                 }
             }
         });
-        // TODO 网络失败监听
         this.netClient.addNetClientFailListener(() -> {
-            log.info("DataNode检测到NameNode连接失败，标记NameNode已宕机");
-            //backupNodeManager.markNameNodeDown();
+            int next = (serverIndex + 1) % nameNodeServers.size();
+            log.info("DataNode连接NameNode失败，切换到下一个地址：[from={}, to={}]",
+                    nameNodeServers.get(serverIndex), nameNodeServers.get(next));
+            if (scheduledFuture != null) {
+                scheduledFuture.cancel(true);
+                scheduledFuture = null;
+            }
+            connect(next);
         });
 
-        this.netClient.connect(datanodeConfig.getNameNodeAddr(), datanodeConfig.getNameNodePort());
+        this.netClient.connect(hostname, port);
     }
 
 
@@ -86,6 +118,7 @@ public class NameNodeClient {
     private void handleDataNodeHeartbeatResponse(RequestWrapper requestWrapper) throws Exception {
         if (requestWrapper.getNettyPacket().isError()) {
             log.warn("heartbeat failed,restart register: [error={}]", requestWrapper.getNettyPacket().getError());
+            replicaReporter.setRegistered(false);
             register();
             return;
         }
@@ -97,13 +130,14 @@ public class NameNodeClient {
         ChannelHandlerContext ctx = requestWrapper.getCtx();
         if (scheduledFuture == null) {
             log.info("start to send heartbeat at fixed rate, interval is: [interval={}ms]", datanodeConfig.getHeartbeatInterval());
-            scheduledFuture = ctx.executor().scheduleAtFixedRate(new HeartbeatTask(ctx, datanodeConfig),
+            scheduledFuture = ctx.executor().scheduleAtFixedRate(new HeartbeatTask(ctx, datanodeConfig,
+                            storageManager.getStorageDir(), peerDataNodes),
                     0, datanodeConfig.getHeartbeatInterval(), TimeUnit.MILLISECONDS);
         }
+        replicaReporter.setRegistered(true);
         if (requestWrapper.getNettyPacket().isSuccess()) {
-            StorageInfo storageInfo = storageManager.getStorageInfo();
-            log.info("注册成功，发送请求到NameNode进行全量上报存储信息。[size={}]", storageInfo.getFiles().size());
-            reportStorageInfo(ctx, storageInfo);
+            log.info("注册成功，发送请求到NameNode进行全量上报存储信息。");
+            defaultScheduler.scheduleOnce("全量上报副本", replicaReporter::fullReport);
         } else {
             log.info("DataNode重启，不需要全量上报存储信息。");
         }
@@ -136,68 +170,30 @@ public class NameNodeClient {
         netClient.send(nettyPacket);
     }
 
-    private void reportStorageInfo(ChannelHandlerContext ctx, StorageInfo storageInfo) {
-        List<FileInfo> files = storageInfo.getFiles();
-        // 每次最多上传100个文件信息
-        if (files.isEmpty()) {
-            ReportCompleteStorageInfoRequest request = ReportCompleteStorageInfoRequest.newBuilder()
-                    .setHostname(datanodeConfig.getDataNodeTransportAddr())
-                    .setFinished(true)
-                    .build();
-            NettyPacket nettyPacket = NettyPacket.buildPacket(request.toByteArray(), PacketType.REPORT_STORAGE_INFO);
-            ctx.writeAndFlush(nettyPacket);
-        } else {
-            List<List<FileInfo>> partition = Lists.partition(files, 100);
-            for (int i = 0; i < partition.size(); i++) {
-                List<FileInfo> fileInfos = partition.get(i);
-                List<FileMetaInfo> fileMetaInfos = fileInfos.stream()
-                        .map(e ->
-                            FileMetaInfo.newBuilder()
-                                    .setFilename(e.getFileName())
-                                    .setFileSize(e.getFileSize())
-                                    .build())
-                        .collect(Collectors.toList());
-                boolean isFinish = i == partition.size() - 1;
-                ReportCompleteStorageInfoRequest.Builder builder = ReportCompleteStorageInfoRequest.newBuilder()
-                        .setHostname(datanodeConfig.getDataNodeTransportAddr())
-                        .addAllFileInfos(fileMetaInfos)
-                        .setFinished(isFinish);
-                ReportCompleteStorageInfoRequest request = builder.build();
-                NettyPacket nettyPacket = NettyPacket.buildPacket(request.toByteArray(), PacketType.REPORT_STORAGE_INFO);
-                ctx.writeAndFlush(nettyPacket);
-            }
-        }
-    }
-
     /**
-     * 上报文件副本信息
+     * 上报文件副本信息，在下一次增量上报时批量发送
      *
      * @param fileName 文件名称
      * @param fileSize 文件大小
      */
     public void informReplicaReceived(String fileName, long fileSize) throws InterruptedException {
-        InformReplicaReceivedRequest replicaReceivedRequest = InformReplicaReceivedRequest.newBuilder()
-                .setFilename(fileName)
-                .setHostname(datanodeConfig.getDataNodeTransportAddr())
-                .setFileSize(fileSize)
-                .build();
-        NettyPacket nettyPacket = NettyPacket.buildPacket(replicaReceivedRequest.toByteArray(), PacketType.REPLICA_RECEIVE);
-        netClient.send(nettyPacket);
+        replicaReporter.replicaReceived(fileName, fileSize);
     }
 
     /**
-     * 上报文件副本信息
+     * 上报删除了文件副本
      *
      * @param fileName 文件名称
      * @param fileSize 文件大小
      */
     public void informReplicaRemoved(String fileName, long fileSize) throws InterruptedException {
-        InformReplicaReceivedRequest replicaReceivedRequest = InformReplicaReceivedRequest.newBuilder()
-                .setFilename(fileName)
-                .setHostname(datanodeConfig.getDataNodeTransportAddr())
-                .setFileSize(fileSize)
-                .build();
-        NettyPacket nettyPacket = NettyPacket.buildPacket(replicaReceivedRequest.toByteArray(), PacketType.REPLICA_REMOVE);
+        replicaReporter.replicaRemoved(fileName, fileSize);
+    }
+
+    /**
+     * 通过当前连接的 NameNode 发送请求
+     */
+    void send(NettyPacket nettyPacket) throws InterruptedException {
         netClient.send(nettyPacket);
     }
 
@@ -0,0 +1,223 @@
+package design.dfs.datanode.namenode;
+
+import com.google.common.collect.Lists;
+import design.dfs.common.FileInfo;
+import design.dfs.common.enums.PacketType;
+import design.dfs.common.network.NettyPacket;
+import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.datanode.config.DataNodeConfig;
+import design.dfs.datanode.server.StorageInfo;
+import design.dfs.datanode.server.StorageManager;
+import design.dfs.model.datanode.FileMetaInfo;
+import design.dfs.model.datanode.IncrementalReportRequest;
+import design.dfs.model.datanode.ReportCompleteStorageInfoRequest;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 副本上报
+ *
+ * <pre>
+ * 1. 收到和删除的副本先记录在内存中，每隔 datanode.incremental.report.interval 合并成一个请求上报，
+ *    不再每个文件发送一次请求。同一个文件在一个周期内既收到又删除的，只上报最后的状态
+ * 2. 注册成功之后，以及每隔 datanode.full.report.interval，按文件名排好序全量上报一次，
+ *    NameNode 和副本索引做一次归并对比，找出孤儿文件和丢失的副本
+ * 3. 增量上报和全量上报互斥：全量上报前先发送积压的增量，扫描期间产生的增量在全量上报之后发送。
+ *    NameNode 对同一个连接的上报按顺序处理，扫描期间新收到的文件不会被误判为丢失
+ * </pre>
+ */
+@Slf4j
+public class ReplicaReporter {
+    /**
+     * 每个请求包含的文件数量，文件名按 100 字节估算，远小于网络包的大小限制
+     */
+    private static final int REPORT_BATCH_SIZE = 5000;
+
+    private final DataNodeConfig dataNodeConfig;
+    private final StorageManager storageManager;
+    private final DefaultScheduler defaultScheduler;
+    private final NameNodeClient nameNodeClient;
+    /**
+     * 还没有上报的副本，文件名 -> 文件大小
+     */
+    private Map<String, Long> received = new LinkedHashMap<>();
+    private Map<String, Long> removed = new LinkedHashMap<>();
+    /**
+     * 保证增量上报和全量上报不会交叉发送
+     */
+    private final Object reportLock = new Object();
+    private volatile boolean registered;
+
+    public ReplicaReporter(DataNodeConfig dataNodeConfig, StorageManager storageManager,
+                           DefaultScheduler defaultScheduler, NameNodeClient nameNodeClient) {
+        this.dataNodeConfig = dataNodeConfig;
+        this.storageManager = storageManager;
+        this.defaultScheduler = defaultScheduler;
+        this.nameNodeClient = nameNodeClient;
+    }
+
+    /**
+     * 启动定时的增量上报和全量上报
+     */
+    public void start() {
+        long incrementalInterval = dataNodeConfig.getIncrementalReportInterval();
+        defaultScheduler.schedule("增量上报副本", this::flush, incrementalInterval, incrementalInterval,
+                TimeUnit.MILLISECONDS);
+        long fullInterval = dataNodeConfig.getFullReportInterval();
+        defaultScheduler.schedule("全量上报副本", this::fullReport, fullInterval, fullInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 和 NameNode 的注册状态，没有注册时不上报，积压的增量保留到注册之后再发送
+     */
+    public void setRegistered(boolean registered) {
+        this.registered = registered;
+    }
+
+    /**
+     * 记录收到一个副本
+     */
+    public void replicaReceived(String filename, long fileSize) {
+        synchronized (this) {
+            removed.remove(filename);
+            received.put(filename, fileSize);
+        }
+    }
+
+    /**
+     * 记录删除一个副本
+     */
+    public void replicaRemoved(String filename, long fileSize) {
+        synchronized (this) {
+            // 还没有上报过的副本，NameNode 不知道它的存在，直接抵消
+            if (received.remove(filename) == null) {
+                removed.put(filename, fileSize);
+            }
+        }
+    }
+
+    /**
+     * 发送积压的增量
+     */
+    public void flush() {
+        if (!registered) {
+            return;
+        }
+        synchronized (reportLock) {
+            Map<String, Long> receivedToSend;
+            Map<String, Long> removedToSend;
+            synchronized (this) {
+                if (received.isEmpty() && removed.isEmpty()) {
+                    return;
+                }
+                receivedToSend = received;
+                removedToSend = removed;
+                received = new LinkedHashMap<>();
+                removed = new LinkedHashMap<>();
+            }
+            try {
+                for (List<Map.Entry<String, Long>> batch : Lists.partition(new ArrayList<>(receivedToSend.entrySet()), REPORT_BATCH_SIZE)) {
+                    send(batch, true);
+                }
+                for (List<Map.Entry<String, Long>> batch : Lists.partition(new ArrayList<>(removedToSend.entrySet()), REPORT_BATCH_SIZE)) {
+                    send(batch, false);
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("增量上报副本：[received={}, removed={}]", receivedToSend.size(), removedToSend.size());
+                }
+            } catch (InterruptedException e) {
+                log.warn("增量上报副本被中断，下一个周期重新上报");
+                restore(receivedToSend, removedToSend);
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("增量上报副本失败，下一个周期重新上报：", e);
+                restore(receivedToSend, removedToSend);
+            }
+        }
+    }
+
+    private void send(List<Map.Entry<String, Long>> batch, boolean isReceived) throws InterruptedException {
+        IncrementalReportRequest.Builder builder = IncrementalReportRequest.newBuilder()
+                .setHostname(dataNodeConfig.getDataNodeTransportAddr());
+        for (Map.Entry<String, Long> entry : batch) {
+            FileMetaInfo fileMetaInfo = FileMetaInfo.newBuilder()
+                    .setFilename(entry.getKey())
+                    .setFileSize(entry.getValue())
+                    .build();
+            if (isReceived) {
+                builder.addReceived(fileMetaInfo);
+            } else {
+                builder.addRemoved(fileMetaInfo);
+            }
+        }
+        nameNodeClient.send(NettyPacket.buildPacket(builder.build().toByteArray(), PacketType.INCREMENTAL_REPORT));
+    }
+
+    /**
+     * 发送失败的增量放回去，期间产生的更新的状态优先
+     */
+    private void restore(Map<String, Long> receivedToSend, Map<String, Long> removedToSend) {
+        synchronized (this) {
+            for (Map.Entry<String, Long> entry : receivedToSend.entrySet()) {
+                if (!removed.containsKey(entry.getKey())) {
+                    received.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, Long> entry : removedToSend.entrySet()) {
+                if (!received.containsKey(entry.getKey())) {
+                    removed.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * 全量上报
+     */
+    public void fullReport() {
+        if (!registered) {
+            return;
+        }
+        synchronized (reportLock) {
+            flush();
+            long reportId = System.currentTimeMillis();
+            StorageInfo storageInfo = storageManager.getStorageInfo();
+            List<FileInfo> files = new ArrayList<>(storageInfo.getFiles());
+            files.sort(Comparator.comparing(FileInfo::getFileName));
+            log.info("开始全量上报存储信息：[reportId={}, size={}]", reportId, files.size());
+            try {
+                List<List<FileInfo>> partition = Lists.partition(files, REPORT_BATCH_SIZE);
+                int batches = Math.max(partition.size(), 1);
+                for (int i = 0; i < batches; i++) {
+                    ReportCompleteStorageInfoRequest.Builder builder = ReportCompleteStorageInfoRequest.newBuilder()
+                            .setHostname(dataNodeConfig.getDataNodeTransportAddr())
+                            .setReportId(reportId)
+                            .setFinished(i == batches - 1);
+                    if (i < partition.size()) {
+                        for (FileInfo fileInfo : partition.get(i)) {
+                            builder.addFileInfos(FileMetaInfo.newBuilder()
+                                    .setFilename(fileInfo.getFileName())
+                                    .setFileSize(fileInfo.getFileSize())
+                                    .build());
+                        }
+                    }
+                    nameNodeClient.send(NettyPacket.buildPacket(builder.build().toByteArray(), PacketType.REPORT_STORAGE_INFO));
+                }
+            } catch (InterruptedException e) {
+                log.warn("全量上报存储信息被中断");
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("全量上报存储信息失败：", e);
+            }
+            // 扫描期间收到和删除的副本在全量上报之后发送
+            flush();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import design.dfs.common.utils.DefaultScheduler;
 import design.dfs.datanode.config.DataNodeConfig;
 import design.dfs.datanode.namenode.NameNodeClient;
 import design.dfs.datanode.server.DataNodeApis;
+import design.dfs.datanode.server.ReadLatencyTracker;
 import design.dfs.model.common.GetFileRequest;
 import design.dfs.model.datanode.PeerNodeAwareRequest;
 import io.netty.channel.socket.SocketChannel;
@@ -36,6 +37,21 @@ public class PeerDataNodes {
     public void setNameNodeClient(NameNodeClient nameNodeClient) {
         this.dataNodeApis.setNameNodeClient(nameNodeClient);
     }
+
+    /**
+     * 正在接收的文件数量
+     */
+    public int getActiveTransfers() {
+        return dataNodeApis.getActiveTransfers();
+    }
+
+    /**
+     * 发送文件的耗时统计
+     */
+    public ReadLatencyTracker getReadLatencyTracker() {
+        return dataNodeApis.getReadLatencyTracker();
+    }
+
     /**
      * <pre>
      * 从目标DataNode获取文件
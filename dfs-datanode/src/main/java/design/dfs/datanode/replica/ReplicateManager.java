@@ -56,21 +56,31 @@ public class ReplicateManager {
                     log.info("收到副本复制任务：[hostname={}, filename={}]", command.getHostname(), command.getFilename());
                     peerDataNodes.getFileFromPeerDataNode(command.getHostname(), command.getPort(), command.getFilename());
                 } else if (CommandType.REPLICA_REMOVE.getValue() == command.getCommand()) {
-                    String absolutePathByFileName = storageManager.getAbsolutePathByFileName(command.getFilename());
-                    File file = new File(absolutePathByFileName);
-                    long length = 0;
-                    if (file.exists()) {
-                        length = file.length();
+                    // NameNode 把同一次心跳的删除任务合并为一条命令
+                    if (!command.getFilename().isEmpty()) {
+                        removeReplica(command.getFilename());
                     }
-                    FileUtil.delete(absolutePathByFileName);
-                    if (length > 0) {
-                        nameNodeClient.informReplicaRemoved(command.getFilename(), length);
+                    for (String filename : command.getFilenamesList()) {
+                        removeReplica(filename);
                     }
-                    log.info("收到副本删除任务：[filename={}, path={}]", command.getFilename(), absolutePathByFileName);
                 }
             } catch (Exception e) {
                 log.info("ReplicateWorker处理副本任务异常:", e);
             }
         }
+
+        private void removeReplica(String filename) throws InterruptedException {
+            String absolutePathByFileName = storageManager.getAbsolutePathByFileName(filename);
+            File file = new File(absolutePathByFileName);
+            long length = 0;
+            if (file.exists()) {
+                length = file.length();
+            }
+            FileUtil.delete(absolutePathByFileName);
+            if (length > 0) {
+                nameNodeClient.informReplicaRemoved(filename, length);
+            }
+            log.info("收到副本删除任务：[filename={}, path={}]", filename, absolutePathByFileName);
+        }
     }
 }
\ No newline at end of file
@@ -1,18 +1,23 @@
 package design.dfs.datanode.server;
 
+import com.google.protobuf.InvalidProtocolBufferException;
 import design.dfs.common.enums.PacketType;
 import design.dfs.common.network.AbstractChannelHandler;
 import design.dfs.common.network.NettyPacket;
 import design.dfs.common.network.RequestWrapper;
+import design.dfs.common.network.file.DefaultFileSendTask;
 import design.dfs.common.network.file.FilePacket;
 import design.dfs.common.network.file.FileReceiveHandler;
 import design.dfs.common.utils.DefaultScheduler;
 import design.dfs.datanode.config.DataNodeConfig;
 import design.dfs.datanode.namenode.NameNodeClient;
 import design.dfs.datanode.replica.PeerDataNodes;
+import design.dfs.model.common.GetFileRequest;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.socket.SocketChannel;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -26,6 +31,7 @@ public class DataNodeApis extends AbstractChannelHandler {
     private FileReceiveHandler fileReceiveHandler;
     private DefaultFileTransportCallback transportCallback;
     private PeerDataNodes peerDataNodes;
+    private final ReadLatencyTracker readLatencyTracker = new ReadLatencyTracker();
 
     public DataNodeApis(DataNodeConfig dataNodeConfig, DefaultScheduler defaultScheduler, DefaultFileTransportCallback transportCallback) {
         this.dataNodeConfig = dataNodeConfig;
@@ -42,15 +48,37 @@ public class DataNodeApis extends AbstractChannelHandler {
         this.transportCallback.setNameNodeClient(nameNodeClient);
     }
 
+    /**
+     * 正在接收的文件数量，通过心跳上报给 NameNode 用于副本分配
+     */
+    public int getActiveTransfers() {
+        return fileReceiveHandler.getActiveTransfers();
+    }
+
+    /**
+     * 发送文件的耗时统计，通过心跳上报给 NameNode 用于读取时选择副本
+     */
+    public ReadLatencyTracker getReadLatencyTracker() {
+        return readLatencyTracker;
+    }
+
 
     @Override
     protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket nettyPacket) throws Exception {
+        if (nettyPacket.isError()) {
+            // 对方返回的错误响应，比如复制副本时源 DataNode 上文件不存在，不能当成新的请求处理，否则两边会来回发送错误
+            log.warn("收到错误响应：[packetType={}, error={}]", nettyPacket.getPacketType(), nettyPacket.getError());
+            return true;
+        }
         PacketType packetType = PacketType.getEnum(nettyPacket.getPacketType());
         RequestWrapper requestWrapper = new RequestWrapper(ctx, nettyPacket);
         switch (packetType) {
            case TRANSFER_FILE:
                 handleFileTransferRequest(requestWrapper);
                 break;
+            case GET_FILE:
+                handleGetFileRequest(requestWrapper);
+                break;
             default:
                 break;
         }
@@ -72,4 +100,44 @@ public class DataNodeApis extends AbstractChannelHandler {
         }
         fileReceiveHandler.handleRequest(filePacket);
     }
+
+    /**
+     * 客户端下载文件，或者其他 DataNode 复制副本
+     *
+     * <pre>
+     * 在线程池中读取并发送文件，不阻塞网络线程。从收到请求到发送完成的耗时计入 {@link ReadLatencyTracker}，
+     * 包括在线程池中排队的时间，只统计发送成功的请求。文件不存在时返回带错误信息的 GET_FILE 响应，请求方换一个副本读取
+     * </pre>
+     */
+    private void handleGetFileRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException {
+        GetFileRequest request = GetFileRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
+        String filename = request.getFilename();
+        long start = System.currentTimeMillis();
+        readLatencyTracker.begin();
+        defaultScheduler.scheduleOnce("发送文件", () -> {
+            long fileSize = -1;
+            try {
+                String path = transportCallback.getPath(filename);
+                File file = path == null ? null : new File(path);
+                if (file == null || !file.exists()) {
+                    log.warn("请求下载的文件不存在：[filename={}]", filename);
+                    NettyPacket response = NettyPacket.buildPacket(request.toByteArray(), PacketType.GET_FILE);
+                    response.setError("文件不存在：" + filename);
+                    requestWrapper.getCtx().writeAndFlush(response);
+                    return;
+                }
+                new DefaultFileSendTask(file, filename, (SocketChannel) requestWrapper.getCtx().channel(), null)
+                        .execute(true);
+                fileSize = file.length();
+            } catch (Exception e) {
+                log.error("发送文件失败：[filename={}]", filename, e);
+            } finally {
+                if (fileSize >= 0) {
+                    readLatencyTracker.end(System.currentTimeMillis() - start, fileSize);
+                } else {
+                    readLatencyTracker.cancel();
+                }
+            }
+        });
+    }
 }
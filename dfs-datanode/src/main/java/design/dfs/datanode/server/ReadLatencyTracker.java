@@ -0,0 +1,70 @@
+package design.dfs.datanode.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 统计发送文件的耗时和并发数，通过心跳上报给 NameNode，用于读取时选择副本
+ *
+ * <pre>
+ * 耗时按每 MB 计算，不足 1MB 的文件按 1MB 计，避免文件大小不同导致的耗时差异掩盖机器本身的快慢。
+ * 使用指数加权移动平均（EWMA），最近的请求权重更大，机器变慢或者恢复之后几次请求就能反映出来
+ * </pre>
+ */
+public class ReadLatencyTracker {
+    /**
+     * 新样本的权重
+     */
+    private static final double ALPHA = 0.2;
+    private static final double MB = 1024 * 1024;
+
+    private final AtomicInteger activeReads = new AtomicInteger();
+    private double latency;
+    private boolean initialized;
+
+    /**
+     * 开始发送一个文件
+     */
+    public void begin() {
+        activeReads.incrementAndGet();
+    }
+
+    /**
+     * 发送完成
+     *
+     * @param elapsedMs 从收到请求到发送完成的耗时
+     * @param fileSize  文件大小
+     */
+    public void end(long elapsedMs, long fileSize) {
+        activeReads.decrementAndGet();
+        double sample = elapsedMs / Math.max(1.0, fileSize / MB);
+        synchronized (this) {
+            if (initialized) {
+                latency += ALPHA * (sample - latency);
+            } else {
+                latency = sample;
+                initialized = true;
+            }
+        }
+    }
+
+    /**
+     * 发送失败或者文件不存在，不计入耗时统计
+     */
+    public void cancel() {
+        activeReads.decrementAndGet();
+    }
+
+    /**
+     * 每 MB 的平均耗时，单位毫秒，还没有读取过时为 0
+     */
+    public synchronized double getLatency() {
+        return latency;
+    }
+
+    /**
+     * 正在发送的文件数量
+     */
+    public int getActiveReads() {
+        return activeReads.get();
+    }
+}
@@ -5,6 +5,7 @@ import design.dfs.backup.fs.InMemoryFileSystem;
 import design.dfs.backup.fs.NameNodeClient;
 import design.dfs.backup.server.BackupNodeServer;
 import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.ha.NodeRoleSwitcher;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
@@ -24,6 +25,7 @@ public class BackupNode {
     private final InMemoryFileSystem fileSystem;
     private final NameNodeClient nameNodeClient;
     private final BackupNodeServer backupNodeServer;
+    private final BackupNodeConfig backupNodeConfig;
     private final AtomicBoolean started = new AtomicBoolean(false);
 
     public static void main(String[] args) {
@@ -64,10 +66,11 @@ public class BackupNode {
     }
 
     public BackupNode(BackupNodeConfig backupNodeConfig) {
+        this.backupNodeConfig = backupNodeConfig;
         this.defaultScheduler = new DefaultScheduler("BackupNode-Scheduler-");
         this.fileSystem = new InMemoryFileSystem(backupNodeConfig);
         this.nameNodeClient = new NameNodeClient(defaultScheduler, backupNodeConfig, fileSystem);
-        this.backupNodeServer = new BackupNodeServer(defaultScheduler, backupNodeConfig);
+        this.backupNodeServer = new BackupNodeServer(defaultScheduler, backupNodeConfig, fileSystem);
     }
 
     /**
@@ -76,6 +79,8 @@ public class BackupNode {
     private void start() throws IOException, InterruptedException {
         if (started.compareAndSet(false, true)) {
             this.fileSystem.recoveryNamespace();
+            NodeRoleSwitcher.getInstance().init(backupNodeConfig, defaultScheduler, fileSystem, nameNodeClient,
+                    backupNodeServer);
             this.nameNodeClient.start();
             this.backupNodeServer.start();
         }
@@ -86,6 +91,7 @@ public class BackupNode {
      */
     public void shutdown() {
         if (started.compareAndSet(true, false)) {
+            NodeRoleSwitcher.getInstance().shutdown();
             this.defaultScheduler.shutdown();
             this.nameNodeClient.shutdown();
             this.backupNodeServer.shutdown();
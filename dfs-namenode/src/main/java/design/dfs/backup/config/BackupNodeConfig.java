@@ -1,5 +1,6 @@
 package design.dfs.backup.config;
 
+import design.dfs.common.enums.FsImageCodec;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -19,6 +20,14 @@ import java.util.regex.Pattern;
 @NoArgsConstructor
 public class BackupNodeConfig {
     public static final String FS_IMAGE_NAME = "fsimage-%s";
+    /**
+     * NameNode 主动推送 EditLog
+     */
+    public static final String FETCH_EDIT_LOG_MODE_PUSH = "push";
+    /**
+     * 默认确认 NameNode 宕机之前等待的时间
+     */
+    private static final long DEFAULT_FAILOVER_TIMEOUT = 5000;
     private static final Pattern PATTERN = Pattern.compile("(\\S+):(\\S+)");
 
     private String baseDir;
@@ -27,6 +36,13 @@ public class BackupNodeConfig {
     private long checkpointInterval;
     private String nameNodeServer;
     private String backupNodeServer;
+    private String fsImageCodec;
+    private String fetchEditLogMode;
+    /**
+     * 切换为 NameNode 时使用的配置文件，不配置则不进行故障切换
+     */
+    private String failoverNameNodeConfig;
+    private long failoverTimeout;
 
     public static BackupNodeConfig parse(Properties properties) {
         String baseDir = (String) properties.get("base.dir");
@@ -35,6 +51,11 @@ public class BackupNodeConfig {
         long checkpointInterval = Long.parseLong((String) properties.get("checkpoint.interval"));
         String nameNodeServer = (String) properties.get("namenode.server");
         String backupNodeServer = (String) properties.get("backupnode.server");
+        String fsImageCodec = properties.getProperty("fsimage.codec", FsImageCodec.NONE.getName());
+        String fetchEditLogMode = properties.getProperty("fetch.editslog.mode", FETCH_EDIT_LOG_MODE_PUSH);
+        String failoverNameNodeConfig = properties.getProperty("failover.namenode.config");
+        long failoverTimeout = Long.parseLong(properties.getProperty("failover.timeout",
+                String.valueOf(DEFAULT_FAILOVER_TIMEOUT)));
         return BackupNodeConfig.builder()
                 .baseDir(baseDir)
                 .fetchEditLogInterval(fetchEditLogInterval)
@@ -42,6 +63,10 @@ public class BackupNodeConfig {
                 .checkpointInterval(checkpointInterval)
                 .nameNodeServer(nameNodeServer)
                 .backupNodeServer(backupNodeServer)
+                .fsImageCodec(fsImageCodec)
+                .fetchEditLogMode(fetchEditLogMode)
+                .failoverNameNodeConfig(failoverNameNodeConfig)
+                .failoverTimeout(failoverTimeout)
                 .build();
     }
 
@@ -49,6 +74,20 @@ public class BackupNodeConfig {
         return baseDir + File.separator + String.format(FS_IMAGE_NAME, time);
     }
 
+    /**
+     * 是否由 NameNode 主动推送 EditLog，否则定时轮询
+     */
+    public boolean isPushMode() {
+        return FETCH_EDIT_LOG_MODE_PUSH.equals(fetchEditLogMode);
+    }
+
+    /**
+     * 是否开启故障切换
+     */
+    public boolean isFailoverEnabled() {
+        return failoverNameNodeConfig != null && !failoverNameNodeConfig.isEmpty();
+    }
+
     public String getNameNodeHostname() {
         Matcher matcher = PATTERN.matcher(nameNodeServer);
         if (matcher.find()) {
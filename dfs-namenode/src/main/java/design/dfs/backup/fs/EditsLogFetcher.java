@@ -1,8 +1,8 @@
 package design.dfs.backup.fs;
 
 import design.dfs.backup.config.BackupNodeConfig;
-import design.dfs.common.enums.FsOpType;
 import design.dfs.model.backup.EditLog;
+import design.dfs.model.backup.FetchEditsLogResponse;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
@@ -35,36 +35,25 @@ public class EditsLogFetcher implements Runnable{
     @Override
     public void run() {
         try {
+            if (nameNodeClient.isShutdown()) {
+                return;
+            }
             if (fileSystem.isRecovering()) {
                 log.info("正在恢复命名空间，等待...");
                 Thread.sleep(1000);
                 return;
             }
-            List<EditLog> editLogList = nameNodeClient.fetchEditLog(fileSystem.getMaxTxId());
+            FetchEditsLogResponse response = nameNodeClient.fetchEditLog(fileSystem.getMaxTxId());
+            if (response.getCheckpointRequired()) {
+                nameNodeClient.triggerCheckpoint();
+            }
+            List<EditLog> editLogList = NameNodeClient.decodeEditLogs(response);
             if (editLogList.size() < backupnodeConfig.getFetchEditLogSize()) {
                 return;
             }
 
             log.info("fetch edit log: [max txId={}, size={}]", fileSystem.getMaxTxId(), editLogList.size());
-            for (int i=0; i< editLogList.size(); i++) {
-                EditLog editLog = editLogList.get(i);
-                if (editLog != null) {
-                    int op = editLog.getOpType();
-                    long txId = editLog.getTxId();
-                    if (fileSystem.getMaxTxId() < txId) {
-                        if (op == FsOpType.MKDIR.getValue()) {
-                            fileSystem.mkdir(editLog.getPath(), editLog.getAttr());
-                        } else if (FsOpType.CREATE.getValue() == op) {
-                            fileSystem.createFile(editLog.getPath(), editLog.getAttrMap());
-                        } else if (FsOpType.DELETE.getValue() == op) {
-                            fileSystem.deleteFile(editLog.getPath());
-                        }
-                        fileSystem.setMaxTxId(txId);
-                    }
-                } else {
-                    log.debug("EditLog is empty : {} ", editLogList);
-                }
-            }
+            fileSystem.applyEditLogs(editLogList);
         } catch (Exception e) {
             log.error("fetch edit log thread failed:", e);
         }
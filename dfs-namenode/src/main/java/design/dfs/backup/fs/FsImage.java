@@ -1,6 +1,7 @@
 package design.dfs.backup.fs;
 
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.CodedInputStream;
+import design.dfs.common.enums.FsImageCodec;
 import design.dfs.common.utils.ByteUtil;
 import design.dfs.common.utils.FileUtil;
 import design.dfs.model.backup.INode;
@@ -10,15 +11,26 @@ import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.StopWatch;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * 内存目录树快照
  *
- * 文件结构：文件长度(4byte) + 最大txid(8byte) + 文件内容
+ * 文件结构：魔数(4byte) + 文件长度(4byte) + 最大txid(8byte) + 压缩方式(1byte) + 文件内容
  *
+ * 文件内容是 INode 序列化之后的数据，按照压缩方式整体压缩。加载时边解压边解析，不需要把解压后的数据完整放到内存中
+ *
+ * 兼容旧版本的文件结构：文件长度(4byte) + 最大txid(8byte) + 文件内容。魔数的最高位为 1，不会和合法的文件长度冲突
  *
  */
 @Slf4j
@@ -26,8 +38,15 @@ import java.nio.channels.FileChannel;
 @NoArgsConstructor
 @Data
 public class FsImage {
+    private static final int MAGIC = 0xDF5F1A6E;
+    private static final int LENGTH_OF_MAGIC_FIELD = 4;
     private static final int LENGTH_OF_FILE_LENGTH_FIELD = 4;
     private static final int LENGTH_OF_MAX_TX_ID_FIELD = 8;
+    private static final int LENGTH_OF_CODEC_FIELD = 1;
+    private static final int LENGTH_OF_HEADER = LENGTH_OF_MAGIC_FIELD + LENGTH_OF_FILE_LENGTH_FIELD
+            + LENGTH_OF_MAX_TX_ID_FIELD + LENGTH_OF_CODEC_FIELD;
+    private static final int LENGTH_OF_LEGACY_HEADER = LENGTH_OF_FILE_LENGTH_FIELD + LENGTH_OF_MAX_TX_ID_FIELD;
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     /**
      * 当前最大的txId
@@ -40,12 +59,41 @@ public class FsImage {
     private INode iNode;
 
     public byte[] toByteArray() {
-        byte[] body = iNode.toByteArray();
-        int fileLength = LENGTH_OF_FILE_LENGTH_FIELD + LENGTH_OF_MAX_TX_ID_FIELD + body.length;
-        byte[] data = new byte[fileLength];
-        ByteUtil.setInt(data, 0, fileLength);
-        ByteUtil.setLong(data, LENGTH_OF_FILE_LENGTH_FIELD, maxTxId);
-        System.arraycopy(body, 0, data, LENGTH_OF_FILE_LENGTH_FIELD + LENGTH_OF_MAX_TX_ID_FIELD, body.length);
+        return toByteArray(FsImageCodec.NONE);
+    }
+
+    /**
+     * 序列化 FsImage
+     *
+     * @param codec 压缩方式
+     * @return 文件内容
+     */
+    public byte[] toByteArray(FsImageCodec codec) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+        Deflater deflater = codec == FsImageCodec.DEFLATE ? new Deflater(Deflater.BEST_SPEED) : null;
+        try {
+            // 先占位文件头，写完文件内容之后再回填文件长度
+            out.write(new byte[LENGTH_OF_HEADER]);
+            if (deflater != null) {
+                DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+                iNode.writeTo(deflaterOut);
+                deflaterOut.finish();
+            } else {
+                iNode.writeTo(out);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream 不会抛出 IOException
+            throw new IllegalStateException(e);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        byte[] data = out.toByteArray();
+        ByteUtil.setInt(data, 0, MAGIC);
+        ByteUtil.setInt(data, LENGTH_OF_MAGIC_FIELD, data.length);
+        ByteUtil.setLong(data, LENGTH_OF_MAGIC_FIELD + LENGTH_OF_FILE_LENGTH_FIELD, maxTxId);
+        data[LENGTH_OF_HEADER - LENGTH_OF_CODEC_FIELD] = (byte) codec.getValue();
         return data;
     }
 
@@ -58,45 +106,42 @@ public class FsImage {
      * @throws IOException IO异常，文件不存在
      */
     public static FsImage parse(FileChannel fileChannel, String path, int length) throws IOException {
-        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_OF_FILE_LENGTH_FIELD + LENGTH_OF_MAX_TX_ID_FIELD);
-        fileChannel.read(buffer);
-        buffer.flip();
-        if (buffer.remaining() < LENGTH_OF_FILE_LENGTH_FIELD) {
-            log.warn("FsImage文件不完整: [file={}]", path);
+        Header header = readHeader(fileChannel, path, length);
+        if (header == null) {
             return null;
         }
-        int fileLength = buffer.getInt();
-        if (fileLength != length) {
-            log.warn("FsImage文件不完整: [file={}]", path);
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        // 边解压边解析，解压后的数据不需要完整放到内存中
+        InputStream in = new BufferedInputStream(Channels.newInputStream(fileChannel), BUFFER_SIZE);
+        Inflater inflater = header.codec == FsImageCodec.DEFLATE ? new Inflater() : null;
+        if (inflater != null) {
+            in = new InflaterInputStream(in, inflater, BUFFER_SIZE);
+        }
+        INode iNode;
+        try {
+            CodedInputStream codedInputStream = CodedInputStream.newInstance(in);
+            codedInputStream.setSizeLimit(Integer.MAX_VALUE);
+            iNode = INode.parseFrom(codedInputStream);
+        } catch (IOException e) {
+            log.error("Parse FsImage failed.", e);
             return null;
-        } else {
-            StopWatch stopWatch = new StopWatch();
-            stopWatch.start();
-            long maxTxId = buffer.getLong();
-            int bodyLength = fileLength - LENGTH_OF_FILE_LENGTH_FIELD - LENGTH_OF_MAX_TX_ID_FIELD;
-            buffer = ByteBuffer.allocate(bodyLength);
-            fileChannel.read(buffer);
-            buffer.flip();
-            byte[] body = new byte[bodyLength];
-            buffer.get(body);
-            INode iNode;
-            try {
-                iNode = INode.parseFrom(body);
-            } catch (InvalidProtocolBufferException e) {
-                log.error("Parse FsImage failed.", e);
-                return null;
+        } finally {
+            if (inflater != null) {
+                inflater.end();
             }
-
-            FsImage fsImage = new FsImage(maxTxId, iNode);
-            stopWatch.stop();
-            log.info("加载FSImage: [file={}, size={}, maxTxId={}, cost={} s]",
-                    path,
-                    FileUtil.formatSize(length),
-                    fsImage.getMaxTxId(),
-                    stopWatch.getTime() / 1000L);
-            stopWatch.reset();
-            return fsImage;
         }
+
+        FsImage fsImage = new FsImage(header.maxTxId, iNode);
+        stopWatch.stop();
+        log.info("加载FSImage: [file={}, size={}, codec={}, maxTxId={}, cost={} s]",
+                path,
+                FileUtil.formatSize(length),
+                header.codec.getName(),
+                fsImage.getMaxTxId(),
+                stopWatch.getTime() / 1000L);
+        stopWatch.reset();
+        return fsImage;
     }
 
     /**
@@ -109,20 +154,51 @@ public class FsImage {
      * @throws IOException 文件不存在
      */
     public static long validate(FileChannel channel, String path, int length) throws IOException {
-        ByteBuffer buffer =  ByteBuffer.allocate(LENGTH_OF_FILE_LENGTH_FIELD + LENGTH_OF_MAX_TX_ID_FIELD);
+        Header header = readHeader(channel, path, length);
+        return header == null ? -1L : header.maxTxId;
+    }
+
+    /**
+     * 读取文件头，读取完成后 channel 的位置在文件内容的起始处
+     *
+     * @return 如果文件完整返回文件头，否则返回null
+     */
+    private static Header readHeader(FileChannel channel, String path, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_OF_HEADER);
         channel.read(buffer);
         buffer.flip();
         if (buffer.remaining() < LENGTH_OF_FILE_LENGTH_FIELD) {
             log.warn("FsImage文件不完整: [file={}]", path);
-            return -1L;
+            return null;
         }
-
-        int fileLength = buffer.getInt();
-        if (fileLength != length) {
-            log.warn("FsImage文件不完整: [file={}]", path);
-            return -1L;
+        int first = buffer.getInt();
+        Header header = new Header();
+        if (first == MAGIC) {
+            if (buffer.remaining() < LENGTH_OF_HEADER - LENGTH_OF_MAGIC_FIELD || buffer.getInt() != length) {
+                log.warn("FsImage文件不完整: [file={}]", path);
+                return null;
+            }
+            header.maxTxId = buffer.getLong();
+            header.codec = FsImageCodec.getEnum(buffer.get());
+            if (header.codec == null) {
+                log.warn("FsImage压缩方式不支持: [file={}]", path);
+                return null;
+            }
+            channel.position(LENGTH_OF_HEADER);
         } else {
-            return buffer.getLong();
+            if (first != length || buffer.remaining() < LENGTH_OF_MAX_TX_ID_FIELD) {
+                log.warn("FsImage文件不完整: [file={}]", path);
+                return null;
+            }
+            header.maxTxId = buffer.getLong();
+            header.codec = FsImageCodec.NONE;
+            channel.position(LENGTH_OF_LEGACY_HEADER);
         }
+        return header;
+    }
+
+    private static class Header {
+        private long maxTxId;
+        private FsImageCodec codec;
     }
 }
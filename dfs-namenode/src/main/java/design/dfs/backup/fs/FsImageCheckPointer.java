@@ -1,6 +1,7 @@
 package design.dfs.backup.fs;
 
 import design.dfs.backup.config.BackupNodeConfig;
+import design.dfs.common.enums.FsImageCodec;
 import design.dfs.common.network.file.FileTransportClient;
 import design.dfs.common.utils.FileUtil;
 import design.dfs.namenode.fs.FsImageClearTask;
@@ -18,6 +19,8 @@ import java.nio.ByteBuffer;
  * fsimage-1665328757554
  * fsimage-1665328767554
  *
+ * checkpoint 时机由 NameNode 的 CheckpointCoordinator 决定，在 FETCH_EDIT_LOG 的响应中通知 BackupNode
+ *
  * checkpoint流程：
  * 1. 获取内存目录树和 txid 生成 FsImage
  * 2. FsImage持久化
@@ -65,9 +68,9 @@ public class FsImageCheckPointer implements Runnable{
             lastCheckpointTxId = fsImage.getMaxTxId();
             String fsImageFile = backupNodeConfig.getFsImageFile(String.valueOf(System.currentTimeMillis()));
             // 执行checkpoint
-            doCheckpoint(fsImage, fsImageFile);
+            String md5 = doCheckpoint(fsImage, fsImageFile);
             // 上传 FsImage
-            uploadFsImage(fsImageFile);
+            uploadFsImage(fsImageFile, md5);
             // 删除历史 FsImage
             namenodeClient.getDefaultScheduler().scheduleOnce("删除历史FSImage", fsImageClearTask, 0);
         } catch (Exception e) {
@@ -76,12 +79,12 @@ public class FsImageCheckPointer implements Runnable{
     }
 
     /**
-     * 上传FsImage到NameNode
+     * 上传FsImage到NameNode，零拷贝发送，连接断开后断点续传
      */
-    private void uploadFsImage(String path) {
+    private void uploadFsImage(String path, String md5) {
         try {
             log.info("开始上传fsImage文件：[file={}]", path);
-            fileTransportClient.sendFile(path);
+            fileTransportClient.sendFileZeroCopy(path, path, md5, null);
             log.info("结束上传fsImage文件：[file={}]", path);
         } catch (Exception e) {
             log.info("上传FsImage异常：", e);
@@ -90,10 +93,13 @@ public class FsImageCheckPointer implements Runnable{
 
     /**
      * 写入fsImage文件
+     *
+     * @return FsImage 的 MD5，在内存中直接计算，上传时不需要再读一遍文件
      */
-    private void doCheckpoint(FsImage fsImage, String path) throws Exception {
-        ByteBuffer buffer = ByteBuffer.wrap(fsImage.toByteArray());
-        FileUtil.saveFile(path, true, buffer);
+    private String doCheckpoint(FsImage fsImage, String path) throws Exception {
+        byte[] data = fsImage.toByteArray(FsImageCodec.getEnum(backupNodeConfig.getFsImageCodec()));
+        FileUtil.saveFile(path, true, ByteBuffer.wrap(data));
         log.info("保存FsImage文件：[file={}]", path);
+        return FileUtil.md5(data);
     }
 }
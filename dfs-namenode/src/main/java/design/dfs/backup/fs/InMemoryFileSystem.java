@@ -1,10 +1,13 @@
 package design.dfs.backup.fs;
 
 import design.dfs.backup.config.BackupNodeConfig;
+import design.dfs.model.backup.EditLog;
 import design.dfs.namenode.fs.AbstractFileSystem;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -15,6 +18,10 @@ public class InMemoryFileSystem extends AbstractFileSystem {
     private BackupNodeConfig backupNodeConfig;
     private volatile long maxTxId = 0L;
     private AtomicBoolean recovering = new AtomicBoolean(false);
+    /**
+     * 切换为 NameNode 之后不再应用 EditLog
+     */
+    private volatile boolean sealed = false;
 
     public InMemoryFileSystem(BackupNodeConfig backupNodeConfig) {
         this.backupNodeConfig = backupNodeConfig;
@@ -44,6 +51,45 @@ public class InMemoryFileSystem extends AbstractFileSystem {
             throw e;
         }
     }
+    /**
+     * 应用从 NameNode 获取的 EditLog，已经应用过的 EditLog 会被跳过
+     *
+     * <pre>
+     * 整个批次在一次写锁内应用，批次应用完成之后再更新 maxTxId
+     * </pre>
+     *
+     * @param editLogs EditLog 列表，按 txId 升序
+     */
+    public synchronized void applyEditLogs(List<EditLog> editLogs) {
+        if (sealed) {
+            return;
+        }
+        List<EditLog> pending = new ArrayList<>(editLogs.size());
+        long lastTxId = maxTxId;
+        for (EditLog editLog : editLogs) {
+            if (editLog == null || editLog.getTxId() <= lastTxId) {
+                continue;
+            }
+            pending.add(editLog);
+            lastTxId = editLog.getTxId();
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        replayEditLogs(pending);
+        setMaxTxId(lastTxId);
+    }
+
+    /**
+     * 停止应用 EditLog，等待正在应用的批次完成
+     *
+     * @return 已经应用的最大 txId
+     */
+    public synchronized long seal() {
+        sealed = true;
+        return maxTxId;
+    }
+
     /**
      * 恢复过程是否完成
      */
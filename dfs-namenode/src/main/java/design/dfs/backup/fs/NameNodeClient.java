@@ -7,13 +7,18 @@ import design.dfs.common.exception.RequestTimeoutException;
 import design.dfs.common.network.NetClient;
 import design.dfs.common.network.NettyPacket;
 import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.ha.NodeRoleSwitcher;
 import design.dfs.model.backup.EditLog;
+import design.dfs.model.backup.EditLogAck;
 import design.dfs.model.backup.FetchEditsLogRequest;
 import design.dfs.model.backup.FetchEditsLogResponse;
+import design.dfs.namenode.editslog.EditLogWrapper;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 /**
  * 和 NameNode 通讯的客户端
@@ -25,42 +30,171 @@ public class NameNodeClient {
     private final NetClient netClient;
     private final InMemoryFileSystem fileSystem;
     private volatile boolean shutdown = false;
+    private FsImageCheckPointer fsImageCheckPointer;
+    /**
+     * 是否正在执行 checkpoint
+     */
+    private final AtomicBoolean checkpointRunning = new AtomicBoolean(false);
+    /**
+     * 是否已经启动定时轮询
+     */
+    private final AtomicBoolean pollingStarted = new AtomicBoolean(false);
+    private volatile long lastCheckpointTime = 0L;
 
     public NameNodeClient(DefaultScheduler defaultScheduler, BackupNodeConfig backupnodeConfig, InMemoryFileSystem fileSystem) {
-        this.netClient = new NetClient("BackupNode-NameNode-" + backupnodeConfig.getNameNodeHostname(), defaultScheduler, 3);
+        // 一直重试，NameNode 是否宕机由 NodeRoleSwitcher 确认
+        this.netClient = new NetClient("BackupNode-NameNode-" + backupnodeConfig.getNameNodeHostname(), defaultScheduler);
         this.defaultScheduler = defaultScheduler;
         this.fileSystem = fileSystem;
         this.backupnodeConfig = backupnodeConfig;
     }
 
     public void start() {
+        this.fsImageCheckPointer = new FsImageCheckPointer(this, fileSystem, backupnodeConfig);
         this.netClient.addConnectListener(connected -> {
             if (connected) {
                 log.info("namenode connected");
+                if (backupnodeConfig.isPushMode()) {
+                    // 连接监听器在 EventLoop 中回调，不能在这里同步等待响应
+                    defaultScheduler.scheduleOnce("subscribe edit log", this::subscribeEditLog);
+                }
+            } else if (!shutdown) {
+                NodeRoleSwitcher.getInstance().onNameNodeDisconnected();
             }
         });
+        if (backupnodeConfig.isPushMode()) {
+            this.netClient.addNettyPackageListener(requestWrapper -> {
+                if (requestWrapper.getNettyPacket().getPacketType() == PacketType.PUSH_EDIT_LOG.getValue()) {
+                    onEditLogPushed(requestWrapper.getNettyPacket());
+                }
+            });
+        }
         this.netClient.connect(backupnodeConfig.getNameNodeHostname(), backupnodeConfig.getNameNodePort());
+        if (!backupnodeConfig.isPushMode()) {
+            startPolling();
+        }
+    }
+
+    /**
+     * 定时轮询 EditLog
+     */
+    private void startPolling() {
+        if (!pollingStarted.compareAndSet(false, true)) {
+            return;
+        }
         EditsLogFetcher editsLogFetcher = new EditsLogFetcher(backupnodeConfig, this, fileSystem);
         defaultScheduler.schedule("fetch edit log", editsLogFetcher,
                 backupnodeConfig.getFetchEditLogInterval(), backupnodeConfig.getFetchEditLogInterval(), TimeUnit.MILLISECONDS);
     }
 
-    public List<EditLog> fetchEditLog(long txId) throws RequestTimeoutException, InterruptedException, InvalidProtocolBufferException {
+    /**
+     * 订阅 EditLog，每次连接上 NameNode 之后从当前的 txId 开始订阅。NameNode 不支持订阅时退化为定时轮询
+     */
+    private void subscribeEditLog() {
+        try {
+            FetchEditsLogRequest request = FetchEditsLogRequest.newBuilder()
+                    .setTxId(fileSystem.getMaxTxId())
+                    .build();
+            NettyPacket response = netClient.sendSync(NettyPacket.buildPacket(request.toByteArray(),
+                    PacketType.SUBSCRIBE_EDIT_LOG));
+            if (response.isError()) {
+                throw new IllegalStateException(response.getError());
+            }
+            log.info("订阅EditLog成功：[txId={}]", request.getTxId());
+        } catch (Exception e) {
+            log.error("订阅EditLog失败，改为定时轮询：", e);
+            startPolling();
+        }
+    }
+
+    /**
+     * 应用 NameNode 推送的 EditLog 并确认
+     *
+     * <pre>
+     * 在 EventLoop 中按顺序应用，应用之后回复 ACK_EDIT_LOG，NameNode 根据确认的 txId 控制推送的速度
+     * </pre>
+     */
+    private void onEditLogPushed(NettyPacket nettyPacket) throws InvalidProtocolBufferException, InterruptedException {
+        FetchEditsLogResponse response = FetchEditsLogResponse.parseFrom(nettyPacket.getBody());
+        List<EditLog> editLogs = decodeEditLogs(response);
+        if (!editLogs.isEmpty()) {
+            fileSystem.applyEditLogs(editLogs);
+            EditLogAck ack = EditLogAck.newBuilder()
+                    .setTxId(fileSystem.getMaxTxId())
+                    .build();
+            netClient.send(NettyPacket.buildPacket(ack.toByteArray(), PacketType.ACK_EDIT_LOG));
+        }
+        if (response.getCheckpointRequired()) {
+            triggerCheckpoint();
+        }
+    }
+
+    public FetchEditsLogResponse fetchEditLog(long txId) throws RequestTimeoutException, InterruptedException, InvalidProtocolBufferException {
         FetchEditsLogRequest request = FetchEditsLogRequest.newBuilder()
                 .setTxId(txId)
+                .setRaw(true)
                 .build();
 
         NettyPacket req = NettyPacket.buildPacket(request.toByteArray(), PacketType.FETCH_EDIT_LOG);
         NettyPacket nettyPacket = netClient.sendSync(req);
-        FetchEditsLogResponse response = FetchEditsLogResponse.parseFrom(nettyPacket.getBody());
-        return response.getEditLogsList();
+        return FetchEditsLogResponse.parseFrom(nettyPacket.getBody());
+    }
+
+    /**
+     * 解析 EditLog。NameNode 返回的是 EditLog 文件中的原始字节时，使用和 NameNode 相同的 EditLogWrapper 解析
+     *
+     * @param response 响应
+     * @return EditLog 列表
+     */
+    public static List<EditLog> decodeEditLogs(FetchEditsLogResponse response) {
+        if (response.getRawEditLogs().isEmpty()) {
+            return response.getEditLogsList();
+        }
+        return EditLogWrapper.parseFrom(response.getRawEditLogs().asReadOnlyByteBuffer())
+                .stream()
+                .map(EditLogWrapper::getEditLog)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * NameNode 要求进行 checkpoint
+     *
+     * <pre>
+     * checkpoint 的时机由 NameNode 根据未 checkpoint 的 EditLog 条数、大小和时间决定，
+     * 这里只保证同一时间只有一个 checkpoint 在执行，并且两次 checkpoint 的间隔不小于 checkpoint.interval
+     * </pre>
+     */
+    public void triggerCheckpoint() {
+        if (System.currentTimeMillis() - lastCheckpointTime < backupnodeConfig.getCheckpointInterval()) {
+            return;
+        }
+        if (!checkpointRunning.compareAndSet(false, true)) {
+            return;
+        }
+        lastCheckpointTime = System.currentTimeMillis();
+        defaultScheduler.scheduleOnce("checkpoint", () -> {
+            try {
+                fsImageCheckPointer.run();
+            } finally {
+                checkpointRunning.set(false);
+            }
+        });
+    }
+
+    public NetClient getNetClient() {
+        return netClient;
     }
 
     public DefaultScheduler getDefaultScheduler() {
         return defaultScheduler;
     }
 
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
     public void shutdown() {
+        this.shutdown = true;
         this.netClient.shutdown();
     }
 }
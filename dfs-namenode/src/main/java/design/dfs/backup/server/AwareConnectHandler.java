@@ -1,7 +1,9 @@
 package design.dfs.backup.server;
 
+import design.dfs.common.enums.PacketType;
 import design.dfs.common.network.AbstractChannelHandler;
 import design.dfs.common.network.NettyPacket;
+import design.dfs.common.network.RequestWrapper;
 import design.dfs.common.utils.ByteUtil;
 import design.dfs.common.utils.NetUtil;
 import design.dfs.ha.NodeRoleSwitcher;
@@ -37,9 +39,24 @@ public class AwareConnectHandler extends AbstractChannelHandler {
 
     @Override
     protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
-        // 0表示宕机 1-表示在线
-        int status = ByteUtil.getInt(nettyPacket.getBody(), 0);
-        NodeRoleSwitcher.getInstance().markNameNodeStatus(status);
+        if (nettyPacket.getPacketType() == PacketType.GET_NAME_NODE_STATUS.getValue()) {
+            // 0表示宕机 1-表示在线
+            int status = ByteUtil.getInt(nettyPacket.getBody(), 0);
+            NodeRoleSwitcher.getInstance().markNameNodeStatus(status);
+            return true;
+        }
+        if (NodeRoleSwitcher.getInstance().isActive()) {
+            // 已经切换为 NameNode，交给后面的 NameNodeApis 处理
+            return false;
+        }
+        NettyPacket response = NettyPacket.buildPacket(new byte[0], PacketType.getEnum(nettyPacket.getPacketType()));
+        response.setError("BackupNode不支持该请求：" + PacketType.getEnum(nettyPacket.getPacketType()));
+        new RequestWrapper(ctx, nettyPacket).sendResponse(response, nettyPacket.getSequence());
+        if (nettyPacket.getPacketType() == PacketType.DATA_NODE_REGISTER.getValue()
+                || nettyPacket.getPacketType() == PacketType.HEART_BEAT.getValue()) {
+            // DataNode 连到了还没有切换的 BackupNode，断开连接让 DataNode 重试之后切换回 NameNode
+            ctx.close();
+        }
         return true;
     }
 
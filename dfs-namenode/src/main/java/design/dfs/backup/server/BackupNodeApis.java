@@ -0,0 +1,99 @@
+package design.dfs.backup.server;
+
+import design.dfs.backup.fs.InMemoryFileSystem;
+import design.dfs.common.enums.PacketType;
+import design.dfs.common.exception.NameNodeException;
+import design.dfs.common.network.AbstractChannelHandler;
+import design.dfs.common.network.NettyPacket;
+import design.dfs.common.network.RequestWrapper;
+import design.dfs.common.utils.NamedThreadFactory;
+import design.dfs.namenode.server.MetadataReadHandler;
+import io.netty.channel.ChannelHandlerContext;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BackupNode 对外提供只读的元数据查询，分担 NameNode 的读压力
+ *
+ * <pre>
+ * BackupNode 持有完整的内存目录树副本，可以直接处理 READ_ATTR、CLIENT_LIST_FILES、CLIENT_FILE_EXISTS 请求。
+ * 数据相对 NameNode 存在延迟，客户端在请求中带上 minTxId，版本落后或者正在恢复命名空间时返回异常，由客户端改为请求 NameNode
+ * </pre>
+ */
+@Slf4j
+public class BackupNodeApis extends AbstractChannelHandler {
+    private static final int QUEUE_SIZE = 10000;
+    private final InMemoryFileSystem fileSystem;
+    private final MetadataReadHandler metadataReadHandler;
+    private final ThreadPoolExecutor executor;
+    /**
+     * 切换为 NameNode 之后由 NameNodeApis 处理所有请求
+     */
+    private volatile boolean enabled = true;
+
+    public BackupNodeApis(InMemoryFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+        this.metadataReadHandler = new MetadataReadHandler(fileSystem, fileSystem::getMaxTxId, true);
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_SIZE), new NamedThreadFactory("BackupNode-Api-"));
+    }
+
+    @Override
+    protected Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    protected Set<Integer> interestPackageTypes() {
+        Set<Integer> types = new HashSet<>();
+        types.add(PacketType.READ_ATTR.getValue());
+        types.add(PacketType.CLIENT_LIST_FILES.getValue());
+        types.add(PacketType.CLIENT_FILE_EXISTS.getValue());
+        return types;
+    }
+
+    @Override
+    protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket request) throws Exception {
+        if (!enabled) {
+            return false;
+        }
+        RequestWrapper requestWrapper = new RequestWrapper(ctx, request);
+        try {
+            if (fileSystem.isRecovering()) {
+                throw new NameNodeException("BackupNode正在恢复命名空间");
+            }
+            return metadataReadHandler.handle(requestWrapper);
+        } catch (NameNodeException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("BackupNode无法处理只读请求：[msg={}]", e.getMessage());
+            }
+            sendErrorResponse(requestWrapper, e.getMessage());
+        } catch (Exception e) {
+            log.error("BackupNode处理只读请求发生异常：", e);
+            sendErrorResponse(requestWrapper, "BackupNode未知异常");
+        }
+        return true;
+    }
+
+    private void sendErrorResponse(RequestWrapper requestWrapper, String msg) {
+        NettyPacket nettyResponse = NettyPacket.buildPacket(new byte[0],
+                PacketType.getEnum(requestWrapper.getNettyPacket().getPacketType()));
+        nettyResponse.setError(msg);
+        requestWrapper.sendResponse(nettyResponse, requestWrapper.getRequestSequence());
+    }
+
+    public void disable() {
+        this.enabled = false;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,10 +1,13 @@
 package design.dfs.backup.server;
 
 import design.dfs.backup.config.BackupNodeConfig;
+import design.dfs.backup.fs.InMemoryFileSystem;
+import design.dfs.common.network.AbstractChannelHandler;
 import design.dfs.common.network.NetServer;
 import design.dfs.common.utils.DefaultScheduler;
 
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * BackupNode 服务端
@@ -12,10 +15,13 @@ import java.util.Collections;
 public class BackupNodeServer {
     private BackupNodeConfig backupNodeConfig;
     private NetServer netServer;
+    private BackupNodeApis backupNodeApis;
 
-    public BackupNodeServer(DefaultScheduler defaultScheduler, BackupNodeConfig backupNodeConfig) {
+    public BackupNodeServer(DefaultScheduler defaultScheduler, BackupNodeConfig backupNodeConfig,
+                            InMemoryFileSystem fileSystem) {
         this.netServer = new NetServer("BackupNode-Server", defaultScheduler);
         this.backupNodeConfig = backupNodeConfig;
+        this.backupNodeApis = new BackupNodeApis(fileSystem);
     }
 
     /**
@@ -24,11 +30,23 @@ public class BackupNodeServer {
      * @throws InterruptedException 中断异常
      */
     public void start() throws InterruptedException {
-        netServer.addHandlers(Collections.singletonList(new AwareConnectHandler()));
+        // 只读请求先由 BackupNodeApis 处理，其余的交给 AwareConnectHandler
+        netServer.addHandlers(Arrays.asList(backupNodeApis, new AwareConnectHandler()));
         netServer.bind(backupNodeConfig.getBackupNodePort());
     }
 
+    /**
+     * 切换为 NameNode：停止 BackupNode 的只读服务，之后建立的连接由 NameNode 的处理器处理
+     *
+     * @param handlers NameNode 的处理器
+     */
+    public void promote(List<AbstractChannelHandler> handlers) {
+        backupNodeApis.disable();
+        netServer.addHandlers(handlers);
+    }
+
     public void shutdown() {
         this.netServer.shutdown();
+        this.backupNodeApis.shutdown();
     }
 }
@@ -0,0 +1,329 @@
+package design.dfs.ha;
+
+import design.dfs.backup.config.BackupNodeConfig;
+import design.dfs.backup.fs.InMemoryFileSystem;
+import design.dfs.backup.fs.NameNodeClient;
+import design.dfs.backup.server.BackupNodeServer;
+import design.dfs.common.enums.PacketType;
+import design.dfs.common.network.NettyPacket;
+import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.namenode.config.NameNodeConfig;
+import design.dfs.namenode.datanode.DataNodeManager;
+import design.dfs.namenode.fs.CheckpointCoordinator;
+import design.dfs.namenode.fs.DiskFileSystem;
+import design.dfs.namenode.fs.TrashSweeper;
+import design.dfs.namenode.server.EditLogStreamer;
+import design.dfs.namenode.server.FsImageReceiveHandler;
+import design.dfs.namenode.server.NameNodeApis;
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * BackupNode 角色切换组件，NameNode 宕机之后把 BackupNode 切换为 NameNode
+ *
+ * <pre>
+ * 1. BackupNode 和 NameNode 的连接断开，等待 failover.timeout 之后仍然没有重新连上，开始确认 NameNode 的状态
+ * 2. 往所有连接到 BackupNode 的客户端发送 GET_NAME_NODE_STATUS，只要有一个客户端还能连上 NameNode，
+ *    就认为只是 BackupNode 和 NameNode 之间的网络问题，不进行切换，稍后重新确认。
+ *    超时没有回复的客户端状态未知，不算作宕机，必须有超过半数的客户端明确回复连不上 NameNode 才切换；
+ *    没有客户端连接时无法确认，也不切换，避免 BackupNode 只是和其他节点断开时出现两个 NameNode
+ * 3. 确认 NameNode 宕机之后切换：
+ *    - 先创建 NameNode 使用的组件，失败时回到备份状态，继续同步 EditLog
+ *    - 停止同步 EditLog，等待正在应用的批次完成，得到已经应用的 maxTxId
+ *    - 直接接管 BackupNode 的内存目录树，EditLog 从 maxTxId + 1 开始写，不需要加载 FsImage 和回放 EditLog
+ *    - 立即在本地 checkpoint 一次，把内存目录树持久化为 FsImage
+ *    - 在 BackupNode 的端口上启动 NameNodeApis，断开现有的连接，客户端和 DataNode 重连之后由 NameNodeApis 处理
+ *
+ * 切换耗时和目录树大小无关，主要是确认 NameNode 宕机的等待时间，从发现断开到开始服务的总耗时在切换完成时打印
+ *
+ * 注意：EditLog 是异步同步到 BackupNode 的，NameNode 宕机前还没有同步过来的少量 EditLog 会丢失；
+ * 原来的 NameNode 恢复之后需要以 BackupNode 的身份重新部署，否则会出现两个 NameNode
+ * </pre>
+ */
+@Slf4j
+public class NodeRoleSwitcher {
+    private static final long CONFIRM_TIMEOUT = 2000;
+    private static volatile NodeRoleSwitcher instance;
+
+    private final Set<Channel> connects = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<Role> role = new AtomicReference<>(Role.BACKUP);
+    /**
+     * 是否正在确认 NameNode 的状态
+     */
+    private final AtomicBoolean confirming = new AtomicBoolean(false);
+    private volatile StatusVote currentVote;
+    /**
+     * 发现和 NameNode 断开的时间，用于统计从发现到开始服务的切换耗时
+     */
+    private volatile long disconnectedAt;
+
+    private BackupNodeConfig backupNodeConfig;
+    private NameNodeConfig nameNodeConfig;
+    private DefaultScheduler defaultScheduler;
+    private InMemoryFileSystem fileSystem;
+    private NameNodeClient nameNodeClient;
+    private BackupNodeServer backupNodeServer;
+
+    private DataNodeManager dataNodeManager;
+    private DiskFileSystem diskFileSystem;
+    private EditLogStreamer editLogStreamer;
+    private NameNodeApis nameNodeApis;
+
+    private NodeRoleSwitcher() {
+    }
+
+    public static NodeRoleSwitcher getInstance() {
+        if (instance == null) {
+            synchronized (NodeRoleSwitcher.class) {
+                if (instance == null) {
+                    instance = new NodeRoleSwitcher();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 初始化，开启故障切换时加载切换后使用的 NameNode 配置
+     */
+    public void init(BackupNodeConfig backupNodeConfig, DefaultScheduler defaultScheduler, InMemoryFileSystem fileSystem,
+                     NameNodeClient nameNodeClient, BackupNodeServer backupNodeServer) throws IOException {
+        this.backupNodeConfig = backupNodeConfig;
+        this.defaultScheduler = defaultScheduler;
+        this.fileSystem = fileSystem;
+        this.nameNodeClient = nameNodeClient;
+        this.backupNodeServer = backupNodeServer;
+        if (backupNodeConfig.isFailoverEnabled()) {
+            this.nameNodeConfig = loadNameNodeConfig(backupNodeConfig);
+            log.info("BackupNode开启故障切换：[config={}, timeout={} ms]",
+                    backupNodeConfig.getFailoverNameNodeConfig(), backupNodeConfig.getFailoverTimeout());
+        }
+    }
+
+    /**
+     * 切换之后使用 BackupNode 的目录和端口，并且没有 BackupNode 可以 checkpoint，改为本地 checkpoint
+     */
+    private static NameNodeConfig loadNameNodeConfig(BackupNodeConfig backupNodeConfig) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(Paths.get(backupNodeConfig.getFailoverNameNodeConfig()))) {
+            properties.load(inputStream);
+        }
+        NameNodeConfig nameNodeConfig = NameNodeConfig.parse(properties);
+        nameNodeConfig.setBaseDir(backupNodeConfig.getBaseDir());
+        nameNodeConfig.setPort(backupNodeConfig.getBackupNodePort());
+        nameNodeConfig.setCheckpointLocal(true);
+        return nameNodeConfig;
+    }
+
+    public void addConnect(Channel channel) {
+        connects.add(channel);
+    }
+
+    public void removeConnect(Channel channel) {
+        connects.remove(channel);
+    }
+
+    public boolean isActive() {
+        return role.get() == Role.ACTIVE;
+    }
+
+    /**
+     * BackupNode 和 NameNode 的连接断开
+     */
+    public void onNameNodeDisconnected() {
+        if (nameNodeConfig == null || role.get() != Role.BACKUP) {
+            return;
+        }
+        if (confirming.compareAndSet(false, true)) {
+            disconnectedAt = System.currentTimeMillis();
+            log.warn("BackupNode和NameNode的连接断开，{} ms之后确认NameNode的状态", backupNodeConfig.getFailoverTimeout());
+            defaultScheduler.scheduleOnce("确认NameNode状态", this::confirmNameNodeDown,
+                    backupNodeConfig.getFailoverTimeout());
+        }
+    }
+
+    /**
+     * 客户端返回的 NameNode 状态
+     *
+     * @param status 0表示宕机 1-表示在线
+     */
+    public void markNameNodeStatus(int status) {
+        StatusVote vote = currentVote;
+        if (vote != null) {
+            vote.mark(status);
+        }
+    }
+
+    private void confirmNameNodeDown() {
+        boolean retry = false;
+        try {
+            if (nameNodeClient.getNetClient().isConnected()) {
+                log.info("BackupNode已经重新连上NameNode，不需要切换");
+                return;
+            }
+            List<Channel> channels = new ArrayList<>(connects);
+            StatusVote vote = new StatusVote(channels.size());
+            currentVote = vote;
+            for (Channel channel : channels) {
+                channel.writeAndFlush(NettyPacket.buildPacket(new byte[0], PacketType.GET_NAME_NODE_STATUS));
+            }
+            vote.await(CONFIRM_TIMEOUT);
+            currentVote = null;
+            if (!vote.confirmsDown()) {
+                log.warn("无法确认NameNode已经宕机，不进行切换：[clients={}, online={}, offline={}, unknown={}]",
+                        channels.size(), vote.online.get(), vote.offline.get(), vote.unknown());
+                retry = true;
+                return;
+            }
+            log.warn("确认NameNode已经宕机，BackupNode切换为NameNode：[clients={}, offline={}]",
+                    channels.size(), vote.offline.get());
+            promote();
+        } catch (Exception e) {
+            log.error("BackupNode切换为NameNode失败：", e);
+        } finally {
+            if (retry) {
+                defaultScheduler.scheduleOnce("确认NameNode状态", this::confirmNameNodeDown,
+                        backupNodeConfig.getFailoverTimeout());
+            } else {
+                confirming.set(false);
+            }
+        }
+    }
+
+    /**
+     * BackupNode 切换为 NameNode
+     *
+     * <pre>
+     * 停止同步 EditLog 之后 BackupNode 不能再回到备份状态，所以先创建切换之后使用的组件，
+     * 这些步骤失败时回到 BACKUP 状态，BackupNode 继续同步 EditLog，下次断开时重新确认。
+     * 全部创建成功之后才停止同步，后面的步骤只是启动定时任务和注册处理器
+     * </pre>
+     */
+    void promote() throws Exception {
+        if (!role.compareAndSet(Role.BACKUP, Role.PROMOTING)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        CheckpointCoordinator checkpointCoordinator;
+        FsImageReceiveHandler fsImageReceiveHandler;
+        try {
+            if (dataNodeManager == null) {
+                // DataNodeManager 创建时就会注册定时任务，切换失败之后重试时复用
+                dataNodeManager = new DataNodeManager(nameNodeConfig, defaultScheduler);
+            }
+            diskFileSystem = new DiskFileSystem(nameNodeConfig, dataNodeManager, fileSystem.getDirectory());
+            checkpointCoordinator = new CheckpointCoordinator(defaultScheduler, diskFileSystem);
+            editLogStreamer = new EditLogStreamer(diskFileSystem.getEditLog(), checkpointCoordinator);
+            nameNodeApis = new NameNodeApis(nameNodeConfig, diskFileSystem, dataNodeManager,
+                    checkpointCoordinator, editLogStreamer);
+            fsImageReceiveHandler = new FsImageReceiveHandler(nameNodeConfig, checkpointCoordinator);
+        } catch (Exception e) {
+            if (nameNodeApis != null) {
+                nameNodeApis.shutdown();
+            }
+            diskFileSystem = null;
+            editLogStreamer = null;
+            nameNodeApis = null;
+            role.set(Role.BACKUP);
+            throw e;
+        }
+
+        nameNodeClient.shutdown();
+        long maxTxId = fileSystem.seal();
+        diskFileSystem.takeOver(maxTxId);
+        checkpointCoordinator.start();
+        checkpointCoordinator.requestCheckpoint();
+        new TrashSweeper(defaultScheduler, diskFileSystem).start();
+        editLogStreamer.start();
+        backupNodeServer.promote(Arrays.asList(fsImageReceiveHandler, nameNodeApis));
+        role.set(Role.ACTIVE);
+
+        // 断开现有连接，重连之后的连接由 NameNodeApis 处理
+        for (Channel channel : new ArrayList<>(connects)) {
+            channel.close();
+        }
+        long now = System.currentTimeMillis();
+        log.info("BackupNode已经切换为NameNode：[maxTxId={}, port={}, cost={} ms, sinceDisconnected={} ms]",
+                maxTxId, nameNodeConfig.getPort(), now - start, now - disconnectedAt);
+    }
+
+    public void shutdown() {
+        if (role.get() != Role.ACTIVE) {
+            return;
+        }
+        editLogStreamer.shutdown();
+        nameNodeApis.shutdown();
+        diskFileSystem.shutdown();
+    }
+
+    private enum Role {
+        /**
+         * 备份节点
+         */
+        BACKUP,
+        /**
+         * 正在切换
+         */
+        PROMOTING,
+        /**
+         * 已经切换为 NameNode
+         */
+        ACTIVE
+    }
+
+    /**
+     * 一次确认 NameNode 状态的投票
+     */
+    static class StatusVote {
+        private final int clients;
+        private final CountDownLatch latch;
+        private final AtomicInteger online = new AtomicInteger();
+        private final AtomicInteger offline = new AtomicInteger();
+
+        StatusVote(int clients) {
+            this.clients = clients;
+            this.latch = new CountDownLatch(clients);
+        }
+
+        /**
+         * 是否确认 NameNode 宕机：没有客户端能连上 NameNode，并且超过半数的客户端明确回复连不上。
+         * 没有回复的客户端不计入宕机
+         */
+        boolean confirmsDown() {
+            return online.get() == 0 && offline.get() > clients / 2;
+        }
+
+        int unknown() {
+            return clients - online.get() - offline.get();
+        }
+
+        void mark(int status) {
+            if (status == 0) {
+                offline.incrementAndGet();
+            } else {
+                online.incrementAndGet();
+            }
+            latch.countDown();
+        }
+
+        private void await(long timeout) throws InterruptedException {
+            latch.await(timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -3,7 +3,10 @@ package design.dfs.namenode;
 import design.dfs.common.utils.DefaultScheduler;
 import design.dfs.namenode.config.NameNodeConfig;
 import design.dfs.namenode.datanode.DataNodeManager;
+import design.dfs.namenode.fs.CheckpointCoordinator;
 import design.dfs.namenode.fs.DiskFileSystem;
+import design.dfs.namenode.fs.TrashSweeper;
+import design.dfs.namenode.server.EditLogStreamer;
 import design.dfs.namenode.server.NameNodeApis;
 import design.dfs.namenode.server.NameNodeServer;
 import lombok.extern.slf4j.Slf4j;
@@ -33,6 +36,18 @@ public class NameNode {
      * 基于磁盘的文件系统
      */
     private final DiskFileSystem diskFileSystem;
+    /**
+     * checkpoint 协调器
+     */
+    private final CheckpointCoordinator checkpointCoordinator;
+    /**
+     * 垃圾箱清理
+     */
+    private final TrashSweeper trashSweeper;
+    /**
+     * 往 BackupNode 推送 EditLog
+     */
+    private final EditLogStreamer editLogStreamer;
     /**
      * NameNode 服务器
      */
@@ -43,8 +58,12 @@ public class NameNode {
         this.defaultScheduler = new DefaultScheduler("NameNode-Scheduler-");
         this.dataNodeManager = new DataNodeManager(nameNodeConfig, defaultScheduler);
         this.diskFileSystem = new DiskFileSystem(nameNodeConfig, dataNodeManager);
-        this.nameNodeApis = new NameNodeApis(diskFileSystem.getNameNodeConfig(), diskFileSystem, dataNodeManager);
-        this.nameNodeServer = new NameNodeServer(defaultScheduler, diskFileSystem, nameNodeApis);
+        this.checkpointCoordinator = new CheckpointCoordinator(defaultScheduler, diskFileSystem);
+        this.trashSweeper = new TrashSweeper(defaultScheduler, diskFileSystem);
+        this.editLogStreamer = new EditLogStreamer(diskFileSystem.getEditLog(), checkpointCoordinator);
+        this.nameNodeApis = new NameNodeApis(diskFileSystem.getNameNodeConfig(), diskFileSystem, dataNodeManager,
+                checkpointCoordinator, editLogStreamer);
+        this.nameNodeServer = new NameNodeServer(defaultScheduler, diskFileSystem, nameNodeApis, checkpointCoordinator);
     }
 
     public static void main(String[] args) {
@@ -96,6 +115,9 @@ public class NameNode {
     public void start() throws Exception {
         if (started.compareAndSet(false, true)) {
             this.diskFileSystem.recoveryNamespace();
+            this.checkpointCoordinator.start();
+            this.trashSweeper.start();
+            this.editLogStreamer.start();
             this.nameNodeServer.start();
         }
     }
@@ -105,6 +127,7 @@ public class NameNode {
      */
     public void shutdown()  {
         if (started.compareAndSet(true, false)) {
+            this.editLogStreamer.shutdown();
             this.diskFileSystem.shutdown();
             this.nameNodeServer.shutdown();
         }
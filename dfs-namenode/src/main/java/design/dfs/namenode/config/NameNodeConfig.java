@@ -1,5 +1,6 @@
 package design.dfs.namenode.config;
 
+import design.dfs.common.enums.FsImageCodec;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -38,6 +39,46 @@ public class NameNodeConfig {
      * 默认检查DataNode是否心跳超时的时间间隔
      */
     private final int DEFAULT_DATANODE_ALIVE_CHECK_INTERVAL = 30000;
+    /**
+     * 默认未 checkpoint 的 EditLog 条数阈值
+     */
+    private static final long DEFAULT_CHECKPOINT_TXNS = 1000000;
+    /**
+     * 默认未 checkpoint 的 EditLog 文件大小阈值
+     */
+    private static final long DEFAULT_CHECKPOINT_BYTES = 64 * 1024 * 1024;
+    /**
+     * 默认距离上一次 checkpoint 的最大时间
+     */
+    private static final long DEFAULT_CHECKPOINT_MAX_AGE = 3600000;
+    /**
+     * 默认检查是否需要 checkpoint 的时间间隔
+     */
+    private static final long DEFAULT_CHECKPOINT_CHECK_INTERVAL = 60000;
+    /**
+     * 默认 DataNode 心跳超时之后等待恢复的时间，超过之后才复制它上面的副本
+     */
+    private static final long DEFAULT_DATANODE_STALE_GRACE_PERIOD = 600000;
+    /**
+     * 默认每个 DataNode 同时进行的副本复制任务数量，作为源和目标都计算在内
+     */
+    private static final int DEFAULT_REPLICATION_MAX_STREAMS = 2;
+    /**
+     * 默认每个 DataNode 副本复制的带宽，单位字节/秒
+     */
+    private static final long DEFAULT_REPLICATION_BANDWIDTH = 32 * 1024 * 1024;
+    /**
+     * 默认副本复制任务的超时时间
+     */
+    private static final long DEFAULT_REPLICATION_TASK_TIMEOUT = 600000;
+    /**
+     * 默认副本复制任务超时之后的重试次数
+     */
+    private static final int DEFAULT_REPLICATION_MAX_RETRIES = 3;
+    /**
+     * 默认分配副本复制任务的时间间隔
+     */
+    private static final long DEFAULT_REPLICATION_CHECK_INTERVAL = 3000;
 
 
     private String baseDir;
@@ -46,6 +87,7 @@ public class NameNodeConfig {
     private long dataNodeHeartbeatTimeout;
     private int replicaNum;
     private long dataNodeAliveCheckInterval;
+    private long dataNodeStaleGracePeriod;
     private String nameNodePeerServers;
     private int nameNodeId;
     private String nameNodeLaunchMode;
@@ -55,6 +97,19 @@ public class NameNodeConfig {
     private int nameNodeApiCoreSize;
     private int nameNodeApiMaximumPoolSize;
     private int nameNodeApiQueueSize;
+    private long checkpointTxns;
+    private long checkpointBytes;
+    private long checkpointMaxAge;
+    private long checkpointCheckInterval;
+    private boolean checkpointLocal;
+    private String fsImageCodec;
+    private String topologyFile;
+    private String topologyResolver;
+    private int replicationMaxStreams;
+    private long replicationBandwidth;
+    private long replicationTaskTimeout;
+    private int replicationMaxRetries;
+    private long replicationCheckInterval;
 
     public static NameNodeConfig parse(Properties properties) {
         String baseDir = (String) properties.get("base.dir");
@@ -63,6 +118,8 @@ public class NameNodeConfig {
         long dataNodeHeartbeatTimeout = Long.parseLong((String) properties.get("datanode.heartbeat.timeout"));
         int replicaNum = Integer.parseInt((String) properties.get("replica.num"));
         long dataNodeAliveCheckInterval = Integer.parseInt((String) properties.get("datanode.alive.check.interval"));
+        long dataNodeStaleGracePeriod = Long.parseLong(properties.getProperty("datanode.stale.grace.period",
+                String.valueOf(DEFAULT_DATANODE_STALE_GRACE_PERIOD)));
         String nameNodePeerServers = (String) properties.get("namenode.peer.servers");
         int nameNodeId = Integer.parseInt((String) properties.get("namenode.id"));
         String nameNodeLaunchMode = (String) properties.get("namenode.launch.mode");
@@ -72,6 +129,28 @@ public class NameNodeConfig {
         int nameNodeApiCoreSize = Integer.parseInt((String) properties.get("namenode.api.coreSize"));
         int nameNodeApiMaximumPoolSize = Integer.parseInt((String) properties.get("namenode.api.maximumPoolSize"));
         int nameNodeApiQueueSize = Integer.parseInt((String) properties.get("namenode.api.queueSize"));
+        long checkpointTxns = Long.parseLong(properties.getProperty("checkpoint.txns",
+                String.valueOf(DEFAULT_CHECKPOINT_TXNS)));
+        long checkpointBytes = Long.parseLong(properties.getProperty("checkpoint.bytes",
+                String.valueOf(DEFAULT_CHECKPOINT_BYTES)));
+        long checkpointMaxAge = Long.parseLong(properties.getProperty("checkpoint.max.age",
+                String.valueOf(DEFAULT_CHECKPOINT_MAX_AGE)));
+        long checkpointCheckInterval = Long.parseLong(properties.getProperty("checkpoint.check.interval",
+                String.valueOf(DEFAULT_CHECKPOINT_CHECK_INTERVAL)));
+        boolean checkpointLocal = Boolean.parseBoolean(properties.getProperty("checkpoint.local", "false"));
+        String fsImageCodec = properties.getProperty("fsimage.codec", FsImageCodec.NONE.getName());
+        String topologyFile = properties.getProperty("topology.file");
+        String topologyResolver = properties.getProperty("topology.resolver");
+        int replicationMaxStreams = Integer.parseInt(properties.getProperty("replication.max.streams",
+                String.valueOf(DEFAULT_REPLICATION_MAX_STREAMS)));
+        long replicationBandwidth = Long.parseLong(properties.getProperty("replication.bandwidth",
+                String.valueOf(DEFAULT_REPLICATION_BANDWIDTH)));
+        long replicationTaskTimeout = Long.parseLong(properties.getProperty("replication.task.timeout",
+                String.valueOf(DEFAULT_REPLICATION_TASK_TIMEOUT)));
+        int replicationMaxRetries = Integer.parseInt(properties.getProperty("replication.max.retries",
+                String.valueOf(DEFAULT_REPLICATION_MAX_RETRIES)));
+        long replicationCheckInterval = Long.parseLong(properties.getProperty("replication.check.interval",
+                String.valueOf(DEFAULT_REPLICATION_CHECK_INTERVAL)));
         return NameNodeConfig.builder()
                 .baseDir(baseDir)
                 .port(port)
@@ -79,6 +158,7 @@ public class NameNodeConfig {
                 .dataNodeHeartbeatTimeout(dataNodeHeartbeatTimeout)
                 .replicaNum(replicaNum)
                 .dataNodeAliveCheckInterval(dataNodeAliveCheckInterval)
+                .dataNodeStaleGracePeriod(dataNodeStaleGracePeriod)
                 .nameNodePeerServers(nameNodePeerServers)
                 .nameNodeId(nameNodeId)
                 .nameNodeLaunchMode(nameNodeLaunchMode)
@@ -88,6 +168,19 @@ public class NameNodeConfig {
                 .nameNodeApiCoreSize(nameNodeApiCoreSize)
                 .nameNodeApiMaximumPoolSize(nameNodeApiMaximumPoolSize)
                 .nameNodeApiQueueSize(nameNodeApiQueueSize)
+                .checkpointTxns(checkpointTxns)
+                .checkpointBytes(checkpointBytes)
+                .checkpointMaxAge(checkpointMaxAge)
+                .checkpointCheckInterval(checkpointCheckInterval)
+                .checkpointLocal(checkpointLocal)
+                .fsImageCodec(fsImageCodec)
+                .topologyFile(topologyFile)
+                .topologyResolver(topologyResolver)
+                .replicationMaxStreams(replicationMaxStreams)
+                .replicationBandwidth(replicationBandwidth)
+                .replicationTaskTimeout(replicationTaskTimeout)
+                .replicationMaxRetries(replicationMaxRetries)
+                .replicationCheckInterval(replicationCheckInterval)
                 .build();
     }
 
@@ -95,10 +188,10 @@ public class NameNodeConfig {
         return baseDir + File.separator + "editslog-" + start + "_" + end + ".log";
     }
 
-//    public String getFsimageFile(String time) {
-//        return baseDir + File.separator + "fsimage-" + time;
-//    }
-//
+    public String getFsImageFile(String time) {
+        return baseDir + File.separator + "fsimage-" + time;
+    }
+
 //    public String getSlotFile() {
 //        return baseDir + File.separator + "slots.meta";
 //    }
@@ -9,6 +9,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * DataNode 信息
@@ -18,15 +19,47 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 public class DataNodeInfo implements Comparable<DataNodeInfo>{
     public static final int STATUS_INIT = 1;
     public static final int STATUS_READY = 2;
+    /**
+     * 心跳超时，等待恢复。不再分配写入，读取时排在最后，副本仍然计入副本数量
+     */
+    public static final int STATUS_STALE = 3;
 
     private Integer nodeId;
     private String hostname;
+    /**
+     * 注册连接的 IP，客户端请求只能拿到 IP，用来判断客户端是不是在这个 DataNode 上
+     */
+    private volatile String address;
     private int httpPort;
     private int nioPort;
-    private long latestHeartbeatTime;
+    private volatile long latestHeartbeatTime;
     private volatile long storedDataSize;
     private volatile long freeSpace;
-    private int status;
+    private volatile int status;
+    /**
+     * 所在的机架，注册时由 {@link TopologyResolver} 解析
+     */
+    private String rack = TopologyResolver.DEFAULT_RACK;
+    /**
+     * 心跳上报的正在接收的文件数量
+     */
+    private volatile int activeTransfers;
+    /**
+     * 最近分配的写入数量，每次心跳衰减一半，由 {@link DataNodePlacement} 加锁维护
+     */
+    private double recentWrites;
+    /**
+     * 心跳上报的发送文件每 MB 的平均耗时，单位毫秒
+     */
+    private volatile double readLatency;
+    /**
+     * 心跳上报的正在发送的文件数量
+     */
+    private volatile int activeReads;
+    /**
+     * 最近分配给客户端读取的次数，每次心跳衰减一半
+     */
+    private final AtomicInteger recentReads = new AtomicInteger();
     private ConcurrentLinkedQueue<ReplicaTask> replicaTasks = new ConcurrentLinkedQueue<>();
     private ConcurrentLinkedQueue<RemoveReplicaTask> removeReplicaTasks = new ConcurrentLinkedQueue<>();
 
@@ -52,6 +85,24 @@ public class DataNodeInfo implements Comparable<DataNodeInfo>{
         }
     }
 
+    /**
+     * 副本分配的权重：可用空间越大、正在进行的传输和最近的写入越少，权重越大。不是 Ready 状态的权重为 0
+     */
+    double placementWeight() {
+        if (status != STATUS_READY || freeSpace <= 0) {
+            return 0;
+        }
+        return freeSpace / (1 + activeTransfers + recentWrites);
+    }
+
+    /**
+     * 读取的代价：平均耗时乘以排队的请求数量，越小越优先读取。
+     * 最近分配的读取在下一次心跳之前也计入排队，避免所有客户端都涌向同一个副本
+     */
+    double readCost() {
+        return (1 + readLatency) * (1 + activeReads + recentReads.get());
+    }
+
     /**
      * 添加副本复制任务
      *
@@ -9,16 +9,16 @@ import design.dfs.model.datanode.HeartbeatRequest;
 import design.dfs.model.datanode.RegisterRequest;
 import design.dfs.namenode.config.NameNodeConfig;
 import design.dfs.namenode.fs.DiskFileSystem;
+import design.dfs.namenode.fs.FsDirectory;
 import design.dfs.namenode.fs.Node;
 import design.dfs.namenode.rebalance.RemoveReplicaTask;
-import design.dfs.namenode.rebalance.ReplicaTask;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
 
 /**
  * 管理 DataNode
@@ -29,12 +29,21 @@ import java.util.stream.Collectors;
  */
 @Slf4j
 public class DataNodeManager {
+    /**
+     * 没有配置存活检测间隔时时间轮的刻度
+     */
+    private static final long DEFAULT_ALIVE_CHECK_TICK = 500;
+    private static final int MAX_TICKS_PER_WHEEL = 4096;
+
     private final Map<String, DataNodeInfo> dataNodes = new ConcurrentHashMap<>();
-    private final ReentrantReadWriteLock replicaLock = new ReentrantReadWriteLock();
+    /**
+     * DataNode 注册连接的 IP -> hostname。客户端地址只能拿到 IP，DataNode 按 hostname 注册，通过它找到客户端所在的 DataNode
+     */
+    private final Map<String, String> hostnamesByAddress = new ConcurrentHashMap<>();
 
     /**
      * <pre>
-     * 每个文件对应存储的Datanode信息
+     * 每个文件存储在哪些 DataNode 上，以及每个 DataNode 存储了哪些文件，以文件ID为 key
      * 目前没有对文件进行分片处理，todo
      * 比如文件aaa.png，存储在datanode01、datanode02
      *
@@ -42,61 +51,145 @@ public class DataNodeManager {
      *        datanode01,
      *        datanode02
      *    ]
+     *
+     * DataNode 在索引中用下标表示，同一个 hostname 重新注册之后下标不变
+     * 索引按照文件ID 分段加锁，访问索引时不会持有目录树的锁
      * </pre>
      */
-    private final Map<String, List<DataNodeInfo>> replicaByFilename = new ConcurrentHashMap<>();
-
+    private final StripedReplicaIndex replicaIndex = new StripedReplicaIndex();
+    private final Map<String, Integer> dataNodeIndexes = new ConcurrentHashMap<>();
     /**
-     * <pre>
-     * 每个DataNode 存储的文件列表
-     *
-     * 比如datanode01存储有文件：aaa.jpg、bbb.jpg
-     *
-     *    datanode01 : [
-     *        aaa.jpg,
-     *        bbb.jpg
-     *    ]
-     * </pre>
+     * 按照可用空间和负载分配副本的位置，下标和副本索引相同
+     */
+    private final DataNodePlacement placement = new DataNodePlacement();
+    private final TopologyResolver topologyResolver;
+    /**
+     * 注册过的 DataNode 所在的机架，只有一个机架时不需要区分
+     */
+    private final Set<String> racks = ConcurrentHashMap.newKeySet();
+    /**
+     * 下标 -> hostname，只在注册新的 DataNode 时整体替换
+     */
+    private volatile String[] dataNodeHostnames = new String[0];
+    /**
+     * 正在进行全量上报的 DataNode 的对比进度
+     */
+    private final Map<String, FullReportMerger> fullReports = new ConcurrentHashMap<>();
+    /**
+     * 副本不足的文件排队复制，限制每个 DataNode 的复制并发和流量
      */
-    private final Map<String, Map<String, FileInfo>> filesByDataNode = new ConcurrentHashMap<>();
+    private final ReplicationScheduler replicationScheduler;
+    /**
+     * 跟踪 DataNode 的心跳超时，心跳只更新时间戳，不操作时间轮
+     */
+    private final HashedTimingWheel<DataNodeInfo> heartbeatWheel;
     private final NameNodeConfig nameNodeConfig;
     private DiskFileSystem diskFileSystem;
 
     public DataNodeManager(NameNodeConfig nameNodeConfig, DefaultScheduler defaultScheduler) {
         this.nameNodeConfig = nameNodeConfig;
-        long dataNodeAliveThreshold = nameNodeConfig.getDataNodeAliveCheckInterval();
-        defaultScheduler.schedule("DataNode存活检测", new DataNodeAliveMonitor(),
-                dataNodeAliveThreshold, dataNodeAliveThreshold, TimeUnit.MILLISECONDS);
+        this.topologyResolver = TopologyResolver.create(nameNodeConfig);
+        this.replicationScheduler = new ReplicationScheduler(this, nameNodeConfig);
+        long tick = nameNodeConfig.getDataNodeAliveCheckInterval() > 0 ?
+                nameNodeConfig.getDataNodeAliveCheckInterval() : DEFAULT_ALIVE_CHECK_TICK;
+        int ticksPerWheel = (int) Math.min(nameNodeConfig.getDataNodeHeartbeatTimeout() / tick + 1, MAX_TICKS_PER_WHEEL);
+        this.heartbeatWheel = new HashedTimingWheel<>(tick, ticksPerWheel, this::heartbeatDeadline, System.currentTimeMillis());
+        defaultScheduler.schedule("DataNode存活检测", new DataNodeAliveMonitor(), tick, tick, TimeUnit.MILLISECONDS);
+        long replicationCheckInterval = nameNodeConfig.getReplicationCheckInterval();
+        if (replicationCheckInterval > 0) {
+            defaultScheduler.schedule("副本复制调度", replicationScheduler,
+                    replicationCheckInterval, replicationCheckInterval, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
      * dataNode是否存活的监控线程
      *
      * <pre>
-     *     这里存在一种情况，假设一个DataNode宕机了，从DataNode集合中摘除
+     *     DataNode 重启或者长时间 GC 时心跳会短暂超时，如果马上复制它的所有副本，等它恢复之后又要删除多出来的副本。
      *
+     *     1. 心跳超时之后先标记为 Stale，不再分配写入和复制任务，副本仍然保留在索引中
+     *     2. 宽限期内恢复心跳的 DataNode 直接恢复为 Ready；重启之后重新注册的 DataNode 通过全量上报核对副本
+     *     3. 超过宽限期仍然没有恢复，才从DataNode集合中摘除，并复制它上面的副本
+     *
+     *     超时由时间轮跟踪，每个刻度只处理到期的 DataNode，不再遍历所有 DataNode，检测精度是一个刻度
      * </pre>
      */
     private class DataNodeAliveMonitor implements Runnable {
         @Override
         public void run() {
-            Iterator<DataNodeInfo> iterator = dataNodes.values().iterator();
-            List<DataNodeInfo> toRemoveDataNode = new ArrayList<>();
-            while (iterator.hasNext()) {
-                DataNodeInfo next = iterator.next();
-                long currentTimeMillis = System.currentTimeMillis();
-                if (currentTimeMillis < next.getLatestHeartbeatTime()) {
-                    continue;
+            checkAlive(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 推进时间轮，处理心跳超时的 DataNode
+     *
+     * @param currentTimeMillis 当前时间
+     */
+    void checkAlive(long currentTimeMillis) {
+        for (DataNodeInfo dataNode : heartbeatWheel.expire(currentTimeMillis)) {
+            boolean tracking = true;
+            try {
+                tracking = onHeartbeatExpired(dataNode, currentTimeMillis);
+            } catch (Exception e) {
+                log.error("处理DataNode心跳超时失败：[hostname={}]", dataNode.getHostname(), e);
+            } finally {
+                // 从时间轮取出之后一定要放回去，否则这个 DataNode 再也不会被检测
+                if (tracking) {
+                    heartbeatWheel.add(dataNode);
                 }
-                log.info("DataNode存活检测超时，被移除：[hostname={}, current={}, nodeLatestHeartbeatTime={}]",
-                        next, DateUtil.format(new Date(currentTimeMillis)), DateUtil.format(new Date(next.getLatestHeartbeatTime())));
-                iterator.remove();
-                toRemoveDataNode.add(next);
             }
-            for (DataNodeInfo info : toRemoveDataNode) {
-                createLostReplicaTask(info);
+        }
+    }
+
+    /**
+     * 心跳超时的截止时间，Stale 状态的 DataNode 是宽限期结束的时间
+     */
+    private long heartbeatDeadline(DataNodeInfo dataNode) {
+        if (dataNode.getStatus() == DataNodeInfo.STATUS_STALE) {
+            return dataNode.getLatestHeartbeatTime() + nameNodeConfig.getDataNodeStaleGracePeriod();
+        }
+        return dataNode.getLatestHeartbeatTime();
+    }
+
+    /**
+     * 处理到期的 DataNode：Ready -> Stale -> 移除
+     *
+     * @return 是否需要继续跟踪
+     */
+    private boolean onHeartbeatExpired(DataNodeInfo dataNode, long currentTimeMillis) {
+        synchronized (dataNode) {
+            if (dataNodes.get(dataNode.getHostname()) != dataNode) {
+                return false;
+            }
+            // 从时间轮取出之后可能刚好收到心跳或者重新注册
+            if (currentTimeMillis < heartbeatDeadline(dataNode)) {
+                return true;
+            }
+            if (nameNodeConfig.getDataNodeStaleGracePeriod() > 0 && dataNode.getStatus() != DataNodeInfo.STATUS_STALE) {
+                log.warn("DataNode存活检测超时，标记为Stale：[hostname={}, current={}, nodeLatestHeartbeatTime={}]",
+                        dataNode.getHostname(), DateUtil.format(new Date(currentTimeMillis)),
+                        DateUtil.format(new Date(dataNode.getLatestHeartbeatTime())));
+                markStale(dataNode);
+                return true;
             }
+            dataNodes.remove(dataNode.getHostname(), dataNode);
         }
+        log.info("DataNode存活检测超时，被移除：[hostname={}, current={}, nodeLatestHeartbeatTime={}]",
+                dataNode, DateUtil.format(new Date(currentTimeMillis)), DateUtil.format(new Date(dataNode.getLatestHeartbeatTime())));
+        placement.remove(indexOf(dataNode.getHostname()));
+        createLostReplicaTask(dataNode);
+        return false;
+    }
+
+    /**
+     * DataNode 心跳超时，停止分配写入，正在进行的复制任务重新排队
+     */
+    private void markStale(DataNodeInfo dataNode) {
+        dataNode.setStatus(DataNodeInfo.STATUS_STALE);
+        placement.remove(indexOf(dataNode.getHostname()));
+        replicationScheduler.dataNodeRemoved(dataNode.getHostname());
     }
 
     public void setDiskFileSystem(DiskFileSystem diskFileSystem) {
@@ -106,10 +199,16 @@ public class DataNodeManager {
     /**
      * 注册 datanode
      *
+     * @param request 注册请求
+     * @param address 注册连接的 IP，不知道时为 null
      * @return
      */
-    public boolean register(RegisterRequest request) {
-        if (dataNodes.containsKey(request.getHostname())) {
+    public boolean register(RegisterRequest request, String address) {
+        DataNodeInfo existing = dataNodes.get(request.getHostname());
+        if (existing != null && existing.getStatus() == DataNodeInfo.STATUS_STALE) {
+            return readmit(existing, request, address);
+        }
+        if (existing != null) {
             log.info("DataNode 已注册：[hostname={}]", request.getHostname());
 
             return false;
@@ -121,14 +220,105 @@ public class DataNodeManager {
         dataNodeInfo.setStoredDataSize(request.getStoredDataSize());
         dataNodeInfo.setFreeSpace(request.getFreeSpace());
         dataNodeInfo.setNodeId(request.getNodeId());
+        dataNodeInfo.setAddress(address);
+        dataNodeInfo.setRack(resolveRack(request.getHostname(), address));
 
-        log.info("收到DataNode注册请求：[hostname={}, storageSize={}, freeSpace={}]",
-                request.getHostname(), request.getStoredDataSize(), request.getFreeSpace());
+        log.info("收到DataNode注册请求：[hostname={}, address={}, rack={}, storageSize={}, freeSpace={}]",
+                request.getHostname(), address, dataNodeInfo.getRack(), request.getStoredDataSize(), request.getFreeSpace());
 
+        racks.add(dataNodeInfo.getRack());
+        if (address != null) {
+            hostnamesByAddress.put(address, request.getHostname());
+        }
         dataNodes.put(request.getHostname(), dataNodeInfo);
+        placement.update(indexOf(request.getHostname()), dataNodeInfo);
+        heartbeatWheel.add(dataNodeInfo);
         return true;
     }
 
+    /**
+     * Stale 状态的 DataNode 重启之后重新注册，保留索引中的副本，不需要重新复制。
+     * 状态回到 Init，由接下来的全量上报核对副本，磁盘上已经没有的副本再复制
+     */
+    private boolean readmit(DataNodeInfo dataNodeInfo, RegisterRequest request, String address) {
+        synchronized (dataNodeInfo) {
+            if (dataNodeInfo.getStatus() != DataNodeInfo.STATUS_STALE) {
+                return false;
+            }
+            dataNodeInfo.setNioPort(request.getNioPort());
+            dataNodeInfo.setHttpPort(request.getHttpPort());
+            dataNodeInfo.setNodeId(request.getNodeId());
+            dataNodeInfo.setFreeSpace(request.getFreeSpace());
+            dataNodeInfo.setLatestHeartbeatTime(System.currentTimeMillis() + nameNodeConfig.getDataNodeHeartbeatTimeout());
+            dataNodeInfo.setStatus(DataNodeInfo.STATUS_INIT);
+            if (address != null && !address.equals(dataNodeInfo.getAddress())) {
+                // 重启之后换了 IP
+                if (dataNodeInfo.getAddress() != null) {
+                    hostnamesByAddress.remove(dataNodeInfo.getAddress(), request.getHostname());
+                }
+                dataNodeInfo.setAddress(address);
+                hostnamesByAddress.put(address, request.getHostname());
+            }
+        }
+        fullReports.remove(request.getHostname());
+        placement.update(indexOf(request.getHostname()), dataNodeInfo);
+        log.info("Stale状态的DataNode重新注册，保留原有副本等待全量上报核对：[hostname={}]", request.getHostname());
+        return true;
+    }
+
+    /**
+     * 机架先按 hostname 解析，拓扑文件里没有配置 hostname 时再按 IP 解析
+     */
+    private String resolveRack(String hostname, String address) {
+        String rack = topologyResolver.resolve(hostname);
+        if (TopologyResolver.DEFAULT_RACK.equals(rack) && address != null) {
+            rack = topologyResolver.resolve(address);
+        }
+        return rack;
+    }
+
+    /**
+     * 客户端所在的 DataNode，客户端地址可以是 hostname 或者 IP
+     *
+     * @return 客户端不在 DataNode 上时返回 null
+     */
+    private DataNodeInfo dataNodeOf(String clientHost) {
+        if (clientHost == null) {
+            return null;
+        }
+        DataNodeInfo dataNode = dataNodes.get(clientHost);
+        if (dataNode != null) {
+            return dataNode;
+        }
+        String hostname = hostnamesByAddress.get(clientHost);
+        return hostname == null ? null : dataNodes.get(hostname);
+    }
+
+    /**
+     * 获取 DataNode 在副本索引中的下标，第一次注册时分配
+     */
+    private int indexOf(String hostname) {
+        Integer index = dataNodeIndexes.get(hostname);
+        if (index != null) {
+            return index;
+        }
+        synchronized (dataNodeIndexes) {
+            return dataNodeIndexes.computeIfAbsent(hostname, k -> {
+                String[] hostnames = Arrays.copyOf(dataNodeHostnames, dataNodeHostnames.length + 1);
+                hostnames[hostnames.length - 1] = k;
+                dataNodeHostnames = hostnames;
+                return hostnames.length - 1;
+            });
+        }
+    }
+
+    /**
+     * 通过副本索引中的下标获取 DataNode
+     */
+    private DataNodeInfo dataNodeAt(int index) {
+        return index < 0 ? null : dataNodes.get(dataNodeHostnames[index]);
+    }
+
     /**
      * datanode 心跳
      *
@@ -147,75 +337,108 @@ public class DataNodeManager {
         }
 
         dataNodeInfo.setLatestHeartbeatTime(latestHeartbeatTime);
+        dataNodeInfo.setFreeSpace(request.getFreeSpace());
+        dataNodeInfo.setActiveTransfers(request.getActiveTransfers());
+        dataNodeInfo.setReadLatency(request.getReadLatency());
+        dataNodeInfo.setActiveReads(request.getActiveReads());
+        dataNodeInfo.getRecentReads().updateAndGet(reads -> reads / 2);
+        if (dataNodeInfo.getStatus() == DataNodeInfo.STATUS_STALE) {
+            // 和存活检测的状态变化互斥，宽限期刚好结束时可能已经被移除了
+            synchronized (dataNodeInfo) {
+                if (dataNodes.get(request.getHostname()) != dataNodeInfo) {
+                    return false;
+                }
+                if (dataNodeInfo.getStatus() == DataNodeInfo.STATUS_STALE) {
+                    // 宽限期内恢复了心跳，进程没有重启过，副本都还在
+                    log.info("Stale状态的DataNode恢复心跳：[hostname={}]", request.getHostname());
+                    dataNodeInfo.setStatus(DataNodeInfo.STATUS_READY);
+                    placement.update(indexOf(request.getHostname()), dataNodeInfo);
+                    return true;
+                }
+            }
+        }
+        placement.heartbeat(indexOf(request.getHostname()), dataNodeInfo);
         return true;
     }
 
-    private List<DataNodeInfo> getSortedReadyDataNode() {
-        return dataNodes.values().stream()
-                .filter(dataNodeInfo -> dataNodeInfo.getStatus() == DataNodeInfo.STATUS_READY)
-                .sorted()
-                .collect(Collectors.toList());
-    }
-
     /**
-     * 创建丢失副本的复制任务
+     * DataNode 下线之后，它上面的文件进入复制队列
      */
     private void createLostReplicaTask(DataNodeInfo dataNodeInfo) {
         // 获取需要复制的副本列表
-        Map<String, FileInfo> filesByDataNode = removeFileByDataNode(dataNodeInfo.getHostname());
-        if (filesByDataNode == null) {
-            return;
-        }
+        List<String> lostFiles = removeFileByDataNode(dataNodeInfo.getHostname());
+        replicationScheduler.dataNodeRemoved(dataNodeInfo.getHostname());
+        replicationScheduler.addAll(lostFiles);
+    }
 
-        for (FileInfo fileInfo : filesByDataNode.values()) {
-            // 找到一个可读取文件的DataNode
-            DataNodeInfo sourceDataNode = chooseReadableDataNodeByFileName(fileInfo.getFileName(), dataNodeInfo);
-            if (sourceDataNode == null) {
-                log.warn("警告：找不到适合的DataNode用来获取文件：" + fileInfo.getFileName());
-                continue;
+    /**
+     * 为文件分配dataNode机器列表
+     *
+     * <pre>
+     * 1. 第一个副本优先放在写入的客户端所在的 DataNode 上，客户端不在 DataNode 上时按权重选择
+     * 2. 其余副本放在和第一个副本不同的机架上，一个机架整体故障时文件仍然可读。其他机架的节点不够时再使用同一个机架的节点
+     * </pre>
+     *
+     * @param username   该文件的所属的用户
+     * @param count      申请机器数量
+     * @param filename   文件名
+     * @param clientHost 写入文件的客户端地址，不知道时为 null
+     */
+    public List<DataNodeInfo> allocateDataNodes(String username, int count, String filename, String clientHost) throws Exception {
+        Predicate<DataNodeInfo> contains = dataNodeInfo -> dataNodeContainsFiles(dataNodeInfo.getHostname(), filename);
+        List<DataNodeInfo> selected = new ArrayList<>(count);
+        DataNodeInfo local = dataNodeOf(clientHost);
+        if (local != null && !contains.test(local) && placement.select(indexOf(local.getHostname()))) {
+            selected.add(local);
+        } else {
+            selected.addAll(placement.choose(1, contains));
+        }
+        if (!selected.isEmpty() && count > 1) {
+            if (racks.size() > 1) {
+                String firstRack = selected.get(0).getRack();
+                selected.addAll(placement.choose(count - 1, contains.or(dataNodeInfo -> firstRack.equals(dataNodeInfo.getRack()))));
             }
-            DataNodeInfo destDataNode = allocateReplicateDataNodes(fileInfo, sourceDataNode);
-            if (destDataNode == null) {
-                log.warn("警告：找不到适合的DataNode用来Rebalance");
-                continue;
+            if (selected.size() < count) {
+                selected.addAll(placement.choose(count - selected.size(), contains.or(selected::contains)));
             }
-            ReplicaTask task = new ReplicaTask(fileInfo.getFileName(), sourceDataNode.getHostname(), sourceDataNode.getNioPort());
-            log.info("创建副本复制任务：[filename={}, from={}, to={}]", fileInfo.getFileName(),
-                    sourceDataNode.getHostname(), destDataNode.getHostname());
-            destDataNode.addReplicaTask(task);
         }
+        if (selected.size() < count) {
+            releaseDataNodes(selected);
+            log.error("DataNode数量不足：[datanodeList={}]", dataNodes.values());
+            throw new NameNodeException("DataNode数量不足: [applyCount=" + count +
+                    ", findCount=" + selected.size() +
+                    ", filename=" + filename);
+        }
+        return selected;
     }
 
     /**
-     * @param username 该文件的所属的用户
-     * @param count    申请机器数量
-     *                 为文件分配dataNode机器列表
+     * 撤销 {@link #allocateDataNodes} 的分配，文件没有创建成功时调用，没有发生的写入不计入 DataNode 的负载
+     *
+     * @param dataNodes 分配的 DataNode
      */
-    public List<DataNodeInfo> allocateDataNodes(String username, int count, String filename) throws Exception {
-        List<DataNodeInfo> sortedReadyDataNode = getSortedReadyDataNode();
-        return selectDataNodeFromList(sortedReadyDataNode, count, filename);
+    public void releaseDataNodes(List<DataNodeInfo> dataNodes) {
+        for (DataNodeInfo dataNode : dataNodes) {
+            Integer index = dataNodeIndexes.get(dataNode.getHostname());
+            if (index != null) {
+                placement.release(index);
+            }
+        }
     }
 
     /**
      * 从内存数据结构中移除DataNode的文件列表并返回
      *
      * @param hostname DataNode
-     * @return 该DataNode的文件列表
+     * @return 该DataNode的文件ID列表
      */
-    public Map<String, FileInfo> removeFileByDataNode(String hostname) {
-        replicaLock.writeLock().lock();
-        try {
-            return filesByDataNode.remove(hostname);
-        } finally {
-            replicaLock.writeLock().unlock();
+    public List<String> removeFileByDataNode(String hostname) {
+        fullReports.remove(hostname);
+        Integer index = dataNodeIndexes.get(hostname);
+        if (index == null) {
+            return Collections.emptyList();
         }
-    }
-
-    /**
-     * 通过文件名选择一个可读的 DataNode
-     */
-    public DataNodeInfo chooseReadableDataNodeByFileName(String fileName) {
-        return chooseReadableDataNodeByFileName(fileName, null);
+        return replicaIndex.removeDataNode(index);
     }
 
     /**
@@ -227,48 +450,10 @@ public class DataNodeManager {
         DataNodeInfo dataNode = dataNodes.get(hostname);
         if (dataNode != null) {
             dataNode.setStatus(DataNodeInfo.STATUS_READY);
+            placement.update(indexOf(hostname), dataNode);
         }
     }
 
-    private List<DataNodeInfo> selectDataNodeFromList(List<DataNodeInfo> dataNodeList, int requiredNodeCount,
-                                                      String filename) throws NameNodeException {
-        int existCount = 0;
-        int findCount = 0;
-        List<DataNodeInfo> candidateNodes = new ArrayList<>(10);
-        for (DataNodeInfo dataNodeInfo : dataNodeList) {
-            if (dataNodeContainsFiles(dataNodeInfo.getHostname(), filename)) {
-                existCount++;
-                continue;
-            }
-            findCount++;
-            candidateNodes.add(dataNodeInfo);
-        }
-
-        if (candidateNodes.size() == requiredNodeCount) {
-            return candidateNodes;
-        } else if (candidateNodes.size() > requiredNodeCount) {
-            // 可选的 DataNode 节点数量多余需要的 DataNode 数量，则随机挑选
-            Random random = new Random();
-            List<DataNodeInfo> selectedDataNodes = new ArrayList<>();
-            for (int i = 0; i < requiredNodeCount; i++) {
-                int index = random.nextInt(candidateNodes.size());
-                DataNodeInfo dataNodeInfo = candidateNodes.get(index);
-                if (selectedDataNodes.contains(dataNodeInfo) ||
-                        dataNodeContainsFiles(dataNodeInfo.getHostname(), filename)) {
-                    continue;
-                }
-                selectedDataNodes.add(dataNodeInfo);
-            }
-            return selectedDataNodes;
-        }
-
-        log.error("DataNode数量不足：[datanodeList={}]", dataNodes.values());
-        throw new NameNodeException("DataNode数量不足: [applyCount=" + requiredNodeCount +
-                ", findCount=" + findCount +
-                ", existsFileNodeCount=" + existCount +
-                ", filename=" + filename);
-    }
-
     /**
      * 判断 DataNode 节点是否存在指定文件
      *
@@ -277,13 +462,11 @@ public class DataNodeManager {
      * @return
      */
     public boolean dataNodeContainsFiles(String hostname, String filename) {
-        replicaLock.readLock().lock();
-        try {
-            Map<String, FileInfo> files = filesByDataNode.getOrDefault(hostname, new HashMap<>());
-            return files.containsKey(filename);
-        } finally {
-            replicaLock.readLock().unlock();
+        Integer index = dataNodeIndexes.get(hostname);
+        if (index == null) {
+            return false;
         }
+        return replicaIndex.contains(filename, index);
     }
     /**
      * 增加一个副本
@@ -291,83 +474,298 @@ public class DataNodeManager {
      * @param fileInfo 文件信息
      */
     public void addReplica(FileInfo fileInfo) {
-        replicaLock.writeLock().lock();
-        try {
-            // 获取该文件所属的DataNode
-            DataNodeInfo dataNode = dataNodes.get(fileInfo.getHostname());
-            // 获取该文件对应的DataNode列表
-            List<DataNodeInfo> dataNodeInfos = replicaByFilename.computeIfAbsent(fileInfo.getFileName(),
-                    k -> new ArrayList<>());
-            Node node = diskFileSystem.listFiles(fileInfo.getFileName());
-            int replicaNum = Integer.parseInt(node.getAttr().getOrDefault(Constants.ATTR_REPLICA_NUM,
-                    String.valueOf(nameNodeConfig.getReplicaNum())));
-            // 如果该文件的副本数量超过配置的数量，则让该DataNode删除文件
-            if (dataNodeInfos.size() >= replicaNum) {
-                RemoveReplicaTask task = new RemoveReplicaTask(dataNode.getHostname(), fileInfo.getFileName());
-                log.info("下发副本删除任务：[hostname={}, filename={}]", dataNode.getHostname(), fileInfo.getFileName());
+        addReplicas(fileInfo.getHostname(), Collections.singletonList(fileInfo.getFileName()));
+    }
+
+    /**
+     * 批量增加同一个 DataNode 的副本
+     *
+     * <pre>
+     * 1. 一次读锁内查出所有上报文件在目录树中的节点，查询目录树时不持有副本索引的锁
+     * 2. 副本索引按段排序之后合并，每个段只加一次锁
+     * 3. 超过副本数量的文件让该 DataNode 删除
+     * 4. 查询目录树和添加副本之间文件可能刚好被删除，删除时的 removeFiles 已经执行过了，
+     *    所以对新加入的副本再批量检查一次
+     * </pre>
+     *
+     * @param hostname  DataNode
+     * @param filenames DataNode 上报的文件名，也就是文件ID
+     * @return 目录树中不存在的文件
+     */
+    public List<String> addReplicas(String hostname, List<String> filenames) {
+        DataNodeInfo dataNode = dataNodes.get(hostname);
+        if (dataNode == null || filenames.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // DataNode 上报的文件名是文件ID，文件被重命名之后仍然能找到
+        Node[] nodes = diskFileSystem.getInodesByFileId(filenames);
+        int count = 0;
+        String[] fileIds = new String[nodes.length];
+        String[] reported = new String[nodes.length];
+        int[] maxReplicas = new int[nodes.length];
+        List<String> orphans = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = nodes[i];
+            if (node == null) {
+                log.warn("上报的副本对应的文件不存在：[hostname={}, filename={}]", hostname, filenames.get(i));
+                orphans.add(filenames.get(i));
+                continue;
+            }
+            // 使用目录树中的文件ID对象作为索引的 key，不再额外保存一份上报的文件名
+            fileIds[count] = FsDirectory.getFileId(node, filenames.get(i));
+            reported[count] = filenames.get(i);
+            maxReplicas[count] = replicaNumOf(node);
+            nodes[count] = node;
+            count++;
+        }
+        int[] results = replicaIndex.addAll(fileIds, count, indexOf(hostname), maxReplicas);
+
+        List<String> added = new ArrayList<>(count);
+        List<Node> addedNodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            replicationScheduler.completed(fileIds[i], hostname);
+            if (results[i] == StripedReplicaIndex.FULL) {
+                // 如果该文件的副本数量超过配置的数量，则让该DataNode删除文件
+                RemoveReplicaTask task = new RemoveReplicaTask(hostname, reported[i]);
+                log.info("下发副本删除任务：[hostname={}, filename={}]", hostname, reported[i]);
                 dataNode.addRemoveReplicaTask(task);
-                return;
+            } else if (results[i] == StripedReplicaIndex.ADDED) {
+                added.add(fileIds[i]);
+                addedNodes.add(nodes[i]);
             }
+        }
+        if (added.isEmpty()) {
+            return orphans;
+        }
+        Node[] current = diskFileSystem.getInodesByFileId(added);
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] != addedNodes.get(i)) {
+                removeFiles(Collections.singletonList(added.get(i)));
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("收到DataNode文件上报：[hostname={}, files={}, added={}]", hostname, filenames.size(), added.size());
+        }
+        return orphans;
+    }
 
-            // 副本数量没有超过，将文件信息维护起来
-            dataNodeInfos.add(dataNode);
-            Map<String, FileInfo> files = filesByDataNode.computeIfAbsent(fileInfo.getHostname(), k -> new HashMap<>());
-            files.put(fileInfo.getFileName(), fileInfo);
-            if (log.isDebugEnabled()) {
-                log.debug("收到DataNode文件上报：[hostname={}, filename={}]", fileInfo.getHostname(), fileInfo.getFileName());
+    /**
+     * 移除同一个 DataNode 上的多个副本，用于 DataNode 增量上报已经删除的副本
+     *
+     * @param hostname DataNode
+     * @param fileIds  文件ID
+     * @return 确实从索引中移除了副本的文件ID
+     */
+    public List<String> removeReplicas(String hostname, List<String> fileIds) {
+        Integer index = dataNodeIndexes.get(hostname);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        List<String> removed = new ArrayList<>(fileIds.size());
+        for (String fileId : fileIds) {
+            if (replicaIndex.removeReplica(fileId, index)) {
+                removed.add(fileId);
             }
-        } finally {
-            replicaLock.writeLock().unlock();
         }
+        return removed;
     }
 
     /**
-     * 为复制任务申请副本，申请的dataNode需要排除目标DataNode的
+     * 处理全量上报的一个请求，和副本索引中该 DataNode 的文件做对比
      *
-     * @param fileInfo        文件信息
-     * @param excludeDataNode 排除的DataNode
-     */
-    private DataNodeInfo allocateReplicateDataNodes(FileInfo fileInfo, DataNodeInfo excludeDataNode) {
-        List<DataNodeInfo> dataNodeInfos = dataNodes.values().stream()
-                .filter(dataNodeInfo -> !dataNodeInfo.equals(excludeDataNode) &&
-                        dataNodeInfo.getStatus() == DataNodeInfo.STATUS_READY)
-                .sorted()
-                .collect(Collectors.toList());
-        try {
-            List<DataNodeInfo> dataNodesList = selectDataNodeFromList(dataNodeInfos,
-                    1, fileInfo.getFileName());
-            return dataNodesList.get(0);
-        } catch (Exception e) {
-            log.warn("allocateReplicateDataNodes select node failed.", e);
-            return null;
+     * <pre>
+     * 同一个 DataNode 的请求按顺序处理，reportId 变化表示开始了新一轮全量上报，
+     * 上一轮没有上报完的对比结果直接丢弃
+     *
+     * 1. 副本索引中没有的文件加入索引，目录树中也不存在的孤儿文件让 DataNode 删除
+     * 2. DataNode 上已经没有的副本从索引中移除，并创建复制任务补齐副本
+     * </pre>
+     *
+     * @param hostname  DataNode
+     * @param reportId  全量上报的批次
+     * @param filenames 上报的文件名，按照字符串顺序排好序
+     * @param finished  是否是最后一个请求
+     */
+    public void reconcileFullReport(String hostname, long reportId, List<String> filenames, boolean finished) {
+        DataNodeInfo dataNode = dataNodes.get(hostname);
+        if (dataNode == null) {
+            return;
+        }
+        FullReportMerger merger = fullReports.get(hostname);
+        if (merger == null || merger.getReportId() != reportId) {
+            merger = new FullReportMerger(reportId, replicaIndex.fileIdsOf(indexOf(hostname)));
+            fullReports.put(hostname, merger);
+        }
+        List<String> unknown = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        merger.merge(filenames, unknown, missing);
+        if (finished) {
+            merger.finish(missing);
+            fullReports.remove(hostname);
+        }
+
+        List<String> orphans = addReplicas(hostname, unknown);
+        for (String orphan : orphans) {
+            dataNode.addRemoveReplicaTask(new RemoveReplicaTask(hostname, orphan));
+        }
+        if (!missing.isEmpty()) {
+            log.warn("全量上报中缺少副本索引中的文件：[hostname={}, missing={}]", hostname, missing.size());
+            replicationScheduler.addAll(removeReplicas(hostname, missing));
+        }
+        if (!orphans.isEmpty()) {
+            log.info("全量上报中存在目录树中没有的文件，下发删除任务：[hostname={}, orphans={}]", hostname, orphans.size());
         }
     }
 
     /**
-     * 通过文件名选择一个可读的 DataNode，同时删除不可读的DataNode
+     * 文件要求的副本数量，大部分文件没有单独设置，不需要解析
      */
-    public DataNodeInfo chooseReadableDataNodeByFileName(String filename, DataNodeInfo toRemoveDataNode) {
-        replicaLock.readLock().lock();
-        try {
-            List<DataNodeInfo> dataNodeInfos = replicaByFilename.get(filename);
-            if (dataNodeInfos == null || dataNodeInfos.isEmpty()) {
-                return null;
+    int replicaNumOf(Node node) {
+        String replicaNum = node.getAttr().get(Constants.ATTR_REPLICA_NUM);
+        return replicaNum == null ? nameNodeConfig.getReplicaNum() : Integer.parseInt(replicaNum);
+    }
+
+    /**
+     * 文件被删除，移除这些文件的副本信息，并让持有副本的 DataNode 删除文件
+     *
+     * @param filenames 被删除的文件
+     */
+    public void removeFiles(Collection<String> filenames) {
+        for (String filename : filenames) {
+            replicationScheduler.fileRemoved(filename);
+            for (short index : replicaIndex.removeFile(filename)) {
+                DataNodeInfo dataNode = dataNodeAt(index);
+                if (dataNode != null) {
+                    dataNode.addRemoveReplicaTask(new RemoveReplicaTask(dataNode.getHostname(), filename));
+                }
             }
+        }
+    }
+
+    /**
+     * 文件当前的副本数量
+     */
+    int replicaCount(String fileId) {
+        return replicaIndex.replicaCount(fileId);
+    }
 
-            if (toRemoveDataNode != null) {
-                dataNodeInfos.remove(toRemoveDataNode);
+    /**
+     * 为复制任务申请副本，排除已经有副本的 DataNode。
+     * 剩下的副本都在同一个机架上时，优先放到其他机架
+     *
+     * @param fileId      文件ID
+     * @param unavailable 不能使用的 DataNode，比如复制任务已经满了的节点
+     */
+    DataNodeInfo allocateReplicateDataNode(String fileId, Predicate<DataNodeInfo> unavailable) {
+        Predicate<DataNodeInfo> exclude = unavailable.or(dataNodeInfo ->
+                dataNodeContainsFiles(dataNodeInfo.getHostname(), fileId));
+        List<DataNodeInfo> selected = Collections.emptyList();
+        if (racks.size() > 1) {
+            Set<String> replicaRacks = new HashSet<>();
+            for (short index : replicaIndex.replicasOf(fileId)) {
+                DataNodeInfo dataNode = dataNodeAt(index);
+                if (dataNode != null) {
+                    replicaRacks.add(dataNode.getRack());
+                }
+            }
+            if (replicaRacks.size() == 1) {
+                selected = placement.choose(1, exclude.or(dataNodeInfo -> replicaRacks.contains(dataNodeInfo.getRack())));
             }
-            // 从可读 DataNode 中选择节点，目前的策略是 random 策略
-            // round-robin 策略 todo
-            int size = dataNodeInfos.size();
-            Random random = new Random();
-            int i = random.nextInt(size);
-            return dataNodeInfos.get(i);
-        } finally {
-            replicaLock.readLock().unlock();
         }
+        if (selected.isEmpty()) {
+            selected = placement.choose(1, exclude);
+        }
+        return selected.isEmpty() ? null : selected.get(0);
     }
 
+    /**
+     * 按照和客户端的距离排序文件的副本：同一台机器 > 同一个机架 > 其他机架 > Stale 状态的 DataNode。
+     * 距离相同的副本按照心跳上报的平均耗时和负载排序，见 {@link DataNodeInfo#readCost()}，代价相同时随机排列
+     *
+     * @param filename   文件名
+     * @param clientHost 读取文件的客户端地址
+     * @return 持有副本的 DataNode
+     */
+    public List<DataNodeInfo> sortReplicasByDistance(String filename, String clientHost) {
+        short[] replicas = replicaIndex.replicasOf(filename);
+        List<RankedReplica> ranked = new ArrayList<>(replicas.length);
+        DataNodeInfo client = dataNodeOf(clientHost);
+        String clientRack = client != null ? client.getRack() :
+                (clientHost == null ? null : topologyResolver.resolve(clientHost));
+        for (short index : replicas) {
+            DataNodeInfo dataNode = dataNodeAt(index);
+            if (dataNode != null) {
+                // 排序期间心跳可能更新负载，先取出排序用的值
+                ranked.add(new RankedReplica(dataNode, distance(dataNode, client, clientRack), dataNode.readCost()));
+            }
+        }
+        if (ranked.size() > 1) {
+            Collections.shuffle(ranked, ThreadLocalRandom.current());
+            ranked.sort(Comparator.comparingInt((RankedReplica replica) -> replica.distance)
+                    .thenComparingDouble(replica -> replica.cost));
+        }
+        List<DataNodeInfo> result = new ArrayList<>(ranked.size());
+        for (RankedReplica replica : ranked) {
+            result.add(replica.dataNode);
+        }
+        return result;
+    }
+
+    /**
+     * 为客户端读取文件选择副本，排在第一位的副本计入最近的读取次数，
+     * 下一次心跳之前的其他读取请求会相应地把它往后排
+     *
+     * @param filename   文件ID
+     * @param clientHost 客户端地址
+     * @return 排好序的副本，客户端按顺序尝试
+     */
+    public List<DataNodeInfo> chooseReplicasForRead(String filename, String clientHost) {
+        List<DataNodeInfo> replicas = sortReplicasByDistance(filename, clientHost);
+        if (!replicas.isEmpty()) {
+            replicas.get(0).getRecentReads().incrementAndGet();
+        }
+        return replicas;
+    }
+
+    /**
+     * 为复制任务选择源副本，从离目标 DataNode 最近的副本复制，尽量不跨机架传输
+     *
+     * @param fileId      文件ID
+     * @param target      目标 DataNode
+     * @param unavailable 不能使用的 DataNode
+     * @return 没有可用的副本时返回 null
+     */
+    DataNodeInfo chooseReplicaSource(String fileId, DataNodeInfo target, Predicate<DataNodeInfo> unavailable) {
+        for (DataNodeInfo dataNode : sortReplicasByDistance(fileId, target.getHostname())) {
+            if (dataNode.getStatus() != DataNodeInfo.STATUS_STALE && !unavailable.test(dataNode)) {
+                return dataNode;
+            }
+        }
+        return null;
+    }
+
+    private int distance(DataNodeInfo dataNode, DataNodeInfo client, String clientRack) {
+        if (dataNode.getStatus() == DataNodeInfo.STATUS_STALE) {
+            return 3;
+        }
+        if (dataNode == client) {
+            return 0;
+        }
+        return dataNode.getRack().equals(clientRack) ? 1 : 2;
+    }
+
+
+    private static class RankedReplica {
+        private final DataNodeInfo dataNode;
+        private final int distance;
+        private final double cost;
+
+        RankedReplica(DataNodeInfo dataNode, int distance, double cost) {
+            this.dataNode = dataNode;
+            this.distance = distance;
+            this.cost = cost;
+        }
+    }
 
     public DataNodeInfo getDataNode(String hostname) {
         return dataNodes.get(hostname);
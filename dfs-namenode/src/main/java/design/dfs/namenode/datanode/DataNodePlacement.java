@@ -0,0 +1,219 @@
+package design.dfs.namenode.datanode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * 副本分配
+ *
+ * <pre>
+ * 原来每次创建文件都要把所有 DataNode 过滤、排序一遍，再随机挑选，挑到重复的节点时返回的数量还会不够。
+ * 这里用树状数组维护每个 DataNode 的权重，下标和副本索引中的 DataNode 下标相同：
+ *
+ * 1. 权重 = 可用空间 / (1 + 正在接收的文件数 + 最近分配的写入数)，见 {@link DataNodeInfo#placementWeight()}
+ * 2. 注册、Ready、心跳、分配之后只更新对应节点的权重，O(log M)
+ * 3. 按权重随机选择一个节点 O(log M)，选中之后把权重临时置为 0 再选下一个，
+ *    N 个互不相同的节点总共 O(N log M)
+ *
+ * 按权重随机而不是总选权重最大的节点，避免同一时刻的大量写入都集中到同一个 DataNode 上
+ * </pre>
+ */
+public class DataNodePlacement {
+    /**
+     * 最近写入数量每次心跳的衰减系数
+     */
+    private static final double WRITE_LOAD_DECAY = 0.5;
+    /**
+     * 浮点数累加会有误差，更新这么多次之后整体重建一次
+     */
+    private static final int REBUILD_THRESHOLD = 1 << 16;
+
+    private DataNodeInfo[] nodes = new DataNodeInfo[16];
+    private double[] weights = new double[16];
+    /**
+     * 树状数组，下标从 1 开始
+     */
+    private double[] tree = new double[17];
+    private int updates;
+    private final Random random;
+
+    public DataNodePlacement() {
+        this(new Random());
+    }
+
+    DataNodePlacement(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * DataNode 信息变化之后重新计算权重
+     *
+     * @param index    DataNode 下标
+     * @param dataNode DataNode
+     */
+    public synchronized void update(int index, DataNodeInfo dataNode) {
+        ensureCapacity(index + 1);
+        nodes[index] = dataNode;
+        setWeight(index, dataNode.placementWeight());
+    }
+
+    /**
+     * 收到心跳，最近写入数量衰减之后重新计算权重
+     */
+    public synchronized void heartbeat(int index, DataNodeInfo dataNode) {
+        dataNode.setRecentWrites(dataNode.getRecentWrites() * WRITE_LOAD_DECAY);
+        update(index, dataNode);
+    }
+
+    /**
+     * 移除 DataNode
+     */
+    public synchronized void remove(int index) {
+        if (index < nodes.length) {
+            nodes[index] = null;
+            setWeight(index, 0);
+        }
+    }
+
+    /**
+     * 按权重随机选择互不相同的 DataNode
+     *
+     * @param count   需要的数量
+     * @param exclude 不能选择的 DataNode，例如已经有这个文件的副本
+     * @return 选中的 DataNode，可选的节点不够时数量少于 count
+     */
+    public synchronized List<DataNodeInfo> choose(int count, Predicate<DataNodeInfo> exclude) {
+        List<DataNodeInfo> selected = new ArrayList<>(count);
+        List<Integer> zeroed = new ArrayList<>(count);
+        List<Double> saved = new ArrayList<>(count);
+        try {
+            while (selected.size() < count) {
+                double total = prefixSum(nodes.length);
+                if (total <= 0) {
+                    break;
+                }
+                int index = search(random.nextDouble() * total);
+                if (index >= nodes.length || weights[index] <= 0) {
+                    // 浮点误差导致落在权重为 0 的位置，重建之后重新选择
+                    rebuild();
+                    index = search(random.nextDouble() * prefixSum(nodes.length));
+                    if (index >= nodes.length || weights[index] <= 0) {
+                        break;
+                    }
+                }
+                zeroed.add(index);
+                saved.add(weights[index]);
+                setWeight(index, 0);
+                if (!exclude.test(nodes[index])) {
+                    selected.add(nodes[index]);
+                }
+            }
+        } finally {
+            for (int i = 0; i < zeroed.size(); i++) {
+                setWeight(zeroed.get(i), saved.get(i));
+            }
+        }
+        for (DataNodeInfo dataNode : selected) {
+            dataNode.setRecentWrites(dataNode.getRecentWrites() + 1);
+        }
+        for (int index : zeroed) {
+            if (nodes[index] != null) {
+                setWeight(index, nodes[index].placementWeight());
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 直接选择指定的 DataNode，例如写入的客户端所在的机器，和按权重选中一样计入最近的写入数量
+     *
+     * @param index DataNode 下标
+     * @return 不可选时返回 false
+     */
+    public synchronized boolean select(int index) {
+        if (index < 0 || index >= nodes.length || weights[index] <= 0) {
+            return false;
+        }
+        DataNodeInfo dataNode = nodes[index];
+        dataNode.setRecentWrites(dataNode.getRecentWrites() + 1);
+        setWeight(index, dataNode.placementWeight());
+        return true;
+    }
+
+    /**
+     * 撤销一次分配，分配之后文件没有创建成功时把计入的最近写入数量减回去
+     *
+     * @param index DataNode 下标
+     */
+    public synchronized void release(int index) {
+        if (index < 0 || index >= nodes.length || nodes[index] == null) {
+            return;
+        }
+        DataNodeInfo dataNode = nodes[index];
+        // 最近写入数量在心跳时衰减过，不能减成负数
+        dataNode.setRecentWrites(Math.max(0, dataNode.getRecentWrites() - 1));
+        setWeight(index, dataNode.placementWeight());
+    }
+
+    private void setWeight(int index, double weight) {
+        double delta = weight - weights[index];
+        weights[index] = weight;
+        if (delta != 0) {
+            for (int i = index + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+        if (++updates >= REBUILD_THRESHOLD) {
+            rebuild();
+        }
+    }
+
+    private double prefixSum(int end) {
+        double sum = 0;
+        for (int i = end; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 找到前缀和第一次超过 target 的下标
+     */
+    private int search(double target) {
+        int position = 0;
+        for (int step = Integer.highestOneBit(nodes.length); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next < tree.length && tree[next] <= target) {
+                position = next;
+                target -= tree[next];
+            }
+        }
+        return position;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= nodes.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, nodes.length * 2);
+        nodes = Arrays.copyOf(nodes, newCapacity);
+        weights = Arrays.copyOf(weights, newCapacity);
+        tree = new double[newCapacity + 1];
+        rebuild();
+    }
+
+    private void rebuild() {
+        Arrays.fill(tree, 0);
+        for (int i = 1; i < tree.length; i++) {
+            tree[i] += weights[i - 1];
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+        updates = 0;
+    }
+}
@@ -0,0 +1,59 @@
+package design.dfs.namenode.datanode;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 从文件读取机架配置
+ *
+ * <pre>
+ * 每行一台机器，hostname 和机架用空白分隔，# 开头的是注释，同一台机器的 hostname 和 IP 可以分别配置一行：
+ *
+ *   datanode01  /dc1/rack1
+ *   10.0.0.11   /dc1/rack1
+ *   datanode02  /dc1/rack2
+ *
+ * 没有配置文件时所有机器都在 {@link TopologyResolver#DEFAULT_RACK}，分配和读取退化为不区分机架
+ * </pre>
+ */
+@Slf4j
+public class FileTopologyResolver implements TopologyResolver {
+    private final Map<String, String> racks = new HashMap<>();
+
+    public FileTopologyResolver(String topologyFile) {
+        if (StringUtils.isEmpty(topologyFile)) {
+            return;
+        }
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(topologyFile), StandardCharsets.UTF_8);
+            for (String line : lines) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if (parts.length < 2) {
+                    log.warn("忽略格式错误的机架配置：[line={}]", line);
+                    continue;
+                }
+                racks.put(parts[0], parts[1]);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("读取机架配置文件失败：" + topologyFile, e);
+        }
+        log.info("加载机架配置：[file={}, hosts={}]", topologyFile, racks.size());
+    }
+
+    @Override
+    public String resolve(String hostname) {
+        return racks.getOrDefault(hostname, DEFAULT_RACK);
+    }
+}
@@ -0,0 +1,69 @@
+package design.dfs.namenode.datanode;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 全量上报和副本索引的对比
+ *
+ * <pre>
+ * DataNode 全量上报的文件按文件名排好序，分成多个请求发送。收到第一个请求时取出副本索引中该 DataNode
+ * 的文件ID 并排序，之后每个请求和它做一次线性归并：
+ *
+ * 1. 只在上报中出现的文件：副本索引中没有，需要加入索引，目录树中也不存在的就是孤儿文件
+ * 2. 只在副本索引中出现的文件：DataNode 上已经没有了，是丢失的副本
+ *
+ * 归并只需要在两个有序序列上各走一遍，不需要为每个文件查询一次索引
+ * </pre>
+ */
+class FullReportMerger {
+    private final long reportId;
+    private final String[] expected;
+    private int position;
+
+    /**
+     * @param reportId 上报的批次，DataNode 开始扫描的时间
+     * @param expected 副本索引中该 DataNode 的文件ID
+     */
+    FullReportMerger(long reportId, List<String> expected) {
+        this.reportId = reportId;
+        this.expected = expected.toArray(new String[0]);
+        Arrays.sort(this.expected);
+    }
+
+    long getReportId() {
+        return reportId;
+    }
+
+    /**
+     * 归并一个上报请求
+     *
+     * @param reported 上报的文件名，按照字符串顺序排好序，并且在上一个请求的文件之后
+     * @param unknown  只在上报中出现的文件
+     * @param missing  只在副本索引中出现的文件
+     */
+    void merge(List<String> reported, List<String> unknown, List<String> missing) {
+        for (String filename : reported) {
+            int cmp = -1;
+            while (position < expected.length && (cmp = expected[position].compareTo(filename)) < 0) {
+                missing.add(expected[position++]);
+            }
+            if (position < expected.length && cmp == 0) {
+                position++;
+            } else {
+                unknown.add(filename);
+            }
+        }
+    }
+
+    /**
+     * 最后一个请求归并完之后，剩下的都是丢失的副本
+     *
+     * @param missing 只在副本索引中出现的文件
+     */
+    void finish(List<String> missing) {
+        while (position < expected.length) {
+            missing.add(expected[position++]);
+        }
+    }
+}
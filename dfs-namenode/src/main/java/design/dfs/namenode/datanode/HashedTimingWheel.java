@@ -0,0 +1,99 @@
+package design.dfs.namenode.datanode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * 哈希时间轮，跟踪 DataNode 的心跳超时
+ *
+ * <pre>
+ * 时间按 tickMs 分成刻度，每个刻度对应一个桶，元素按截止时间放入对应的桶，超过一圈的截止时间哈希到同一个桶中。
+ * 推进时间轮只检查走过的桶，和元素总数无关。
+ *
+ * 截止时间由 deadlineOf 实时计算，心跳只需要更新 DataNode 的时间戳，不需要操作时间轮：
+ * 桶被检查时截止时间还没到（收到过新的心跳，或者还差几圈），就按新的截止时间重新放入对应的桶。
+ * 每个元素在一个超时周期内最多被检查一两次，心跳越频繁节省越多。
+ *
+ * 超时的精度是一个刻度
+ * </pre>
+ *
+ * @param <T> 元素类型
+ */
+class HashedTimingWheel<T> {
+    private final long tickMs;
+    private final int mask;
+    private final List<T>[] buckets;
+    private final ToLongFunction<T> deadlineOf;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMs        刻度，单位毫秒
+     * @param ticksPerWheel 一圈的刻度数量，向上取整为 2 的幂
+     * @param deadlineOf    元素当前的截止时间
+     * @param startTime     开始时间
+     */
+    @SuppressWarnings("unchecked")
+    HashedTimingWheel(long tickMs, int ticksPerWheel, ToLongFunction<T> deadlineOf, long startTime) {
+        int capacity = Integer.highestOneBit(Math.max(ticksPerWheel - 1, 1)) << 1;
+        this.tickMs = tickMs;
+        this.mask = capacity - 1;
+        this.buckets = new List[capacity];
+        for (int i = 0; i < capacity; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.deadlineOf = deadlineOf;
+        this.currentTick = startTime / tickMs;
+    }
+
+    /**
+     * 开始跟踪一个元素，同一个元素不能重复加入
+     */
+    synchronized void add(T item) {
+        place(item);
+        size++;
+    }
+
+    /**
+     * 推进到当前时间，取出所有已经超时的元素，不再跟踪。需要继续跟踪的元素重新调用 {@link #add(Object)}
+     *
+     * @param now 当前时间
+     * @return 超时的元素
+     */
+    synchronized List<T> expire(long now) {
+        List<T> expired = new ArrayList<>();
+        long targetTick = now / tickMs;
+        if (targetTick - currentTick > buckets.length) {
+            // 停顿了一圈以上，每个桶检查一次就够了
+            currentTick = targetTick - buckets.length;
+        }
+        while (currentTick < targetTick) {
+            currentTick++;
+            int index = (int) (currentTick & mask);
+            List<T> bucket = buckets[index];
+            if (bucket.isEmpty()) {
+                continue;
+            }
+            buckets[index] = new ArrayList<>();
+            for (T item : bucket) {
+                if (deadlineOf.applyAsLong(item) <= now) {
+                    expired.add(item);
+                    size--;
+                } else {
+                    place(item);
+                }
+            }
+        }
+        return expired;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private void place(T item) {
+        long tick = Math.max(deadlineOf.applyAsLong(item) / tickMs, currentTick + 1);
+        buckets[(int) (tick & mask)].add(item);
+    }
+}
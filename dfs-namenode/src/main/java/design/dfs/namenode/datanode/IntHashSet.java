@@ -0,0 +1,106 @@
+package design.dfs.namenode.datanode;
+
+import java.util.function.IntConsumer;
+
+/**
+ * 非负 int 的开放寻址集合，线性探测，不装箱
+ *
+ * <pre>
+ * 数组中保存 value + 1，0 表示空位。线程不安全，由调用方加锁
+ * </pre>
+ */
+class IntHashSet {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] table = new int[INITIAL_CAPACITY];
+    private int size;
+    private int threshold = INITIAL_CAPACITY * 2 / 3;
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int value) {
+        int stored = value + 1;
+        int mask = table.length - 1;
+        for (int i = hash(stored) & mask; table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == stored) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean add(int value) {
+        if (size >= threshold) {
+            rehash(table.length * 2);
+        }
+        int stored = value + 1;
+        int mask = table.length - 1;
+        int i = hash(stored) & mask;
+        while (table[i] != 0) {
+            if (table[i] == stored) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = stored;
+        size++;
+        return true;
+    }
+
+    boolean remove(int value) {
+        int stored = value + 1;
+        int mask = table.length - 1;
+        int i = hash(stored) & mask;
+        while (table[i] != stored) {
+            if (table[i] == 0) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = 0;
+        size--;
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int k = hash(table[j]) & mask;
+            boolean stay = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (stay) {
+                continue;
+            }
+            table[i] = table[j];
+            table[j] = 0;
+            i = j;
+        }
+        return true;
+    }
+
+    void forEach(IntConsumer consumer) {
+        for (int stored : table) {
+            if (stored != 0) {
+                consumer.accept(stored - 1);
+            }
+        }
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void rehash(int capacity) {
+        int[] old = table;
+        table = new int[capacity];
+        threshold = capacity * 2 / 3;
+        int mask = capacity - 1;
+        for (int stored : old) {
+            if (stored == 0) {
+                continue;
+            }
+            int i = hash(stored) & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = stored;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package design.dfs.namenode.datanode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 紧凑的副本索引
+ *
+ * <pre>
+ * 原来的结构是 Map&lt;文件名, List&lt;DataNodeInfo&gt;&gt; 和 Map&lt;hostname, Map&lt;文件名, FileInfo&gt;&gt;，
+ * 每个副本都有 HashMap 的 Entry、ArrayList 和 FileInfo 对象，千万级文件时比目录树本身占用的内存还多。这里改为：
+ *
+ * 1. 文件ID 到文件编号的开放寻址哈希表，只有两个数组，没有 Entry 对象。
+ *    文件ID 使用目录树中的同一个字符串对象，不会额外保存一份路径
+ * 2. 文件编号到持有副本的 DataNode 下标的 short 数组，副本数量通常只有 2~3 个
+ * 3. 每个 DataNode 持有的文件编号保存在 int 的开放寻址集合里
+ *
+ * 文件编号只在 NameNode 进程内有效，重启之后由 DataNode 重新上报生成，不需要持久化。
+ * 删除的文件编号会被复用。
+ * 查询方法不创建对象；线程不安全，由调用方加锁，只读的方法可以并发调用
+ * </pre>
+ */
+public class ReplicaIndex {
+    private static final short[] NO_REPLICAS = new short[0];
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * 文件ID -> 文件编号的哈希表，线性探测，keys[i] == null 表示空位
+     */
+    private String[] keys;
+    private int[] values;
+    private int size;
+    private int threshold;
+
+    /**
+     * 文件编号 -> 文件ID
+     */
+    private String[] fileIds;
+    /**
+     * 文件编号 -> 持有副本的 DataNode 下标
+     */
+    private short[][] replicas;
+    private int nextId;
+    private int[] freeIds = new int[16];
+    private int freeCount;
+
+    /**
+     * DataNode 下标 -> 该 DataNode 持有的文件编号
+     */
+    private IntHashSet[] filesByDataNode = new IntHashSet[8];
+
+    public ReplicaIndex() {
+        this.keys = new String[INITIAL_CAPACITY];
+        this.values = new int[INITIAL_CAPACITY];
+        this.threshold = INITIAL_CAPACITY * 2 / 3;
+        this.fileIds = new String[INITIAL_CAPACITY];
+        this.replicas = new short[INITIAL_CAPACITY][];
+    }
+
+    /**
+     * 文件数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 文件的副本数量
+     *
+     * @param fileId 文件ID
+     * @return 副本数量，文件不存在时为 0
+     */
+    public int replicaCount(String fileId) {
+        int id = find(fileId);
+        return id < 0 ? 0 : replicas[id].length;
+    }
+
+    /**
+     * 持有文件副本的 DataNode 下标
+     *
+     * @param fileId 文件ID
+     * @return DataNode 下标，文件不存在时返回空数组。数组在修改副本时整体替换，调用方不能修改
+     */
+    public short[] replicasOf(String fileId) {
+        int id = find(fileId);
+        return id < 0 ? NO_REPLICAS : replicas[id];
+    }
+
+    /**
+     * DataNode 上是否有文件的副本
+     *
+     * @param fileId    文件ID
+     * @param dataNode  DataNode 下标
+     * @return 是否有副本
+     */
+    public boolean contains(String fileId, int dataNode) {
+        int id = find(fileId);
+        return id >= 0 && indexOf(replicas[id], dataNode) >= 0;
+    }
+
+    /**
+     * DataNode 持有的副本数量
+     *
+     * @param dataNode DataNode 下标
+     * @return 副本数量
+     */
+    public int replicaCountOf(int dataNode) {
+        IntHashSet files = dataNode < filesByDataNode.length ? filesByDataNode[dataNode] : null;
+        return files == null ? 0 : files.size();
+    }
+
+    /**
+     * 添加一个副本
+     *
+     * @param fileId   文件ID，保存的是这个字符串对象本身，调用方应该传入目录树中的对象
+     * @param dataNode DataNode 下标
+     * @return 副本已经存在时返回 false
+     */
+    public boolean add(String fileId, int dataNode) {
+        int id = find(fileId);
+        if (id < 0) {
+            id = allocateId();
+            put(fileId, id);
+            fileIds[id] = fileId;
+            replicas[id] = NO_REPLICAS;
+        }
+        short[] current = replicas[id];
+        if (indexOf(current, dataNode) >= 0) {
+            return false;
+        }
+        short[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = (short) dataNode;
+        replicas[id] = updated;
+        filesOf(dataNode).add(id);
+        return true;
+    }
+
+    /**
+     * 移除文件的所有副本
+     *
+     * @param fileId 文件ID
+     * @return 持有副本的 DataNode 下标，文件不存在时返回空数组
+     */
+    public short[] removeFile(String fileId) {
+        int id = find(fileId);
+        if (id < 0) {
+            return NO_REPLICAS;
+        }
+        short[] removed = replicas[id];
+        for (short dataNode : removed) {
+            filesByDataNode[dataNode].remove(id);
+        }
+        release(id);
+        return removed;
+    }
+
+    /**
+     * 移除文件在一个 DataNode 上的副本，失去全部副本的文件从索引中移除
+     *
+     * @param fileId   文件ID
+     * @param dataNode DataNode 下标
+     * @return 副本不存在时返回 false
+     */
+    public boolean removeReplica(String fileId, int dataNode) {
+        int id = find(fileId);
+        if (id < 0) {
+            return false;
+        }
+        short[] current = replicas[id];
+        int index = indexOf(current, dataNode);
+        if (index < 0) {
+            return false;
+        }
+        filesByDataNode[dataNode].remove(id);
+        if (current.length == 1) {
+            release(id);
+            return true;
+        }
+        short[] updated = new short[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        replicas[id] = updated;
+        return true;
+    }
+
+    /**
+     * DataNode 持有副本的文件ID
+     *
+     * @param dataNode DataNode 下标
+     * @param result   结果追加到这个列表中
+     */
+    public void fileIdsOf(int dataNode, List<String> result) {
+        IntHashSet files = dataNode < filesByDataNode.length ? filesByDataNode[dataNode] : null;
+        if (files != null) {
+            files.forEach(id -> result.add(fileIds[id]));
+        }
+    }
+
+    /**
+     * 移除一个 DataNode 的所有副本，失去全部副本的文件也会从索引中移除
+     *
+     * @param dataNode DataNode 下标
+     * @return 该 DataNode 上有副本的文件ID
+     */
+    public List<String> removeDataNode(int dataNode) {
+        IntHashSet files = dataNode < filesByDataNode.length ? filesByDataNode[dataNode] : null;
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        filesByDataNode[dataNode] = null;
+        List<String> result = new ArrayList<>(files.size());
+        files.forEach(id -> {
+            result.add(fileIds[id]);
+            short[] current = replicas[id];
+            int index = indexOf(current, dataNode);
+            if (current.length == 1 && index == 0) {
+                release(id);
+                return;
+            }
+            short[] updated = new short[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            replicas[id] = updated;
+        });
+        return result;
+    }
+
+    private static int indexOf(short[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private IntHashSet filesOf(int dataNode) {
+        if (dataNode >= filesByDataNode.length) {
+            filesByDataNode = Arrays.copyOf(filesByDataNode, Math.max(dataNode + 1, filesByDataNode.length * 2));
+        }
+        IntHashSet files = filesByDataNode[dataNode];
+        if (files == null) {
+            files = new IntHashSet();
+            filesByDataNode[dataNode] = files;
+        }
+        return files;
+    }
+
+    private int allocateId() {
+        if (freeCount > 0) {
+            return freeIds[--freeCount];
+        }
+        if (nextId == fileIds.length) {
+            int capacity = fileIds.length + (fileIds.length >> 1);
+            fileIds = Arrays.copyOf(fileIds, capacity);
+            replicas = Arrays.copyOf(replicas, capacity);
+        }
+        return nextId++;
+    }
+
+    private void release(int id) {
+        removeKey(fileIds[id]);
+        fileIds[id] = null;
+        replicas[id] = null;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int find(String key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(key)) {
+                return values[i];
+            }
+        }
+        return -1;
+    }
+
+    private void put(String key, int value) {
+        if (size >= threshold) {
+            rehash(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    /**
+     * 线性探测的删除，把后面受影响的元素往前移动，不使用墓碑
+     */
+    private void removeKey(String key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (!key.equals(keys[i])) {
+            if (keys[i] == null) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = null;
+        size--;
+        for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+            int k = hash(keys[j]) & mask;
+            boolean stay = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (stay) {
+                continue;
+            }
+            keys[i] = keys[j];
+            values[i] = values[j];
+            keys[j] = null;
+            i = j;
+        }
+    }
+
+    private void rehash(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[capacity];
+        values = new int[capacity];
+        threshold = capacity * 2 / 3;
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == null) {
+                continue;
+            }
+            int i = hash(oldKeys[j]) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+}
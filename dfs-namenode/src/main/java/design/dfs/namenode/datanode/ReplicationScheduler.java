@@ -0,0 +1,353 @@
+package design.dfs.namenode.datanode;
+
+import design.dfs.common.Constants;
+import design.dfs.namenode.config.NameNodeConfig;
+import design.dfs.namenode.fs.Node;
+import design.dfs.namenode.rebalance.ReplicaTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * 副本复制任务的调度
+ *
+ * <pre>
+ * 原来 DataNode 宕机时一次性为它的所有文件创建复制任务，几十万个任务同时下发给剩下的节点，
+ * 复制流量挤占正常的读写，而且只剩一个副本的文件和还剩两个副本的文件没有先后之分。
+ *
+ * 现在副本不足的文件先进入 {@link UnderReplicatedQueue}，由定时任务按优先级分配：
+ * 1. 每个 DataNode 同时参与的复制任务（作为源或者目标）不超过 replication.max.streams 个
+ * 2. 每个 DataNode 按 replication.bandwidth 限制复制流量，使用令牌桶，大文件可以透支，透支之后等令牌补回来。
+ *    令牌在每一轮开始时统一补充，不足一个令牌的时间累积到下一轮，带宽很小时也能补回来
+ * 3. 任务下发之后在 replication.task.timeout 内没有收到目标 DataNode 的副本上报就算失败，
+ *    释放占用的配额并重新排队，超过 replication.max.retries 次之后放弃
+ *
+ * 配置小于等于 0 时不做对应的限制
+ * </pre>
+ */
+@Slf4j
+class ReplicationScheduler implements Runnable {
+    /**
+     * 每一轮最多检查的文件数量
+     */
+    private static final int MAX_FILES_PER_ROUND = 1000;
+    /**
+     * 连续这么多个文件找不到空闲的 DataNode 时说明集群已经满负荷，结束本轮
+     */
+    private static final int MAX_MISSES = 50;
+
+    private final DataNodeManager dataNodeManager;
+    private final int maxStreams;
+    private final long bandwidth;
+    private final long taskTimeout;
+    private final int maxRetries;
+
+    private final UnderReplicatedQueue queue = new UnderReplicatedQueue();
+    /**
+     * 已经下发还没有完成的任务，文件ID -> 任务
+     */
+    private final Map<String, List<PendingTask>> pending = new HashMap<>();
+    private final Map<String, HostLoad> loads = new HashMap<>();
+    /**
+     * 超时失败的次数
+     */
+    private final Map<String, Integer> attempts = new HashMap<>();
+    /**
+     * 副本上报时先检查一下，没有复制任务时不需要加锁
+     */
+    private volatile int pendingCount;
+
+    ReplicationScheduler(DataNodeManager dataNodeManager, NameNodeConfig nameNodeConfig) {
+        this.dataNodeManager = dataNodeManager;
+        this.maxStreams = nameNodeConfig.getReplicationMaxStreams();
+        this.bandwidth = nameNodeConfig.getReplicationBandwidth();
+        this.taskTimeout = nameNodeConfig.getReplicationTaskTimeout();
+        this.maxRetries = nameNodeConfig.getReplicationMaxRetries();
+    }
+
+    /**
+     * 文件丢失了副本，加入队列等待复制
+     */
+    synchronized void addAll(List<String> fileIds) {
+        for (String fileId : fileIds) {
+            queue.add(fileId, dataNodeManager.replicaCount(fileId));
+        }
+        if (!fileIds.isEmpty()) {
+            log.info("副本不足的文件加入复制队列：[added={}, queued={}]", fileIds.size(), queue.size());
+        }
+    }
+
+    /**
+     * DataNode 上报了新的副本，如果是复制任务的目标则任务完成
+     */
+    void completed(String fileId, String hostname) {
+        if (pendingCount == 0) {
+            return;
+        }
+        synchronized (this) {
+            List<PendingTask> tasks = pending.get(fileId);
+            if (tasks == null) {
+                return;
+            }
+            Iterator<PendingTask> iterator = tasks.iterator();
+            while (iterator.hasNext()) {
+                PendingTask task = iterator.next();
+                if (task.target.equals(hostname)) {
+                    iterator.remove();
+                    release(task);
+                    break;
+                }
+            }
+            if (tasks.isEmpty()) {
+                pending.remove(fileId);
+                attempts.remove(fileId);
+            }
+        }
+    }
+
+    /**
+     * 文件被删除，不再复制
+     */
+    synchronized void fileRemoved(String fileId) {
+        queue.remove(fileId);
+        attempts.remove(fileId);
+        List<PendingTask> tasks = pending.remove(fileId);
+        if (tasks != null) {
+            tasks.forEach(this::release);
+        }
+    }
+
+    /**
+     * DataNode 失联或者下线，从它复制或者复制到它的任务不会完成了，重新排队
+     */
+    synchronized void dataNodeRemoved(String hostname) {
+        Iterator<Map.Entry<String, List<PendingTask>>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, List<PendingTask>> entry = iterator.next();
+            boolean affected = entry.getValue().removeIf(task -> {
+                if (task.target.equals(hostname) || task.source.equals(hostname)) {
+                    release(task);
+                    return true;
+                }
+                return false;
+            });
+            if (affected) {
+                queue.add(entry.getKey(), dataNodeManager.replicaCount(entry.getKey()));
+            }
+            if (entry.getValue().isEmpty()) {
+                iterator.remove();
+            }
+        }
+        loads.remove(hostname);
+    }
+
+    @Override
+    public void run() {
+        try {
+            run(System.currentTimeMillis());
+        } catch (Exception e) {
+            log.error("分配副本复制任务失败：", e);
+        }
+    }
+
+    /**
+     * 执行一轮检查和分配
+     *
+     * @param now 当前时间
+     */
+    void run(long now) {
+        checkTimeouts(now);
+        schedule(now);
+    }
+
+    /**
+     * 已经下发还没有完成的任务数量
+     */
+    int pendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * 排队等待复制的文件数量
+     */
+    synchronized int queuedCount() {
+        return queue.size();
+    }
+
+    private synchronized void checkTimeouts(long now) {
+        if (taskTimeout <= 0 || pending.isEmpty()) {
+            return;
+        }
+        Iterator<Map.Entry<String, List<PendingTask>>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, List<PendingTask>> entry = iterator.next();
+            String fileId = entry.getKey();
+            boolean expired = entry.getValue().removeIf(task -> {
+                if (now >= task.deadline) {
+                    log.warn("副本复制任务超时：[filename={}, from={}, to={}]", fileId, task.source, task.target);
+                    release(task);
+                    return true;
+                }
+                return false;
+            });
+            if (entry.getValue().isEmpty()) {
+                iterator.remove();
+            }
+            if (!expired) {
+                continue;
+            }
+            int attempt = attempts.merge(fileId, 1, Integer::sum);
+            if (attempt > maxRetries) {
+                log.error("副本复制多次失败，放弃复制：[filename={}, attempts={}]", fileId, attempt);
+                attempts.remove(fileId);
+                queue.remove(fileId);
+            } else {
+                queue.add(fileId, dataNodeManager.replicaCount(fileId));
+            }
+        }
+    }
+
+    private synchronized void schedule(long now) {
+        if (queue.size() == 0) {
+            return;
+        }
+        refill(now);
+        List<String> fileIds = queue.peek(MAX_FILES_PER_ROUND);
+        Node[] nodes = dataNodeManager.getDiskFileSystem().getInodesByFileId(fileIds);
+        Predicate<DataNodeInfo> busy = dataNode -> !available(dataNode.getHostname());
+        int scheduled = 0;
+        int misses = 0;
+        for (int i = 0; i < nodes.length && misses < MAX_MISSES; i++) {
+            String fileId = fileIds.get(i);
+            if (nodes[i] == null) {
+                queue.remove(fileId);
+                continue;
+            }
+            int current = dataNodeManager.replicaCount(fileId);
+            if (current == 0) {
+                log.error("文件的副本全部丢失，无法复制：[filename={}]", fileId);
+                queue.remove(fileId);
+                continue;
+            }
+            List<PendingTask> tasks = pending.getOrDefault(fileId, Collections.emptyList());
+            int needed = dataNodeManager.replicaNumOf(nodes[i]) - current - tasks.size();
+            if (needed <= 0) {
+                queue.remove(fileId);
+                continue;
+            }
+            DataNodeInfo target = dataNodeManager.allocateReplicateDataNode(fileId,
+                    busy.or(dataNode -> isTarget(tasks, dataNode.getHostname())));
+            DataNodeInfo source = target == null ? null : dataNodeManager.chooseReplicaSource(fileId, target, busy);
+            if (source == null) {
+                misses++;
+                continue;
+            }
+            misses = 0;
+            PendingTask task = new PendingTask(source.getHostname(), target.getHostname(),
+                    fileSizeOf(nodes[i]), taskTimeout > 0 ? now + taskTimeout : Long.MAX_VALUE);
+            acquire(task, now);
+            pending.computeIfAbsent(fileId, k -> new ArrayList<>(1)).add(task);
+            if (needed == 1) {
+                queue.remove(fileId);
+            }
+            log.info("创建副本复制任务：[filename={}, from={}, to={}]", fileId, source.getHostname(), target.getHostname());
+            target.addReplicaTask(new ReplicaTask(fileId, source.getHostname(), source.getNioPort()));
+            scheduled++;
+        }
+        if (scheduled > 0 || log.isDebugEnabled()) {
+            log.info("分配副本复制任务：[scheduled={}, pending={}, queued={}]", scheduled, pendingCount, queue.size());
+        }
+    }
+
+    private boolean isTarget(List<PendingTask> tasks, String hostname) {
+        for (PendingTask task : tasks) {
+            if (task.target.equals(hostname)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按经过的时间补充令牌。补充不到一个令牌时不更新补充时间，经过的时间累积到下一轮
+     */
+    private void refill(long now) {
+        if (bandwidth <= 0) {
+            return;
+        }
+        for (HostLoad load : loads.values()) {
+            long refill = bandwidth * (now - load.lastRefill) / 1000;
+            if (refill > 0) {
+                load.tokens = Math.min(bandwidth, load.tokens + refill);
+                load.lastRefill = now;
+            }
+        }
+    }
+
+    /**
+     * DataNode 还能不能参与新的复制任务
+     */
+    private boolean available(String hostname) {
+        HostLoad load = loads.get(hostname);
+        if (load == null) {
+            return true;
+        }
+        if (maxStreams > 0 && load.inFlight >= maxStreams) {
+            return false;
+        }
+        return bandwidth <= 0 || load.tokens > 0;
+    }
+
+    private void acquire(PendingTask task, long now) {
+        for (String hostname : new String[]{task.source, task.target}) {
+            HostLoad load = loads.computeIfAbsent(hostname, k -> new HostLoad(bandwidth, now));
+            load.inFlight++;
+            load.tokens -= task.size;
+        }
+        pendingCount++;
+    }
+
+    private void release(PendingTask task) {
+        for (String hostname : new String[]{task.source, task.target}) {
+            HostLoad load = loads.get(hostname);
+            if (load != null && load.inFlight > 0) {
+                load.inFlight--;
+            }
+        }
+        pendingCount--;
+    }
+
+    private static long fileSizeOf(Node node) {
+        String fileSize = node.getAttr().get(Constants.ATTR_FILE_SIZE);
+        return fileSize == null ? 0 : Long.parseLong(fileSize);
+    }
+
+    private static class PendingTask {
+        private final String source;
+        private final String target;
+        private final long size;
+        private final long deadline;
+
+        PendingTask(String source, String target, long size, long deadline) {
+            this.source = source;
+            this.target = target;
+            this.size = size;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * DataNode 的复制负载
+     */
+    private static class HostLoad {
+        private int inFlight;
+        private long tokens;
+        private long lastRefill;
+
+        HostLoad(long tokens, long lastRefill) {
+            this.tokens = tokens;
+            this.lastRefill = lastRefill;
+        }
+    }
+}
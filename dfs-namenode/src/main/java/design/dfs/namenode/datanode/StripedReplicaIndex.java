@@ -0,0 +1,265 @@
+package design.dfs.namenode.datanode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 按文件ID 分段加锁的副本索引
+ *
+ * <pre>
+ * 全局只有一把读写锁时，多个 DataNode 的文件上报和客户端的读请求都串行在这把锁上。
+ * 这里按照文件ID 的哈希分成若干段，每段是一个独立的 {@link ReplicaIndex} 和一把读写锁：
+ *
+ * 1. 单个文件的操作只锁文件所在的段，不同段之间互不影响
+ * 2. 移除 DataNode 时逐段加锁处理，不会同时持有多把锁
+ * 3. 段内不会再去获取目录树的锁，锁之间没有嵌套
+ * </pre>
+ */
+public class StripedReplicaIndex {
+    /**
+     * 副本添加成功
+     */
+    public static final int ADDED = 0;
+    /**
+     * DataNode 上已经有这个副本
+     */
+    public static final int EXISTS = 1;
+    /**
+     * 副本数量已经达到要求
+     */
+    public static final int FULL = 2;
+
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final ReplicaIndex[] stripes;
+    private final ReentrantReadWriteLock[] locks;
+    private final int mask;
+
+    public StripedReplicaIndex() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes 段数，向上取整为 2 的幂
+     */
+    public StripedReplicaIndex(int stripes) {
+        int n = 1;
+        while (n < stripes) {
+            n <<= 1;
+        }
+        this.stripes = new ReplicaIndex[n];
+        this.locks = new ReentrantReadWriteLock[n];
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new ReplicaIndex();
+            this.locks[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = n - 1;
+    }
+
+    private int stripeOf(String fileId) {
+        int h = fileId.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * 文件数量
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            locks[i].readLock().lock();
+            try {
+                size += stripes[i].size();
+            } finally {
+                locks[i].readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 文件的副本数量
+     */
+    public int replicaCount(String fileId) {
+        int stripe = stripeOf(fileId);
+        locks[stripe].readLock().lock();
+        try {
+            return stripes[stripe].replicaCount(fileId);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    /**
+     * 持有文件副本的 DataNode 下标，返回的数组不能修改
+     */
+    public short[] replicasOf(String fileId) {
+        int stripe = stripeOf(fileId);
+        locks[stripe].readLock().lock();
+        try {
+            return stripes[stripe].replicasOf(fileId);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    /**
+     * DataNode 上是否有文件的副本
+     */
+    public boolean contains(String fileId, int dataNode) {
+        int stripe = stripeOf(fileId);
+        locks[stripe].readLock().lock();
+        try {
+            return stripes[stripe].contains(fileId, dataNode);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    /**
+     * 在副本数量没有达到要求时添加一个副本，检查和添加在同一次加锁中完成
+     *
+     * @param fileId      文件ID
+     * @param dataNode    DataNode 下标
+     * @param maxReplicas 文件要求的副本数量
+     * @return {@link #ADDED}、{@link #EXISTS} 或者 {@link #FULL}
+     */
+    public int add(String fileId, int dataNode, int maxReplicas) {
+        int stripe = stripeOf(fileId);
+        locks[stripe].writeLock().lock();
+        try {
+            ReplicaIndex index = stripes[stripe];
+            if (index.contains(fileId, dataNode)) {
+                return EXISTS;
+            }
+            if (index.replicaCount(fileId) >= maxReplicas) {
+                return FULL;
+            }
+            index.add(fileId, dataNode);
+            return ADDED;
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+    }
+
+    /**
+     * 批量添加同一个 DataNode 的副本，用于全量上报
+     *
+     * <pre>
+     * 先按照所在的段对文件做一次计数排序，然后每个段只加一次写锁，把落在这个段的文件一起合并进去
+     * </pre>
+     *
+     * @param fileIds     文件ID
+     * @param count       有效的文件数量，只处理前 count 个
+     * @param dataNode    DataNode 下标
+     * @param maxReplicas 每个文件要求的副本数量
+     * @return 每个文件的结果，{@link #ADDED}、{@link #EXISTS} 或者 {@link #FULL}
+     */
+    public int[] addAll(String[] fileIds, int count, int dataNode, int[] maxReplicas) {
+        int[] stripeOf = new int[count];
+        int[] offsets = new int[stripes.length + 1];
+        for (int i = 0; i < count; i++) {
+            stripeOf[i] = stripeOf(fileIds[i]);
+            offsets[stripeOf[i] + 1]++;
+        }
+        for (int i = 0; i < stripes.length; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] sorted = new int[count];
+        int[] next = Arrays.copyOf(offsets, stripes.length);
+        for (int i = 0; i < count; i++) {
+            sorted[next[stripeOf[i]]++] = i;
+        }
+
+        int[] results = new int[count];
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            if (offsets[stripe] == offsets[stripe + 1]) {
+                continue;
+            }
+            ReplicaIndex index = stripes[stripe];
+            locks[stripe].writeLock().lock();
+            try {
+                for (int j = offsets[stripe]; j < offsets[stripe + 1]; j++) {
+                    int i = sorted[j];
+                    if (index.contains(fileIds[i], dataNode)) {
+                        results[i] = EXISTS;
+                    } else if (index.replicaCount(fileIds[i]) >= maxReplicas[i]) {
+                        results[i] = FULL;
+                    } else {
+                        index.add(fileIds[i], dataNode);
+                        results[i] = ADDED;
+                    }
+                }
+            } finally {
+                locks[stripe].writeLock().unlock();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 移除文件的所有副本
+     *
+     * @return 持有副本的 DataNode 下标
+     */
+    public short[] removeFile(String fileId) {
+        int stripe = stripeOf(fileId);
+        locks[stripe].writeLock().lock();
+        try {
+            return stripes[stripe].removeFile(fileId);
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除文件在一个 DataNode 上的副本
+     *
+     * @return 副本不存在时返回 false
+     */
+    public boolean removeReplica(String fileId, int dataNode) {
+        int stripe = stripeOf(fileId);
+        locks[stripe].writeLock().lock();
+        try {
+            return stripes[stripe].removeReplica(fileId, dataNode);
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+    }
+
+    /**
+     * DataNode 持有副本的文件ID，逐段加读锁，得到的不是同一时刻的快照
+     */
+    public List<String> fileIdsOf(int dataNode) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < stripes.length; i++) {
+            locks[i].readLock().lock();
+            try {
+                stripes[i].fileIdsOf(dataNode, result);
+            } finally {
+                locks[i].readLock().unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 移除一个 DataNode 的所有副本，逐段加锁
+     *
+     * @return 该 DataNode 上有副本的文件ID
+     */
+    public List<String> removeDataNode(int dataNode) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < stripes.length; i++) {
+            locks[i].writeLock().lock();
+            try {
+                result.addAll(stripes[i].removeDataNode(dataNode));
+            } finally {
+                locks[i].writeLock().unlock();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,44 @@
+package design.dfs.namenode.datanode;
+
+import design.dfs.namenode.config.NameNodeConfig;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 解析机器所在的机架
+ *
+ * <pre>
+ * 默认实现是 {@link FileTopologyResolver}，从 topology.file 配置的文件中读取 hostname -> 机架 的映射。
+ * 可以通过 topology.resolver 配置其他实现的类名，实现类需要有一个 NameNodeConfig 参数的构造函数
+ * </pre>
+ */
+public interface TopologyResolver {
+    /**
+     * 没有配置机架的机器都属于这个机架
+     */
+    String DEFAULT_RACK = "/default-rack";
+
+    /**
+     * 解析机器所在的机架
+     *
+     * @param hostname 机器名或者 IP
+     * @return 机架，不知道时返回 {@link #DEFAULT_RACK}
+     */
+    String resolve(String hostname);
+
+    /**
+     * 根据配置创建 TopologyResolver
+     */
+    static TopologyResolver create(NameNodeConfig nameNodeConfig) {
+        String className = nameNodeConfig.getTopologyResolver();
+        if (StringUtils.isEmpty(className)) {
+            return new FileTopologyResolver(nameNodeConfig.getTopologyFile());
+        }
+        try {
+            return (TopologyResolver) Class.forName(className)
+                    .getConstructor(NameNodeConfig.class)
+                    .newInstance(nameNodeConfig);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("创建 TopologyResolver 失败：" + className, e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package design.dfs.namenode.datanode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 副本数量不足的文件队列，按剩余的副本数量分优先级
+ *
+ * <pre>
+ * 0. 只剩一个副本，再丢一个文件就没了，最先复制
+ * 1. 剩两个副本
+ * 2. 其他
+ *
+ * 同一个优先级内按加入的顺序。同一个文件只会出现一次，重新加入时按新的副本数量调整优先级。
+ * 线程不安全，由 {@link ReplicationScheduler} 加锁
+ * </pre>
+ */
+class UnderReplicatedQueue {
+    static final int LEVELS = 3;
+
+    private final List<Set<String>> buckets = new ArrayList<>(LEVELS);
+    private final Map<String, Integer> levels = new HashMap<>();
+
+    UnderReplicatedQueue() {
+        for (int i = 0; i < LEVELS; i++) {
+            buckets.add(new LinkedHashSet<>());
+        }
+    }
+
+    /**
+     * 加入队列
+     *
+     * @param fileId    文件ID
+     * @param remaining 剩余的副本数量
+     */
+    void add(String fileId, int remaining) {
+        int level = Math.min(Math.max(remaining - 1, 0), LEVELS - 1);
+        Integer current = levels.put(fileId, level);
+        if (current != null) {
+            if (current == level) {
+                return;
+            }
+            buckets.get(current).remove(fileId);
+        }
+        buckets.get(level).add(fileId);
+    }
+
+    /**
+     * 移出队列
+     */
+    void remove(String fileId) {
+        Integer level = levels.remove(fileId);
+        if (level != null) {
+            buckets.get(level).remove(fileId);
+        }
+    }
+
+    boolean contains(String fileId) {
+        return levels.containsKey(fileId);
+    }
+
+    /**
+     * 按优先级取出前 max 个文件，不会移出队列
+     */
+    List<String> peek(int max) {
+        List<String> result = new ArrayList<>(Math.min(max, levels.size()));
+        for (Set<String> bucket : buckets) {
+            for (String fileId : bucket) {
+                if (result.size() >= max) {
+                    return result;
+                }
+                result.add(fileId);
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return levels.size();
+    }
+}
@@ -62,4 +62,12 @@ public class DoubleBuffer {
     public List<EditLogWrapper> getCurrentEditLog() {
         return currentBuffer.getCurrentEditLog();
     }
+
+    public byte[] getCurrentEditLogBytes() {
+        return currentBuffer.getCurrentEditLogBytes();
+    }
+
+    public long getCurrentStartTxid() {
+        return currentBuffer.getStartTxid();
+    }
 }
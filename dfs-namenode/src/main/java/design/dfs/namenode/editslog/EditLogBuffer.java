@@ -53,6 +53,20 @@ public class EditLogBuffer {
         return EditLogWrapper.parseFrom(bytes);
     }
 
+    /**
+     * 获取当前缓冲区的原始数据，不解析 EditLog
+     */
+    public byte[] getCurrentEditLogBytes() {
+        return buffer.toByteArray();
+    }
+
+    /**
+     * 当前缓冲区第一条 EditLog 的 txId，缓冲区为空时为 -1
+     */
+    public long getStartTxid() {
+        return startTxid;
+    }
+
     /**
      * 清空缓冲区
      */
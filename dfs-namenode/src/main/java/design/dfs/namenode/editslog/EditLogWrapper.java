@@ -73,6 +73,22 @@ public class EditLogWrapper {
         return ret;
     }
 
+    /**
+     * 从 offset 开始跳过 count 条 EditLog，只读取长度字段，不解析内容
+     *
+     * @param bytes  EditLog 文件或缓冲区的内容
+     * @param offset 起始位置
+     * @param count  跳过的条数
+     * @return 跳过之后的位置，不足 count 条时返回 bytes.length
+     */
+    public static int skip(byte[] bytes, int offset, long count) {
+        int position = offset;
+        for (long i = 0; i < count && position + 4 <= bytes.length; i++) {
+            position += 4 + ByteUtil.getInt(bytes, position);
+        }
+        return Math.min(position, bytes.length);
+    }
+
     @Override
     public String toString() {
         return "path:" + editLog.getPath() + ", opType:" + editLog.getOpType() + ", txId:" + editLog.getTxId();
@@ -1,16 +1,25 @@
 package design.dfs.namenode.editslog;
 
+import design.dfs.common.utils.ByteUtil;
 import design.dfs.common.utils.FileUtil;
 import design.dfs.namenode.config.NameNodeConfig;
 import design.dfs.namenode.fs.PlaybackEditLogCallback;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.StopWatch;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -64,18 +73,70 @@ public class FsEditLog {
      */
     private List<EditsLogInfo> editLogInfos = null;
 
+    /**
+     * 写入 EditLog 的监听器
+     */
+    private final List<Runnable> logEditListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 还需要读取的最小 txId，比如订阅的 BackupNode 已经确认的 txId，之后的 EditLog 文件即使已经被 FsImage 覆盖也不能删除
+     */
+    private final List<LongSupplier> retainedTxIdSuppliers = new CopyOnWriteArrayList<>();
+
+    /**
+     * 正在读取的 EditLog 文件和读取的次数，清理时跳过，等下一次清理再删除
+     */
+    private final Map<String, Integer> readingFiles = new HashMap<>();
+
     public FsEditLog(NameNodeConfig nameNodeConfig) {
         this.nameNodeConfig = nameNodeConfig;
         this.editLogBuffer = new DoubleBuffer(nameNodeConfig);
         this.loadEditLogInfos();
     }
 
+    /**
+     * 从指定的 txId 之后继续写入 EditLog，用于 BackupNode 切换为 NameNode，
+     * 内存目录树已经应用到 txId，不需要回放 EditLog
+     *
+     * @param txId 已经应用的最大 txId，下一条 EditLog 的 txId 为 txId + 1
+     */
+    public synchronized void resetTxId(long txId) {
+        this.txIdSeq = txId;
+    }
+
     /**
      * 写入一条editlog
      *
      * @param editLog 内容
      */
     public void logEdit(EditLogWrapper editLog) {
+        logSync(appendEdit(editLog));
+    }
+
+    /**
+     * 批量写入一组 editlog，整组只获取一次锁、分配连续的 txId，写完之后只通知一次监听器
+     *
+     * @param editLogs 内容
+     */
+    public void logEdits(List<EditLogWrapper> editLogs) {
+        if (editLogs.isEmpty()) {
+            return;
+        }
+        logSync(appendEdits(editLogs));
+    }
+
+    /**
+     * 分配 txId 并写入缓冲区，不通知监听器也不刷盘
+     *
+     * <pre>
+     * 用于在持有目录树写锁的期间写入 EditLog，txId 的顺序和修改目录树的顺序一致。
+     * 调用方释放目录树的锁之后必须调用 {@link #logSync(boolean)}，刷盘不阻塞目录树的读写
+     * </pre>
+     *
+     * @param editLog 内容
+     * @return 缓冲区是否已满需要刷盘
+     */
+    public boolean appendEdit(EditLogWrapper editLog) {
         synchronized (this) {
             // 等待刷盘任务结束
             waitSchedulingSync();
@@ -91,19 +152,89 @@ public class FsEditLog {
             } catch (IOException e) {
                 log.error("写入缓冲区失败：{}", e.getMessage());
             }
+            return scheduleSyncIfFull();
+        }
+    }
 
-            if (!editLogBuffer.shouldForceSync()) {
-                return;
+    /**
+     * 批量分配连续的 txId 并写入缓冲区，见 {@link #appendEdit(EditLogWrapper)}
+     *
+     * @param editLogs 内容，不能为空
+     * @return 缓冲区是否已满需要刷盘
+     */
+    public boolean appendEdits(List<EditLogWrapper> editLogs) {
+        synchronized (this) {
+            waitSchedulingSync();
+
+            for (EditLogWrapper editLog : editLogs) {
+                txIdSeq++;
+                editLog.setTxId(txIdSeq);
+                try {
+                    editLogBuffer.write(editLog);
+                } catch (IOException e) {
+                    log.error("写入缓冲区失败：{}", e.getMessage());
+                }
             }
+            localTxId.set(txIdSeq);
+            return scheduleSyncIfFull();
+        }
+    }
 
-            // 设置刷盘标志位，阻塞后续写入
+    /**
+     * 缓冲区满了之后设置刷盘标志位，阻塞后续写入，调用方需要持有 this 的锁
+     */
+    private boolean scheduleSyncIfFull() {
+        boolean forceSync = editLogBuffer.shouldForceSync();
+        if (forceSync) {
             isSchedulingSync = true;
         }
+        return forceSync;
+    }
 
+    /**
+     * 写入缓冲区之后通知监听器，缓冲区已满时刷盘
+     *
+     * @param forceSync {@link #appendEdit(EditLogWrapper)} 的返回值
+     */
+    public void logSync(boolean forceSync) {
+        // 在锁外回调，避免监听器和 FsEditLog 互相等待
+        invokeLogEditListeners();
+
+        if (!forceSync) {
+            return;
+        }
         // 运行到这里意味着 isSchedulingSync = true，开始异步刷盘
         logSync();
     }
 
+    /**
+     * 添加写入 EditLog 的监听器，比如通知推送线程有新的 EditLog
+     *
+     * @param listener 监听器
+     */
+    public void addLogEditListener(Runnable listener) {
+        logEditListeners.add(listener);
+    }
+
+    /**
+     * 添加需要保留的 EditLog 的下限，清理 EditLog 文件时保留 txId 之后的文件
+     *
+     * @param supplier 返回还需要读取的最小 txId，没有需要读取的返回 Long.MAX_VALUE
+     */
+    public void addRetainedTxIdSupplier(LongSupplier supplier) {
+        retainedTxIdSuppliers.add(supplier);
+    }
+
+    private void invokeLogEditListeners() {
+        for (Runnable listener : logEditListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.error("Exception occur on invoke listener :", e);
+            }
+        }
+    }
+
     /**
      * 等待正在调度的刷磁盘的操作
      */
@@ -263,7 +394,179 @@ public class FsEditLog {
      * @return
      */
     public List<EditLogWrapper> readEditLogFromFile(String path) throws IOException {
-        return EditLogWrapper.parseFrom(FileUtil.readBuffer(path));
+        beginRead(path);
+        try {
+            return EditLogWrapper.parseFrom(FileUtil.readBuffer(path));
+        } finally {
+            endRead(path);
+        }
+    }
+
+    /**
+     * 标记文件正在读取，和 {@link #endRead(String)} 成对调用
+     */
+    void beginRead(String path) {
+        synchronized (readingFiles) {
+            readingFiles.merge(path, 1, Integer::sum);
+        }
+    }
+
+    void endRead(String path) {
+        synchronized (readingFiles) {
+            readingFiles.computeIfPresent(path, (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * 读取 fromTxId 之后连续的 EditLog，用于推送给 BackupNode
+     *
+     * <pre>
+     * 先读 EditLog 文件，再读当前缓冲区。刚交换到 syncBuffer 还没有写入文件的 EditLog 暂时读不到，
+     * 此时只返回前面连续的部分，保证不会跳过任何一条 EditLog，剩下的等下一次读取
+     * </pre>
+     *
+     * @param fromTxId 已经读取到的 txId
+     * @param maxCount 最多读取的条数
+     * @return txId 连续递增的 EditLog
+     */
+    public List<EditLogWrapper> readEditLogs(long fromTxId, int maxCount) throws IOException {
+        List<EditLogWrapper> result = new ArrayList<>();
+        for (EditsLogInfo info : getSortedEditsLogFiles(fromTxId)) {
+            if (!appendContinuous(result, fromTxId, readEditLogFromFile(info.getName()), maxCount)) {
+                return result;
+            }
+        }
+        appendContinuous(result, fromTxId, getCurrentEditLog(), maxCount);
+        return result;
+    }
+
+    /**
+     * 读取 fromTxId 之后连续的 EditLog 原始数据，不解析和重新序列化每一条 EditLog
+     *
+     * <pre>
+     * 同一个 EditLog 文件或缓冲区里的 txId 是连续的，根据文件名中的起始 txId 可以算出需要跳过的条数，
+     * 跳过时只读取每条 EditLog 的长度字段，然后直接截取原始字节。
+     * EditLog 文件顺序读取到截取范围的末尾为止，不会把整个文件读入内存
+     * </pre>
+     *
+     * @param fromTxId 已经读取到的 txId
+     * @param maxCount 最多读取的条数
+     * @return EditLog 原始数据
+     */
+    public RawEditLogs readRawEditLogs(long fromTxId, int maxCount) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long expectTxId = fromTxId + 1;
+        int count = 0;
+        for (EditsLogInfo info : getSortedEditsLogFiles(fromTxId)) {
+            if (info.getStart() > expectTxId || count >= maxCount) {
+                return new RawEditLogs(out.toByteArray(), count, expectTxId - 1);
+            }
+            int n = appendRaw(out, info.getName(), info.getStart(), expectTxId, maxCount - count);
+            count += n;
+            expectTxId += n;
+        }
+        byte[] current;
+        long currentStartTxId;
+        synchronized (this) {
+            current = editLogBuffer.getCurrentEditLogBytes();
+            currentStartTxId = editLogBuffer.getCurrentStartTxid();
+        }
+        if (currentStartTxId > 0 && currentStartTxId <= expectTxId && count < maxCount) {
+            int n = appendRaw(out, current, currentStartTxId, expectTxId, maxCount - count);
+            count += n;
+            expectTxId += n;
+        }
+        return new RawEditLogs(out.toByteArray(), count, expectTxId - 1);
+    }
+
+    /**
+     * 截取 EditLog 文件中从 expectTxId 开始的最多 maxCount 条 EditLog，跳过的 EditLog 只读取长度字段
+     *
+     * @param path      EditLog 文件
+     * @param startTxId 文件中第一条 EditLog 的 txId
+     * @return 截取的条数
+     */
+    private int appendRaw(ByteArrayOutputStream out, String path, long startTxId, long expectTxId, int maxCount) throws IOException {
+        int count = 0;
+        beginRead(path);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            for (long txId = startTxId; txId < expectTxId; txId++) {
+                if (!skipFully(in, in.readInt())) {
+                    return 0;
+                }
+            }
+            byte[] header = new byte[4];
+            while (count < maxCount) {
+                if (in.read(header, 0, 1) < 0) {
+                    break;
+                }
+                in.readFully(header, 1, 3);
+                byte[] body = new byte[ByteUtil.getInt(header, 0)];
+                in.readFully(body);
+                out.write(header);
+                out.write(body);
+                count++;
+            }
+            return count;
+        } catch (EOFException e) {
+            // 文件末尾不完整，只返回前面完整的 EditLog
+            log.warn("EditLog 文件不完整：[file={}, startTxId={}, expectTxId={}]", path, startTxId, expectTxId);
+            return count;
+        } finally {
+            endRead(path);
+        }
+    }
+
+    private static boolean skipFully(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                return false;
+            }
+            remaining -= skipped;
+        }
+        return true;
+    }
+
+    /**
+     * 截取 bytes 中从 expectTxId 开始的最多 maxCount 条 EditLog
+     *
+     * @param startTxId bytes 中第一条 EditLog 的 txId
+     * @return 截取的条数
+     */
+    private int appendRaw(ByteArrayOutputStream out, byte[] bytes, long startTxId, long expectTxId, int maxCount) {
+        int from = EditLogWrapper.skip(bytes, 0, expectTxId - startTxId);
+        int count = 0;
+        int to = from;
+        while (count < maxCount && to + 4 <= bytes.length) {
+            to = EditLogWrapper.skip(bytes, to, 1);
+            count++;
+        }
+        out.write(bytes, from, to - from);
+        return count;
+    }
+
+    /**
+     * 追加连续的 EditLog
+     *
+     * @return 是否可以继续追加
+     */
+    private boolean appendContinuous(List<EditLogWrapper> result, long fromTxId,
+                                     List<EditLogWrapper> editLogs, int maxCount) {
+        long expectTxId = result.isEmpty() ? fromTxId + 1 : result.get(result.size() - 1).getTxId() + 1;
+        for (EditLogWrapper editLog : editLogs) {
+            long txId = editLog.getTxId();
+            if (txId < expectTxId) {
+                continue;
+            }
+            if (txId != expectTxId || result.size() >= maxCount) {
+                return false;
+            }
+            result.add(editLog);
+            expectTxId++;
+        }
+        return true;
     }
 
     /**
@@ -277,6 +580,65 @@ public class FsEditLog {
         }
     }
 
+    /**
+     * 获取当前最大的 txId
+     */
+    public long getLastTxId() {
+        return txIdSeq;
+    }
+
+    /**
+     * 统计包含 txId 之后 EditLog 的文件总大小
+     *
+     * @param txId 最近一次 checkpoint 的 txId
+     * @return 字节数
+     */
+    public long getEditLogBytesAfter(long txId) {
+        long bytes = 0L;
+        for (EditsLogInfo editsLogInfo : getSortedEditsLogFiles(txId)) {
+            bytes += new File(editsLogInfo.getName()).length();
+        }
+        return bytes;
+    }
+
+    /**
+     * 删除已经被 FsImage 覆盖的 EditLog 文件
+     *
+     * <pre>
+     * 只删除 end <= txId 的文件，包含 txId 之后 EditLog 的文件需要保留，用于 NameNode 重启回放。
+     * 订阅的 BackupNode 落后于 FsImage 时，它还没有确认的 EditLog 也要保留，下限取 txId 和
+     * {@link #addRetainedTxIdSupplier} 中的最小值。正在读取的文件跳过，下一次清理时再删除
+     * </pre>
+     *
+     * @param txId FsImage 中的最大 txId
+     */
+    public void cleanEditLogByTxId(long txId) {
+        long retainedTxId = txId;
+        for (LongSupplier supplier : retainedTxIdSuppliers) {
+            retainedTxId = Math.min(retainedTxId, supplier.getAsLong());
+        }
+        List<EditsLogInfo> toRemove = new ArrayList<>();
+        // 持有锁直到删除完成，判断和删除之间不会有新的读取开始
+        synchronized (readingFiles) {
+            for (EditsLogInfo editsLogInfo : editLogInfos) {
+                if (editsLogInfo.getEnd() > retainedTxId) {
+                    continue;
+                }
+                if (readingFiles.containsKey(editsLogInfo.getName())) {
+                    log.info("EditLog文件正在读取，下次清理时删除：[file={}]", editsLogInfo.getName());
+                    continue;
+                }
+                toRemove.add(editsLogInfo);
+            }
+            editLogInfos.removeAll(toRemove);
+            for (EditsLogInfo editsLogInfo : toRemove) {
+                FileUtil.delete(editsLogInfo.getName());
+                log.info("删除EditLog文件：[file={}, checkpointTxId={}, retainedTxId={}]",
+                        editsLogInfo.getName(), txId, retainedTxId);
+            }
+        }
+    }
+
     /**
      * 获取 比minTxId 更大且经过排序的 EditLog 文件
      * @param minTxId
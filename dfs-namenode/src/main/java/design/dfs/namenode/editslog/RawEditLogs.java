@@ -0,0 +1,24 @@
+package design.dfs.namenode.editslog;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 一段连续的、未经解析的 EditLog 原始数据，格式和 EditLog 文件一致：长度(4byte) + EditLog
+ */
+@Data
+@AllArgsConstructor
+public class RawEditLogs {
+    /**
+     * EditLog 原始数据
+     */
+    private byte[] data;
+    /**
+     * EditLog 条数
+     */
+    private int count;
+    /**
+     * 最后一条 EditLog 的 txId
+     */
+    private long lastTxId;
+}
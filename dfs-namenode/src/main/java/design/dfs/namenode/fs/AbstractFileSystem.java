@@ -1,6 +1,7 @@
 package design.dfs.namenode.fs;
 
 import design.dfs.backup.fs.FsImage;
+import design.dfs.model.backup.EditLog;
 import design.dfs.model.namenode.Metadata;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.StopWatch;
@@ -11,16 +12,32 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Slf4j
 public abstract class AbstractFileSystem implements FileSystem{
+    private static final Pattern FS_IMAGE_PATTERN = Pattern.compile("^fsimage-(\\d+)$");
     /**
      * 负责管理内存文件目录树的组件
      */
     protected FsDirectory directory;
 
     public AbstractFileSystem() {
-        this.directory = new FsDirectory();
+        this(new FsDirectory());
+    }
+
+    public AbstractFileSystem(FsDirectory directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 获取内存目录树
+     *
+     * @return 内存目录树
+     */
+    public FsDirectory getDirectory() {
+        return directory;
     }
 
     /**
@@ -37,7 +54,18 @@ public abstract class AbstractFileSystem implements FileSystem{
 
     @Override
     public boolean createFile(String filename, Map<String, String> attr) {
-        return this.directory.createFile(filename, attr);
+        return createFileWithId(filename, attr) != null;
+    }
+
+    /**
+     * 创建文件并返回文件ID，没有指定文件ID时在目录树写锁内分配
+     *
+     * @param filename 文件路径
+     * @param attr     文件属性
+     * @return 文件ID，创建失败时返回 null
+     */
+    public String createFileWithId(String filename, Map<String, String> attr) {
+        return this.directory.createFileWithId(filename, attr);
     }
 
     @Override
@@ -46,6 +74,23 @@ public abstract class AbstractFileSystem implements FileSystem{
         return node != null;
     }
 
+    @Override
+    public boolean rename(String src, String dst) {
+        return this.directory.rename(src, dst);
+    }
+
+    /**
+     * 批量应用 EditLog，只修改内存目录树，不会再写入 EditLog
+     *
+     * @param editLogs EditLog 列表，按 txId 升序
+     */
+    protected void replayEditLogs(List<EditLog> editLogs) {
+        if (editLogs.isEmpty()) {
+            return;
+        }
+        this.directory.applyEditLogs(editLogs);
+    }
+
     @Override
     public Set<Metadata> getFilesBySlot(int slot) {
         return null;
@@ -106,13 +151,53 @@ public abstract class AbstractFileSystem implements FileSystem{
      * @return 文件属性
      */
     public Map<String, String> getAttr(String filename) {
-        Node node = this.directory.listFiles(filename);
+        Node node = this.directory.listFiles(filename, 0);
         if (node == null) {
             return null;
         }
         return Collections.unmodifiableMap(node.getAttr());
     }
 
+    /**
+     * 文件或目录是否存在
+     *
+     * @param filename 文件名称
+     * @return 是否存在
+     */
+    public boolean exists(String filename) {
+        return this.directory.exists(filename);
+    }
+
+    /**
+     * 查找文件或目录对应的节点，不拷贝节点，返回的节点只能读取
+     *
+     * @param filename 文件名称
+     * @return 节点，不存在返回 null
+     */
+    public Node getInode(String filename) {
+        return this.directory.getInode(filename);
+    }
+
+    /**
+     * 通过文件ID查找文件节点，不拷贝节点，返回的节点只能读取
+     *
+     * @param fileId 文件ID
+     * @return 节点，不存在返回 null
+     */
+    public Node getInodeByFileId(String fileId) {
+        return this.directory.getInodeByFileId(fileId);
+    }
+
+    /**
+     * 批量通过文件ID查找文件节点，不拷贝节点，返回的节点只能读取
+     *
+     * @param fileIds 文件ID
+     * @return 和文件ID 一一对应的文件节点，不存在的位置为 null
+     */
+    public Node[] getInodesByFileId(List<String> fileIds) {
+        return this.directory.getInodesByFileId(fileIds);
+    }
+
     /**
      * 加载 FsImage 恢复文件系统
      *
@@ -137,17 +222,16 @@ public abstract class AbstractFileSystem implements FileSystem{
     protected FsImage scanLatestValidFsImage(String baseDir) throws IOException {
         Map<Long, String> timeFsImageMap = scanFsImageMap(baseDir);
         List<Long> sortedList = new ArrayList<>(timeFsImageMap.keySet());
-        sortedList.sort((o1, o2) ->
-            o1.equals(o2) ? 0 : (int) (o2 - o1)
-         );
+        sortedList.sort((o1, o2) -> Long.compare(o2, o1));
 
         for (long time : sortedList) {
             String path = timeFsImageMap.get(time);
-            RandomAccessFile raf = new RandomAccessFile(path, "r");
-            FileChannel channel = new FileInputStream(raf.getFD()).getChannel();
-            FsImage fsImage = FsImage.parse(channel, path, (int) raf.length());
-            if (fsImage != null) {
-                return fsImage;
+            try (RandomAccessFile raf = new RandomAccessFile(path, "r"); FileInputStream fis =
+                    new FileInputStream(raf.getFD()); FileChannel channel = fis.getChannel()) {
+                FsImage fsImage = FsImage.parse(channel, path, (int) raf.length());
+                if (fsImage != null) {
+                    return fsImage;
+                }
             }
         }
         return null;
@@ -173,11 +257,12 @@ public abstract class AbstractFileSystem implements FileSystem{
             if (file.isDirectory()) {
                 continue;
             }
-            if (!file.getName().contains("fsimage")) {
+            // 忽略正在上传中的临时文件
+            Matcher matcher = FS_IMAGE_PATTERN.matcher(file.getName());
+            if (!matcher.find()) {
                 continue;
             }
-            String str = file.getName().split("-")[1];
-            long time = Long.parseLong(str);
+            long time = Long.parseLong(matcher.group(1));
             timeFsImageMap.put(time, file.getAbsolutePath());
         }
         return timeFsImageMap;
@@ -0,0 +1,149 @@
+package design.dfs.namenode.fs;
+
+import design.dfs.backup.fs.FsImage;
+import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.namenode.config.NameNodeConfig;
+import design.dfs.namenode.editslog.FsEditLog;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NameNode 端的 checkpoint 协调器
+ *
+ * <pre>
+ * 定时检查距离上一次 checkpoint 以来的 EditLog，满足以下任意一个条件时要求进行 checkpoint：
+ *
+ * 1. 未 checkpoint 的 EditLog 条数超过 checkpoint.txns
+ * 2. 未 checkpoint 的 EditLog 文件大小超过 checkpoint.bytes
+ * 3. 存在未 checkpoint 的 EditLog，且距离上一次 checkpoint 超过 checkpoint.max.age
+ *
+ * BackupNode 在 FETCH_EDIT_LOG 的响应中得知需要 checkpoint，生成 FsImage 后上传到 NameNode。
+ * NameNode 收到 FsImage 并校验通过后，删除历史 FsImage 和已经被覆盖的 EditLog 文件，
+ * 这样无论集群运行多久，重启时需要回放的 EditLog 都是有上限的
+ *
+ * 配置 checkpoint.local=true 时，不再通知 BackupNode，而是由 {@link LocalFsImageCheckPointer} 在 NameNode 本地生成 FsImage
+ * </pre>
+ */
+@Slf4j
+public class CheckpointCoordinator implements Runnable {
+    private final NameNodeConfig nameNodeConfig;
+    private final DefaultScheduler defaultScheduler;
+    private final DiskFileSystem diskFileSystem;
+    private final FsEditLog fsEditLog;
+    private final FsImageClearTask fsImageClearTask;
+    private final LocalFsImageCheckPointer localFsImageCheckPointer;
+    /**
+     * 是否正在执行本地 checkpoint
+     */
+    private final AtomicBoolean localCheckpointRunning = new AtomicBoolean(false);
+
+    /**
+     * 最近一次 checkpoint 的 txId
+     */
+    private volatile long lastCheckpointTxId;
+    /**
+     * 最近一次 checkpoint 的时间
+     */
+    private volatile long lastCheckpointTime;
+    /**
+     * 是否需要 checkpoint，收到新的 FsImage 之后复位
+     */
+    private volatile boolean checkpointRequired = false;
+
+    public CheckpointCoordinator(DefaultScheduler defaultScheduler, DiskFileSystem diskFileSystem) {
+        this.nameNodeConfig = diskFileSystem.getNameNodeConfig();
+        this.defaultScheduler = defaultScheduler;
+        this.diskFileSystem = diskFileSystem;
+        this.fsEditLog = diskFileSystem.getEditLog();
+        this.fsImageClearTask = new FsImageClearTask(diskFileSystem, nameNodeConfig.getBaseDir(), fsEditLog);
+        this.localFsImageCheckPointer = nameNodeConfig.isCheckpointLocal()
+                ? new LocalFsImageCheckPointer(diskFileSystem, this) : null;
+    }
+
+    /**
+     * 启动定时检查，需要在恢复命名空间之后调用
+     */
+    public void start() {
+        this.lastCheckpointTxId = diskFileSystem.getFsImageTxId();
+        this.lastCheckpointTime = System.currentTimeMillis();
+        long interval = nameNodeConfig.getCheckpointCheckInterval();
+        defaultScheduler.schedule("检查是否需要checkpoint", this, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        if (!checkpointRequired) {
+            long txns = fsEditLog.getLastTxId() - lastCheckpointTxId;
+            if (txns <= 0) {
+                return;
+            }
+            long bytes = fsEditLog.getEditLogBytesAfter(lastCheckpointTxId);
+            long age = System.currentTimeMillis() - lastCheckpointTime;
+            if (txns < nameNodeConfig.getCheckpointTxns()
+                    && bytes < nameNodeConfig.getCheckpointBytes()
+                    && age < nameNodeConfig.getCheckpointMaxAge()) {
+                return;
+            }
+            checkpointRequired = true;
+            log.info("需要进行checkpoint：[lastCheckpointTxId={}, txns={}, bytes={}, age={} ms]",
+                    lastCheckpointTxId, txns, bytes, age);
+        }
+        // 本地 checkpoint 失败时 checkpointRequired 不会复位，下一次检查时重试
+        if (localFsImageCheckPointer != null && localCheckpointRunning.compareAndSet(false, true)) {
+            defaultScheduler.scheduleOnce("本地checkpoint", () -> {
+                try {
+                    localFsImageCheckPointer.run();
+                } finally {
+                    localCheckpointRunning.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * 立即要求进行一次 checkpoint，不等待阈值
+     */
+    public void requestCheckpoint() {
+        checkpointRequired = true;
+        defaultScheduler.scheduleOnce("立即checkpoint", this);
+    }
+
+    /**
+     * 是否需要 BackupNode 进行 checkpoint，本地 checkpoint 模式下始终返回 false
+     */
+    public boolean isCheckpointRequired() {
+        return localFsImageCheckPointer == null && checkpointRequired;
+    }
+
+    /**
+     * 收到新的 FsImage，校验通过后清理历史 FsImage 和 EditLog
+     *
+     * @param path FsImage 文件路径
+     */
+    public void onFsImageReceived(String path) {
+        long maxTxId;
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r"); FileInputStream fis =
+                new FileInputStream(raf.getFD()); FileChannel channel = fis.getChannel()) {
+            maxTxId = FsImage.validate(channel, path, (int) raf.length());
+        } catch (IOException e) {
+            log.error("校验FsImage失败：[file={}]", path, e);
+            return;
+        }
+        if (maxTxId <= lastCheckpointTxId) {
+            log.warn("收到的FsImage没有比上一次checkpoint更新：[file={}, maxTxId={}, lastCheckpointTxId={}]",
+                    path, maxTxId, lastCheckpointTxId);
+            return;
+        }
+        lastCheckpointTxId = maxTxId;
+        lastCheckpointTime = System.currentTimeMillis();
+        checkpointRequired = false;
+        log.info("checkpoint完成：[file={}, maxTxId={}]", path, maxTxId);
+        defaultScheduler.scheduleOnce("删除历史FSImage和EditLog", fsImageClearTask);
+    }
+}
@@ -1,6 +1,7 @@
 package design.dfs.namenode.fs;
 
 import design.dfs.backup.fs.FsImage;
+import design.dfs.common.Constants;
 import design.dfs.common.annotation.TestOnly;
 import design.dfs.common.enums.FsOpType;
 import design.dfs.model.backup.EditLog;
@@ -10,21 +11,60 @@ import design.dfs.namenode.editslog.EditLogWrapper;
 import design.dfs.namenode.editslog.FsEditLog;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * 文件系统元数据
+ *
+ * <pre>
+ * 写操作在目录树的写锁内修改目录树并把 EditLog 写入缓冲区，释放锁之后再通知监听器和刷盘。
+ * txId 的顺序和修改目录树的顺序一致，RENAME、DELETE_RECURSIVE 这类和其他操作不能交换顺序的 EditLog 回放结果也和内存一致，
+ * 生成 FsImage 快照时只需要持有目录树的读锁，见 {@link FsDirectory#createFsImageSnapshot}
+ * </pre>
  */
 @Slf4j
 public class DiskFileSystem extends AbstractFileSystem{
+    /**
+     * 启动回放 EditLog 时每批应用的条数
+     */
+    private static final int REPLAY_BATCH_SIZE = 1000;
     private NameNodeConfig nameNodeConfig;
     private FsEditLog editLog;
+    /**
+     * 后台回收被删除的文件
+     */
+    private final SubtreeReclaimer reclaimer;
+    /**
+     * 启动时加载的 FsImage 的 txId
+     */
+    private volatile long fsImageTxId = 0L;
 
     public DiskFileSystem(NameNodeConfig nameNodeConfig,
                           DataNodeManager dataNodeManager) {
         super();
         this.nameNodeConfig = nameNodeConfig;
         this.editLog = new FsEditLog(nameNodeConfig);
+        this.reclaimer = new SubtreeReclaimer(directory, dataNodeManager);
+        dataNodeManager.setDiskFileSystem(this);
+    }
+
+    /**
+     * 基于已有的内存目录树创建文件系统，用于 BackupNode 切换为 NameNode
+     *
+     * @param nameNodeConfig  配置
+     * @param dataNodeManager DataNode 管理器
+     * @param directory       BackupNode 的内存目录树
+     */
+    public DiskFileSystem(NameNodeConfig nameNodeConfig,
+                          DataNodeManager dataNodeManager,
+                          FsDirectory directory) {
+        super(directory);
+        this.nameNodeConfig = nameNodeConfig;
+        this.editLog = new FsEditLog(nameNodeConfig);
+        this.reclaimer = new SubtreeReclaimer(directory, dataNodeManager);
         dataNodeManager.setDiskFileSystem(this);
     }
 
@@ -33,6 +73,7 @@ public class DiskFileSystem extends AbstractFileSystem{
         super();
         this.nameNodeConfig = nameNodeConfig;
         this.editLog = new FsEditLog(nameNodeConfig);
+        this.reclaimer = new SubtreeReclaimer(directory, null);
     }
 
 
@@ -49,25 +90,38 @@ public class DiskFileSystem extends AbstractFileSystem{
                 txId = fsImage.getMaxTxId();
                 applyFsImage(fsImage);
             }
-            // 回放 editLog 文件
+            this.fsImageTxId = txId;
+            // 回放 editLog 文件，按批次应用到目录树，回放的editLog不需要再刷磁盘
+            List<EditLog> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
             this.editLog.playbackEditLog(txId, editLogWrapper -> {
-                EditLog editLog = editLogWrapper.getEditLog();
-                int opType = editLog.getOpType();
-                if (opType == FsOpType.MKDIR.getValue()) {
-                    // 这里要调用super.mkdir 回放的editLog不需要再刷磁盘
-                    super.mkdir(editLog.getPath(), editLog.getAttrMap());
-                } else if (opType == FsOpType.CREATE.getValue()) {
-                    super.createFile(editLog.getPath(), editLog.getAttrMap());
-                } else if (opType == FsOpType.DELETE.getValue()) {
-                    super.deleteFile(editLog.getPath());
+                batch.add(editLogWrapper.getEditLog());
+                if (batch.size() >= REPLAY_BATCH_SIZE) {
+                    replayEditLogs(batch);
+                    batch.clear();
                 }
             });
+            replayEditLogs(batch);
         } catch (Exception e) {
             log.info("NameNode恢复命名空间异常：", e);
             throw e;
         }
     }
 
+    /**
+     * 接管已经应用到 txId 的内存目录树，代替 {@link #recoveryNamespace()}，不需要加载 FsImage 和回放 EditLog
+     *
+     * <pre>
+     * 新的 EditLog 从 txId + 1 开始写。此时磁盘上还没有对应这棵目录树的 FsImage，
+     * fsImageTxId 保持为 0，由调用方立即发起一次本地 checkpoint
+     * </pre>
+     *
+     * @param txId 内存目录树已经应用的最大 txId
+     */
+    public void takeOver(long txId) {
+        this.fsImageTxId = 0L;
+        this.editLog.resetTxId(txId);
+    }
+
     @Override
     public Node listFiles(String filename) {
         Node node = super.listFiles(filename);
@@ -81,43 +135,231 @@ public class DiskFileSystem extends AbstractFileSystem{
      */
     @Override
     public void mkdir(String path, Map<String, String> attr) {
-        super.mkdir(path, attr);
-        this.editLog.logEdit(new EditLogWrapper(FsOpType.MKDIR.getValue(), path, attr));
+        boolean forceSync;
+        directory.writeLock().lock();
+        try {
+            super.mkdir(path, attr);
+            forceSync = this.editLog.appendEdit(new EditLogWrapper(FsOpType.MKDIR.getValue(), path, attr));
+        } finally {
+            directory.writeLock().unlock();
+        }
+        this.editLog.logSync(forceSync);
         log.info("创建文件夹：{}", path);
     }
     /**
-     * 创建文件
+     * 创建文件，EditLog 中带上分配的文件ID
      *
      * @param filename 文件路径
      */
     @Override
-    public boolean createFile(String filename, Map<String, String> attr) {
-        if (!super.createFile(filename, attr)) {
-            return false;
+    public String createFileWithId(String filename, Map<String, String> attr) {
+        String fileId;
+        boolean forceSync;
+        directory.writeLock().lock();
+        try {
+            fileId = super.createFileWithId(filename, attr);
+            if (fileId == null) {
+                return null;
+            }
+            Map<String, String> logAttr = new HashMap<>(attr);
+            logAttr.put(Constants.ATTR_FILE_ID, fileId);
+            forceSync = this.editLog.appendEdit(new EditLogWrapper(FsOpType.CREATE.getValue(), filename, logAttr));
+        } finally {
+            directory.writeLock().unlock();
         }
-        this.editLog.logEdit(new EditLogWrapper(FsOpType.CREATE.getValue(), filename, attr));
-        return true;
+        this.editLog.logSync(forceSync);
+        return fileId;
     }
 
     @Override
     public boolean deleteFile(String filename) {
-        if (!super.deleteFile(filename)) {
-            return false;
+        Node removed;
+        boolean forceSync;
+        directory.writeLock().lock();
+        try {
+            removed = directory.delete(filename);
+            if (removed == null) {
+                return false;
+            }
+            forceSync = this.editLog.appendEdit(new EditLogWrapper(FsOpType.DELETE.getValue(), filename));
+        } finally {
+            directory.writeLock().unlock();
         }
-        this.editLog.logEdit(new EditLogWrapper(FsOpType.DELETE.getValue(), filename));
+        this.editLog.logSync(forceSync);
+        reclaimer.submit(PathCache.normalize(filename), removed);
         log.info("删除文件：{}", filename);
         return true;
     }
 
+    /**
+     * 递归删除文件或文件夹
+     *
+     * <pre>
+     * 在一次写锁内把子树从目录树上摘下来，只写入一条 DELETE_RECURSIVE 的 EditLog，
+     * 子树中文件的副本信息和 DataNode 上的副本由 {@link SubtreeReclaimer} 在后台分批回收
+     * </pre>
+     *
+     * @param path 路径
+     * @return 是否删除成功，路径不存在时返回 false
+     */
+    public boolean deleteRecursive(String path) {
+        Node removed;
+        boolean forceSync;
+        directory.writeLock().lock();
+        try {
+            removed = directory.deleteRecursive(path);
+            if (removed == null) {
+                return false;
+            }
+            forceSync = this.editLog.appendEdit(new EditLogWrapper(FsOpType.DELETE_RECURSIVE.getValue(), path));
+        } finally {
+            directory.writeLock().unlock();
+        }
+        this.editLog.logSync(forceSync);
+        reclaimer.submit(PathCache.normalize(path), removed);
+        log.info("递归删除：{}", path);
+        return true;
+    }
+
+    /**
+     * 删除文件或文件夹，放入垃圾箱
+     *
+     * <pre>
+     * 按照删除时间放入 /.Trash/{时间段} 下，保留原来的路径，只需要一次重命名，和文件数量无关。
+     * 检查、创建时间段目录、移动和删除变空的上级目录在一次目录树写锁内完成，只写入一条 TRASH 的 EditLog。
+     * 时间段目录创建时记录删除时间，由 {@link TrashSweeper} 到期之后整个时间段一起清理。
+     * 同一个时间段内同一个路径被删除多次时，后删除的放在以删除时间命名的子目录下。
+     * 删除垃圾箱中的文件时直接删除
+     * </pre>
+     *
+     * @param path      路径
+     * @param recursive 是否允许删除非空文件夹
+     * @return 是否删除成功，路径不存在或者文件夹非空时返回 false
+     */
+    public boolean moveToTrash(String path, boolean recursive) {
+        String normalized = PathCache.normalize(path);
+        if (TrashSweeper.isInTrash(normalized)) {
+            return recursive ? deleteRecursive(normalized) : deleteFile(normalized);
+        }
+        long now = System.currentTimeMillis();
+        String bucket = TrashSweeper.bucketPath(now, nameNodeConfig.getNameNodeTrashCheckInterval());
+        String dst;
+        boolean forceSync;
+        directory.writeLock().lock();
+        try {
+            dst = directory.moveToTrash(normalized, bucket, now, recursive);
+            if (dst == null) {
+                return false;
+            }
+            EditLog trashLog = EditLog.newBuilder()
+                    .setOpType(FsOpType.TRASH.getValue())
+                    .setPath(normalized)
+                    .setDstPath(dst)
+                    .putAttr(Constants.ATTR_FILE_DEL_TIME, bucket.substring(bucket.lastIndexOf('/') + 1))
+                    .build();
+            forceSync = this.editLog.appendEdit(new EditLogWrapper(trashLog));
+        } finally {
+            directory.writeLock().unlock();
+        }
+        this.editLog.logSync(forceSync);
+        log.info("文件放入垃圾箱：[filename={}, trash={}]", path, dst);
+        return true;
+    }
+
+    /**
+     * 重命名或移动文件、文件夹，只写入一条 RENAME 的 EditLog
+     *
+     * @param src 原路径
+     * @param dst 目标路径
+     * @return 是否成功
+     */
+    @Override
+    public boolean rename(String src, String dst) {
+        boolean forceSync;
+        directory.writeLock().lock();
+        try {
+            if (!super.rename(src, dst)) {
+                return false;
+            }
+            EditLog renameLog = EditLog.newBuilder()
+                    .setOpType(FsOpType.RENAME.getValue())
+                    .setPath(src)
+                    .setDstPath(dst)
+                    .build();
+            forceSync = this.editLog.appendEdit(new EditLogWrapper(renameLog));
+        } finally {
+            directory.writeLock().unlock();
+        }
+        this.editLog.logSync(forceSync);
+        log.info("重命名文件：[src={}, dst={}]", src, dst);
+        return true;
+    }
+
+    /**
+     * 批量执行 mkdir/create/delete，整个批次只获取一次目录树写锁，成功的操作作为一组 EditLog 写入
+     *
+     * @param ops 操作列表
+     * @return 每个操作是否成功
+     */
+    public boolean[] batch(List<EditLog> ops) {
+        Node[] removed = new Node[ops.size()];
+        boolean[] results;
+        List<EditLogWrapper> editLogs = new ArrayList<>(ops.size());
+        boolean forceSync = false;
+        directory.writeLock().lock();
+        try {
+            results = directory.applyBatch(ops, removed);
+            for (int i = 0; i < ops.size(); i++) {
+                if (results[i]) {
+                    editLogs.add(new EditLogWrapper(ops.get(i)));
+                }
+            }
+            if (!editLogs.isEmpty()) {
+                forceSync = this.editLog.appendEdits(editLogs);
+            }
+        } finally {
+            directory.writeLock().unlock();
+        }
+        if (!editLogs.isEmpty()) {
+            this.editLog.logSync(forceSync);
+        }
+        for (int i = 0; i < ops.size(); i++) {
+            if (results[i] && removed[i] != null) {
+                reclaimer.submit(PathCache.normalize(ops.get(i).getPath()), removed[i]);
+            }
+        }
+        log.info("批量操作文件：[ops={}, success={}]", ops.size(), editLogs.size());
+        return results;
+    }
+
     /**
      * 优雅停机
      * 强制把内存里的edits log刷入磁盘中
      */
     public void shutdown() {
         log.info("Shutdown DiskNameSystem.");
+        this.reclaimer.shutdown();
         this.editLog.flush();
     }
 
+    /**
+     * 在 NameNode 本地生成 FsImage，不需要 BackupNode
+     *
+     * @return FsImage
+     */
+    public FsImage createFsImage() {
+        return directory.createFsImageSnapshot(editLog::getLastTxId);
+    }
+
+    /**
+     * 获取启动时加载的 FsImage 的 txId
+     *
+     * @return txId，没有 FsImage 时为 0
+     */
+    public long getFsImageTxId() {
+        return fsImageTxId;
+    }
+
     /**
      * 获取EditLog
      *
@@ -40,6 +40,15 @@ public interface FileSystem {
      */
     boolean deleteFile(String filename);
 
+    /**
+     * 重命名或移动文件、文件夹
+     *
+     * @param src 原路径
+     * @param dst 目标路径
+     * @return 是否成功
+     */
+    boolean rename(String src, String dst);
+
     /**
      * 根据Slot获取文件名
      *
@@ -1,27 +1,49 @@
 package design.dfs.namenode.fs;
 
 import design.dfs.backup.fs.FsImage;
+import design.dfs.common.Constants;
+import design.dfs.common.enums.FsOpType;
 import design.dfs.common.enums.NodeType;
 import design.dfs.common.utils.StringUtil;
+import design.dfs.model.backup.EditLog;
 import design.dfs.model.backup.INode;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
 
 /**
  * 管理内存文件
  */
 @Slf4j
 public class FsDirectory {
+    private static final int PATH_CACHE_SIZE = 100000;
     private Node root;
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    /**
+     * 路径查询缓存，修改目录树时在写锁内失效
+     */
+    private final PathCache pathCache = new PathCache(PATH_CACHE_SIZE);
+    /**
+     * 文件ID到文件节点的索引，重命名之后仍然可以通过 DataNode 上报的文件ID找到文件，在写锁内修改
+     */
+    private final Map<String, Node> filesById = new HashMap<>();
     public FsDirectory() {
         this.root = new Node("/", NodeType.DIRECTORY.getValue());
     }
     private final static char FILE_DELIMITER = '/';
+    private static final String TRASH_ROOT = FILE_DELIMITER + Constants.TRASH_DIR;
     /**
      * 创建文件目录
      *
@@ -30,20 +52,25 @@ public class FsDirectory {
     public void mkdir(String path, Map<String, String> attr) {
         try {
             lock.writeLock().lock();
-            String[] paths = StringUtil.split(path, FILE_DELIMITER);
-            Node current = root;
-            for (String p : paths) {
-                if ("".equals(p)) {
-                    continue;
-                }
-                current = findDirectory(current, p);
-            }
-            current.putAllAttr(attr);
+            unsafeMkdir(path, attr);
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    private void unsafeMkdir(String path, Map<String, String> attr) {
+        String[] paths = StringUtil.split(path, FILE_DELIMITER);
+        Node current = root;
+        for (String p : paths) {
+            if ("".equals(p)) {
+                continue;
+            }
+            current = findDirectory(current, p);
+        }
+        current.putAllAttr(attr);
+        pathCache.invalidate(path);
+    }
+
     /**
      * 创建文件
      * @param filePath 文件全路径
@@ -51,26 +78,52 @@ public class FsDirectory {
      * @return
      */
     public boolean createFile(String filePath, Map<String, String> attr) {
+        return createFileWithId(filePath, attr) != null;
+    }
+
+    /**
+     * 创建文件并返回文件ID，没有指定文件ID时在写锁内分配
+     *
+     * @param filePath 文件全路径
+     * @param attr     文件属性
+     * @return 文件ID，文件已存在或者指定的文件ID已经被占用时返回 null
+     */
+    public String createFileWithId(String filePath, Map<String, String> attr) {
         try {
             lock.writeLock().lock();
             String[] paths = StringUtil.split(filePath, FILE_DELIMITER);
             String fileNode = paths[paths.length - 1];
             Node parentNode = getFileParent(paths);
-            Node childrenNode = parentNode.getChildren(fileNode);
-            if (childrenNode != null) {
-                log.warn("文件已存在，创建失败 : {}", filePath);
-                return false;
-            }
-            // create new file node
-            Node child = new Node(fileNode,NodeType.FILE.getValue());
-            child.putAllAttr(attr);
-            parentNode.addChildren(child);
-            return true;
+            return unsafeCreateFile(parentNode, fileNode, filePath, attr);
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    private String unsafeCreateFile(Node parentNode, String fileNode, String filePath, Map<String, String> attr) {
+        Node childrenNode = parentNode.getChildren(fileNode);
+        if (childrenNode != null) {
+            log.warn("文件已存在，创建失败 : {}", filePath);
+            return null;
+        }
+        // 没有指定文件ID时根据创建时的路径分配，指定的文件ID不能和其他文件重复，否则两个文件会对应 DataNode 上的同一个文件
+        String fileId = attr.get(Constants.ATTR_FILE_ID);
+        if (fileId == null) {
+            fileId = unsafeAllocateFileId(filePath);
+        } else if (filesById.containsKey(fileId)) {
+            log.warn("文件ID已被占用，创建失败：[filename={}, fileId={}]", filePath, fileId);
+            return null;
+        }
+        // create new file node
+        Node child = new Node(fileNode,NodeType.FILE.getValue());
+        child.putAllAttr(attr);
+        child.getAttr().put(Constants.ATTR_FILE_ID, fileId);
+        parentNode.addChildren(child);
+        filesById.put(fileId, child);
+        pathCache.invalidate(filePath);
+        return fileId;
+    }
+
     /**
      * 删除文件
      *
@@ -79,44 +132,504 @@ public class FsDirectory {
     public Node delete(String filename) {
         lock.writeLock().lock();
         try {
-            String[] paths = StringUtil.split(filename, FILE_DELIMITER);
-            String name = paths[paths.length - 1];
-            Node current = getFileParent(paths);
-            Node childrenNode;
-            if ("".equals(name)) {
-                childrenNode = current;
+            return Node.deepCopy(unsafeDelete(filename), Integer.MAX_VALUE);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 递归删除文件或文件夹
+     *
+     * <pre>
+     * 只把子树从父节点上摘下来，和子树的大小无关。被摘下的子树不再能从根节点访问，
+     * 直接返回子树本身而不是拷贝，由调用方在后台逐步回收子树中的文件
+     * </pre>
+     *
+     * @param path 路径
+     * @return 被删除的子树，不存在时返回 null
+     */
+    public Node deleteRecursive(String path) {
+        lock.writeLock().lock();
+        try {
+            return unsafeDelete(path, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Node unsafeDelete(String filename) {
+        return unsafeDelete(filename, false);
+    }
+
+    private Node unsafeDelete(String filename, boolean recursive) {
+        String[] paths = StringUtil.split(filename, FILE_DELIMITER);
+        if (paths.length == 0) {
+            log.warn("不能删除根目录：[filename={}]", filename);
+            return null;
+        }
+        String name = paths[paths.length - 1];
+        Node current = getFileParent(paths);
+        Node childrenNode;
+        if ("".equals(name)) {
+            childrenNode = current;
+        } else {
+            childrenNode = current.getChildren(name);
+        }
+        if (childrenNode == null) {
+            log.warn("文件不存在, 删除失败：[filename={}]", filename);
+            return null;
+        }
+        if (!recursive && childrenNode.getType() == NodeType.DIRECTORY.getValue()) {
+            if (!childrenNode.getChildren().isEmpty()) {
+                log.warn("文件夹存在子文件，删除失败：[filename={}]", filename);
+                return null;
+            }
+        }
+        Node remove = current.getChildren().remove(name);
+
+        // 删除空文件夹
+        Node parent = remove.getParent();
+        Node child = remove;
+        while (parent != null) {
+            if (child.getChildren().isEmpty()) {
+                child.setParent(null);
+                parent.getChildren().remove(child.getPath());
+            }
+            child = parent;
+            parent = parent.getParent();
+        }
+        // 被删除的节点和连带删除的空目录都在这个路径上，递归删除时还要失效子树中的路径
+        if (recursive) {
+            // 子树中文件的索引由后台回收时清理，在这之前通过 isAttached 判断节点已经脱离目录树
+            remove.setParent(null);
+            if (remove.isFile()) {
+                pathCache.invalidate(filename);
             } else {
-                childrenNode = current.getChildren(name);
+                pathCache.invalidateSubtree(filename);
+            }
+        } else {
+            String fileId = remove.getAttr().get(Constants.ATTR_FILE_ID);
+            if (remove.isFile() && filesById.get(fileId) == remove) {
+                filesById.remove(fileId);
+            }
+            pathCache.invalidate(filename);
+        }
+        return remove;
+    }
+
+    /**
+     * 重命名或移动文件、文件夹
+     *
+     * <pre>
+     * 只把节点从原来的父节点摘下来挂到新的父节点上，和子树的大小无关，目标路径的上级目录不存在时自动创建。
+     * 文件在 DataNode 上以文件ID存储，副本信息也以文件ID为 key，重命名之后都不需要修改
+     * </pre>
+     *
+     * @param src 原路径
+     * @param dst 目标路径
+     * @return 是否成功，原路径不存在、是根目录、目标路径已存在或者目标路径在原路径之下时失败
+     */
+    public boolean rename(String src, String dst) {
+        lock.writeLock().lock();
+        try {
+            return unsafeRename(src, dst);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean unsafeRename(String src, String dst) {
+        String normalizedSrc = PathCache.normalize(src);
+        String normalizedDst = PathCache.normalize(dst);
+        if ("/".equals(normalizedSrc) || "/".equals(normalizedDst)) {
+            log.warn("不能重命名根目录：[src={}, dst={}]", src, dst);
+            return false;
+        }
+        if (normalizedDst.equals(normalizedSrc) || normalizedDst.startsWith(normalizedSrc + FILE_DELIMITER)) {
+            log.warn("不能移动到自身或者自身的子目录下：[src={}, dst={}]", src, dst);
+            return false;
+        }
+        Node node = unsafeLookup(normalizedSrc);
+        if (node == null) {
+            log.warn("文件不存在，重命名失败：[src={}]", src);
+            return false;
+        }
+        if (unsafeLookup(normalizedDst) != null) {
+            log.warn("目标文件已存在，重命名失败：[dst={}]", dst);
+            return false;
+        }
+        String[] dstPaths = StringUtil.split(normalizedDst, FILE_DELIMITER);
+        Node ancestor = root;
+        for (int i = 0; i < dstPaths.length - 1 && ancestor != null; i++) {
+            ancestor = "".equals(dstPaths[i]) ? ancestor : ancestor.getChildren(dstPaths[i]);
+            if (ancestor != null && ancestor.isFile()) {
+                log.warn("目标路径的上级是文件，重命名失败：[dst={}]", dst);
+                return false;
+            }
+        }
+        Node dstParent = getFileParent(dstPaths);
+        node.getParent().getChildren().remove(node.getPath());
+        node.setPath(dstPaths[dstPaths.length - 1]);
+        dstParent.addChildren(node);
+        pathCache.invalidateMove(normalizedSrc, normalizedDst, !node.isFile());
+        return true;
+    }
+
+    /**
+     * 把文件或文件夹放入垃圾箱
+     *
+     * <pre>
+     * 检查、创建时间段目录和移动在一次写锁内完成，并发的创建和删除不会插在中间。
+     * 移动到 bucket 下保留原来的路径，同一个时间段内路径已经存在时放在以删除时间命名的子目录下。
+     * 和删除一样，移走之后变空的上级目录也被删除
+     * </pre>
+     *
+     * @param path      原路径
+     * @param bucket    时间段目录的路径
+     * @param delTime   删除时间
+     * @param recursive 是否允许移动非空文件夹
+     * @return 在垃圾箱中的路径，原路径不存在或者文件夹非空时返回 null
+     */
+    public String moveToTrash(String path, String bucket, long delTime, boolean recursive) {
+        lock.writeLock().lock();
+        try {
+            String normalized = PathCache.normalize(path);
+            Node node = unsafeLookup(normalized);
+            if (node == null || node == root) {
+                log.warn("文件不存在, 删除失败：[filename={}]", path);
+                return null;
             }
-            if (childrenNode == null) {
-                log.warn("文件不存在, 删除失败：[filename={}]", filename);
+            if (!recursive && !node.isFile() && !node.getChildren().isEmpty()) {
+                log.warn("文件夹存在子文件，删除失败：[filename={}]", path);
                 return null;
             }
-            if (childrenNode.getType() == NodeType.DIRECTORY.getValue()) {
-                if (!childrenNode.getChildren().isEmpty()) {
-                    log.warn("文件夹存在子文件，删除失败：[filename={}]", filename);
-                    return null;
+            String dst = unsafeLookup(bucket + normalized) == null ?
+                    bucket + normalized : bucket + FILE_DELIMITER + delTime + normalized;
+            return unsafeMoveToTrash(normalized, dst, bucket.substring(bucket.lastIndexOf(FILE_DELIMITER) + 1)) ? dst : null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移动到垃圾箱中的指定路径，回放 TRASH 操作时也使用这个方法，调用方需要持有写锁
+     *
+     * @param src    原路径
+     * @param dst    垃圾箱中的路径
+     * @param bucket 时间段目录的名称，即时间段的开始时间
+     */
+    private boolean unsafeMoveToTrash(String src, String dst, String bucket) {
+        String bucketPath = TRASH_ROOT + FILE_DELIMITER + bucket;
+        if (unsafeLookup(bucketPath) == null) {
+            Map<String, String> attr = new HashMap<>();
+            attr.put(Constants.ATTR_FILE_DEL_TIME, bucket);
+            unsafeMkdir(bucketPath, attr);
+        }
+        Node node = unsafeLookup(src);
+        Node parent = node == null ? null : node.getParent();
+        if (!unsafeRename(src, dst)) {
+            return false;
+        }
+        // 删除变空的上级目录，它们都是 src 的上级路径，缓存已经在移动时失效
+        while (parent != null && parent != root && parent.getChildren().isEmpty()) {
+            Node grandParent = parent.getParent();
+            grandParent.getChildren().remove(parent.getPath());
+            parent.setParent(null);
+            parent = grandParent;
+        }
+        return true;
+    }
+
+    /**
+     * 目录树的写锁，可以重入
+     *
+     * <pre>
+     * 修改目录树的方法内部都会获取这个锁。NameNode 在外层持有它，修改目录树并把 EditLog 写入缓冲区，
+     * 分配 txId 的顺序就是修改目录树的顺序，回放 EditLog 得到的目录树和内存中的一致
+     * </pre>
+     *
+     * @return 写锁
+     */
+    public Lock writeLock() {
+        return lock.writeLock();
+    }
+
+    /**
+     * 通过文件ID查找文件节点，不拷贝节点，返回的节点只能读取
+     *
+     * @param fileId 文件ID，也就是 DataNode 上报的文件名
+     * @return 文件节点，文件已经被删除时返回 null
+     */
+    public Node getInodeByFileId(String fileId) {
+        lock.readLock().lock();
+        try {
+            Node node = filesById.get(fileId);
+            return node != null && isAttached(node) ? node : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 批量通过文件ID查找文件节点，整个批次只获取一次读锁，用于 DataNode 的全量上报
+     *
+     * <pre>
+     * 同一个 DataNode 上报的文件大多在相同的目录下，已经确认在目录树上的目录节点会被记录下来，
+     * 后面的文件向上查找到这些目录就可以停止，不需要每个文件都走到根节点
+     * </pre>
+     *
+     * @param fileIds 文件ID
+     * @return 和文件ID 一一对应的文件节点，文件不存在或者已经被删除的位置为 null
+     */
+    public Node[] getInodesByFileId(List<String> fileIds) {
+        Node[] result = new Node[fileIds.size()];
+        Set<Node> attached = Collections.newSetFromMap(new IdentityHashMap<>());
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < result.length; i++) {
+                Node node = filesById.get(fileIds.get(i));
+                if (node != null && isAttached(node.getParent(), attached)) {
+                    result[i] = node;
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isAttached(Node dir, Set<Node> attached) {
+        Node current = dir;
+        while (current != null && current != root && !attached.contains(current)) {
+            current = current.getParent();
+        }
+        if (current == null) {
+            return false;
+        }
+        for (Node visited = dir; visited != current; visited = visited.getParent()) {
+            attached.add(visited);
+        }
+        return true;
+    }
+
+    /**
+     * 为新文件分配文件ID，优先使用文件路径，调用方需要持有写锁，分配之后马上放入索引
+     *
+     * <pre>
+     * 被重命名的文件会继续占用原来的路径作为文件ID，被删除但还没有回收的文件也会继续占用，
+     * 这时在路径后面加上序号，避免新文件和它们的副本在 DataNode 上同名
+     * </pre>
+     *
+     * @param path 文件路径
+     * @return 文件ID
+     */
+    private String unsafeAllocateFileId(String path) {
+        String fileId = path;
+        for (int i = 1; filesById.containsKey(fileId); i++) {
+            fileId = path + "@" + i;
+        }
+        return fileId;
+    }
+
+    /**
+     * 清理已经被删除的文件的索引，由后台回收被删除的子树时调用
+     *
+     * @param fileIds 文件ID
+     */
+    public void removeFileIds(Collection<String> fileIds) {
+        lock.writeLock().lock();
+        try {
+            for (String fileId : fileIds) {
+                Node node = filesById.get(fileId);
+                if (node != null && !isAttached(node)) {
+                    filesById.remove(fileId);
                 }
             }
-            Node remove = current.getChildren().remove(name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-            // 删除空文件夹
-            Node parent = remove.getParent();
-            Node child = remove;
-            while (parent != null) {
-                if (child.getChildren().isEmpty()) {
-                    child.setParent(null);
-                    parent.getChildren().remove(child.getPath());
+    /**
+     * 清理已经脱离目录树的子树中所有文件的索引，调用方需要持有写锁
+     *
+     * @param subtree 被删除的子树
+     */
+    private void unsafeRemoveFileIds(Node subtree) {
+        Deque<Node> nodes = new ArrayDeque<>();
+        nodes.push(subtree);
+        while (!nodes.isEmpty()) {
+            Node current = nodes.pop();
+            if (current.isFile()) {
+                String fileId = current.getAttr().get(Constants.ATTR_FILE_ID);
+                if (fileId != null && filesById.get(fileId) == current) {
+                    filesById.remove(fileId);
                 }
-                child = parent;
-                parent = parent.getParent();
+                continue;
             }
-            return Node.deepCopy(remove, Integer.MAX_VALUE);
+            for (Node child : current.getChildren().values()) {
+                nodes.push(child);
+            }
+        }
+    }
+
+    /**
+     * 节点是否还在目录树上，调用方需要持有锁
+     */
+    private boolean isAttached(Node node) {
+        Node current = node;
+        while (current.getParent() != null) {
+            current = current.getParent();
+        }
+        return current == root;
+    }
+
+    /**
+     * 获取文件的文件ID，没有文件ID属性时就是文件的路径
+     *
+     * @param node 文件节点
+     * @param path 文件路径
+     * @return 文件ID
+     */
+    public static String getFileId(Node node, String path) {
+        return node.getAttr().getOrDefault(Constants.ATTR_FILE_ID, path);
+    }
+
+    /**
+     * 批量应用 EditLog，整个批次只获取一次写锁，用于 BackupNode 同步和 NameNode 启动回放
+     *
+     * <pre>
+     * 连续的 EditLog 大多落在同一个目录下（例如在一个目录下连续上传文件），
+     * 这里缓存上一条 EditLog 的父目录节点，父路径相同时直接复用，不需要再从根节点逐级查找。
+     * 删除操作可能连带删除空目录，缓存的节点会脱离目录树，所以每次删除之后清空缓存
+     *
+     * 删除时不再深拷贝被删除的节点，回放不需要返回值
+     * </pre>
+     *
+     * @param editLogs EditLog 列表，按 txId 升序
+     */
+    public void applyEditLogs(List<EditLog> editLogs) {
+        lock.writeLock().lock();
+        try {
+            unsafeApplyAll(editLogs, null, null);
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    /**
+     * 批量执行客户端的 mkdir/create/delete 操作，整个批次只获取一次写锁，返回每个操作的执行结果
+     *
+     * @param ops 操作列表，和 EditLog 的格式相同，不需要 txId
+     * @return 每个操作是否成功，mkdir 总是成功，文件已存在时 create 失败，文件不存在或者目录非空时 delete 失败
+     */
+    public boolean[] applyBatch(List<EditLog> ops) {
+        return applyBatch(ops, null);
+    }
+
+    /**
+     * 批量执行客户端的 mkdir/create/delete 操作
+     *
+     * @param ops     操作列表，create 成功时把分配的文件ID写回对应的操作，需要是可以修改的列表
+     * @param removed 删除成功时记录被删除的节点，不需要时传 null
+     * @return 每个操作是否成功
+     */
+    public boolean[] applyBatch(List<EditLog> ops, Node[] removed) {
+        boolean[] results = new boolean[ops.size()];
+        lock.writeLock().lock();
+        try {
+            unsafeApplyAll(ops, results, removed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return results;
+    }
+
+    /**
+     * 依次应用操作，调用方需要持有写锁
+     *
+     * @param editLogs 操作列表
+     * @param results  每个操作的执行结果，不需要时传 null
+     * @param removed  删除操作被删除的节点，不需要时传 null
+     */
+    private void unsafeApplyAll(List<EditLog> editLogs, boolean[] results, Node[] removed) {
+        String cachedParentPath = null;
+        Node cachedParent = null;
+        for (int i = 0; i < editLogs.size(); i++) {
+            EditLog editLog = editLogs.get(i);
+            int op = editLog.getOpType();
+            String path = editLog.getPath();
+            boolean success;
+            if (op == FsOpType.DELETE.getValue() || op == FsOpType.DELETE_RECURSIVE.getValue()) {
+                Node node = unsafeDelete(path, op == FsOpType.DELETE_RECURSIVE.getValue());
+                success = node != null;
+                if (removed != null) {
+                    removed[i] = node;
+                } else if (node != null && op == FsOpType.DELETE_RECURSIVE.getValue()) {
+                    // 回放时没有后台回收，直接清理子树中的文件ID，否则这些文件ID一直占用索引
+                    unsafeRemoveFileIds(node);
+                }
+                cachedParentPath = null;
+                cachedParent = null;
+            } else if (op == FsOpType.RENAME.getValue()) {
+                success = unsafeRename(path, editLog.getDstPath());
+                cachedParentPath = null;
+                cachedParent = null;
+            } else if (op == FsOpType.TRASH.getValue()) {
+                success = unsafeMoveToTrash(path, editLog.getDstPath(), editLog.getAttrOrThrow(Constants.ATTR_FILE_DEL_TIME));
+                cachedParentPath = null;
+                cachedParent = null;
+            } else if (op != FsOpType.MKDIR.getValue() && op != FsOpType.CREATE.getValue()) {
+                success = false;
+            } else {
+                int index = path.lastIndexOf(FILE_DELIMITER);
+                String name = path.substring(index + 1);
+                if (index < 0 || name.isEmpty()) {
+                    // 不是以文件名结尾的路径，按照单条的方式处理
+                    if (op == FsOpType.MKDIR.getValue()) {
+                        unsafeMkdir(path, editLog.getAttrMap());
+                        success = true;
+                    } else {
+                        String[] paths = StringUtil.split(path, FILE_DELIMITER);
+                        success = created(editLogs, i, results,
+                                unsafeCreateFile(getFileParent(paths), paths[paths.length - 1], path, editLog.getAttrMap()));
+                    }
+                } else {
+                    String parentPath = path.substring(0, index);
+                    if (!parentPath.equals(cachedParentPath)) {
+                        cachedParent = getFileParent(StringUtil.split(path, FILE_DELIMITER));
+                        cachedParentPath = parentPath;
+                    }
+                    if (op == FsOpType.MKDIR.getValue()) {
+                        findDirectory(cachedParent, name).putAllAttr(editLog.getAttrMap());
+                        pathCache.invalidate(path);
+                        success = true;
+                    } else {
+                        success = created(editLogs, i, results, unsafeCreateFile(cachedParent, name, path, editLog.getAttrMap()));
+                    }
+                }
+            }
+            if (results != null) {
+                results[i] = success;
+            }
+        }
+    }
+
+    /**
+     * 客户端的批量操作中 create 成功之后，把在写锁内分配的文件ID写回操作，写入 EditLog 时带上文件ID，回放时得到相同的文件ID
+     */
+    private boolean created(List<EditLog> editLogs, int index, boolean[] results, String fileId) {
+        if (fileId == null) {
+            return false;
+        }
+        EditLog editLog = editLogs.get(index);
+        if (results != null && !editLog.containsAttr(Constants.ATTR_FILE_ID)) {
+            editLogs.set(index, editLog.toBuilder().putAttr(Constants.ATTR_FILE_ID, fileId).build());
+        }
+        return true;
+    }
+
     /**
      * 寻找文件的目录
      * 如 /a/b/c/d.txt => [a,b,c,d.txt] => c
@@ -135,6 +648,25 @@ public class FsDirectory {
         return current;
     }
 
+    /**
+     * 只读地寻找文件的目录，和 {@link #getFileParent(String[])} 不同，目录不存在时返回 null 而不是创建，
+     * 查询只持有读锁，不能修改目录树
+     *
+     * @param paths 路径
+     * @return 文件所在目录，不存在返回 null
+     */
+    private Node lookupFileParent(String[] paths) {
+        Node current = root;
+        for (int i = 0; i < paths.length - 1 && current != null; i++) {
+            String p = paths[i];
+            if ("".equals(p)) {
+                continue;
+            }
+            current = current.getChildren(p);
+        }
+        return current;
+    }
+
     private Node findDirectory(Node current, String p) {
         Node childrenNode = current.getChildren(p);
         if (childrenNode == null) {
@@ -159,6 +691,33 @@ public class FsDirectory {
         }
     }
 
+    /**
+     * 基于目录树快照生成 FsImage
+     *
+     * <pre>
+     * 持有锁期间只拷贝 Node 结构并读取 txId，INode 的转换和序列化在锁外进行，
+     * 写请求只会被阻塞一次内存拷贝的时间，而不是整个 FsImage 的生成过程
+     *
+     * NameNode 在持有 {@link #writeLock()} 的期间修改目录树并写入 EditLog，持有读锁时不会有修改还没有分配 txId，
+     * 快照中正好包含 txId 及之前的修改。否则回放时这些修改会被重复应用，RENAME 和 DELETE_RECURSIVE 重复应用的结果是错的
+     * </pre>
+     *
+     * @param txIdSupplier 当前已写入 EditLog 的最大 txId
+     * @return FsImage
+     */
+    public FsImage createFsImageSnapshot(LongSupplier txIdSupplier) {
+        Node snapshot;
+        long txId;
+        lock.readLock().lock();
+        try {
+            txId = txIdSupplier.getAsLong();
+            snapshot = Node.deepCopy(root, Integer.MAX_VALUE);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new FsImage(txId, Node.toINode(snapshot));
+    }
+
     /**
      * 应用 FsImage 初始化内存目录树
      * @param fsImage
@@ -167,11 +726,43 @@ public class FsDirectory {
         try {
             lock.writeLock().lock();
             this.root = Node.parseINode(fsImage.getINode(), "");
+            pathCache.clear();
+            rebuildFileIds();
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    /**
+     * 重建文件ID索引，调用方需要持有写锁。之前版本生成的 FsImage 中的文件没有文件ID，使用当前路径作为文件ID
+     */
+    private void rebuildFileIds() {
+        filesById.clear();
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<String> paths = new ArrayDeque<>();
+        for (Node child : root.getChildren().values()) {
+            nodes.push(child);
+            paths.push(FILE_DELIMITER + child.getPath());
+        }
+        while (!nodes.isEmpty()) {
+            Node current = nodes.pop();
+            String path = paths.pop();
+            if (current.isFile()) {
+                String fileId = current.getAttr().get(Constants.ATTR_FILE_ID);
+                if (fileId == null) {
+                    fileId = path;
+                    current.getAttr().put(Constants.ATTR_FILE_ID, fileId);
+                }
+                filesById.put(fileId, current);
+                continue;
+            }
+            for (Node child : current.getChildren().values()) {
+                nodes.push(child);
+                paths.push(path + FILE_DELIMITER + child.getPath());
+            }
+        }
+    }
+
     /**
      * 查看某个目录文件
      *
@@ -206,13 +797,55 @@ public class FsDirectory {
         try {
             String[] paths = StringUtil.split(parent, FILE_DELIMITER);
             String name = paths[paths.length - 1];
-            Node current = getFileParent(paths);
-            return current.getChildren(name);
+            Node current = lookupFileParent(paths);
+            return current == null ? null : current.getChildren(name);
         } finally {
             lock.readLock().unlock();
         }
     }
 
+    /**
+     * 文件或目录是否存在，不拷贝节点
+     *
+     * @param path 路径
+     * @return 是否存在
+     */
+    public boolean exists(String path) {
+        return getInode(path) != null;
+    }
+
+    /**
+     * 查找路径对应的节点，经过路径缓存，不拷贝节点
+     *
+     * <pre>
+     * 返回的是目录树中的节点本身，只能读取，不能修改；
+     * 读取子节点或者会被修改的属性时需要使用 {@link #listFiles(String, int)}
+     * </pre>
+     *
+     * @param path 路径
+     * @return 节点，不存在返回 null
+     */
+    public Node getInode(String path) {
+        lock.readLock().lock();
+        try {
+            return pathCache.get(path, this::unsafeLookup);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从根节点逐级查找，调用方需要持有锁
+     */
+    private Node unsafeLookup(String path) {
+        if (root.getPath().equals(path)) {
+            return root;
+        }
+        String[] paths = StringUtil.split(path, FILE_DELIMITER);
+        Node current = lookupFileParent(paths);
+        return current == null ? null : current.getChildren(paths[paths.length - 1]);
+    }
+
     /**
      * <pre>
      *     假设存在文件：
@@ -36,7 +36,7 @@ public class FsImageClearTask implements Runnable{
     public void run() {
         Map<Long, String> timeFsImageMap = fileSystem.scanFsImageMap(baseDir);
         List<Long> sortedList = new ArrayList<>(timeFsImageMap.keySet());
-        sortedList.sort((o1, o2) -> o1.equals(o2) ? 0 : (int) (o2 - o1));
+        sortedList.sort((o1, o2) -> Long.compare(o2, o1));
         boolean findValidFsImage = false;
         long maxTxId = -1;
         for (Long time : sortedList) {
@@ -61,11 +61,11 @@ public class FsImageClearTask implements Runnable{
             } catch (IOException e) {
                 e.printStackTrace();
             }
+        }
 
-            // 如果是NameNode，则需要清除EditLog文件
-            if (findValidFsImage && fsEditLog != null) {
-                //fsEditLog.cleanEditLogByTxId(maxTxId);
-            }
+        // 如果是NameNode，则需要清除已经被 FsImage 覆盖的 EditLog 文件
+        if (findValidFsImage && fsEditLog != null) {
+            fsEditLog.cleanEditLogByTxId(maxTxId);
         }
     }
 }
@@ -0,0 +1,57 @@
+package design.dfs.namenode.fs;
+
+import design.dfs.backup.fs.FsImage;
+import design.dfs.common.enums.FsImageCodec;
+import design.dfs.common.utils.FileUtil;
+import design.dfs.namenode.config.NameNodeConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.time.StopWatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * NameNode 本地 checkpoint，用于没有部署 BackupNode 的场景
+ *
+ * <pre>
+ * 1. 在后台线程基于目录树快照生成 FsImage，期间 NameNode 正常处理请求
+ * 2. 写入 fsimage-{时间戳}.ckpt 临时文件，完成后重命名为 fsimage-{时间戳}，文件格式和 BackupNode 上传的一致
+ * 3. 交给 {@link CheckpointCoordinator} 校验，按照相同的规则清理历史 FsImage 和 EditLog
+ * </pre>
+ */
+@Slf4j
+public class LocalFsImageCheckPointer implements Runnable {
+    private static final String CHECKPOINT_SUFFIX = ".ckpt";
+    private final NameNodeConfig nameNodeConfig;
+    private final DiskFileSystem diskFileSystem;
+    private final CheckpointCoordinator checkpointCoordinator;
+
+    public LocalFsImageCheckPointer(DiskFileSystem diskFileSystem, CheckpointCoordinator checkpointCoordinator) {
+        this.nameNodeConfig = diskFileSystem.getNameNodeConfig();
+        this.diskFileSystem = diskFileSystem;
+        this.checkpointCoordinator = checkpointCoordinator;
+    }
+
+    @Override
+    public void run() {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        try {
+            FsImage fsImage = diskFileSystem.createFsImage();
+            String path = nameNodeConfig.getFsImageFile(String.valueOf(System.currentTimeMillis()));
+            String tmpPath = path + CHECKPOINT_SUFFIX;
+            FileUtil.saveFile(tmpPath, true, ByteBuffer.wrap(fsImage.toByteArray(
+                    FsImageCodec.getEnum(nameNodeConfig.getFsImageCodec()))));
+            if (!new File(tmpPath).renameTo(new File(path))) {
+                throw new IOException("FsImage重命名失败：" + tmpPath);
+            }
+            stopWatch.stop();
+            log.info("本地checkpoint生成FsImage：[file={}, maxTxId={}, cost={} s]",
+                    path, fsImage.getMaxTxId(), stopWatch.getTime() / 1000.0D);
+            checkpointCoordinator.onFsImageReceived(path);
+        } catch (Exception e) {
+            log.error("本地checkpoint失败：", e);
+        }
+    }
+}
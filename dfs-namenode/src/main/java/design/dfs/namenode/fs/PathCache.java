@@ -0,0 +1,184 @@
+package design.dfs.namenode.fs;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 路径到目录树节点的查询缓存，同时缓存不存在的路径（负缓存）
+ *
+ * <pre>
+ * 创建文件前的存在性检查、DataNode 上报副本时读取副本数量，都需要按路径查找节点，
+ * 原来每次都从根节点逐级查找并深拷贝整个节点，这里缓存查找的结果，命中时只有一次哈希查找，也不会产生新的对象
+ *
+ * 使用约束：
+ * 1. 未命中时的加载和放入缓存必须在目录树的读锁内完成，目录树修改时在写锁内失效，避免把修改前的结果放入缓存
+ * 2. 目录树的修改只会影响修改路径本身和它的上级目录（mkdir 创建上级目录、delete 连带删除空目录），
+ *    所以修改某个路径时失效这个路径以及所有上级路径
+ * 3. 缓存的是目录树中的节点本身，调用方只能读取，不能修改
+ *
+ * 超过容量时随机淘汰一部分缓存，不维护访问顺序，命中路径上没有额外的开销
+ * </pre>
+ */
+public class PathCache {
+    /**
+     * 表示路径不存在的占位节点
+     */
+    private static final Node NOT_EXISTS = new Node();
+    private static final char FILE_DELIMITER = '/';
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Node> cache;
+
+    public PathCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.cache = new ConcurrentHashMap<>(Math.min(maxSize, 1024));
+    }
+
+    /**
+     * 查询缓存，未命中时加载并放入缓存，调用方需要持有目录树的读锁
+     *
+     * @param path   路径
+     * @param loader 从目录树中查找节点
+     * @return 节点，不存在时返回 null
+     */
+    public Node get(String path, Function<String, Node> loader) {
+        String key = normalize(path);
+        Node node = cache.get(key);
+        if (node != null) {
+            return node == NOT_EXISTS ? null : node;
+        }
+        node = loader.apply(key);
+        if (cache.size() >= maxSize) {
+            evict();
+        }
+        cache.put(key, node == null ? NOT_EXISTS : node);
+        return node;
+    }
+
+    /**
+     * 路径被修改，失效这个路径以及所有上级路径，调用方需要持有目录树的写锁
+     *
+     * @param path 被修改的路径
+     */
+    public void invalidate(String path) {
+        if (cache.isEmpty()) {
+            return;
+        }
+        String key = normalize(path);
+        while (true) {
+            cache.remove(key);
+            int index = key.lastIndexOf(FILE_DELIMITER);
+            if (index <= 0) {
+                break;
+            }
+            key = key.substring(0, index);
+        }
+    }
+
+    /**
+     * 子树被删除或移动，失效这个路径、所有上级路径以及子树中的所有路径，调用方需要持有目录树的写锁
+     *
+     * <pre>
+     * 子树中的路径需要扫描整个缓存，代价和缓存大小有关，和子树大小无关
+     * </pre>
+     *
+     * @param path 子树的路径
+     */
+    public void invalidateSubtree(String path) {
+        if (cache.isEmpty()) {
+            return;
+        }
+        invalidate(path);
+        String prefix = normalize(path) + FILE_DELIMITER;
+        cache.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * 节点从 src 移动到 dst，调用方需要持有目录树的写锁
+     *
+     * <pre>
+     * 文件没有子节点，只需要失效两个路径以及它们的上级路径；
+     * 目录需要失效两棵子树中的路径，一次扫描同时匹配两个前缀
+     * </pre>
+     *
+     * @param src       原路径
+     * @param dst       目标路径
+     * @param directory 移动的是不是目录
+     */
+    public void invalidateMove(String src, String dst, boolean directory) {
+        if (cache.isEmpty()) {
+            return;
+        }
+        invalidate(src);
+        invalidate(dst);
+        if (directory) {
+            String srcPrefix = normalize(src) + FILE_DELIMITER;
+            String dstPrefix = normalize(dst) + FILE_DELIMITER;
+            cache.keySet().removeIf(key -> key.startsWith(srcPrefix) || key.startsWith(dstPrefix));
+        }
+    }
+
+    /**
+     * 失效所有缓存，比如加载了新的 FsImage
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * 淘汰 1/8 的缓存
+     */
+    private void evict() {
+        int count = Math.max(1, maxSize / 8);
+        Iterator<String> iterator = cache.keySet().iterator();
+        while (iterator.hasNext() && count-- > 0) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 统一路径的格式：以 / 开头，不包含连续的 /，不以 / 结尾。已经是标准格式时直接返回，不产生新的字符串
+     */
+    static String normalize(String path) {
+        if (isNormalized(path)) {
+            return path;
+        }
+        StringBuilder builder = new StringBuilder(path.length() + 1);
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == FILE_DELIMITER) {
+                continue;
+            }
+            if (i == 0 || path.charAt(i - 1) == FILE_DELIMITER) {
+                builder.append(FILE_DELIMITER);
+            }
+            builder.append(c);
+        }
+        return builder.length() == 0 ? String.valueOf(FILE_DELIMITER) : builder.toString();
+    }
+
+    private static boolean isNormalized(String path) {
+        int length = path.length();
+        if (length == 0 || path.charAt(0) != FILE_DELIMITER) {
+            return false;
+        }
+        if (length == 1) {
+            return true;
+        }
+        if (path.charAt(length - 1) == FILE_DELIMITER) {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            if (path.charAt(i) == FILE_DELIMITER && path.charAt(i - 1) == FILE_DELIMITER) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,150 @@
+package design.dfs.namenode.fs;
+
+import design.dfs.common.utils.DefaultThread;
+import design.dfs.namenode.datanode.DataNodeManager;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台回收被删除的子树
+ *
+ * <pre>
+ * 递归删除只把子树从目录树上摘下来，子树中的文件由这里在后台逐步回收：
+ * 1. 深度优先遍历子树，每次处理 {@link #BATCH_SIZE} 个文件
+ * 2. 每个批次清理这些文件的文件ID索引，在 DataNodeManager 中移除这些文件的副本信息，并给持有副本的 DataNode 下发删除副本的任务
+ * 3. 处理完的目录清空孩子节点，让已经处理过的部分尽早被 GC 回收
+ * 4. 批次之间暂停 {@link #BATCH_INTERVAL} 毫秒，删除百万级文件时不会长时间占用副本信息的锁
+ *
+ * 子树已经不能从根节点访问，遍历时不需要持有目录树的锁。
+ * NameNode 停机时还没有回收完的子树直接丢弃，残留的副本由 DataNode 上报时发现文件不存在后忽略
+ * </pre>
+ */
+@Slf4j
+public class SubtreeReclaimer implements Runnable {
+    private static final int BATCH_SIZE = 1000;
+    private static final long BATCH_INTERVAL = 10;
+
+    private final FsDirectory directory;
+    private final DataNodeManager dataNodeManager;
+    private final LinkedBlockingQueue<Subtree> queue = new LinkedBlockingQueue<>();
+    private volatile boolean running = false;
+    private DefaultThread thread;
+
+    /**
+     * @param directory       目录树
+     * @param dataNodeManager DataNode 管理器，为 null 时只释放节点，不处理副本
+     */
+    public SubtreeReclaimer(FsDirectory directory, DataNodeManager dataNodeManager) {
+        this.directory = directory;
+        this.dataNodeManager = dataNodeManager;
+    }
+
+    /**
+     * 提交一棵被删除的子树
+     *
+     * @param path 子树的路径
+     * @param node 子树的根节点，也可以是单个文件
+     */
+    public void submit(String path, Node node) {
+        ensureStarted();
+        queue.add(new Subtree(path, node));
+    }
+
+    private synchronized void ensureStarted() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new DefaultThread("NameNode-Subtree-Reclaimer", this, true);
+        thread.start();
+    }
+
+    public synchronized void shutdown() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.warn("NameNode停机，还有被删除的子树没有回收：[count={}]", queue.size());
+        }
+    }
+
+    /**
+     * 等待回收的子树数量
+     */
+    public int pendingCount() {
+        return queue.size();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Subtree subtree = queue.poll(1, TimeUnit.SECONDS);
+                if (subtree != null) {
+                    reclaim(subtree);
+                }
+            } catch (InterruptedException e) {
+                log.info("子树回收线程被中断");
+                return;
+            } catch (Exception e) {
+                log.error("回收被删除的子树异常：", e);
+            }
+        }
+    }
+
+    private void reclaim(Subtree subtree) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long total = 0;
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        Deque<Subtree> stack = new ArrayDeque<>();
+        stack.push(subtree);
+        while (!stack.isEmpty()) {
+            Subtree current = stack.pop();
+            if (current.node.isFile()) {
+                // 副本信息以文件ID为 key，被重命名过的文件的文件ID和路径不同
+                batch.add(FsDirectory.getFileId(current.node, current.path));
+            } else {
+                for (Node child : current.node.getChildren().values()) {
+                    stack.push(new Subtree(current.path + "/" + child.getPath(), child));
+                }
+                current.node.getChildren().clear();
+            }
+            if (batch.size() >= BATCH_SIZE) {
+                total += flush(batch);
+                Thread.sleep(BATCH_INTERVAL);
+            }
+        }
+        total += flush(batch);
+        log.info("回收被删除的子树完成：[path={}, files={}, cost={} ms]", subtree.path, total,
+                System.currentTimeMillis() - start);
+    }
+
+    private int flush(List<String> batch) {
+        int size = batch.size();
+        if (size > 0) {
+            directory.removeFileIds(batch);
+            if (dataNodeManager != null) {
+                dataNodeManager.removeFiles(batch);
+            }
+        }
+        batch.clear();
+        return size;
+    }
+
+    private static class Subtree {
+        private final String path;
+        private final Node node;
+
+        private Subtree(String path, Node node) {
+            this.path = path;
+            this.node = node;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package design.dfs.namenode.fs;
+
+import design.dfs.common.Constants;
+import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.namenode.config.NameNodeConfig;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定时清理垃圾箱
+ *
+ * <pre>
+ * 客户端删除的文件按照删除时间放入 /.Trash/{时间段} 下，每个时间段的长度为 namenode.trash.check.interval：
+ *
+ * 1. 每隔 namenode.trash.check.interval 检查一次垃圾箱下的时间段目录
+ * 2. 时间段的结束时间超过 namenode.trash.clear.threshold 之后，整个时间段目录递归删除，只写一条 EditLog
+ * 3. 目录下的文件由 {@link SubtreeReclaimer} 在后台分批回收，删除副本的任务在心跳时按 DataNode 合并下发
+ *
+ * 一次清理一整个时间段，而不是逐个文件过期，DataNode 上的删除操作也就随着时间段均匀分布
+ * </pre>
+ */
+@Slf4j
+public class TrashSweeper implements Runnable {
+    private static final String TRASH_ROOT = "/" + Constants.TRASH_DIR;
+
+    private final NameNodeConfig nameNodeConfig;
+    private final DefaultScheduler defaultScheduler;
+    private final DiskFileSystem diskFileSystem;
+
+    public TrashSweeper(DefaultScheduler defaultScheduler, DiskFileSystem diskFileSystem) {
+        this.nameNodeConfig = diskFileSystem.getNameNodeConfig();
+        this.defaultScheduler = defaultScheduler;
+        this.diskFileSystem = diskFileSystem;
+    }
+
+    /**
+     * 启动定时清理，需要在恢复命名空间之后调用
+     */
+    public void start() {
+        long interval = nameNodeConfig.getNameNodeTrashCheckInterval();
+        defaultScheduler.schedule("清理垃圾箱", this, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        Node trash = diskFileSystem.listFiles(TRASH_ROOT, 1);
+        if (trash == null) {
+            return;
+        }
+        long expireBefore = System.currentTimeMillis() - nameNodeConfig.getNameNodeTrashClearThreshold()
+                - nameNodeConfig.getNameNodeTrashCheckInterval();
+        List<String> expired = new ArrayList<>();
+        for (Node bucket : trash.getChildren().values()) {
+            Long delTime = getDelTime(bucket);
+            if (delTime != null && delTime <= expireBefore) {
+                expired.add(bucket.getPath());
+            }
+        }
+        for (String bucket : expired) {
+            String path = TRASH_ROOT + "/" + bucket;
+            if (diskFileSystem.deleteRecursive(path)) {
+                log.info("清理垃圾箱过期的文件：[path={}]", path);
+            }
+        }
+    }
+
+    private Long getDelTime(Node bucket) {
+        String delTime = bucket.getAttr().getOrDefault(Constants.ATTR_FILE_DEL_TIME, bucket.getPath());
+        try {
+            return Long.parseLong(delTime);
+        } catch (NumberFormatException e) {
+            log.warn("垃圾箱中存在不是按照时间段划分的目录：[path={}]", bucket.getPath());
+            return null;
+        }
+    }
+
+    /**
+     * 路径是否在垃圾箱中
+     *
+     * @param path 规范化之后的路径
+     * @return 是否在垃圾箱中
+     */
+    static boolean isInTrash(String path) {
+        return path.equals(TRASH_ROOT) || path.startsWith(TRASH_ROOT + "/");
+    }
+
+    /**
+     * 删除时间所在的时间段目录
+     *
+     * @param delTime  删除时间
+     * @param interval 时间段的长度
+     * @return 时间段目录的路径，目录名为时间段的开始时间
+     */
+    static String bucketPath(long delTime, long interval) {
+        long bucket = interval <= 0 ? delTime : delTime - delTime % interval;
+        return TRASH_ROOT + "/" + bucket;
+    }
+}
@@ -0,0 +1,195 @@
+package design.dfs.namenode.server;
+
+import com.google.protobuf.UnsafeByteOperations;
+import design.dfs.common.enums.PacketType;
+import design.dfs.common.network.NettyPacket;
+import design.dfs.common.utils.DefaultThread;
+import design.dfs.common.utils.NetUtil;
+import design.dfs.model.backup.FetchEditsLogResponse;
+import design.dfs.namenode.editslog.FsEditLog;
+import design.dfs.namenode.editslog.RawEditLogs;
+import design.dfs.namenode.fs.CheckpointCoordinator;
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 往 BackupNode 推送 EditLog
+ *
+ * <pre>
+ * BackupNode 发送 SUBSCRIBE_EDIT_LOG 订阅之后，NameNode 每写入一批 EditLog 就通过这个连接推送过去，
+ * 不再依赖 BackupNode 定时轮询，BackupNode 的延迟可以保持在毫秒级
+ *
+ * 流量控制：
+ * 1. BackupNode 应用 EditLog 之后发送 ACK_EDIT_LOG 确认 txId，已推送未确认的 EditLog 超过 MAX_IN_FLIGHT 条时暂停推送
+ * 2. Channel 不可写（发送缓冲区堆积）时暂停推送
+ *
+ * 需要 checkpoint 时，即使没有新的 EditLog 也会推送一个空的批次通知 BackupNode。
+ * 订阅的 BackupNode 还没有确认的 EditLog 文件在 checkpoint 之后也会保留，见 {@link FsEditLog#cleanEditLogByTxId}
+ * </pre>
+ */
+@Slf4j
+public class EditLogStreamer implements Runnable {
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final int MAX_IN_FLIGHT = 10000;
+    private static final long IDLE_WAIT_INTERVAL = 1000;
+
+    private final FsEditLog fsEditLog;
+    private final CheckpointCoordinator checkpointCoordinator;
+    private final Map<Channel, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private volatile boolean hasNewEditLog = false;
+    private volatile boolean running = false;
+    private DefaultThread thread;
+
+    public EditLogStreamer(FsEditLog fsEditLog, CheckpointCoordinator checkpointCoordinator) {
+        this.fsEditLog = fsEditLog;
+        this.checkpointCoordinator = checkpointCoordinator;
+        this.fsEditLog.addLogEditListener(this::wakeup);
+        this.fsEditLog.addRetainedTxIdSupplier(this::minAckedTxId);
+    }
+
+    public void start() {
+        running = true;
+        thread = new DefaultThread("NameNode-EditLog-Streamer", this, true);
+        thread.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        wakeup();
+    }
+
+    /**
+     * BackupNode 订阅 EditLog
+     *
+     * @param channel 连接
+     * @param txId    BackupNode 已经应用的 txId
+     */
+    public void subscribe(Channel channel, long txId) {
+        subscriptions.put(channel, new Subscription(channel, txId));
+        log.info("BackupNode订阅EditLog：[channel={}, txId={}]", NetUtil.getChannelId(channel), txId);
+        wakeup();
+    }
+
+    public void unsubscribe(Channel channel) {
+        if (subscriptions.remove(channel) != null) {
+            log.info("BackupNode取消订阅EditLog：[channel={}]", NetUtil.getChannelId(channel));
+        }
+    }
+
+    /**
+     * BackupNode 确认已经应用的 txId
+     */
+    public void ack(Channel channel, long txId) {
+        Subscription subscription = subscriptions.get(channel);
+        if (subscription == null) {
+            return;
+        }
+        if (txId > subscription.ackedTxId) {
+            subscription.ackedTxId = txId;
+        }
+        wakeup();
+    }
+
+    /**
+     * 订阅的 BackupNode 中最小的已确认 txId，之后的 EditLog 还需要推送，文件不能删除
+     */
+    private long minAckedTxId() {
+        long minTxId = Long.MAX_VALUE;
+        for (Subscription subscription : subscriptions.values()) {
+            minTxId = Math.min(minTxId, subscription.ackedTxId);
+        }
+        return minTxId;
+    }
+
+    private void wakeup() {
+        synchronized (lock) {
+            hasNewEditLog = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                synchronized (lock) {
+                    if (!hasNewEditLog) {
+                        lock.wait(IDLE_WAIT_INTERVAL);
+                    }
+                    hasNewEditLog = false;
+                }
+                boolean hasMore = false;
+                for (Subscription subscription : subscriptions.values()) {
+                    hasMore |= push(subscription);
+                }
+                if (hasMore) {
+                    // 还有没推送完的 EditLog，不需要等待下一次写入
+                    hasNewEditLog = true;
+                }
+            } catch (InterruptedException e) {
+                log.info("EditLog推送线程被中断");
+                return;
+            } catch (Exception e) {
+                log.error("推送EditLog异常：", e);
+            }
+        }
+    }
+
+    /**
+     * 推送一批 EditLog
+     *
+     * @return 是否还有可以立即推送的 EditLog
+     */
+    private boolean push(Subscription subscription) throws Exception {
+        Channel channel = subscription.channel;
+        if (!channel.isActive()) {
+            unsubscribe(channel);
+            return false;
+        }
+        long inFlight = subscription.sentTxId - subscription.ackedTxId;
+        if (inFlight >= MAX_IN_FLIGHT || !channel.isWritable()) {
+            return false;
+        }
+        boolean checkpointRequired = checkpointCoordinator.isCheckpointRequired();
+        RawEditLogs rawEditLogs = fsEditLog.getLastTxId() > subscription.sentTxId
+                ? fsEditLog.readRawEditLogs(subscription.sentTxId, (int) Math.min(MAX_BATCH_SIZE, MAX_IN_FLIGHT - inFlight))
+                : null;
+        if (rawEditLogs == null || rawEditLogs.getCount() == 0) {
+            if (checkpointRequired) {
+                send(channel, null, true);
+            }
+            return false;
+        }
+        send(channel, rawEditLogs, checkpointRequired);
+        subscription.sentTxId = rawEditLogs.getLastTxId();
+        return fsEditLog.getLastTxId() > subscription.sentTxId;
+    }
+
+    /**
+     * 推送 EditLog 的原始字节，BackupNode 使用 EditLogWrapper 解析
+     */
+    private void send(Channel channel, RawEditLogs rawEditLogs, boolean checkpointRequired) {
+        FetchEditsLogResponse.Builder builder = FetchEditsLogResponse.newBuilder()
+                .setCheckpointRequired(checkpointRequired);
+        if (rawEditLogs != null) {
+            builder.setRawEditLogs(UnsafeByteOperations.unsafeWrap(rawEditLogs.getData()));
+        }
+        channel.writeAndFlush(NettyPacket.buildPacket(builder.build().toByteArray(), PacketType.PUSH_EDIT_LOG));
+    }
+
+    private static class Subscription {
+        private final Channel channel;
+        private volatile long sentTxId;
+        private volatile long ackedTxId;
+
+        private Subscription(Channel channel, long txId) {
+            this.channel = channel;
+            this.sentTxId = txId;
+            this.ackedTxId = txId;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package design.dfs.namenode.server;
+
+import design.dfs.common.enums.PacketType;
+import design.dfs.common.network.AbstractChannelHandler;
+import design.dfs.common.network.NettyPacket;
+import design.dfs.common.network.RequestWrapper;
+import design.dfs.common.network.file.FileAttribute;
+import design.dfs.common.network.file.FilePacket;
+import design.dfs.common.network.file.FileReceiveHandler;
+import design.dfs.common.network.file.FileTransportCallback;
+import design.dfs.namenode.config.NameNodeConfig;
+import design.dfs.namenode.fs.CheckpointCoordinator;
+import io.netty.channel.ChannelHandlerContext;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 接收 BackupNode 上传的 FsImage
+ *
+ * <pre>
+ * 1. 不使用 NameNodeApis 的线程池，在 EventLoop 线程中处理，保证同一个连接的文件包按顺序写入
+ * 2. 上传过程中写入 fsimage-{时间戳}.uploading 临时文件，MD5 校验通过后再重命名为 fsimage-{时间戳}，
+ *    避免 NameNode 重启时加载到不完整的 FsImage
+ * 3. FilePacket.RESUME 请求返回已写入的字节数，BackupNode 重连后从该位置断点续传
+ * 4. 重命名后交给 {@link CheckpointCoordinator} 校验，清理历史 FsImage 和 EditLog
+ * </pre>
+ */
+@Slf4j
+public class FsImageReceiveHandler extends AbstractChannelHandler {
+    private static final String UPLOADING_SUFFIX = ".uploading";
+    private final FileReceiveHandler fileReceiveHandler;
+
+    public FsImageReceiveHandler(NameNodeConfig nameNodeConfig, CheckpointCoordinator checkpointCoordinator) {
+        this.fileReceiveHandler = new FileReceiveHandler(new FileTransportCallback() {
+            @Override
+            public String getPath(String filename) {
+                return nameNodeConfig.getBaseDir() + File.separator + new File(filename).getName() + UPLOADING_SUFFIX;
+            }
+
+            @Override
+            public void onCompleted(FileAttribute fileAttribute) throws IOException {
+                String uploadingPath = fileAttribute.getAbsolutePath();
+                File target = new File(uploadingPath.substring(0, uploadingPath.length() - UPLOADING_SUFFIX.length()));
+                if (!new File(uploadingPath).renameTo(target)) {
+                    throw new IOException("FsImage重命名失败：" + uploadingPath);
+                }
+                log.info("收到BackupNode上传的FsImage：[file={}, size={}]", target.getAbsolutePath(), fileAttribute.getSize());
+                checkpointCoordinator.onFsImageReceived(target.getAbsolutePath());
+            }
+        });
+    }
+
+    @Override
+    protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket nettyPacket) throws Exception {
+        FilePacket filePacket = FilePacket.parseFrom(nettyPacket.getBody());
+        if (FilePacket.RESUME == filePacket.getType()) {
+            long offset = fileReceiveHandler.handleResume(filePacket);
+            Map<String, String> metaData = new HashMap<>(2);
+            FileAttribute fileAttribute = new FileAttribute(metaData);
+            fileAttribute.setOffset(offset);
+            byte[] body = FilePacket.builder()
+                    .type(FilePacket.RESUME)
+                    .fileMetaData(metaData)
+                    .build()
+                    .toBytes();
+            RequestWrapper requestWrapper = new RequestWrapper(ctx, nettyPacket);
+            requestWrapper.sendResponse(NettyPacket.buildPacket(body, PacketType.TRANSFER_FILE),
+                    requestWrapper.getRequestSequence());
+        } else {
+            fileReceiveHandler.handleRequest(filePacket);
+        }
+        return true;
+    }
+
+    @Override
+    protected Set<Integer> interestPackageTypes() {
+        return Collections.singleton(PacketType.TRANSFER_FILE.getValue());
+    }
+}
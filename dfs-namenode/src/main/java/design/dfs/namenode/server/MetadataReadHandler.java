@@ -0,0 +1,112 @@
+package design.dfs.namenode.server;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import design.dfs.common.enums.PacketType;
+import design.dfs.common.exception.NameNodeException;
+import design.dfs.common.network.NettyPacket;
+import design.dfs.common.network.RequestWrapper;
+import design.dfs.model.client.ListFilesRequest;
+import design.dfs.model.client.ReadAttrRequest;
+import design.dfs.model.client.ReadAttrResponse;
+import design.dfs.namenode.fs.AbstractFileSystem;
+import design.dfs.namenode.fs.Node;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 只读的元数据请求处理：READ_ATTR、CLIENT_LIST_FILES、CLIENT_FILE_EXISTS
+ *
+ * <pre>
+ * NameNode 和 BackupNode 共用这部分逻辑，响应头中带上处理请求时的 txId，客户端据此记录自己看到的最新版本。
+ *
+ * BackupNode 上的数据存在延迟，客户端在请求中带上 minTxId（自己写入或读到过的最大 txId），
+ * 本地已经应用的 txId 小于 minTxId 时返回异常，客户端改为请求 NameNode，保证不会读到比自己之前看到的更旧的数据
+ * </pre>
+ */
+public class MetadataReadHandler {
+    private final AbstractFileSystem fileSystem;
+    private final LongSupplier txIdSupplier;
+    private final boolean checkMinTxId;
+
+    /**
+     * @param fileSystem   文件系统
+     * @param txIdSupplier 当前已经写入或应用的最大 txId
+     * @param checkMinTxId 是否校验请求中的 minTxId，NameNode 上的数据就是最新的，不需要校验
+     */
+    public MetadataReadHandler(AbstractFileSystem fileSystem, LongSupplier txIdSupplier, boolean checkMinTxId) {
+        this.fileSystem = fileSystem;
+        this.txIdSupplier = txIdSupplier;
+        this.checkMinTxId = checkMinTxId;
+    }
+
+    /**
+     * 处理只读请求
+     *
+     * @param requestWrapper 请求
+     * @return 是否是只读请求
+     */
+    public boolean handle(RequestWrapper requestWrapper) throws InvalidProtocolBufferException, NameNodeException {
+        PacketType packetType = PacketType.getEnum(requestWrapper.getNettyPacket().getPacketType());
+        switch (packetType) {
+            case READ_ATTR:
+                handleReadAttrRequest(requestWrapper);
+                return true;
+            case CLIENT_FILE_EXISTS:
+                handleExistsRequest(requestWrapper);
+                return true;
+            case CLIENT_LIST_FILES:
+                handleListFilesRequest(requestWrapper);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void handleReadAttrRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException, NameNodeException {
+        ReadAttrRequest request = ReadAttrRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
+        long txId = checkTxId(request.getMinTxId());
+        Map<String, String> attr = fileSystem.getAttr(request.getFilename());
+        ReadAttrResponse.Builder builder = ReadAttrResponse.newBuilder().setExists(attr != null);
+        if (attr != null) {
+            builder.putAllAttr(attr);
+        }
+        sendResponse(requestWrapper, builder.build().toByteArray(), txId);
+    }
+
+    private void handleExistsRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException, NameNodeException {
+        ReadAttrRequest request = ReadAttrRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
+        long txId = checkTxId(request.getMinTxId());
+        ReadAttrResponse response = ReadAttrResponse.newBuilder()
+                .setExists(fileSystem.exists(request.getFilename()))
+                .build();
+        sendResponse(requestWrapper, response.toByteArray(), txId);
+    }
+
+    private void handleListFilesRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException, NameNodeException {
+        ListFilesRequest request = ListFilesRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
+        long txId = checkTxId(request.getMinTxId());
+        // 只返回一层子节点，文件不存在时返回空的响应体
+        Node node = fileSystem.listFiles(request.getPath(), 1);
+        byte[] body = node == null ? new byte[0] : Node.toINode(node).toByteArray();
+        sendResponse(requestWrapper, body, txId);
+    }
+
+    /**
+     * 先读取 txId 再读取数据，返回的 txId 不会比数据更新
+     */
+    private long checkTxId(long minTxId) throws NameNodeException {
+        long txId = txIdSupplier.getAsLong();
+        if (checkMinTxId && txId < minTxId) {
+            throw new NameNodeException("元数据版本落后：[txId=" + txId + ", minTxId=" + minTxId + "]");
+        }
+        return txId;
+    }
+
+    private void sendResponse(RequestWrapper requestWrapper, byte[] body, long txId) {
+        NettyPacket request = requestWrapper.getNettyPacket();
+        NettyPacket response = NettyPacket.buildPacket(body, PacketType.getEnum(request.getPacketType()));
+        response.setTxId(txId);
+        requestWrapper.sendResponse(response, request.getSequence());
+    }
+}
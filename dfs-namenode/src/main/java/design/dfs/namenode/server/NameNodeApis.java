@@ -1,27 +1,43 @@
 package design.dfs.namenode.server;
 
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.UnsafeByteOperations;
 import design.dfs.common.Constants;
 import design.dfs.common.FileInfo;
 import design.dfs.common.enums.CommandType;
+import design.dfs.common.enums.FsOpType;
 import design.dfs.common.enums.PacketType;
 import design.dfs.common.exception.NameNodeException;
 import design.dfs.common.network.AbstractChannelHandler;
 import design.dfs.common.network.NettyPacket;
 import design.dfs.common.network.RequestWrapper;
+import design.dfs.common.utils.NamedThreadFactory;
+import design.dfs.model.backup.EditLog;
+import design.dfs.model.backup.EditLogAck;
 import design.dfs.model.backup.FetchEditsLogRequest;
 import design.dfs.model.backup.FetchEditsLogResponse;
+import design.dfs.model.client.BatchOp;
+import design.dfs.model.client.BatchOpResult;
+import design.dfs.model.client.BatchOpsRequest;
+import design.dfs.model.client.BatchOpsResponse;
 import design.dfs.model.client.CreateFileRequest;
 import design.dfs.model.client.CreateFileResponse;
+import design.dfs.model.client.GetDataNodeForFileRequest;
+import design.dfs.model.client.GetDataNodeForFileResponse;
 import design.dfs.model.client.MkdirRequest;
+import design.dfs.model.client.RemoveFileRequest;
+import design.dfs.model.client.RenameFileRequest;
 import design.dfs.model.common.DataNode;
 import design.dfs.model.datanode.*;
 import design.dfs.namenode.config.NameNodeConfig;
 import design.dfs.namenode.datanode.DataNodeInfo;
 import design.dfs.namenode.datanode.DataNodeManager;
 import design.dfs.namenode.editslog.EditLogWrapper;
+import design.dfs.namenode.editslog.RawEditLogs;
+import design.dfs.namenode.fs.CheckpointCoordinator;
 import design.dfs.namenode.fs.DiskFileSystem;
-import design.dfs.namenode.fs.EditLogBufferFetcher;
+import design.dfs.namenode.fs.FsDirectory;
 import design.dfs.namenode.fs.Node;
 import design.dfs.namenode.rebalance.RemoveReplicaTask;
 import design.dfs.namenode.rebalance.ReplicaTask;
@@ -30,6 +46,8 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
@@ -39,21 +57,41 @@ import java.util.stream.Collectors;
  */
 @Slf4j
 public class NameNodeApis extends AbstractChannelHandler {
+    private static final int MAX_FETCH_RAW_EDIT_LOG_SIZE = 1000;
+    private static final int MAX_BATCH_OPS = 10000;
+    private static final int MAX_REMOVE_REPLICA_PER_HEARTBEAT = 1000;
     private final NameNodeConfig nameNodeConfig;
     private final DiskFileSystem diskFileSystem;
     private final DataNodeManager dataNodeManager;
     private final ThreadPoolExecutor executor;
+    /**
+     * 处理 DataNode 全量上报的单线程执行器，同一个连接固定使用其中一个
+     */
+    private final ThreadPoolExecutor[] reportExecutors;
     protected int nodeId;
     private final EditLogBufferFetcher editLogBufferFetcher;
+    private final CheckpointCoordinator checkpointCoordinator;
+    private final EditLogStreamer editLogStreamer;
+    private final MetadataReadHandler metadataReadHandler;
 
-    public NameNodeApis(NameNodeConfig nameNodeConfig, DiskFileSystem diskFileSystem, DataNodeManager dataNodeManager) {
+    public NameNodeApis(NameNodeConfig nameNodeConfig, DiskFileSystem diskFileSystem, DataNodeManager dataNodeManager,
+                        CheckpointCoordinator checkpointCoordinator, EditLogStreamer editLogStreamer) {
         this.nameNodeConfig = nameNodeConfig;
         this.diskFileSystem = diskFileSystem;
         this.dataNodeManager = dataNodeManager;
         this.executor = new ThreadPoolExecutor(nameNodeConfig.getNameNodeApiCoreSize(), nameNodeConfig.getNameNodeApiMaximumPoolSize(),
                 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(nameNodeConfig.getNameNodeApiQueueSize()));
+        this.reportExecutors = new ThreadPoolExecutor[Runtime.getRuntime().availableProcessors()];
+        NamedThreadFactory reportThreadFactory = new NamedThreadFactory("NameNode-Report-");
+        for (int i = 0; i < reportExecutors.length; i++) {
+            reportExecutors[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(nameNodeConfig.getNameNodeApiQueueSize()), reportThreadFactory);
+        }
         this.nodeId = nameNodeConfig.getNameNodeId();
         this.editLogBufferFetcher = new EditLogBufferFetcher(diskFileSystem);
+        this.checkpointCoordinator = checkpointCoordinator;
+        this.editLogStreamer = editLogStreamer;
+        this.metadataReadHandler = new MetadataReadHandler(diskFileSystem, diskFileSystem.getEditLog()::getLastTxId, false);
     }
 
     @Override
@@ -66,10 +104,35 @@ public class NameNodeApis extends AbstractChannelHandler {
         return executor;
     }
 
+    /**
+     * 全量上报和增量上报按连接分配到单线程执行器：同一个 DataNode 的上报按发送顺序处理，最后一批处理完才标记为 Ready；
+     * 不同 DataNode 的上报在不同线程上并行处理
+     */
+    @Override
+    protected Executor getExecutor(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
+        if (nettyPacket.getPacketType() == PacketType.REPORT_STORAGE_INFO.getValue()
+                || nettyPacket.getPacketType() == PacketType.INCREMENTAL_REPORT.getValue()) {
+            int index = (ctx.channel().hashCode() & Integer.MAX_VALUE) % reportExecutors.length;
+            return reportExecutors[index];
+        }
+        return executor;
+    }
+
+    /**
+     * 停止处理请求的线程池，已经提交的请求继续执行完
+     */
+    public void shutdown() {
+        executor.shutdown();
+        for (ThreadPoolExecutor reportExecutor : reportExecutors) {
+            reportExecutor.shutdown();
+        }
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         // 断开连接后的处理 todo
         log.warn("连接断开 " + ctx.channel());
+        editLogStreamer.unsubscribe(ctx.channel());
     }
 
     /**
@@ -93,6 +156,9 @@ public class NameNodeApis extends AbstractChannelHandler {
         RequestWrapper requestWrapper = new RequestWrapper(ctx, request);
 
         try {
+            if (metadataReadHandler.handle(requestWrapper)) {
+                return true;
+            }
             switch (packetType) {
                 case DATA_NODE_REGISTER:
                     handleDataNodeRegisterRequest(requestWrapper);
@@ -106,6 +172,12 @@ public class NameNodeApis extends AbstractChannelHandler {
                 case FETCH_EDIT_LOG:
                     handleFetchEditLogRequest(requestWrapper);
                     break;
+                case SUBSCRIBE_EDIT_LOG:
+                    handleSubscribeEditLogRequest(requestWrapper);
+                    break;
+                case ACK_EDIT_LOG:
+                    handleAckEditLogRequest(requestWrapper);
+                    break;
                 case REPORT_STORAGE_INFO:
                     handleDataNodeReportStorageInfoRequest(requestWrapper);
                     break;
@@ -118,6 +190,21 @@ public class NameNodeApis extends AbstractChannelHandler {
                 case REPLICA_RECEIVE:
                     handleReplicaReceiveRequest(requestWrapper);
                     break;
+                case INCREMENTAL_REPORT:
+                    handleIncrementalReportRequest(requestWrapper);
+                    break;
+                case BATCH_OPS:
+                    handleBatchOpsRequest(requestWrapper);
+                    break;
+                case REMOVE_FILE:
+                    handleRemoveFileRequest(requestWrapper);
+                    break;
+                case RENAME_FILE:
+                    handleRenameFileRequest(requestWrapper);
+                    break;
+                case GET_DATA_NODE_FOR_FILE:
+                    handleGetDataNodeForFileRequest(requestWrapper);
+                    break;
                 default:
                     break;
             }
@@ -134,7 +221,7 @@ public class NameNodeApis extends AbstractChannelHandler {
 
     private void handleDataNodeRegisterRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException, NameNodeException {
         RegisterRequest registerRequest = RegisterRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
-        boolean result = dataNodeManager.register(registerRequest);
+        boolean result = dataNodeManager.register(registerRequest, remoteHost(requestWrapper));
         if (!result) {
             throw new NameNodeException("注册失败，DataNode节点已存在");
         }
@@ -172,16 +259,16 @@ public class NameNodeApis extends AbstractChannelHandler {
                     .collect(Collectors.toList());
             replicaCommands.addAll(commands);
         }
-        List<RemoveReplicaTask> removeReplicaTasks = dataNodeInfo.pollRemoveReplicaTask(100);
+        // 删除副本的任务合并为一条命令下发，DataNode 一次处理一批文件
+        List<RemoveReplicaTask> removeReplicaTasks = dataNodeInfo.pollRemoveReplicaTask(MAX_REMOVE_REPLICA_PER_HEARTBEAT);
         if (!removeReplicaTasks.isEmpty()) {
-            List<ReplicaCommand> commands = removeReplicaTasks.stream()
-                    .map(e -> ReplicaCommand.newBuilder()
-                            .setFilename(e.getFileName())
-                            .setHostname(e.getHostname())
-                            .setCommand(CommandType.REPLICA_REMOVE.getValue())
-                            .build())
-                    .collect(Collectors.toList());
-            replicaCommands.addAll(commands);
+            replicaCommands.add(ReplicaCommand.newBuilder()
+                    .setHostname(heartbeatRequest.getHostname())
+                    .setCommand(CommandType.REPLICA_REMOVE.getValue())
+                    .addAllFilenames(removeReplicaTasks.stream()
+                            .map(RemoveReplicaTask::getFileName)
+                            .collect(Collectors.toList()))
+                    .build());
         }
 
         HeartbeatResponse response = HeartbeatResponse.newBuilder()
@@ -201,12 +288,41 @@ public class NameNodeApis extends AbstractChannelHandler {
         MkdirRequest mkdirRequest = MkdirRequest.parseFrom(request.getBody());
         String fileName = mkdirRequest.getPath();
         this.diskFileSystem.mkdir(fileName, mkdirRequest.getAttrMap());
-        requestWrapper.sendResponse();
+        sendResponseWithTxId(requestWrapper, null);
+    }
+
+    /**
+     * 删除文件或文件夹，放入垃圾箱，recursive 为 true 时允许删除非空文件夹
+     */
+    private void handleRemoveFileRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException, NameNodeException {
+        RemoveFileRequest request = RemoveFileRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
+        String filename = request.getFilename();
+        boolean success = diskFileSystem.moveToTrash(filename, request.getRecursive());
+        if (!success) {
+            throw new NameNodeException("删除失败，文件不存在或者文件夹不为空：" + filename);
+        }
+        sendResponseWithTxId(requestWrapper, null);
+    }
+
+    /**
+     * 重命名或移动文件、文件夹
+     */
+    private void handleRenameFileRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException, NameNodeException {
+        RenameFileRequest request = RenameFileRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
+        if (!diskFileSystem.rename(request.getSrc(), request.getDst())) {
+            throw new NameNodeException("重命名失败，原文件不存在或者目标文件已存在：[src=" + request.getSrc()
+                    + ", dst=" + request.getDst() + "]");
+        }
+        sendResponseWithTxId(requestWrapper, null);
     }
 
     private void handleFetchEditLogRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException {
         FetchEditsLogRequest fetchEditsLogRequest = FetchEditsLogRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
         long txId = fetchEditsLogRequest.getTxId();
+        if (fetchEditsLogRequest.getRaw()) {
+            handleFetchRawEditLogRequest(requestWrapper, txId);
+            return;
+        }
         List<EditLogWrapper> result = new ArrayList<>();
         try {
             result = editLogBufferFetcher.fetch(txId);
@@ -219,22 +335,51 @@ public class NameNodeApis extends AbstractChannelHandler {
                         .stream()
                         .map(EditLogWrapper::getEditLog)
                         .collect(Collectors.toList()))
+                .setCheckpointRequired(checkpointCoordinator.isCheckpointRequired())
                 .build();
         requestWrapper.sendResponse(response);
     }
 
+    /**
+     * 直接返回 EditLog 文件和缓冲区中的原始字节，由 BackupNode 自己解析，NameNode 不需要逐条解析再序列化
+     */
+    private void handleFetchRawEditLogRequest(RequestWrapper requestWrapper, long txId) {
+        FetchEditsLogResponse.Builder builder = FetchEditsLogResponse.newBuilder()
+                .setCheckpointRequired(checkpointCoordinator.isCheckpointRequired());
+        try {
+            RawEditLogs rawEditLogs = diskFileSystem.getEditLog().readRawEditLogs(txId, MAX_FETCH_RAW_EDIT_LOG_SIZE);
+            builder.setRawEditLogs(UnsafeByteOperations.unsafeWrap(rawEditLogs.getData()));
+        } catch (IOException e) {
+            log.error("fetch EditLog failed：", e);
+        }
+        requestWrapper.sendResponse(builder.build());
+    }
+
+    /**
+     * BackupNode 订阅 EditLog，之后由 {@link EditLogStreamer} 主动推送
+     */
+    private void handleSubscribeEditLogRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException {
+        FetchEditsLogRequest request = FetchEditsLogRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
+        // 先返回响应再开始推送，保证 BackupNode 先收到订阅结果
+        requestWrapper.sendResponse();
+        editLogStreamer.subscribe(requestWrapper.getCtx().channel(), request.getTxId());
+    }
+
+    private void handleAckEditLogRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException {
+        EditLogAck ack = EditLogAck.parseFrom(requestWrapper.getNettyPacket().getBody());
+        editLogStreamer.ack(requestWrapper.getCtx().channel(), ack.getTxId());
+    }
+
     private void handleDataNodeReportStorageInfoRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException {
         ReportCompleteStorageInfoRequest request =
                 ReportCompleteStorageInfoRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
         log.info("全量上报存储信息：[hostname={}, files={}]", request.getHostname(), request.getFileInfosCount());
+        List<String> filenames = new ArrayList<>(request.getFileInfosCount());
         for (FileMetaInfo file : request.getFileInfosList()) {
-            // TODO 考虑和内存目录树进行对比，看看是否存在内存目录树不存在的文件，下发命令让DataNode清除
-            FileInfo fileInfo = new FileInfo();
-            fileInfo.setFileName(file.getFilename());
-            fileInfo.setFileSize(file.getFileSize());
-            fileInfo.setHostname(request.getHostname());
-            dataNodeManager.addReplica(fileInfo);
+            filenames.add(file.getFilename());
         }
+        // 和副本索引做对比，找出孤儿文件和丢失的副本
+        dataNodeManager.reconcileFullReport(request.getHostname(), request.getReportId(), filenames, request.getFinished());
         if (request.getFinished()) {
             dataNodeManager.setDataNodeReady(request.getHostname());
             log.info("全量上报存储信息完成：[hostname={}]", request.getHostname());
@@ -247,8 +392,34 @@ public class NameNodeApis extends AbstractChannelHandler {
         String fileName = createFileRequest.getFilename();
 
         Map<String, String> attrMap = new HashMap<>(createFileRequest.getAttrMap());
-        String replicaNumStr = attrMap.get(Constants.ATTR_REPLICA_NUM);
         attrMap.put(Constants.ATTR_FILE_SIZE, String.valueOf(createFileRequest.getFileSize()));
+        int replicaNum = resolveReplicaNum(attrMap);
+        if (diskFileSystem.exists(fileName)) {
+            throw new NameNodeException("文件已存在：" + createFileRequest.getFilename());
+        }
+        List<DataNodeInfo> dataNodeList = dataNodeManager.allocateDataNodes(request.getUserName(), replicaNum, fileName,
+                remoteHost(requestWrapper));
+        List<DataNode> dataNodes = toDataNodes(dataNodeList);
+        // DataNode 上以文件ID存储文件，重命名之后不需要修改。文件ID在目录树写锁内分配，并发创建不会重复
+        String fileId = diskFileSystem.createFileWithId(fileName, attrMap);
+        if (fileId == null) {
+            dataNodeManager.releaseDataNodes(dataNodeList);
+            throw new NameNodeException("文件已存在：" + createFileRequest.getFilename());
+        }
+        List<String> hostList = dataNodeList.stream().map(DataNodeInfo::getHostname).collect(Collectors.toList());
+        log.info("创建文件：[filename={}, datanodes={}]", fileName, String.join(",", hostList));
+        CreateFileResponse response = CreateFileResponse.newBuilder()
+                .addAllDataNodes(dataNodes)
+                .setRealFileName(fileId)
+                .build();
+        sendResponseWithTxId(requestWrapper, response);
+    }
+
+    /**
+     * 计算文件的副本数量，限制在配置的数量和最大数量之间，没有指定时使用配置的数量并写入文件属性
+     */
+    private int resolveReplicaNum(Map<String, String> attrMap) {
+        String replicaNumStr = attrMap.get(Constants.ATTR_REPLICA_NUM);
         int replicaNum;
         if (replicaNumStr != null) {
             replicaNum = Integer.parseInt(replicaNumStr);
@@ -260,25 +431,115 @@ public class NameNodeApis extends AbstractChannelHandler {
             replicaNum = diskFileSystem.getNameNodeConfig().getReplicaNum();
             attrMap.put(Constants.ATTR_REPLICA_NUM, String.valueOf(replicaNum));
         }
-        Node node = diskFileSystem.listFiles(fileName);
-        if (node != null) {
-            throw new NameNodeException("文件已存在：" + createFileRequest.getFilename());
+        return replicaNum;
+    }
+
+    /**
+     * 客户端读取文件，返回按距离、耗时和负载排好序的副本，客户端按顺序尝试并缓存一段时间
+     */
+    private void handleGetDataNodeForFileRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException, NameNodeException {
+        GetDataNodeForFileRequest request = GetDataNodeForFileRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
+        String filename = request.getFilename();
+        Node node = diskFileSystem.getInode(filename);
+        if (node == null || !node.isFile()) {
+            throw new NameNodeException("文件不存在：" + filename);
+        }
+        String fileId = FsDirectory.getFileId(node, filename);
+        List<DataNodeInfo> dataNodeList = dataNodeManager.chooseReplicasForRead(fileId, remoteHost(requestWrapper));
+        if (dataNodeList.isEmpty()) {
+            throw new NameNodeException("文件没有可读取的副本：" + filename);
         }
-        List<DataNodeInfo> dataNodeList = dataNodeManager.allocateDataNodes(request.getUserName(), replicaNum, fileName);
-        List<DataNode> dataNodes = dataNodeList.stream()
+        GetDataNodeForFileResponse response = GetDataNodeForFileResponse.newBuilder()
+                .addAllDataNodes(toDataNodes(dataNodeList))
+                .setRealFileName(fileId)
+                .build();
+        requestWrapper.sendResponse(response);
+    }
+
+    /**
+     * 发起请求的机器地址，用于把第一个副本分配到客户端所在的 DataNode，以及读取时优先返回离客户端近的副本
+     */
+    private String remoteHost(RequestWrapper requestWrapper) {
+        SocketAddress address = requestWrapper.getCtx().channel().remoteAddress();
+        return address instanceof InetSocketAddress ? ((InetSocketAddress) address).getHostString() : null;
+    }
+
+    private List<DataNode> toDataNodes(List<DataNodeInfo> dataNodeList) {
+        return dataNodeList.stream()
                 .map(e -> DataNode.newBuilder().setHostname(e.getHostname())
                         .setNioPort(e.getNioPort())
                         .setHttpPort(e.getHttpPort())
                         .build())
                 .collect(Collectors.toList());
-        diskFileSystem.createFile(fileName, attrMap);
-        List<String> hostList = dataNodeList.stream().map(DataNodeInfo::getHostname).collect(Collectors.toList());
-        log.info("创建文件：[filename={}, datanodes={}]", fileName, String.join(",", hostList));
-        CreateFileResponse response = CreateFileResponse.newBuilder()
-                .addAllDataNodes(dataNodes)
-                .setRealFileName(fileName)
+    }
+
+    /**
+     * 批量 mkdir/create/delete
+     *
+     * <pre>
+     * 1. 先为 create 操作分配 DataNode，分配失败的操作直接返回失败，不进入批次
+     * 2. 剩下的操作在一次目录树写锁内执行，成功的操作作为一组 EditLog 写入
+     * 3. 按请求顺序返回每个操作的结果，create 成功时带上可上传的 DataNode，客户端再逐个上传和确认
+     *
+     * create 不再单独查询文件是否存在，文件已存在时在目录树中创建失败，对应的结果返回失败
+     * </pre>
+     */
+    private void handleBatchOpsRequest(RequestWrapper requestWrapper) throws Exception {
+        NettyPacket request = requestWrapper.getNettyPacket();
+        BatchOpsRequest batchOpsRequest = BatchOpsRequest.parseFrom(request.getBody());
+        int count = batchOpsRequest.getOpsCount();
+        if (count > MAX_BATCH_OPS) {
+            throw new NameNodeException("批量操作数量超过限制：[count=" + count + ", max=" + MAX_BATCH_OPS + "]");
+        }
+        BatchOpResult[] results = new BatchOpResult[count];
+        Map<Integer, List<DataNodeInfo>> allocated = new HashMap<>();
+        String clientHost = remoteHost(requestWrapper);
+        List<EditLog> ops = new ArrayList<>(count);
+        List<Integer> indexes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            BatchOp op = batchOpsRequest.getOps(i);
+            Map<String, String> attr = op.getAttrMap();
+            if (op.getOpType() == FsOpType.CREATE.getValue()) {
+                attr = new HashMap<>(attr);
+                attr.put(Constants.ATTR_FILE_SIZE, String.valueOf(op.getFileSize()));
+                int replicaNum = resolveReplicaNum(attr);
+                try {
+                    allocated.put(i, dataNodeManager.allocateDataNodes(request.getUserName(), replicaNum, op.getPath(), clientHost));
+                } catch (NameNodeException e) {
+                    results[i] = BatchOpResult.newBuilder().setSuccess(false).setError(e.getMessage()).build();
+                    continue;
+                }
+            } else if (op.getOpType() != FsOpType.MKDIR.getValue() && op.getOpType() != FsOpType.DELETE.getValue()) {
+                results[i] = BatchOpResult.newBuilder().setSuccess(false).setError("不支持的操作类型：" + op.getOpType()).build();
+                continue;
+            }
+            ops.add(EditLog.newBuilder()
+                    .setOpType(op.getOpType())
+                    .setPath(op.getPath())
+                    .putAllAttr(attr)
+                    .build());
+            indexes.add(i);
+        }
+
+        boolean[] success = diskFileSystem.batch(ops);
+        for (int j = 0; j < ops.size(); j++) {
+            int i = indexes.get(j);
+            BatchOpResult.Builder builder = BatchOpResult.newBuilder().setSuccess(success[j]);
+            if (!success[j]) {
+                builder.setError(ops.get(j).getOpType() == FsOpType.CREATE.getValue() ? "文件已存在" : "文件不存在或者目录不为空");
+                if (allocated.containsKey(i)) {
+                    // 创建失败的文件不会写入，撤销分配时计入的写入数量
+                    dataNodeManager.releaseDataNodes(allocated.get(i));
+                }
+            } else if (allocated.containsKey(i)) {
+                builder.addAllDataNodes(toDataNodes(allocated.get(i))).setRealFileName(ops.get(j).getAttrOrThrow(Constants.ATTR_FILE_ID));
+            }
+            results[i] = builder.build();
+        }
+        BatchOpsResponse response = BatchOpsResponse.newBuilder()
+                .addAllResults(Arrays.asList(results))
                 .build();
-        requestWrapper.sendResponse(response);
+        sendResponseWithTxId(requestWrapper, response);
     }
 
     private void handleCreateFileConfirmRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException {
@@ -306,6 +567,47 @@ public class NameNodeApis extends AbstractChannelHandler {
         dataNode.addStoredDataSize(request.getFileSize());
     }
 
+    /**
+     * 处理增量上报，DataNode 把一段时间内收到和删除的副本合并成一个请求
+     */
+    private void handleIncrementalReportRequest(RequestWrapper requestWrapper) throws InvalidProtocolBufferException {
+        IncrementalReportRequest request = IncrementalReportRequest.parseFrom(requestWrapper.getNettyPacket().getBody());
+        DataNodeInfo dataNode = dataNodeManager.getDataNode(request.getHostname());
+        if (dataNode == null) {
+            log.warn("收到未注册DataNode的增量上报：[hostname={}]", request.getHostname());
+            return;
+        }
+        log.info("收到增量上报的存储信息：[hostname={}, received={}, removed={}]", request.getHostname(),
+                request.getReceivedCount(), request.getRemovedCount());
+        long storedDataSize = 0;
+        List<String> received = new ArrayList<>(request.getReceivedCount());
+        for (FileMetaInfo file : request.getReceivedList()) {
+            received.add(file.getFilename());
+            storedDataSize += file.getFileSize();
+        }
+        List<String> removed = new ArrayList<>(request.getRemovedCount());
+        for (FileMetaInfo file : request.getRemovedList()) {
+            removed.add(file.getFilename());
+            storedDataSize -= file.getFileSize();
+        }
+        for (String orphan : dataNodeManager.addReplicas(request.getHostname(), received)) {
+            dataNode.addRemoveReplicaTask(new RemoveReplicaTask(request.getHostname(), orphan));
+        }
+        dataNodeManager.removeReplicas(request.getHostname(), removed);
+        dataNode.addStoredDataSize(storedDataSize);
+    }
+
+    /**
+     * 返回写请求的响应，响应头带上当前的 txId，客户端从 BackupNode 读取时要求不低于这个版本
+     */
+    private void sendResponseWithTxId(RequestWrapper requestWrapper, MessageLite response) {
+        NettyPacket request = requestWrapper.getNettyPacket();
+        byte[] body = response == null ? new byte[0] : response.toByteArray();
+        NettyPacket nettyResponse = NettyPacket.buildPacket(body, PacketType.getEnum(request.getPacketType()));
+        nettyResponse.setTxId(diskFileSystem.getEditLog().getLastTxId());
+        requestWrapper.sendResponse(nettyResponse, request.getSequence());
+    }
+
     /**
      * 返回异常响应信息
      */
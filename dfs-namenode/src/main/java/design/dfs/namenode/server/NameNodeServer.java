@@ -2,27 +2,32 @@ package design.dfs.namenode.server;
 
 import design.dfs.common.network.NetServer;
 import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.namenode.fs.CheckpointCoordinator;
 import design.dfs.namenode.fs.DiskFileSystem;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Collections;
+import java.util.Arrays;
 
 @Slf4j
 public class NameNodeServer {
     private NameNodeApis nameNodeApis;
+    private FsImageReceiveHandler fsImageReceiveHandler;
     private DiskFileSystem diskNameSystem;
     private NetServer netServer;
 
-    public NameNodeServer(DefaultScheduler defaultScheduler, DiskFileSystem diskFileSystem, NameNodeApis nameNodeApis) {
+    public NameNodeServer(DefaultScheduler defaultScheduler, DiskFileSystem diskFileSystem, NameNodeApis nameNodeApis,
+                          CheckpointCoordinator checkpointCoordinator) {
         this.diskNameSystem = diskFileSystem;
         this.nameNodeApis = nameNodeApis;
+        this.fsImageReceiveHandler = new FsImageReceiveHandler(diskFileSystem.getNameNodeConfig(), checkpointCoordinator);
         this.netServer = new NetServer("NameNode-Server", defaultScheduler);
     }
     /**
      * 启动一个Socket Server，监听指定的端口号
      */
     public void start() throws InterruptedException {
-        this.netServer.addHandlers(Collections.singletonList(nameNodeApis));
+        // FsImage 上传的文件包需要在 NameNodeApis 之前按顺序处理
+        this.netServer.addHandlers(Arrays.asList(fsImageReceiveHandler, nameNodeApis));
         netServer.bind(diskNameSystem.getNameNodeConfig().getPort());
     }
 
@@ -32,5 +37,6 @@ public class NameNodeServer {
     public void shutdown() {
         log.info("Shutdown NameNodeServer.");
         netServer.shutdown();
+        nameNodeApis.shutdown();
     }
 }
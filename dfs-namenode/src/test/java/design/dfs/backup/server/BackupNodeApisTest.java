@@ -0,0 +1,126 @@
+package design.dfs.backup.server;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import design.dfs.TestProperties;
+import design.dfs.backup.config.BackupNodeConfig;
+import design.dfs.backup.fs.InMemoryFileSystem;
+import design.dfs.common.enums.FsOpType;
+import design.dfs.common.enums.PacketType;
+import design.dfs.common.network.AbstractChannelHandler;
+import design.dfs.common.network.NettyPacket;
+import design.dfs.common.network.RequestWrapper;
+import design.dfs.model.backup.EditLog;
+import design.dfs.model.client.ReadAttrRequest;
+import design.dfs.model.client.ReadAttrResponse;
+import design.dfs.namenode.server.MetadataReadHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * BackupNode 只读请求测试：版本落后或者正在恢复时返回异常，客户端改为请求 NameNode
+ */
+public class BackupNodeApisTest {
+    private volatile boolean recovering = false;
+    private InMemoryFileSystem fileSystem;
+    private BackupNodeApis backupNodeApis;
+    private EmbeddedChannel backupNode;
+
+    @Before
+    public void before() {
+        fileSystem = new InMemoryFileSystem(BackupNodeConfig.builder().baseDir(TestProperties.TEST_DIR).build()) {
+            @Override
+            public boolean isRecovering() {
+                return recovering;
+            }
+        };
+        List<EditLog> editLogs = new ArrayList<>();
+        editLogs.add(EditLog.newBuilder().setTxId(1).setOpType(FsOpType.MKDIR.getValue()).setPath("/a").build());
+        editLogs.add(EditLog.newBuilder().setTxId(2).setOpType(FsOpType.CREATE.getValue()).setPath("/a/1.jpg").build());
+        fileSystem.applyEditLogs(editLogs);
+        backupNodeApis = new BackupNodeApis(fileSystem);
+        backupNode = new EmbeddedChannel(backupNodeApis);
+    }
+
+    @After
+    public void after() {
+        backupNodeApis.shutdown();
+        backupNode.close();
+    }
+
+    @Test
+    public void testReadUpToDate() throws Exception {
+        NettyPacket response = exists(backupNode, "/a/1.jpg", 2);
+        assertFalse(response.isError());
+        assertEquals(2, response.getTxId());
+        assertTrue(parseExists(response));
+    }
+
+    @Test
+    public void testRejectStaleRead() throws Exception {
+        // 客户端已经看到 txId=5，BackupNode 只应用到 2
+        NettyPacket response = exists(backupNode, "/a/1.jpg", 5);
+        assertTrue(response.isError());
+        assertTrue(response.getError().contains("minTxId=5"));
+
+        // 客户端收到异常之后改为请求 NameNode，NameNode 不校验 minTxId
+        MetadataReadHandler handler = new MetadataReadHandler(fileSystem, () -> 5L, false);
+        EmbeddedChannel nameNode = new EmbeddedChannel(new AbstractChannelHandler() {
+            @Override
+            protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket nettyPacket) throws Exception {
+                return handler.handle(new RequestWrapper(ctx, nettyPacket));
+            }
+
+            @Override
+            protected Set<Integer> interestPackageTypes() {
+                return new HashSet<>();
+            }
+        });
+        response = exists(nameNode, "/a/1.jpg", 5);
+        assertFalse(response.isError());
+        assertEquals(5, response.getTxId());
+        assertTrue(parseExists(response));
+        nameNode.close();
+    }
+
+    @Test
+    public void testRejectWhileRecovering() throws InterruptedException {
+        recovering = true;
+        NettyPacket response = exists(backupNode, "/a/1.jpg", 0);
+        assertTrue(response.isError());
+
+        recovering = false;
+        assertFalse(exists(backupNode, "/a/1.jpg", 0).isError());
+    }
+
+    /**
+     * BackupNodeApis 在线程池中处理请求，等待响应写出
+     */
+    private static NettyPacket exists(EmbeddedChannel channel, String filename, long minTxId) throws InterruptedException {
+        ReadAttrRequest request = ReadAttrRequest.newBuilder()
+                .setFilename(filename)
+                .setMinTxId(minTxId)
+                .build();
+        channel.writeInbound(NettyPacket.buildPacket(request.toByteArray(), PacketType.CLIENT_FILE_EXISTS));
+        long deadline = System.currentTimeMillis() + 5000;
+        NettyPacket response;
+        while ((response = channel.readOutbound()) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(response);
+        return response;
+    }
+
+    private static boolean parseExists(NettyPacket response) throws InvalidProtocolBufferException {
+        return ReadAttrResponse.parseFrom(response.getBody()).getExists();
+    }
+}
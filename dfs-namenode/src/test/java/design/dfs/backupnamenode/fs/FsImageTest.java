@@ -1,12 +1,17 @@
 package design.dfs.backupnamenode.fs;
 
 import design.dfs.backup.fs.FsImage;
+import design.dfs.common.enums.FsImageCodec;
 import design.dfs.common.enums.NodeType;
 import design.dfs.namenode.fs.FsDirectory;
 import design.dfs.namenode.fs.Node;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import static org.junit.Assert.*;
@@ -51,4 +56,40 @@ public class FsImageTest {
     public void testCheckpoint() {
 
     }
+
+    @Test
+    public void testCompressedFsImage() throws IOException {
+        FsDirectory fsDirectory = new FsDirectory();
+        for (int i = 0; i < 100; i++) {
+            fsDirectory.createFile("/tmp/root/test" + i + ".xml", new HashMap());
+        }
+        FsImage fsImage = fsDirectory.createFsImage();
+        fsImage.setMaxTxId(100L);
+
+        byte[] plain = fsImage.toByteArray(FsImageCodec.NONE);
+        byte[] compressed = fsImage.toByteArray(FsImageCodec.DEFLATE);
+        assertTrue(compressed.length < plain.length);
+
+        for (byte[] data : Arrays.asList(plain, compressed)) {
+            File file = File.createTempFile("fsimage-", ".test");
+            try {
+                Files.write(file.toPath(), data);
+                try (FileChannel channel = FileChannel.open(file.toPath())) {
+                    assertEquals(100L, FsImage.validate(channel, file.getPath(), data.length));
+                }
+                try (FileChannel channel = FileChannel.open(file.toPath())) {
+                    FsImage parsed = FsImage.parse(channel, file.getPath(), data.length);
+                    assertNotNull(parsed);
+                    assertEquals(100L, parsed.getMaxTxId());
+                    assertEquals(fsImage.getINode(), parsed.getINode());
+                }
+                // 文件不完整
+                try (FileChannel channel = FileChannel.open(file.toPath())) {
+                    assertEquals(-1L, FsImage.validate(channel, file.getPath(), data.length + 1));
+                }
+            } finally {
+                file.delete();
+            }
+        }
+    }
 }
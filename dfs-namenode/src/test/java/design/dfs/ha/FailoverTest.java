@@ -0,0 +1,111 @@
+package design.dfs.ha;
+
+import design.dfs.TestProperties;
+import design.dfs.backup.config.BackupNodeConfig;
+import design.dfs.backup.fs.InMemoryFileSystem;
+import design.dfs.common.enums.FsOpType;
+import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.common.utils.FileUtil;
+import design.dfs.model.backup.EditLog;
+import design.dfs.namenode.config.NameNodeConfig;
+import design.dfs.namenode.datanode.DataNodeManager;
+import design.dfs.namenode.editslog.EditLogWrapper;
+import design.dfs.namenode.fs.DiskFileSystem;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * BackupNode 切换为 NameNode 的耗时测试：接管内存目录树 vs 重新加载 EditLog
+ */
+@Slf4j
+public class FailoverTest {
+    private static final int FILE_COUNT = 100000;
+    private final String testDir = TestProperties.TEST_DIR;
+    private DefaultScheduler defaultScheduler;
+
+    @Before
+    public void before() throws IOException {
+        File file = new File(testDir);
+        FileUtil.deleteDirectory(file);
+        file.mkdirs();
+        defaultScheduler = new DefaultScheduler("Failover-Test-");
+    }
+
+    @After
+    public void after() throws IOException {
+        defaultScheduler.shutdown();
+        FileUtil.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void testTakeOverInMemoryDirectory() {
+        InMemoryFileSystem fileSystem = new InMemoryFileSystem(BackupNodeConfig.builder().baseDir(testDir).build());
+        List<EditLog> batch = new ArrayList<>();
+        for (int i = 1; i <= FILE_COUNT; i++) {
+            batch.add(EditLog.newBuilder()
+                    .setTxId(i)
+                    .setOpType(FsOpType.CREATE.getValue())
+                    .setPath(filename(i))
+                    .build());
+            if (batch.size() == 1000) {
+                fileSystem.applyEditLogs(batch);
+                batch.clear();
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        long maxTxId = fileSystem.seal();
+        NameNodeConfig config = NameNodeConfig.builder().baseDir(testDir).editLogFlushThreshold(1024 * 1024).build();
+        DiskFileSystem diskFileSystem = new DiskFileSystem(config, new DataNodeManager(config, defaultScheduler),
+                fileSystem.getDirectory());
+        diskFileSystem.takeOver(maxTxId);
+        long cost = System.currentTimeMillis() - start;
+        log.info("接管内存目录树耗时：[files={}, cost={} ms]", FILE_COUNT, cost);
+
+        assertEquals(FILE_COUNT, maxTxId);
+        assertNotNull(diskFileSystem.listFiles(filename(FILE_COUNT)));
+        diskFileSystem.mkdir("/failover", new HashMap<>());
+        assertEquals(maxTxId + 1, diskFileSystem.getEditLog().getLastTxId());
+
+        // 切换之后新写入的 EditLog 不会被 BackupNode 的同步覆盖
+        List<EditLog> stale = new ArrayList<>();
+        stale.add(EditLog.newBuilder().setTxId(maxTxId + 1).setOpType(FsOpType.DELETE.getValue())
+                .setPath("/failover").build());
+        fileSystem.applyEditLogs(stale);
+        assertNotNull(diskFileSystem.listFiles("/failover"));
+        diskFileSystem.shutdown();
+    }
+
+    @Test
+    public void testRecoveryFromEditLog() throws Exception {
+        NameNodeConfig config = NameNodeConfig.builder().baseDir(testDir).editLogFlushThreshold(1024 * 1024).build();
+        DiskFileSystem writer = new DiskFileSystem(config);
+        for (int i = 1; i <= FILE_COUNT; i++) {
+            writer.getEditLog().logEdit(new EditLogWrapper(FsOpType.CREATE.getValue(), filename(i)));
+        }
+        writer.getEditLog().flush();
+
+        long start = System.currentTimeMillis();
+        DiskFileSystem diskFileSystem = new DiskFileSystem(config);
+        diskFileSystem.recoveryNamespace();
+        long cost = System.currentTimeMillis() - start;
+        log.info("回放EditLog恢复目录树耗时：[files={}, cost={} ms]", FILE_COUNT, cost);
+
+        assertNotNull(diskFileSystem.listFiles(filename(FILE_COUNT)));
+    }
+
+    private static String filename(int i) {
+        return String.format("/%03d/%03d/%d.jpg", i / 1024 % 1000, i % 1024, i);
+    }
+}
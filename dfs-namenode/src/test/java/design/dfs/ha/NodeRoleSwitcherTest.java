@@ -0,0 +1,101 @@
+package design.dfs.ha;
+
+import design.dfs.TestProperties;
+import design.dfs.backup.config.BackupNodeConfig;
+import design.dfs.backup.fs.InMemoryFileSystem;
+import design.dfs.backup.fs.NameNodeClient;
+import design.dfs.backup.server.BackupNodeServer;
+import design.dfs.common.enums.FsOpType;
+import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.common.utils.FileUtil;
+import design.dfs.model.backup.EditLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * BackupNode 切换失败的测试
+ */
+public class NodeRoleSwitcherTest {
+    private final String testDir = TestProperties.TEST_DIR;
+    private DefaultScheduler defaultScheduler;
+    private InMemoryFileSystem fileSystem;
+    private NameNodeClient nameNodeClient;
+    private BackupNodeServer backupNodeServer;
+
+    @Before
+    public void before() throws IOException {
+        File file = new File(testDir);
+        FileUtil.deleteDirectory(file);
+        file.mkdirs();
+        defaultScheduler = new DefaultScheduler("Switcher-Test-");
+
+        // 切换之后使用的配置有误，创建 NameNodeApis 的线程池时失败
+        Properties properties = new Properties();
+        try (InputStream inputStream = getClass().getResourceAsStream("/conf/namenode.properties")) {
+            properties.load(inputStream);
+        }
+        properties.setProperty("namenode.api.maximumPoolSize", "0");
+        String nameNodeConfig = testDir + File.separator + "namenode.properties";
+        try (OutputStream outputStream = Files.newOutputStream(Paths.get(nameNodeConfig))) {
+            properties.store(outputStream, null);
+        }
+        BackupNodeConfig backupNodeConfig = BackupNodeConfig.builder()
+                .baseDir(testDir)
+                .nameNodeServer("localhost:5670")
+                .backupNodeServer("localhost:5671")
+                .failoverNameNodeConfig(nameNodeConfig)
+                .failoverTimeout(1000)
+                .build();
+        fileSystem = new InMemoryFileSystem(backupNodeConfig);
+        nameNodeClient = new NameNodeClient(defaultScheduler, backupNodeConfig, fileSystem);
+        backupNodeServer = new BackupNodeServer(defaultScheduler, backupNodeConfig, fileSystem);
+        NodeRoleSwitcher.getInstance().init(backupNodeConfig, defaultScheduler, fileSystem, nameNodeClient, backupNodeServer);
+    }
+
+    @After
+    public void after() throws IOException {
+        nameNodeClient.shutdown();
+        backupNodeServer.shutdown();
+        defaultScheduler.shutdown();
+        FileUtil.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void testPromoteFailed() throws Exception {
+        NodeRoleSwitcher switcher = NodeRoleSwitcher.getInstance();
+        try {
+            switcher.promote();
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        // 切换失败之后仍然是 BackupNode，继续同步 EditLog
+        assertFalse(switcher.isActive());
+        assertFalse(nameNodeClient.isShutdown());
+        fileSystem.applyEditLogs(Collections.singletonList(EditLog.newBuilder()
+                .setTxId(1)
+                .setOpType(FsOpType.MKDIR.getValue())
+                .setPath("/backup")
+                .build()));
+        assertTrue(fileSystem.exists("/backup"));
+
+        // 回到 BACKUP 状态之后可以再次切换
+        try {
+            switcher.promote();
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertFalse(nameNodeClient.isShutdown());
+    }
+}
@@ -0,0 +1,37 @@
+package design.dfs.ha;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 确认 NameNode 宕机的投票测试
+ */
+public class StatusVoteTest {
+
+    @Test
+    public void testNoClients() {
+        // 没有客户端时无法确认，BackupNode 可能只是自己和其他节点断开了
+        assertFalse(new NodeRoleSwitcher.StatusVote(0).confirmsDown());
+    }
+
+    @Test
+    public void testTimeoutIsUnknown() {
+        NodeRoleSwitcher.StatusVote vote = new NodeRoleSwitcher.StatusVote(3);
+        vote.mark(0);
+        // 其余两个客户端没有回复，不算作宕机
+        assertFalse(vote.confirmsDown());
+        vote.mark(0);
+        assertTrue(vote.confirmsDown());
+    }
+
+    @Test
+    public void testAnyOnline() {
+        NodeRoleSwitcher.StatusVote vote = new NodeRoleSwitcher.StatusVote(3);
+        vote.mark(0);
+        vote.mark(0);
+        vote.mark(1);
+        assertFalse(vote.confirmsDown());
+    }
+}
@@ -0,0 +1,222 @@
+package design.dfs.namenode.datanode;
+
+import design.dfs.TestProperties;
+import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.common.utils.FileUtil;
+import design.dfs.model.datanode.HeartbeatRequest;
+import design.dfs.model.datanode.RegisterRequest;
+import design.dfs.namenode.config.NameNodeConfig;
+import design.dfs.namenode.fs.DiskFileSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * DataNode 管理测试：按机架分配副本，按距离排序读取的副本，心跳超时的状态变化
+ *
+ * <pre>
+ * 心跳超时和宽限期都是 60 秒，存活检测由测试传入的时间推进，不依赖后台线程
+
+ * /r1: datanode01(10.0.0.1)  datanode02(10.0.0.2)
+ * /r2: datanode03(10.0.0.3)  datanode04(10.0.0.4)
+ * datanode03 只按 IP 配置了机架，10.0.1.1 是不在 DataNode 上的客户端
+ * </pre>
+ */
+public class DataNodeManagerTest {
+    private final String testDir = TestProperties.TEST_DIR;
+    private DefaultScheduler defaultScheduler;
+    private DataNodeManager dataNodeManager;
+    private DiskFileSystem diskFileSystem;
+
+    @Before
+    public void before() throws IOException {
+        File file = new File(testDir);
+        FileUtil.deleteDirectory(file);
+        file.mkdirs();
+        File topologyFile = new File(testDir, "topology");
+        Files.write(topologyFile.toPath(), Arrays.asList(
+                "datanode01 /r1",
+                "datanode02 /r1",
+                "10.0.0.3   /r2",
+                "datanode04 /r2",
+                "10.0.1.1   /r2"), StandardCharsets.UTF_8);
+        defaultScheduler = new DefaultScheduler("DataNodeManager-Test-");
+        NameNodeConfig config = NameNodeConfig.builder()
+                .baseDir(testDir)
+                .editLogFlushThreshold(1024 * 1024)
+                .dataNodeHeartbeatTimeout(60000)
+                .dataNodeAliveCheckInterval(1000)
+                .dataNodeStaleGracePeriod(60000)
+                .replicaNum(3)
+                .topologyFile(topologyFile.getPath())
+                .build();
+        dataNodeManager = new DataNodeManager(config, defaultScheduler);
+        diskFileSystem = new DiskFileSystem(config, dataNodeManager);
+        for (int i = 1; i <= 4; i++) {
+            register("datanode0" + i, "10.0.0." + i);
+        }
+    }
+
+    @After
+    public void after() throws IOException {
+        diskFileSystem.shutdown();
+        defaultScheduler.shutdown();
+        FileUtil.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void testRegister() {
+        assertEquals("/r1", dataNodeManager.getDataNode("datanode01").getRack());
+        // hostname 没有配置机架时按注册的 IP 解析
+        assertEquals("/r2", dataNodeManager.getDataNode("datanode03").getRack());
+        assertEquals("10.0.0.3", dataNodeManager.getDataNode("datanode03").getAddress());
+        assertFalse(dataNodeManager.register(registerRequest("datanode01"), "10.0.0.1"));
+    }
+
+    @Test
+    public void testLocalFirstPlacement() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            // 客户端地址是 IP，也能找到所在的 DataNode
+            List<DataNodeInfo> selected = dataNodeManager.allocateDataNodes("test", 3, "/local/" + i, "10.0.0.1");
+            assertEquals(Arrays.asList("datanode01", "datanode03", "datanode04"), sortedHostnames(selected.subList(0, 3)));
+            assertEquals("datanode01", selected.get(0).getHostname());
+
+            selected = dataNodeManager.allocateDataNodes("test", 1, "/local/" + i, "datanode02");
+            assertEquals("datanode02", selected.get(0).getHostname());
+        }
+    }
+
+    @Test
+    public void testRackSpreadPlacement() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            List<DataNodeInfo> selected = dataNodeManager.allocateDataNodes("test", 3, "/spread/" + i, null);
+            assertEquals(3, new HashSet<>(selected).size());
+            String firstRack = selected.get(0).getRack();
+            // 其余副本都放在第一个副本之外的机架上
+            assertNotEquals(firstRack, selected.get(1).getRack());
+            assertNotEquals(firstRack, selected.get(2).getRack());
+        }
+        // 其他机架的节点不够时使用同一个机架的节点
+        List<DataNodeInfo> selected = dataNodeManager.allocateDataNodes("test", 4, "/spread/all", null);
+        assertEquals(Arrays.asList("datanode01", "datanode02", "datanode03", "datanode04"), sortedHostnames(selected));
+    }
+
+    @Test
+    public void testReadOrdering() {
+        String fileId = diskFileSystem.createFileWithId("/read/1.jpg", new HashMap<>());
+        for (int i = 1; i <= 3; i++) {
+            dataNodeManager.addReplicas("datanode0" + i, Collections.singletonList(fileId));
+        }
+        // 同一台机器 > 同一个机架 > 其他机架
+        assertEquals(Arrays.asList("datanode01", "datanode02", "datanode03"),
+                hostnames(dataNodeManager.sortReplicasByDistance(fileId, "10.0.0.1")));
+        assertEquals("datanode03", dataNodeManager.sortReplicasByDistance(fileId, "10.0.0.3").get(0).getHostname());
+        // 不在 DataNode 上的客户端按机架排序
+        assertEquals("datanode03", dataNodeManager.sortReplicasByDistance(fileId, "10.0.1.1").get(0).getHostname());
+
+        // Stale 状态的 DataNode 排在最后
+        dataNodeManager.getDataNode("datanode01").setStatus(DataNodeInfo.STATUS_STALE);
+        assertEquals(Arrays.asList("datanode02", "datanode03", "datanode01"),
+                hostnames(dataNodeManager.sortReplicasByDistance(fileId, "10.0.0.1")));
+    }
+
+    @Test
+    public void testStaleAndRecover() {
+        long base = System.currentTimeMillis();
+        dataNodeManager.checkAlive(base + 30000);
+        assertEquals(DataNodeInfo.STATUS_READY, dataNodeManager.getDataNode("datanode01").getStatus());
+
+        // 心跳超时先标记为 Stale，不再分配写入
+        dataNodeManager.checkAlive(base + 62000);
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(DataNodeInfo.STATUS_STALE, dataNodeManager.getDataNode("datanode0" + i).getStatus());
+        }
+        assertNull(dataNodeManager.allocateReplicateDataNode("/stale/1.jpg", dataNode -> false));
+
+        // 宽限期内恢复心跳，回到 Ready
+        assertTrue(dataNodeManager.heartbeat(heartbeatRequest("datanode01")));
+        assertEquals(DataNodeInfo.STATUS_READY, dataNodeManager.getDataNode("datanode01").getStatus());
+        assertEquals("datanode01", dataNodeManager.allocateReplicateDataNode("/stale/1.jpg", dataNode -> false).getHostname());
+    }
+
+    @Test
+    public void testRemoveAfterGracePeriod() {
+        String fileId = diskFileSystem.createFileWithId("/stale/2.jpg", new HashMap<>());
+        dataNodeManager.addReplicas("datanode02", Collections.singletonList(fileId));
+        dataNodeManager.addReplicas("datanode03", Collections.singletonList(fileId));
+        long base = System.currentTimeMillis();
+
+        // Stale 期间副本仍然计入副本数量
+        dataNodeManager.checkAlive(base + 62000);
+        assertEquals(2, dataNodeManager.replicaCount(fileId));
+        assertEquals(DataNodeInfo.STATUS_STALE, dataNodeManager.getDataNode("datanode02").getStatus());
+
+        // 超过宽限期被移除，副本从索引中移除，心跳不再被接受，需要重新注册
+        dataNodeManager.checkAlive(base + 123000);
+        assertNull(dataNodeManager.getDataNode("datanode02"));
+        assertEquals(0, dataNodeManager.replicaCount(fileId));
+        assertFalse(dataNodeManager.heartbeat(heartbeatRequest("datanode02")));
+        assertTrue(dataNodeManager.register(registerRequest("datanode02"), "10.0.0.2"));
+    }
+
+    @Test
+    public void testReadmit() {
+        String fileId = diskFileSystem.createFileWithId("/stale/3.jpg", new HashMap<>());
+        dataNodeManager.addReplicas("datanode01", Collections.singletonList(fileId));
+        long base = System.currentTimeMillis();
+        dataNodeManager.checkAlive(base + 62000);
+
+        // Stale 状态的 DataNode 重新注册，保留副本，等全量上报之后再 Ready
+        assertTrue(dataNodeManager.register(registerRequest("datanode01"), "10.0.0.1"));
+        DataNodeInfo dataNode = dataNodeManager.getDataNode("datanode01");
+        assertEquals(DataNodeInfo.STATUS_INIT, dataNode.getStatus());
+        assertEquals(1, dataNodeManager.replicaCount(fileId));
+        assertFalse(dataNodeManager.register(registerRequest("datanode01"), "10.0.0.1"));
+
+        // 重新注册之后按新的心跳时间检测，原来的宽限期结束时不会被移除
+        dataNode.setLatestHeartbeatTime(base + 200000);
+        dataNodeManager.checkAlive(base + 123000);
+        assertSame(dataNode, dataNodeManager.getDataNode("datanode01"));
+        assertEquals(DataNodeInfo.STATUS_INIT, dataNode.getStatus());
+    }
+
+    private void register(String hostname, String address) {
+        assertTrue(dataNodeManager.register(registerRequest(hostname), address));
+        dataNodeManager.setDataNodeReady(hostname);
+    }
+
+    private RegisterRequest registerRequest(String hostname) {
+        return RegisterRequest.newBuilder()
+                .setHostname(hostname)
+                .setNioPort(5671)
+                .setHttpPort(8081)
+                .setFreeSpace(1024L * 1024 * 1024)
+                .build();
+    }
+
+    private HeartbeatRequest heartbeatRequest(String hostname) {
+        return HeartbeatRequest.newBuilder()
+                .setHostname(hostname)
+                .setFreeSpace(1024L * 1024 * 1024)
+                .build();
+    }
+
+    private static List<String> hostnames(List<DataNodeInfo> dataNodes) {
+        return dataNodes.stream().map(DataNodeInfo::getHostname).collect(Collectors.toList());
+    }
+
+    private static List<String> sortedHostnames(List<DataNodeInfo> dataNodes) {
+        List<String> hostnames = hostnames(dataNodes);
+        Collections.sort(hostnames);
+        return hostnames;
+    }
+}
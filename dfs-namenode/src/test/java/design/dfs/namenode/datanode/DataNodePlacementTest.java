@@ -0,0 +1,143 @@
+package design.dfs.namenode.datanode;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * 副本分配测试，模拟 1000 个 DataNode 的分配均衡度和耗时
+ */
+@Slf4j
+public class DataNodePlacementTest {
+    private static final int DATA_NODE_COUNT = 1000;
+    private static final int FILE_COUNT = 100000;
+    private static final int REPLICA_NUM = 3;
+    private static final int HEARTBEAT_EVERY = 1000;
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testChooseDistinct() {
+        DataNodePlacement placement = new DataNodePlacement(new Random(1));
+        DataNodeInfo[] nodes = createNodes(placement, 5, new Random(1));
+        // 不是 Ready 状态的节点不会被选中
+        nodes[4].setStatus(DataNodeInfo.STATUS_INIT);
+        placement.update(4, nodes[4]);
+        for (int i = 0; i < 1000; i++) {
+            List<DataNodeInfo> selected = placement.choose(3, dataNode -> dataNode == nodes[0]);
+            assertEquals(3, selected.size());
+            assertEquals(3, new HashSet<>(selected).size());
+            assertFalse(selected.contains(nodes[0]));
+            assertFalse(selected.contains(nodes[4]));
+        }
+        assertEquals(4, placement.choose(5, dataNode -> false).size());
+        placement.remove(1);
+        assertEquals(3, placement.choose(5, dataNode -> false).size());
+    }
+
+    @Test
+    public void testSelectLocal() {
+        DataNodePlacement placement = new DataNodePlacement(new Random(1));
+        DataNodeInfo[] nodes = createNodes(placement, 3, new Random(1));
+        assertTrue(placement.select(1));
+        assertEquals(1.0, nodes[1].getRecentWrites(), 0.0);
+        nodes[2].setStatus(DataNodeInfo.STATUS_INIT);
+        placement.update(2, nodes[2]);
+        assertFalse(placement.select(2));
+        assertFalse(placement.select(5));
+    }
+
+    @Test
+    public void testRelease() {
+        DataNodePlacement placement = new DataNodePlacement(new Random(1));
+        DataNodeInfo[] nodes = createNodes(placement, 3, new Random(1));
+        double weight = nodes[1].placementWeight();
+        assertTrue(placement.select(1));
+        assertTrue(nodes[1].placementWeight() < weight);
+        // 文件没有创建成功，撤销之后权重恢复
+        placement.release(1);
+        assertEquals(0.0, nodes[1].getRecentWrites(), 0.0);
+        assertEquals(weight, nodes[1].placementWeight(), 0.0);
+        placement.release(1);
+        assertEquals(0.0, nodes[1].getRecentWrites(), 0.0);
+        placement.release(5);
+    }
+
+    @Test
+    public void testSimulateBalance() {
+        Random random = new Random(42);
+        DataNodePlacement placement = new DataNodePlacement(new Random(42));
+        DataNodeInfo[] nodes = createNodes(placement, DATA_NODE_COUNT, random);
+        long[] capacity = new long[DATA_NODE_COUNT];
+        for (int i = 0; i < DATA_NODE_COUNT; i++) {
+            capacity[i] = nodes[i].getFreeSpace();
+        }
+        long[] weightedUsed = new long[DATA_NODE_COUNT];
+        long[] uniformUsed = new long[DATA_NODE_COUNT];
+
+        long elapsed = 0;
+        for (int f = 0; f < FILE_COUNT; f++) {
+            long fileSize = MB / 2 + (long) (random.nextDouble() * MB);
+            long start = System.nanoTime();
+            List<DataNodeInfo> selected = placement.choose(REPLICA_NUM, dataNode -> false);
+            elapsed += System.nanoTime() - start;
+            assertEquals(REPLICA_NUM, selected.size());
+            Set<DataNodeInfo> distinct = new HashSet<>(selected);
+            assertEquals(REPLICA_NUM, distinct.size());
+            for (DataNodeInfo dataNode : selected) {
+                int index = Integer.parseInt(dataNode.getHostname().substring("datanode-".length()));
+                weightedUsed[index] += fileSize;
+                dataNode.setFreeSpace(capacity[index] - weightedUsed[index]);
+            }
+            // 对照组：原来的做法，在所有节点中均匀随机
+            Set<Integer> uniform = new HashSet<>();
+            while (uniform.size() < REPLICA_NUM) {
+                uniform.add(random.nextInt(DATA_NODE_COUNT));
+            }
+            for (int index : uniform) {
+                uniformUsed[index] += fileSize;
+            }
+            if (f % HEARTBEAT_EVERY == 0) {
+                for (int i = 0; i < DATA_NODE_COUNT; i++) {
+                    placement.heartbeat(i, nodes[i]);
+                }
+            }
+        }
+
+        double weightedStd = utilizationStd(weightedUsed, capacity);
+        double uniformStd = utilizationStd(uniformUsed, capacity);
+        log.info("副本分配模拟：[dataNodes={}, files={}, avgLatency={} ns, weightedUtilizationStd={}, uniformUtilizationStd={}]",
+                DATA_NODE_COUNT, FILE_COUNT, elapsed / FILE_COUNT, String.format("%.4f", weightedStd),
+                String.format("%.4f", uniformStd));
+        assertTrue(weightedStd < uniformStd);
+    }
+
+    private DataNodeInfo[] createNodes(DataNodePlacement placement, int count, Random random) {
+        DataNodeInfo[] nodes = new DataNodeInfo[count];
+        for (int i = 0; i < count; i++) {
+            nodes[i] = new DataNodeInfo("datanode-" + i, 5671, 8001, Long.MAX_VALUE);
+            // 容量在 50G ~ 200G 之间，模拟新旧机型混布
+            nodes[i].setFreeSpace((50 + random.nextInt(150)) * 1024 * MB);
+            nodes[i].setStatus(DataNodeInfo.STATUS_READY);
+            placement.update(i, nodes[i]);
+        }
+        return nodes;
+    }
+
+    private double utilizationStd(long[] used, long[] capacity) {
+        double sum = 0;
+        double sumSquare = 0;
+        for (int i = 0; i < used.length; i++) {
+            double utilization = (double) used[i] / capacity[i];
+            sum += utilization;
+            sumSquare += utilization * utilization;
+        }
+        double mean = sum / used.length;
+        return Math.sqrt(sumSquare / used.length - mean * mean);
+    }
+}
@@ -0,0 +1,66 @@
+package design.dfs.namenode.datanode;
+
+import design.dfs.TestProperties;
+import design.dfs.common.utils.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 机架配置文件测试
+ */
+public class FileTopologyResolverTest {
+    private final String testDir = TestProperties.TEST_DIR;
+
+    @Before
+    public void before() throws IOException {
+        File file = new File(testDir);
+        FileUtil.deleteDirectory(file);
+        file.mkdirs();
+    }
+
+    @After
+    public void after() throws IOException {
+        FileUtil.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void testResolve() throws IOException {
+        File topologyFile = new File(testDir, "topology");
+        Files.write(topologyFile.toPath(), Arrays.asList(
+                "# 机架配置",
+                "datanode01  /dc1/rack1",
+                "  10.0.0.11\t/dc1/rack1  ",
+                "",
+                "datanode02 /dc1/rack2",
+                "datanode03"), StandardCharsets.UTF_8);
+        FileTopologyResolver resolver = new FileTopologyResolver(topologyFile.getPath());
+
+        assertEquals("/dc1/rack1", resolver.resolve("datanode01"));
+        assertEquals("/dc1/rack1", resolver.resolve("10.0.0.11"));
+        assertEquals("/dc1/rack2", resolver.resolve("datanode02"));
+        // 格式错误的行和注释被忽略
+        assertEquals(TopologyResolver.DEFAULT_RACK, resolver.resolve("datanode03"));
+        assertEquals(TopologyResolver.DEFAULT_RACK, resolver.resolve("#"));
+        assertEquals(TopologyResolver.DEFAULT_RACK, resolver.resolve("unknown"));
+    }
+
+    @Test
+    public void testNoTopologyFile() {
+        FileTopologyResolver resolver = new FileTopologyResolver(null);
+        assertEquals(TopologyResolver.DEFAULT_RACK, resolver.resolve("datanode01"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingTopologyFile() {
+        new FileTopologyResolver(new File(testDir, "not-exist").getPath());
+    }
+}
@@ -0,0 +1,75 @@
+package design.dfs.namenode.datanode;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 全量上报对比测试
+ */
+public class FullReportMergerTest {
+
+    @Test
+    public void testMergeInBatches() {
+        // 副本索引中的文件是无序的
+        List<String> expected = Arrays.asList("/e", "/a", "/c", "/g", "/b");
+        FullReportMerger merger = new FullReportMerger(1L, expected);
+        assertEquals(1L, merger.getReportId());
+
+        List<String> unknown = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        merger.merge(Arrays.asList("/a", "/b", "/d"), unknown, missing);
+        assertEquals(Arrays.asList("/d"), unknown);
+        assertEquals(Arrays.asList("/c"), missing);
+
+        unknown.clear();
+        missing.clear();
+        merger.merge(Arrays.asList("/e", "/f"), unknown, missing);
+        merger.finish(missing);
+        assertEquals(Arrays.asList("/f"), unknown);
+        assertEquals(Arrays.asList("/g"), missing);
+    }
+
+    @Test
+    public void testReconcileIndex() {
+        ReplicaIndex index = new ReplicaIndex();
+        for (int i = 0; i < 100; i++) {
+            index.add("/file/" + i, 0);
+            index.add("/file/" + i, 1);
+        }
+        // DataNode 上丢失了 /file/1x，多出了 /orphan/x
+        List<String> reported = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            if (i / 10 != 1) {
+                reported.add("/file/" + i);
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            reported.add("/orphan/" + i);
+        }
+        reported.sort(String::compareTo);
+
+        List<String> fileIds = new ArrayList<>();
+        index.fileIdsOf(0, fileIds);
+        FullReportMerger merger = new FullReportMerger(1L, fileIds);
+        List<String> unknown = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        merger.merge(reported.subList(0, 50), unknown, missing);
+        merger.merge(reported.subList(50, reported.size()), unknown, missing);
+        merger.finish(missing);
+        assertEquals(5, unknown.size());
+        assertEquals(10, missing.size());
+
+        for (String fileId : missing) {
+            assertTrue(index.removeReplica(fileId, 0));
+            assertFalse(index.removeReplica(fileId, 0));
+            assertEquals(1, index.replicaCount(fileId));
+        }
+        assertEquals(90, index.replicaCountOf(0));
+        assertEquals(100, index.replicaCountOf(1));
+    }
+}
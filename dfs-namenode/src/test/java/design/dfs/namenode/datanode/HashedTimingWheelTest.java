@@ -0,0 +1,57 @@
+package design.dfs.namenode.datanode;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 时间轮测试，时间由测试控制
+ */
+public class HashedTimingWheelTest {
+    private final Map<String, Long> deadlines = new HashMap<>();
+    private final HashedTimingWheel<String> wheel = new HashedTimingWheel<>(100, 8, deadlines::get, 0);
+
+    @Test
+    public void testExpire() {
+        deadlines.put("a", 250L);
+        deadlines.put("b", 520L);
+        wheel.add("a");
+        wheel.add("b");
+        assertTrue(wheel.expire(200).isEmpty());
+        assertEquals(Collections.singletonList("a"), wheel.expire(300));
+        assertTrue(wheel.expire(500).isEmpty());
+        assertEquals(Collections.singletonList("b"), wheel.expire(600));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testRenew() {
+        deadlines.put("a", 250L);
+        wheel.add("a");
+        // 收到心跳，只更新截止时间
+        deadlines.put("a", 450L);
+        assertTrue(wheel.expire(300).isEmpty());
+        assertEquals(Collections.singletonList("a"), wheel.expire(500));
+    }
+
+    @Test
+    public void testBeyondOneRound() {
+        // 一圈只有 800ms
+        deadlines.put("a", 2050L);
+        wheel.add("a");
+        for (long now = 100; now < 2100; now += 100) {
+            assertTrue(wheel.expire(now).isEmpty());
+        }
+        List<String> expired = wheel.expire(2100);
+        assertEquals(Collections.singletonList("a"), expired);
+        // 停顿很久之后一次推进
+        deadlines.put("b", 3000L);
+        wheel.add("b");
+        assertEquals(Collections.singletonList("b"), wheel.expire(100000));
+    }
+}
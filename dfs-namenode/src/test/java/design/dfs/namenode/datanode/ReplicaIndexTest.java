@@ -0,0 +1,191 @@
+package design.dfs.namenode.datanode;
+
+import design.dfs.common.FileInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 副本索引测试，包括和原来的 Map 结构的内存对比
+ */
+@Slf4j
+public class ReplicaIndexTest {
+    private static final int FILE_COUNT = 1000000;
+    private static final int DATA_NODE_COUNT = 10;
+    private static final int REPLICA_NUM = 3;
+
+    @Test
+    public void testAddAndRemove() {
+        ReplicaIndex index = new ReplicaIndex();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(index.add("/file/" + i, i % 3));
+            assertTrue(index.add("/file/" + i, (i + 1) % 3));
+        }
+        assertFalse(index.add("/file/1", 1));
+        assertEquals(10000, index.size());
+        assertEquals(2, index.replicaCount("/file/1"));
+        assertTrue(index.contains("/file/1", 2));
+        assertFalse(index.contains("/file/1", 0));
+        assertEquals(0, index.replicaCount("/not/exist"));
+
+        // 删除之后其他文件仍然能找到，编号被复用
+        for (int i = 0; i < 10000; i += 2) {
+            assertEquals(2, index.removeFile("/file/" + i).length);
+        }
+        assertEquals(5000, index.size());
+        for (int i = 1; i < 10000; i += 2) {
+            assertEquals(2, index.replicaCount("/file/" + i));
+        }
+        assertEquals(0, index.removeFile("/file/0").length);
+        assertTrue(index.add("/file/new", 0));
+        assertEquals(1, index.replicaCount("/file/new"));
+    }
+
+    @Test
+    public void testRemoveDataNode() {
+        ReplicaIndex index = new ReplicaIndex();
+        index.add("/a", 0);
+        index.add("/a", 1);
+        index.add("/b", 0);
+        index.add("/c", 1);
+
+        List<String> lost = index.removeDataNode(0);
+        assertEquals(new HashSet<>(Arrays.asList("/a", "/b")), new HashSet<>(lost));
+        assertEquals(0, index.replicaCountOf(0));
+        assertEquals(1, index.replicaCount("/a"));
+        // 失去全部副本的文件从索引中移除
+        assertEquals(0, index.replicaCount("/b"));
+        assertEquals(2, index.size());
+
+        assertArrayEquals(new short[]{1}, index.replicasOf("/a"));
+        assertEquals(0, index.replicasOf("/b").length);
+    }
+
+    @Test
+    public void testStripedConcurrentAdd() throws InterruptedException {
+        StripedReplicaIndex index = new StripedReplicaIndex(16);
+        int threads = 8;
+        int files = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int dataNode = t;
+            executor.execute(() -> {
+                // 每个线程模拟一个 DataNode 上报全部文件，副本数量限制为 3
+                for (int i = 0; i < files; i++) {
+                    index.add("/file/" + i, dataNode, REPLICA_NUM);
+                    index.replicasOf("/file/" + i);
+                }
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(files, index.size());
+        for (int i = 0; i < files; i++) {
+            assertEquals(REPLICA_NUM, index.replicaCount("/file/" + i));
+        }
+        assertEquals(StripedReplicaIndex.FULL, index.add("/file/0", threads, REPLICA_NUM));
+        int total = 0;
+        for (int t = 0; t < threads; t++) {
+            total += index.removeDataNode(t).size();
+        }
+        assertEquals(files * REPLICA_NUM, total);
+        assertEquals(0, index.size());
+    }
+
+    /**
+     * 和原来的 Map 结构对比，结果和原来的 Map 一致
+     */
+    @Test
+    public void testSameAsMap() {
+        int files = 10000;
+        Map<String, List<Integer>> replicaByFilename = new HashMap<>();
+        ReplicaIndex index = new ReplicaIndex();
+        for (int i = 0; i < files; i++) {
+            String fileId = "/user/data/" + (i / 1000) + "/" + i + ".jpg";
+            for (int r = 0; r < REPLICA_NUM; r++) {
+                int dataNode = (i + r) % DATA_NODE_COUNT;
+                replicaByFilename.computeIfAbsent(fileId, k -> new ArrayList<>()).add(dataNode);
+                // 上报的文件名和目录树中的不是同一个字符串对象
+                assertTrue(index.add(new String(fileId), dataNode));
+            }
+        }
+        assertEquals(replicaByFilename.size(), index.size());
+        for (Map.Entry<String, List<Integer>> entry : replicaByFilename.entrySet()) {
+            assertEquals(entry.getValue().size(), index.replicaCount(entry.getKey()));
+            for (int dataNode = 0; dataNode < DATA_NODE_COUNT; dataNode++) {
+                assertEquals(entry.getValue().contains(dataNode), index.contains(entry.getKey(), dataNode));
+            }
+        }
+        for (int dataNode = 0; dataNode < DATA_NODE_COUNT; dataNode++) {
+            assertEquals(files * REPLICA_NUM / DATA_NODE_COUNT, index.replicaCountOf(dataNode));
+        }
+    }
+
+    /**
+     * 百万文件的内存对比，耗时长并且依赖 GC，不在构建中运行，需要时去掉 @Ignore 手动执行
+     */
+    @Ignore("内存对比，手动执行")
+    @Test
+    public void testMemoryCompareWithMap() {
+        String[] fileIds = new String[FILE_COUNT];
+        for (int i = 0; i < FILE_COUNT; i++) {
+            fileIds[i] = "/user/data/" + (i / 1000) + "/" + i + ".jpg";
+        }
+
+        long before = usedMemory();
+        Map<String, List<String>> replicaByFilename = new HashMap<>();
+        Map<String, Map<String, FileInfo>> filesByDataNode = new HashMap<>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            for (int r = 0; r < REPLICA_NUM; r++) {
+                String hostname = "datanode-" + ((i + r) % DATA_NODE_COUNT);
+                // 上报的文件名和目录树中的不是同一个字符串对象
+                String reported = new String(fileIds[i]);
+                replicaByFilename.computeIfAbsent(reported, k -> new ArrayList<>()).add(hostname);
+                filesByDataNode.computeIfAbsent(hostname, k -> new HashMap<>())
+                        .put(reported, new FileInfo(hostname, reported, 1024));
+            }
+        }
+        long mapBytes = usedMemory() - before;
+        assertEquals(FILE_COUNT, replicaByFilename.size());
+        replicaByFilename = null;
+        filesByDataNode = null;
+
+        before = usedMemory();
+        ReplicaIndex index = new ReplicaIndex();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            for (int r = 0; r < REPLICA_NUM; r++) {
+                index.add(fileIds[i], (i + r) % DATA_NODE_COUNT);
+            }
+        }
+        long indexBytes = usedMemory() - before;
+        assertEquals(FILE_COUNT, index.size());
+
+        log.info("副本信息内存占用：[files={}, replicas={}, map={} MB, index={} MB]", FILE_COUNT,
+                FILE_COUNT * REPLICA_NUM, mapBytes / 1024 / 1024, indexBytes / 1024 / 1024);
+        assertTrue(indexBytes < mapBytes);
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
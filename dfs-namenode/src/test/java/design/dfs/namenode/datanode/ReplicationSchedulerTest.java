@@ -0,0 +1,221 @@
+package design.dfs.namenode.datanode;
+
+import design.dfs.TestProperties;
+import design.dfs.common.Constants;
+import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.common.utils.FileUtil;
+import design.dfs.model.datanode.RegisterRequest;
+import design.dfs.namenode.config.NameNodeConfig;
+import design.dfs.namenode.fs.DiskFileSystem;
+import design.dfs.namenode.rebalance.ReplicaTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 副本复制调度测试，所有副本都在 datanode01 上，需要复制到 datanode02 或者 datanode03
+ */
+public class ReplicationSchedulerTest {
+    private static final long NOW = 1000000L;
+    private final String testDir = TestProperties.TEST_DIR;
+    private DefaultScheduler defaultScheduler;
+    private NameNodeConfig config;
+    private DataNodeManager dataNodeManager;
+    private DiskFileSystem diskFileSystem;
+    /**
+     * 复制任务 -> 目标 DataNode
+     */
+    private final Map<ReplicaTask, String> targets = new HashMap<>();
+
+    @Before
+    public void before() throws IOException {
+        File file = new File(testDir);
+        FileUtil.deleteDirectory(file);
+        file.mkdirs();
+        defaultScheduler = new DefaultScheduler("Replication-Test-");
+        config = NameNodeConfig.builder()
+                .baseDir(testDir)
+                .editLogFlushThreshold(1024 * 1024)
+                .dataNodeHeartbeatTimeout(60000)
+                .dataNodeAliveCheckInterval(1000)
+                .dataNodeStaleGracePeriod(60000)
+                .replicaNum(2)
+                .build();
+        dataNodeManager = new DataNodeManager(config, defaultScheduler);
+        diskFileSystem = new DiskFileSystem(config, dataNodeManager);
+        for (int i = 1; i <= 3; i++) {
+            String hostname = "datanode0" + i;
+            assertTrue(dataNodeManager.register(RegisterRequest.newBuilder()
+                    .setHostname(hostname)
+                    .setNioPort(5671)
+                    .setHttpPort(8081)
+                    .setFreeSpace(1024L * 1024 * 1024)
+                    .build(), null));
+            dataNodeManager.setDataNodeReady(hostname);
+        }
+    }
+
+    @After
+    public void after() throws IOException {
+        diskFileSystem.shutdown();
+        defaultScheduler.shutdown();
+        FileUtil.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void testMaxStreams() {
+        ReplicationScheduler scheduler = newScheduler(1, 0, 0, 0);
+        List<String> fileIds = createFiles(2, 100);
+        scheduler.addAll(fileIds);
+
+        // datanode01 是唯一的源，同时只能参与一个复制任务
+        scheduler.run(NOW);
+        assertEquals(1, scheduler.pendingCount());
+        assertEquals(1, scheduler.queuedCount());
+        List<ReplicaTask> tasks = pollReplicaTasks();
+        assertEquals(1, tasks.size());
+        assertEquals("datanode01", tasks.get(0).getHostname());
+
+        scheduler.run(NOW + 1);
+        assertEquals(1, scheduler.pendingCount());
+        assertTrue(pollReplicaTasks().isEmpty());
+
+        // 第一个任务完成之后分配第二个
+        scheduler.completed(tasks.get(0).getFilename(), targetOf(tasks.get(0)));
+        assertEquals(0, scheduler.pendingCount());
+        scheduler.run(NOW + 2);
+        assertEquals(1, scheduler.pendingCount());
+        assertEquals(0, scheduler.queuedCount());
+        assertEquals(1, pollReplicaTasks().size());
+    }
+
+    @Test
+    public void testTokenBucket() {
+        ReplicationScheduler scheduler = newScheduler(0, 1000, 0, 0);
+        List<String> fileIds = createFiles(2, 1500);
+        scheduler.addAll(fileIds);
+
+        // 大文件透支令牌，令牌补回来之前不再分配
+        scheduler.run(NOW);
+        assertEquals(1, scheduler.pendingCount());
+        scheduler.run(NOW + 100);
+        assertEquals(1, scheduler.pendingCount());
+        scheduler.run(NOW + 500);
+        assertEquals(1, scheduler.pendingCount());
+        scheduler.run(NOW + 600);
+        assertEquals(2, scheduler.pendingCount());
+    }
+
+    @Test
+    public void testSmallBandwidthRefill() {
+        ReplicationScheduler scheduler = newScheduler(0, 10, 0, 0);
+        scheduler.addAll(createFiles(2, 10));
+
+        scheduler.run(NOW);
+        assertEquals(1, scheduler.pendingCount());
+        // 每一轮都补充不到一个令牌，经过的时间要累积起来
+        for (long now = NOW + 20; now < NOW + 100; now += 20) {
+            scheduler.run(now);
+            assertEquals(1, scheduler.pendingCount());
+        }
+        scheduler.run(NOW + 100);
+        assertEquals(2, scheduler.pendingCount());
+    }
+
+    @Test
+    public void testTimeoutAndRetry() {
+        ReplicationScheduler scheduler = newScheduler(0, 0, 1000, 1);
+        scheduler.addAll(createFiles(1, 100));
+
+        scheduler.run(NOW);
+        assertEquals(1, scheduler.pendingCount());
+        assertEquals(1, pollReplicaTasks().size());
+
+        // 超时之后重新排队，同一轮重新分配
+        scheduler.run(NOW + 999);
+        assertTrue(pollReplicaTasks().isEmpty());
+        scheduler.run(NOW + 1000);
+        assertEquals(1, scheduler.pendingCount());
+        assertEquals(1, pollReplicaTasks().size());
+
+        // 超过重试次数之后放弃
+        scheduler.run(NOW + 2000);
+        assertEquals(0, scheduler.pendingCount());
+        assertEquals(0, scheduler.queuedCount());
+        assertTrue(pollReplicaTasks().isEmpty());
+    }
+
+    @Test
+    public void testRequeueOnDataNodeRemoved() {
+        ReplicationScheduler scheduler = newScheduler(1, 0, 0, 0);
+        scheduler.addAll(createFiles(1, 100));
+
+        scheduler.run(NOW);
+        List<ReplicaTask> tasks = pollReplicaTasks();
+        assertEquals(1, tasks.size());
+        String target = targetOf(tasks.get(0));
+
+        // 目标 DataNode 失联，任务重新排队，释放源 DataNode 的配额
+        scheduler.dataNodeRemoved(target);
+        assertEquals(0, scheduler.pendingCount());
+        assertEquals(1, scheduler.queuedCount());
+        scheduler.run(NOW + 1);
+        assertEquals(1, scheduler.pendingCount());
+        assertEquals(1, pollReplicaTasks().size());
+    }
+
+    private ReplicationScheduler newScheduler(int maxStreams, long bandwidth, long taskTimeout, int maxRetries) {
+        NameNodeConfig schedulerConfig = NameNodeConfig.builder()
+                .replicationMaxStreams(maxStreams)
+                .replicationBandwidth(bandwidth)
+                .replicationTaskTimeout(taskTimeout)
+                .replicationMaxRetries(maxRetries)
+                .build();
+        return new ReplicationScheduler(dataNodeManager, schedulerConfig);
+    }
+
+    /**
+     * 创建文件，副本都在 datanode01 上
+     */
+    private List<String> createFiles(int count, long fileSize) {
+        List<String> fileIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, String> attr = new HashMap<>();
+            attr.put(Constants.ATTR_FILE_SIZE, String.valueOf(fileSize));
+            String fileId = diskFileSystem.createFileWithId("/replication/" + i + ".jpg", attr);
+            dataNodeManager.addReplicas("datanode01", Collections.singletonList(fileId));
+            fileIds.add(fileId);
+        }
+        return fileIds;
+    }
+
+    /**
+     * 取出下发给 DataNode 的复制任务
+     */
+    private List<ReplicaTask> pollReplicaTasks() {
+        List<ReplicaTask> tasks = new ArrayList<>();
+        for (String hostname : Arrays.asList("datanode02", "datanode03")) {
+            for (ReplicaTask task : dataNodeManager.getDataNode(hostname).pollReplicaTask(100)) {
+                targets.put(task, hostname);
+                tasks.add(task);
+            }
+        }
+        assertTrue(dataNodeManager.getDataNode("datanode01").getReplicaTasks().isEmpty());
+        return tasks;
+    }
+
+    private String targetOf(ReplicaTask task) {
+        return targets.get(task);
+    }
+}
@@ -0,0 +1,42 @@
+package design.dfs.namenode.datanode;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * 副本不足队列测试
+ */
+public class UnderReplicatedQueueTest {
+
+    @Test
+    public void testPriority() {
+        UnderReplicatedQueue queue = new UnderReplicatedQueue();
+        queue.add("c", 3);
+        queue.add("b", 2);
+        queue.add("a1", 1);
+        queue.add("a2", 1);
+        // 只剩一个副本的文件排在最前面，同一个优先级按加入顺序
+        assertEquals(Arrays.asList("a1", "a2", "b", "c"), queue.peek(10));
+        assertEquals(Arrays.asList("a1", "a2"), queue.peek(2));
+        assertEquals(4, queue.size());
+    }
+
+    @Test
+    public void testReAdd() {
+        UnderReplicatedQueue queue = new UnderReplicatedQueue();
+        queue.add("a", 2);
+        queue.add("b", 2);
+        queue.add("b", 2);
+        assertEquals(2, queue.size());
+        // 又丢了一个副本，优先级提高
+        queue.add("b", 1);
+        assertEquals(Arrays.asList("b", "a"), queue.peek(10));
+        queue.remove("b");
+        assertFalse(queue.contains("b"));
+        assertEquals(Collections.singletonList("a"), queue.peek(10));
+    }
+}
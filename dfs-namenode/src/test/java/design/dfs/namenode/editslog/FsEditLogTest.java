@@ -11,8 +11,14 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class FsEditLogTest {
     private final String testDir = TestProperties.TEST_DIR;
@@ -55,4 +61,98 @@ public class FsEditLogTest {
         }
         latch.await();
     }
+
+    @Test
+    public void testCleanEditLogByTxId() {
+        NameNodeConfig config = NameNodeConfig.builder().baseDir(testDir).editLogFlushThreshold(1024).build();
+        FsEditLog fsEditLog = new FsEditLog(config);
+        Map<String, String> attr = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                fsEditLog.logEdit(new EditLogWrapper(FsOpType.MKDIR.getValue(), "/tmp/" + i + "/" + j, attr));
+            }
+            fsEditLog.flush();
+        }
+        List<EditsLogInfo> editsLogInfos = fsEditLog.getSortedEditsLogFiles(0);
+        assertEquals(10, editsLogInfos.size());
+
+        fsEditLog.cleanEditLogByTxId(55);
+        // 1_10 ... 41_50 被删除，51_60 包含 txId=55 之后的 EditLog 需要保留
+        List<EditsLogInfo> remaining = fsEditLog.getSortedEditsLogFiles(0);
+        assertEquals(5, remaining.size());
+        assertEquals(51, remaining.get(0).getStart());
+        assertFalse(new File(editsLogInfos.get(0).getName()).exists());
+        assertTrue(new File(remaining.get(0).getName()).exists());
+        assertTrue(fsEditLog.getEditLogBytesAfter(55) > 0);
+    }
+
+    @Test
+    public void testCleanEditLogRetained() {
+        NameNodeConfig config = NameNodeConfig.builder().baseDir(testDir).editLogFlushThreshold(1024).build();
+        FsEditLog fsEditLog = new FsEditLog(config);
+        Map<String, String> attr = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                fsEditLog.logEdit(new EditLogWrapper(FsOpType.MKDIR.getValue(), "/tmp/" + i + "/" + j, attr));
+            }
+            fsEditLog.flush();
+        }
+        // BackupNode 只确认到 txId=25，21_30 之后的文件需要继续推送
+        AtomicLong ackedTxId = new AtomicLong(25);
+        fsEditLog.addRetainedTxIdSupplier(ackedTxId::get);
+        String reading = fsEditLog.getSortedEditsLogFiles(0).get(2).getName();
+        fsEditLog.beginRead(reading);
+        fsEditLog.cleanEditLogByTxId(55);
+        List<EditsLogInfo> remaining = fsEditLog.getSortedEditsLogFiles(0);
+        assertEquals(8, remaining.size());
+        assertEquals(21, remaining.get(0).getStart());
+
+        // 正在读取的文件等读取结束之后的下一次清理再删除
+        ackedTxId.set(Long.MAX_VALUE);
+        fsEditLog.cleanEditLogByTxId(55);
+        remaining = fsEditLog.getSortedEditsLogFiles(0);
+        assertEquals(21, remaining.get(0).getStart());
+        assertEquals(6, remaining.size());
+        assertTrue(new File(reading).exists());
+        fsEditLog.endRead(reading);
+        fsEditLog.cleanEditLogByTxId(55);
+        assertEquals(51, fsEditLog.getSortedEditsLogFiles(0).get(0).getStart());
+        assertFalse(new File(reading).exists());
+    }
+
+    @Test
+    public void testReadEditLogs() throws IOException {
+        NameNodeConfig config = NameNodeConfig.builder().baseDir(testDir).editLogFlushThreshold(1024).build();
+        FsEditLog fsEditLog = new FsEditLog(config);
+        Map<String, String> attr = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            fsEditLog.logEdit(new EditLogWrapper(FsOpType.MKDIR.getValue(), "/tmp/" + i, attr));
+            if (i == 9 || i == 19) {
+                fsEditLog.flush();
+            }
+        }
+        // 跨越两个文件和内存缓冲区
+        List<EditLogWrapper> editLogs = fsEditLog.readEditLogs(5, 100);
+        assertEquals(25, editLogs.size());
+        for (int i = 0; i < editLogs.size(); i++) {
+            assertEquals(6 + i, editLogs.get(i).getTxId());
+        }
+        assertEquals(10, fsEditLog.readEditLogs(5, 10).size());
+        assertEquals(0, fsEditLog.readEditLogs(30, 10).size());
+
+        // 原始字节解析之后和逐条读取的结果一致
+        RawEditLogs rawEditLogs = fsEditLog.readRawEditLogs(5, 100);
+        assertEquals(25, rawEditLogs.getCount());
+        assertEquals(30, rawEditLogs.getLastTxId());
+        List<EditLogWrapper> parsed = EditLogWrapper.parseFrom(rawEditLogs.getData());
+        assertEquals(25, parsed.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            assertEquals(editLogs.get(i).getEditLog(), parsed.get(i).getEditLog());
+        }
+        rawEditLogs = fsEditLog.readRawEditLogs(15, 3);
+        assertEquals(3, rawEditLogs.getCount());
+        assertEquals(18, rawEditLogs.getLastTxId());
+        assertEquals(16, EditLogWrapper.parseFrom(rawEditLogs.getData()).get(0).getTxId());
+        assertEquals(0, fsEditLog.readRawEditLogs(30, 10).getCount());
+    }
 }
@@ -0,0 +1,83 @@
+package design.dfs.namenode.fs;
+
+import design.dfs.TestProperties;
+import design.dfs.common.utils.FileUtil;
+import design.dfs.model.backup.INode;
+import design.dfs.namenode.config.NameNodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * NameNode 文件系统测试
+ */
+public class DiskFileSystemTest {
+    private final String testDir = TestProperties.TEST_DIR;
+    private NameNodeConfig config;
+
+    @Before
+    public void before() throws IOException {
+        File file = new File(testDir);
+        FileUtil.deleteDirectory(file);
+        file.mkdirs();
+        config = NameNodeConfig.builder()
+                .baseDir(testDir)
+                .editLogFlushThreshold(1024 * 1024)
+                .build();
+    }
+
+    @After
+    public void after() throws IOException {
+        FileUtil.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void testConcurrentRenameAndDeleteReplay() throws Exception {
+        DiskFileSystem diskFileSystem = new DiskFileSystem(config);
+        int threadCount = 8;
+        CountDownLatch latch = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            Random random = new Random(t);
+            new Thread(() -> {
+                try {
+                    // 路径集中在少量目录上，重命名、递归删除和创建互相重叠
+                    for (int i = 0; i < 3000; i++) {
+                        String a = "/" + random.nextInt(3) + "/" + random.nextInt(3);
+                        String b = "/" + random.nextInt(3) + "/" + random.nextInt(3);
+                        switch (random.nextInt(4)) {
+                            case 0:
+                                diskFileSystem.rename(a, b);
+                                break;
+                            case 1:
+                                diskFileSystem.deleteRecursive(a);
+                                break;
+                            default:
+                                diskFileSystem.createFile(a + "/" + random.nextInt(5) + ".jpg", new HashMap<>());
+                                break;
+                        }
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        INode live = Node.toINode(diskFileSystem.listFiles("/"));
+        diskFileSystem.shutdown();
+
+        // 回放 EditLog 得到的目录树和内存中的一致
+        DiskFileSystem recovered = new DiskFileSystem(config);
+        recovered.recoveryNamespace();
+        assertEquals(live, Node.toINode(recovered.listFiles("/")));
+        assertEquals(diskFileSystem.getEditLog().getLastTxId(), recovered.getEditLog().getLastTxId());
+        recovered.shutdown();
+    }
+}
@@ -1,10 +1,18 @@
 package design.dfs.namenode.fs;
 
+import design.dfs.backup.fs.FsImage;
+import design.dfs.common.Constants;
+import design.dfs.common.enums.FsOpType;
 import design.dfs.common.enums.NodeType;
+import design.dfs.model.backup.EditLog;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
@@ -105,4 +113,206 @@ public class FsDirectoryTest {
     }
 
 
+
+    @Test
+    public void testCreateFsImageSnapshot() {
+        FsDirectory fsDirectory = new FsDirectory();
+        fsDirectory.createFile("/tmp/root/a.xml", new HashMap());
+        fsDirectory.createFile("/tmp/root/b.xml", new HashMap());
+
+        FsImage fsImage = fsDirectory.createFsImageSnapshot(() -> 2L);
+        // 快照生成之后的修改不影响 FsImage
+        fsDirectory.createFile("/tmp/root/c.xml", new HashMap());
+        assertEquals(2L, fsImage.getMaxTxId());
+
+        FsDirectory recovered = new FsDirectory();
+        recovered.applyFsImage(fsImage);
+        assertNotNull(recovered.listFiles("/tmp/root/a.xml"));
+        assertNotNull(recovered.listFiles("/tmp/root/b.xml"));
+        assertNull(recovered.listFiles("/tmp/root/c.xml"));
+    }
+
+    @Test
+    public void testListFilesNotCreateDirectory() {
+        FsDirectory fsDirectory = new FsDirectory();
+        assertNull(fsDirectory.listFiles("/not/exist/a.xml"));
+        // 查询不存在的文件不能创建中间目录
+        assertNull(fsDirectory.listFiles("/not"));
+    }
+
+    @Test
+    public void testApplyEditLogs() {
+        List<EditLog> editLogs = new ArrayList<>();
+        editLogs.add(editLog(FsOpType.MKDIR, "/tmp/dir"));
+        editLogs.add(editLog(FsOpType.CREATE, "/tmp/root/a.xml"));
+        editLogs.add(editLog(FsOpType.CREATE, "/tmp/root/b.xml"));
+        editLogs.add(editLog(FsOpType.CREATE, "/tmp/root/a.xml"));
+        editLogs.add(editLog(FsOpType.DELETE, "/tmp/root/a.xml"));
+        editLogs.add(editLog(FsOpType.DELETE, "/tmp/root/b.xml"));
+        // 删除之后 /tmp/root 已经被清理，缓存的父目录不能再使用
+        editLogs.add(editLog(FsOpType.CREATE, "/tmp/root/c.xml"));
+        editLogs.add(editLog(FsOpType.CREATE, "/other/d.xml"));
+
+        FsDirectory fsDirectory = new FsDirectory();
+        fsDirectory.applyEditLogs(editLogs);
+
+        assertNotNull(fsDirectory.listFiles("/tmp/dir"));
+        assertNull(fsDirectory.listFiles("/tmp/root/a.xml"));
+        assertNull(fsDirectory.listFiles("/tmp/root/b.xml"));
+        assertNotNull(fsDirectory.listFiles("/tmp/root/c.xml"));
+        assertNotNull(fsDirectory.listFiles("/other/d.xml"));
+        assertEquals(1, fsDirectory.listFiles("/tmp/root").getChildren().size());
+    }
+
+    @Test
+    public void testApplyBatch() {
+        List<EditLog> ops = new ArrayList<>();
+        ops.add(editLog(FsOpType.MKDIR, "/batch/dir"));
+        ops.add(editLog(FsOpType.CREATE, "/batch/root/a.xml"));
+        ops.add(editLog(FsOpType.CREATE, "/batch/root/a.xml"));
+        ops.add(editLog(FsOpType.DELETE, "/batch/root/b.xml"));
+        ops.add(editLog(FsOpType.DELETE, "/batch/root/a.xml"));
+
+        FsDirectory fsDirectory = new FsDirectory();
+        boolean[] results = fsDirectory.applyBatch(ops);
+
+        assertArrayEquals(new boolean[]{true, true, false, false, true}, results);
+        assertNotNull(fsDirectory.listFiles("/batch/dir"));
+        assertNull(fsDirectory.listFiles("/batch/root/a.xml"));
+    }
+
+    @Test
+    public void testPathCache() {
+        FsDirectory fsDirectory = new FsDirectory();
+        // 负缓存在创建之后失效
+        assertFalse(fsDirectory.exists("/cache/root/a.xml"));
+        assertFalse(fsDirectory.exists("/cache/root"));
+        assertTrue(fsDirectory.createFile("/cache/root/a.xml", new HashMap<>()));
+        assertTrue(fsDirectory.exists("/cache/root/a.xml"));
+        assertTrue(fsDirectory.exists("/cache//root/"));
+        assertSame(fsDirectory.getInode("/cache/root/a.xml"), fsDirectory.getInode("/cache/root/a.xml"));
+
+        // 删除文件连带删除空目录，上级目录的缓存也要失效
+        assertNotNull(fsDirectory.delete("/cache/root/a.xml"));
+        assertFalse(fsDirectory.exists("/cache/root/a.xml"));
+        assertFalse(fsDirectory.exists("/cache/root"));
+
+        assertFalse(fsDirectory.exists("/cache/dir/sub"));
+        fsDirectory.mkdir("/cache/dir/sub/leaf", new HashMap<>());
+        assertTrue(fsDirectory.exists("/cache/dir/sub"));
+
+        List<EditLog> editLogs = new ArrayList<>();
+        editLogs.add(editLog(FsOpType.CREATE, "/cache/dir/b.xml"));
+        assertFalse(fsDirectory.exists("/cache/dir/b.xml"));
+        fsDirectory.applyEditLogs(editLogs);
+        assertTrue(fsDirectory.exists("/cache/dir/b.xml"));
+    }
+
+    @Test
+    public void testDeleteRecursive() {
+        FsDirectory fsDirectory = new FsDirectory();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(fsDirectory.createFile("/big/" + (i % 10) + "/" + i + ".jpg", new HashMap<>()));
+        }
+        fsDirectory.createFile("/keep/a.jpg", new HashMap<>());
+        assertTrue(fsDirectory.exists("/big/3/13.jpg"));
+        assertNull(fsDirectory.delete("/big"));
+
+        Node removed = fsDirectory.deleteRecursive("/big");
+        assertNotNull(removed);
+        assertEquals(10, removed.getChildren().size());
+        // 子树中已经缓存的路径也要失效
+        assertFalse(fsDirectory.exists("/big/3/13.jpg"));
+        assertFalse(fsDirectory.exists("/big"));
+        assertTrue(fsDirectory.exists("/keep/a.jpg"));
+        assertNull(fsDirectory.deleteRecursive("/big"));
+        assertNull(fsDirectory.deleteRecursive("/"));
+
+        List<EditLog> editLogs = new ArrayList<>();
+        editLogs.add(editLog(FsOpType.DELETE_RECURSIVE, "/keep"));
+        fsDirectory.applyEditLogs(editLogs);
+        assertFalse(fsDirectory.exists("/keep/a.jpg"));
+        // 回放递归删除时清理文件ID，同样的路径重新创建时不需要加序号
+        assertEquals("/keep/a.jpg", fsDirectory.createFileWithId("/keep/a.jpg", new HashMap<>()));
+    }
+
+    @Test
+    public void testRename() {
+        FsDirectory fsDirectory = new FsDirectory();
+        for (int i = 0; i < 100; i++) {
+            fsDirectory.createFile("/src/" + (i % 10) + "/" + i + ".jpg", new HashMap<>());
+        }
+        Node file = fsDirectory.getInodeByFileId("/src/3/13.jpg");
+        assertNotNull(file);
+        assertTrue(fsDirectory.exists("/src/3/13.jpg"));
+
+        assertFalse(fsDirectory.rename("/src", "/src/3/sub"));
+        assertFalse(fsDirectory.rename("/not/exist", "/dst"));
+        assertFalse(fsDirectory.rename("/src/3", "/src/4"));
+        assertFalse(fsDirectory.rename("/src/4", "/src/3/13.jpg/a"));
+        assertTrue(fsDirectory.rename("/src", "/dst/moved"));
+
+        // 节点本身被移动，文件ID不变
+        assertFalse(fsDirectory.exists("/src/3/13.jpg"));
+        assertFalse(fsDirectory.exists("/src"));
+        assertSame(file, fsDirectory.getInode("/dst/moved/3/13.jpg"));
+        assertSame(file, fsDirectory.getInodeByFileId("/src/3/13.jpg"));
+        assertNull(fsDirectory.getInodeByFileId("/dst/moved/3/13.jpg"));
+
+        // 原路径被重命名的文件占用，新文件不能使用同样的文件ID
+        assertEquals("/src/3/13.jpg@1", fsDirectory.createFileWithId("/src/3/13.jpg", new HashMap<>()));
+        assertSame(file, fsDirectory.getInodeByFileId("/src/3/13.jpg"));
+        assertSame(fsDirectory.getInode("/src/3/13.jpg"), fsDirectory.getInodeByFileId("/src/3/13.jpg@1"));
+
+        List<EditLog> editLogs = new ArrayList<>();
+        editLogs.add(EditLog.newBuilder().setOpType(FsOpType.RENAME.getValue())
+                .setPath("/dst/moved/3").setDstPath("/dst/3").build());
+        fsDirectory.applyEditLogs(editLogs);
+        assertSame(file, fsDirectory.getInode("/dst/3/13.jpg"));
+        assertEquals(9, fsDirectory.listFiles("/dst/moved").getChildren().size());
+
+        // 批量查找和单个查找的结果一致
+        List<String> fileIds = Arrays.asList("/src/3/13.jpg", "/src/3/23.jpg", "/src/3/13.jpg@1", "/not/exist");
+        Node[] nodes = fsDirectory.getInodesByFileId(fileIds);
+        for (int i = 0; i < nodes.length; i++) {
+            assertSame(fsDirectory.getInodeByFileId(fileIds.get(i)), nodes[i]);
+        }
+        assertNull(nodes[3]);
+
+        // 递归删除之后通过文件ID找不到
+        assertNotNull(fsDirectory.deleteRecursive("/dst"));
+        assertNull(fsDirectory.getInodeByFileId("/src/3/13.jpg"));
+        nodes = fsDirectory.getInodesByFileId(fileIds);
+        assertNull(nodes[0]);
+        assertNull(nodes[1]);
+        assertNotNull(nodes[2]);
+    }
+
+    @Test
+    public void testFileIdCollision() {
+        FsDirectory fsDirectory = new FsDirectory();
+        assertEquals("/x", fsDirectory.createFileWithId("/x", new HashMap<>()));
+        assertTrue(fsDirectory.rename("/x", "/y"));
+
+        // 同一个批次中新建的 /x 和字面上的 /x@1 不能拿到相同的文件ID
+        List<EditLog> ops = new ArrayList<>();
+        ops.add(editLog(FsOpType.CREATE, "/x"));
+        ops.add(editLog(FsOpType.CREATE, "/x@1"));
+        assertArrayEquals(new boolean[]{true, true}, fsDirectory.applyBatch(ops));
+        assertEquals("/x@1", ops.get(0).getAttrOrThrow(Constants.ATTR_FILE_ID));
+        assertEquals("/x@1@1", ops.get(1).getAttrOrThrow(Constants.ATTR_FILE_ID));
+        assertSame(fsDirectory.getInode("/x"), fsDirectory.getInodeByFileId("/x@1"));
+        assertSame(fsDirectory.getInode("/x@1"), fsDirectory.getInodeByFileId("/x@1@1"));
+
+        // 指定的文件ID已经被占用时拒绝创建
+        Map<String, String> attr = new HashMap<>();
+        attr.put(Constants.ATTR_FILE_ID, "/x");
+        assertNull(fsDirectory.createFileWithId("/z", attr));
+        assertFalse(fsDirectory.exists("/z"));
+        assertSame(fsDirectory.getInode("/y"), fsDirectory.getInodeByFileId("/x"));
+    }
+
+    private EditLog editLog(FsOpType opType, String path) {
+        return EditLog.newBuilder().setOpType(opType.getValue()).setPath(path).build();
+    }
 }
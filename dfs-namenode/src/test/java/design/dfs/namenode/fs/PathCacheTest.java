@@ -0,0 +1,40 @@
+package design.dfs.namenode.fs;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 路径缓存测试
+ */
+public class PathCacheTest {
+
+    @Test
+    public void testInvalidateMove() {
+        Map<String, Node> tree = new HashMap<>();
+        PathCache pathCache = new PathCache(1024);
+        for (String path : new String[]{"/a", "/a/1.jpg", "/a/sub", "/a/sub/2.jpg", "/b", "/b/3.jpg"}) {
+            tree.put(path, new Node());
+            pathCache.get(path, tree::get);
+        }
+        // 目标路径的负缓存
+        pathCache.get("/c/1.jpg", tree::get);
+        pathCache.get("/c/sub/2.jpg", tree::get);
+        assertEquals(8, pathCache.size());
+
+        // 移动文件只失效两个路径和它们的上级路径，其他目录下的缓存保留
+        pathCache.invalidateMove("/a/1.jpg", "/b/1.jpg", false);
+        assertEquals(5, pathCache.size());
+        assertNotNull(pathCache.get("/a/sub/2.jpg", path -> null));
+        assertNotNull(pathCache.get("/b/3.jpg", path -> null));
+
+        // 移动目录失效两棵子树
+        pathCache.invalidateMove("/a/sub", "/c/sub", true);
+        assertNull(pathCache.get("/a/sub/2.jpg", path -> null));
+        assertNotNull(pathCache.get("/c/sub/2.jpg", path -> new Node()));
+        assertNotNull(pathCache.get("/b/3.jpg", path -> null));
+    }
+}
@@ -0,0 +1,103 @@
+package design.dfs.namenode.fs;
+
+import design.dfs.TestProperties;
+import design.dfs.common.Constants;
+import design.dfs.common.enums.FsOpType;
+import design.dfs.common.utils.DefaultScheduler;
+import design.dfs.common.utils.FileUtil;
+import design.dfs.model.backup.EditLog;
+import design.dfs.namenode.config.NameNodeConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 垃圾箱测试
+ */
+public class TrashSweeperTest {
+    private final String testDir = TestProperties.TEST_DIR;
+    private DefaultScheduler defaultScheduler;
+    private DiskFileSystem diskFileSystem;
+
+    @Before
+    public void before() throws IOException {
+        File file = new File(testDir);
+        FileUtil.deleteDirectory(file);
+        file.mkdirs();
+        defaultScheduler = new DefaultScheduler("Trash-Test-");
+        NameNodeConfig config = NameNodeConfig.builder()
+                .baseDir(testDir)
+                .editLogFlushThreshold(1024 * 1024)
+                .nameNodeTrashCheckInterval(1)
+                .nameNodeTrashClearThreshold(0)
+                .build();
+        diskFileSystem = new DiskFileSystem(config);
+    }
+
+    @After
+    public void after() throws IOException {
+        diskFileSystem.shutdown();
+        defaultScheduler.shutdown();
+        FileUtil.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void testMoveToTrashAndSweep() throws InterruptedException {
+        diskFileSystem.createFile("/trash/a/1.jpg", new HashMap<>());
+        diskFileSystem.createFile("/trash/a/2.jpg", new HashMap<>());
+        assertFalse(diskFileSystem.moveToTrash("/trash/a", false));
+        assertFalse(diskFileSystem.moveToTrash("/not/exist", true));
+
+        assertTrue(diskFileSystem.moveToTrash("/trash/a/1.jpg", false));
+        assertTrue(diskFileSystem.moveToTrash("/trash/a", true));
+        assertFalse(diskFileSystem.exists("/trash/a"));
+
+        Node trash = diskFileSystem.listFiles("/" + Constants.TRASH_DIR, 1);
+        assertNotNull(trash);
+        assertFalse(trash.getChildren().isEmpty());
+        for (Node bucket : trash.getChildren().values()) {
+            assertNotNull(bucket.getAttr().get(Constants.ATTR_FILE_DEL_TIME));
+        }
+
+        Thread.sleep(10);
+        new TrashSweeper(defaultScheduler, diskFileSystem).run();
+        // 时间段目录都被清理之后垃圾箱目录作为空目录一起删除
+        assertNull(diskFileSystem.listFiles("/" + Constants.TRASH_DIR, 1));
+    }
+
+    @Test
+    public void testMoveToTrashRemovesEmptyParent() {
+        diskFileSystem.createFile("/trash/b/c/1.jpg", new HashMap<>());
+        diskFileSystem.createFile("/trash/d.jpg", new HashMap<>());
+        assertTrue(diskFileSystem.moveToTrash("/trash/b/c/1.jpg", false));
+        // 和删除一样，最后一个文件移走之后变空的上级目录也被删除
+        assertFalse(diskFileSystem.exists("/trash/b/c"));
+        assertFalse(diskFileSystem.exists("/trash/b"));
+        assertTrue(diskFileSystem.exists("/trash/d.jpg"));
+
+        // 回放 TRASH 操作得到同样的目录树
+        FsDirectory replay = new FsDirectory();
+        replay.createFile("/trash/b/c/1.jpg", new HashMap<>());
+        replay.createFile("/trash/d.jpg", new HashMap<>());
+        Node bucket = diskFileSystem.listFiles("/" + Constants.TRASH_DIR, 1).getChildren().values().iterator().next();
+        List<EditLog> editLogs = new ArrayList<>();
+        editLogs.add(EditLog.newBuilder().setOpType(FsOpType.TRASH.getValue())
+                .setPath("/trash/b/c/1.jpg")
+                .setDstPath("/" + Constants.TRASH_DIR + "/" + bucket.getPath() + "/trash/b/c/1.jpg")
+                .putAttr(Constants.ATTR_FILE_DEL_TIME, bucket.getPath())
+                .build());
+        replay.applyEditLogs(editLogs);
+        assertFalse(replay.exists("/trash/b"));
+        assertTrue(replay.exists("/" + Constants.TRASH_DIR + "/" + bucket.getPath() + "/trash/b/c/1.jpg"));
+        assertEquals(bucket.getPath(), replay.listFiles("/" + Constants.TRASH_DIR + "/" + bucket.getPath(), 0)
+                .getAttr().get(Constants.ATTR_FILE_DEL_TIME));
+    }
+}